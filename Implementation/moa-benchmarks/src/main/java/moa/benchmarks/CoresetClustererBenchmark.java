@@ -0,0 +1,129 @@
+/*
+ *    CoresetClustererBenchmark.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+package moa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.clusterers.AbstractClusterer;
+import moa.clusterers.kmeanspm.BICO;
+import moa.options.ClassOption;
+import moa.streams.clustering.RandomRBFGeneratorEvents;
+
+/**
+ * Per-instance cost of building the coresets of <code>StreamKM</code> and
+ * <code>BICO</code> on <code>RandomRBFGeneratorEvents</code> streams, for the
+ * flat array implementations and the object ones they replace
+ * (<code>-o</code>).
+ *
+ * Every benchmark method processes a batch of {@value #BATCH_SIZE} instances
+ * and is normalised per instance, so the scores are in ns/instance:
+ *
+ * <pre>
+ * java -jar moa-benchmarks/target/benchmarks.jar CoresetClustererBenchmark -prof gc
+ * </pre>
+ *
+ * The stream length of StreamKM is set high enough that it never clusters
+ * its coreset while measuring, and the dimensions of BICO are set from the
+ * stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CoresetClustererBenchmark {
+
+    public static final int BATCH_SIZE = 1000;
+
+    @Param({"streamkm.StreamKM -l 1000000000", "streamkm.StreamKM -l 1000000000 -b",
+        "streamkm.StreamKM -l 1000000000 -o", "kmeanspm.BICO", "kmeanspm.BICO -o"})
+    public String clusterer;
+
+    @Param({"2", "10"})
+    public int numAtts;
+
+    /** Instances the clusterer is trained on before measuring. */
+    @Param({"20000"})
+    public int numWarmupInstances;
+
+    /** Instances the benchmarks cycle through after the warm-up ones. */
+    @Param({"100000"})
+    public int numInstances;
+
+    protected Instance[] instances;
+
+    protected AbstractClusterer model;
+
+    protected int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        RandomRBFGeneratorEvents stream = new RandomRBFGeneratorEvents();
+        stream.numAttsOption.setValue(this.numAtts);
+        stream.prepareForUse();
+        this.instances = new Instance[this.numWarmupInstances + this.numInstances];
+        for (int i = 0; i < this.instances.length; i++) {
+            this.instances[i] = stream.nextInstance().getData();
+        }
+
+        this.model = (AbstractClusterer) ClassOption.cliStringToObject(
+                this.clusterer, AbstractClusterer.class, null);
+        if (this.model instanceof BICO) {
+            ((BICO) this.model).numDimensionsOption.setValue(
+                    this.instances[0].numAttributes());
+        }
+        this.model.prepareForUse();
+        for (int i = 0; i < this.numWarmupInstances; i++) {
+            this.model.trainOnInstance(this.instances[i]);
+        }
+        this.next = this.numWarmupInstances;
+    }
+
+    protected Instance nextInstance() {
+        Instance instance = this.instances[this.next++];
+        if (this.next == this.instances.length) {
+            this.next = this.numWarmupInstances;
+        }
+        return instance;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void trainOnInstance() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.model.trainOnInstance(nextInstance());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *    ImbalancedLearnerBenchmark.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.classifiers.Classifier;
+import moa.options.ClassOption;
+
+/**
+ * Per-instance cost of the imbalanced-stream learners on
+ * <code>ImbalancedDriftGenerator</code> streams.
+ *
+ * Every benchmark method processes a batch of {@value #BATCH_SIZE} instances
+ * and is normalised per instance, so the scores are in ns/instance. Run with
+ * the GC profiler to also get the bytes allocated per instance
+ * (<code>gc.alloc.rate.norm</code>):
+ *
+ * <pre>
+ * java -jar moa-benchmarks/target/benchmarks.jar ImbalancedLearnerBenchmark -prof gc
+ * </pre>
+ *
+ * The learner is given as a CLI string, so options can be benchmarked too,
+ * e.g. <code>-p learner="meta.SMOClust -b"</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ImbalancedLearnerBenchmark {
+
+    public static final int BATCH_SIZE = 1000;
+
+    @Param({"meta.SMOClust", "meta.SMOGauNoise", "meta.imbalanced.CSMOTE",
+        "meta.imbalanced.OnlineSMOTEBagging", "meta.OOB", "meta.UOB"})
+    public String learner;
+
+    /** Share of the minority class. */
+    @Param({"0.1", "0.01"})
+    public double positiveShare;
+
+    @Param({"5", "20"})
+    public int numAtts;
+
+    /** Share of the attributes that are nominal. */
+    @Param({"0.0", "0.5"})
+    public double nominalShare;
+
+    /** Instances the learner is trained on before measuring. */
+    @Param({"5000"})
+    public int numWarmupInstances;
+
+    /** Instances the benchmarks cycle through after the warm-up ones. */
+    @Param({"50000"})
+    public int numInstances;
+
+    protected Instance[] instances;
+
+    protected Classifier classifier;
+
+    protected int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.instances = ImbalancedStreams.generate(this.positiveShare,
+                this.numAtts, this.nominalShare,
+                this.numWarmupInstances + this.numInstances, 1);
+        this.classifier = (Classifier) ClassOption.cliStringToObject(
+                this.learner, Classifier.class, null);
+        this.classifier.setModelContext(
+                (InstancesHeader) this.instances[0].dataset());
+        this.classifier.prepareForUse();
+        for (int i = 0; i < this.numWarmupInstances; i++) {
+            this.classifier.trainOnInstance(this.instances[i]);
+        }
+        this.next = this.numWarmupInstances;
+    }
+
+    protected Instance nextInstance() {
+        Instance instance = this.instances[this.next++];
+        if (this.next == this.instances.length) {
+            this.next = this.numWarmupInstances;
+        }
+        return instance;
+    }
+
+    /**
+     * Keeps training the learner, which keeps growing as the benchmark runs,
+     * so this measures the cost of an instance once the learner has seen the
+     * warm-up instances and more.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void trainOnInstance() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.classifier.trainOnInstance(nextInstance());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void getVotesForInstance(Blackhole blackhole) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            blackhole.consume(this.classifier.getVotesForInstance(nextInstance()));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *    ImbalancedStreams.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.streams.generators.ImbalancedDriftGenerator;
+
+/**
+ * Pre-generated <code>ImbalancedDriftGenerator</code> streams for the
+ * benchmarks, so that generating the instances is not part of what is
+ * measured.
+ *
+ * The generator only produces numeric attributes. To get a nominal/numeric
+ * mix, the first attributes are discretised into equal-frequency bins, with the
+ * cut points taken from the generated instances themselves.
+ */
+public class ImbalancedStreams {
+
+    /** Number of values of the nominal attributes. */
+    public static final int NUM_NOMINAL_VALUES = 5;
+
+    private ImbalancedStreams() {
+    }
+
+    /**
+     * Generates a binary class stream.
+     *
+     * @param positiveShare share of the minority (positive) class
+     * @param numAtts number of attributes, without the class
+     * @param nominalShare share of the attributes that are made nominal
+     * @param numInstances number of instances to generate
+     * @param seed seed of the generator
+     */
+    public static Instance[] generate(double positiveShare, int numAtts,
+            double nominalShare, int numInstances, int seed) {
+        ImbalancedDriftGenerator generator = new ImbalancedDriftGenerator();
+        generator.positiveShareOption.setValue(positiveShare);
+        generator.numAttsOption.setValue(numAtts);
+        generator.modelRandomSeedOption.setValue(seed);
+        generator.instanceRandomSeedOption.setValue(seed);
+        generator.prepareForUse();
+
+        Instance[] instances = new Instance[numInstances];
+        for (int i = 0; i < numInstances; i++) {
+            instances[i] = generator.nextInstance().getData();
+        }
+        int numNominal = (int) Math.round(numAtts * nominalShare);
+        if (numNominal == 0) {
+            return instances;
+        }
+        return discretise(instances, numNominal);
+    }
+
+    /**
+     * Replaces the first <code>numNominal</code> attributes with nominal ones.
+     */
+    protected static Instance[] discretise(Instance[] instances, int numNominal) {
+        InstancesHeader source = (InstancesHeader) instances[0].dataset();
+        double[][] cutPoints = new double[numNominal][];
+        for (int a = 0; a < numNominal; a++) {
+            cutPoints[a] = cutPoints(instances, a);
+        }
+
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        List<String> values = new ArrayList<String>();
+        for (int v = 0; v < NUM_NOMINAL_VALUES; v++) {
+            values.add("v" + (v + 1));
+        }
+        for (int a = 0; a < source.numAttributes(); a++) {
+            if (a < numNominal) {
+                attributes.add(new Attribute(source.attribute(a).name(), values));
+            } else {
+                attributes.add(source.attribute(a));
+            }
+        }
+        InstancesHeader header = new InstancesHeader(new Instances(
+                source.getRelationName() + "-nominal" + numNominal, attributes, 0));
+        header.setClassIndex(source.classIndex());
+
+        Instance[] result = new Instance[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            double[] attVals = instances[i].toDoubleArray();
+            for (int a = 0; a < numNominal; a++) {
+                attVals[a] = bin(cutPoints[a], attVals[a]);
+            }
+            result[i] = new DenseInstance(instances[i].weight(), attVals);
+            result[i].setDataset(header);
+        }
+        return result;
+    }
+
+    protected static double[] cutPoints(Instance[] instances, int attIndex) {
+        double[] sorted = new double[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            sorted[i] = instances[i].value(attIndex);
+        }
+        Arrays.sort(sorted);
+        double[] cutPoints = new double[NUM_NOMINAL_VALUES - 1];
+        for (int c = 0; c < cutPoints.length; c++) {
+            cutPoints[c] = sorted[(int) ((long) sorted.length * (c + 1) / NUM_NOMINAL_VALUES)];
+        }
+        return cutPoints;
+    }
+
+    protected static int bin(double[] cutPoints, double value) {
+        int bin = 0;
+        while (bin < cutPoints.length && value >= cutPoints[bin]) {
+            bin++;
+        }
+        return bin;
+    }
+}
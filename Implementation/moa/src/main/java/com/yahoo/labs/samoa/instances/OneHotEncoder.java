@@ -0,0 +1,263 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific
+ * language governing permissions and limitations under the
+ * License.
+ */
+package com.yahoo.labs.samoa.instances;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class OneHotEncoder.
+ *
+ * Converts instances with nominal attributes into purely numeric vectors. The
+ * layout is computed once from the header and matches the output of
+ * weka.filters.unsupervised.attribute.NominalToBinary with its default
+ * options: numeric attributes and the class attribute are copied, nominal
+ * attributes with at most two values become a single column holding the value
+ * index (named "attribute=second value"), and every other nominal attribute
+ * becomes one 0/1 column per value, named "attribute=value".
+ *
+ * The encoded values are written into buffers owned by the encoder, so the
+ * arrays returned by the encode methods are overwritten on the next call.
+ * The column range of every original attribute is kept, so encoded vectors can
+ * be decoded back in a single pass.
+ */
+public class OneHotEncoder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The header of the instances to encode. */
+    protected Instances header;
+
+    /** The header of the encoded instances. */
+    protected Instances binaryHeader;
+
+    /** The class index in the original header, -1 if there is none. */
+    protected int classIndex;
+
+    /** The class index in the encoded header, -1 if there is none. */
+    protected int binaryClassIndex;
+
+    /** The first encoded column of each original attribute. */
+    protected int[] firstColumn;
+
+    /** The number of one-hot columns of each original attribute, 0 if it is copied as is. */
+    protected int[] numOneHotColumns;
+
+    /** The encoded values, including the class. */
+    protected double[] binaryValues;
+
+    /** The encoded values, without the class. */
+    protected double[] binaryInputValues;
+
+    /**
+     * Instantiates a new encoder for the given header.
+     *
+     * @param header the header of the instances to encode
+     */
+    public OneHotEncoder(Instances header) {
+        this.header = header;
+        int numAttributes = header.numAttributes();
+        this.classIndex = header.classIndex() >= 0 && header.classIndex() < numAttributes ? header.classIndex() : -1;
+        this.firstColumn = new int[numAttributes];
+        this.numOneHotColumns = new int[numAttributes];
+        this.binaryClassIndex = -1;
+
+        List<Attribute> binaryAttributes = new ArrayList<Attribute>();
+        for (int i = 0; i < numAttributes; i++) {
+            Attribute att = header.attribute(i);
+            this.firstColumn[i] = binaryAttributes.size();
+            if (i == this.classIndex) {
+                this.binaryClassIndex = binaryAttributes.size();
+                binaryAttributes.add(att);
+            } else if (!att.isNominal()) {
+                binaryAttributes.add(att);
+            } else if (att.numValues() <= 2) {
+                binaryAttributes.add(new Attribute(att.numValues() == 2 ? att.name() + "=" + att.value(1) : att.name()));
+            } else {
+                this.numOneHotColumns[i] = att.numValues();
+                for (int v = 0; v < att.numValues(); v++) {
+                    binaryAttributes.add(new Attribute(att.name() + "=" + att.value(v)));
+                }
+            }
+        }
+
+        this.binaryHeader = new Instances(header.getRelationName(), binaryAttributes, 0);
+        if (this.binaryClassIndex >= 0) {
+            this.binaryHeader.setClassIndex(this.binaryClassIndex);
+        }
+        this.binaryValues = new double[binaryAttributes.size()];
+        this.binaryInputValues = new double[this.binaryClassIndex >= 0 ? binaryAttributes.size() - 1 : binaryAttributes.size()];
+    }
+
+    /**
+     * Gets the header of the instances this encoder converts.
+     *
+     * @return the original header
+     */
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    /**
+     * Gets the header of the encoded instances.
+     *
+     * @return the encoded header
+     */
+    public Instances getBinaryHeader() {
+        return this.binaryHeader;
+    }
+
+    /**
+     * Gets the class index in the encoded header.
+     *
+     * @return the encoded class index, -1 if there is no class
+     */
+    public int binaryClassIndex() {
+        return this.binaryClassIndex;
+    }
+
+    /**
+     * Number of encoded attributes, including the class.
+     *
+     * @return the number of encoded attributes
+     */
+    public int numBinaryAttributes() {
+        return this.binaryValues.length;
+    }
+
+    /**
+     * Number of encoded attributes, without the class.
+     *
+     * @return the number of encoded input attributes
+     */
+    public int numBinaryInputAttributes() {
+        return this.binaryInputValues.length;
+    }
+
+    /**
+     * Gets the first encoded column of an attribute.
+     *
+     * @param attIndex the index of the attribute in the original header
+     * @return the first column of the attribute in the encoded header
+     */
+    public int firstColumn(int attIndex) {
+        return this.firstColumn[attIndex];
+    }
+
+    /**
+     * Gets the number of encoded columns of an attribute.
+     *
+     * @param attIndex the index of the attribute in the original header
+     * @return the number of columns of the attribute in the encoded header
+     */
+    public int numColumns(int attIndex) {
+        return this.numOneHotColumns[attIndex] == 0 ? 1 : this.numOneHotColumns[attIndex];
+    }
+
+    /**
+     * Encodes an instance, class included.
+     *
+     * @param inst the instance to encode, with the header of this encoder
+     * @return the reused buffer holding the encoded values
+     */
+    public double[] encode(Instance inst) {
+        for (int i = 0; i < this.firstColumn.length; i++) {
+            encodeAttribute(inst, i, this.binaryValues, this.firstColumn[i]);
+        }
+        return this.binaryValues;
+    }
+
+    /**
+     * Encodes an instance and leaves the class out, which is the layout the
+     * clusterers are trained on.
+     *
+     * @param inst the instance to encode, with the header of this encoder
+     * @return the reused buffer holding the encoded input values
+     */
+    public double[] encodeInputs(Instance inst) {
+        for (int i = 0; i < this.firstColumn.length; i++) {
+            if (i == this.classIndex) {
+                continue;
+            }
+            int column = this.firstColumn[i];
+            if (this.binaryClassIndex >= 0 && column > this.binaryClassIndex) {
+                column--;
+            }
+            encodeAttribute(inst, i, this.binaryInputValues, column);
+        }
+        return this.binaryInputValues;
+    }
+
+    /**
+     * Writes the encoded columns of one attribute.
+     *
+     * @param inst the instance to encode
+     * @param attIndex the index of the attribute in the original header
+     * @param values the array to write into
+     * @param column the first column of the attribute in values
+     */
+    protected void encodeAttribute(Instance inst, int attIndex, double[] values, int column) {
+        int width = this.numOneHotColumns[attIndex];
+        double value = inst.value(attIndex);
+        if (width == 0) {
+            values[column] = value;
+        } else if (Double.isNaN(value)) {
+            for (int v = 0; v < width; v++) {
+                values[column + v] = Double.NaN;
+            }
+        } else {
+            int index = (int) value;
+            for (int v = 0; v < width; v++) {
+                values[column + v] = v == index ? 1.0 : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Decodes an encoded instance, class included, into an instance with the
+     * original header. Numeric attributes and the class are copied, single
+     * column nominal attributes are rounded to the closest value index and
+     * one-hot attributes take the value of their largest column (the first one
+     * on ties).
+     *
+     * @param binaryInst the encoded instance
+     * @param inst the instance to write into, with the header of this encoder
+     */
+    public void decode(Instance binaryInst, Instance inst) {
+        for (int i = 0; i < this.firstColumn.length; i++) {
+            int column = this.firstColumn[i];
+            int width = this.numOneHotColumns[i];
+            if (width == 0) {
+                double value = binaryInst.value(column);
+                if (i != this.classIndex && this.header.attribute(i).isNominal()) {
+                    value = Math.min(Math.max(Math.round(value), 0), this.header.attribute(i).numValues() - 1);
+                }
+                inst.setValue(i, value);
+            } else {
+                int maxIndex = 0;
+                double maxValue = binaryInst.value(column);
+                for (int v = 1; v < width; v++) {
+                    if (binaryInst.value(column + v) > maxValue) {
+                        maxValue = binaryInst.value(column + v);
+                        maxIndex = v;
+                    }
+                }
+                inst.setValue(i, maxIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package moa.classifiers.core.diversitytest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+
+/**
+ * The correctness vectors of classifiers over one chunk, each computed the
+ * first time it is asked for. It is only valid as long as neither the chunk
+ * nor the classifiers change.
+ */
+public class CorrectnessCache {
+
+	private final List<Instance> chunk;
+
+	private final Map<Classifier, CorrectnessVector> vectors = new IdentityHashMap<Classifier, CorrectnessVector>();
+
+	public CorrectnessCache(List<Instance> chunk) {
+		this.chunk = chunk;
+	}
+
+	public CorrectnessVector get(Classifier classifier) {
+		CorrectnessVector vector = this.vectors.get(classifier);
+		if (vector == null) {
+			vector = new CorrectnessVector(classifier, this.chunk);
+			this.vectors.put(classifier, vector);
+		}
+		return vector;
+	}
+
+	/**
+	 * Computes the vectors of the classifiers that are not cached yet, one
+	 * classifier per parallel task. Once it returns, get only reads for these
+	 * classifiers and can be called from several threads.
+	 */
+	public void computeAll(List<Classifier> classifiers) {
+		Set<Classifier> seen = Collections.newSetFromMap(new IdentityHashMap<Classifier, Boolean>());
+		List<Classifier> missing = new ArrayList<Classifier>();
+		for (Classifier classifier : classifiers) {
+			if (!this.vectors.containsKey(classifier) && seen.add(classifier)) {
+				missing.add(classifier);
+			}
+		}
+		CorrectnessVector[] computed = new CorrectnessVector[missing.size()];
+		IntStream.range(0, computed.length).parallel()
+				.forEach(i -> computed[i] = new CorrectnessVector(missing.get(i), this.chunk));
+		for (int i = 0; i < computed.length; ++i) {
+			this.vectors.put(missing.get(i), computed[i]);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package moa.classifiers.core.diversitytest;
+
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Rows of a dataset that hold the correctness vector of a classifier over a
+ * chunk, 1 for a correct and 0 for a wrong prediction, and whose class is the
+ * cluster of the row, so that classifiers making the same errors can be
+ * grouped.
+ */
+public class CorrectnessRows {
+
+	private CorrectnessRows() {
+	}
+
+	/**
+	 * Adds one row per classifier to the header, in the order of the
+	 * classifiers, with a missing class. The classifiers predict the chunk in
+	 * parallel, one classifier per task.
+	 */
+	public static void add(Instances header, List<Classifier> classifiers, List<Instance> chunk) {
+		CorrectnessCache cache = new CorrectnessCache(chunk);
+		cache.computeAll(classifiers);
+
+		for (Classifier classifier : classifiers) {
+			CorrectnessVector correct = cache.get(classifier);
+			Instance row = new DenseInstance(correct.size() + 1);
+			row.setDataset(header);
+			for (int i = 0; i < correct.size(); ++i) {
+				row.setValue(i, correct.isCorrect(i) ? 1.0 : 0.0);
+			}
+			row.setMissing(row.classIndex());
+			header.add(row);
+		}
+	}
+
+	/**
+	 * Builds the clusterer on the rows without their class and sets the class
+	 * of every row to its cluster. Weka clusterers are not thread-safe (EM
+	 * filters every instance it clusters), so the rows are labelled in order.
+	 *
+	 * @return the cluster of every row, or -1 for a row the clusterer failed
+	 * to label
+	 */
+	public static int[] cluster(weka.clusterers.Clusterer clusterer, Instances header,
+			SamoaToWekaInstanceConverter converter) throws Exception {
+		weka.core.Instances wekaInstances = converter.wekaInstances(header);
+
+		weka.filters.unsupervised.attribute.Remove filter = new weka.filters.unsupervised.attribute.Remove();
+		filter.setAttributeIndices("" + (wekaInstances.classIndex() + 1));
+
+		filter.setInputFormat(wekaInstances);
+		weka.core.Instances wekaInstancesNoClass = weka.filters.Filter.useFilter(wekaInstances, filter);
+
+		clusterer.buildClusterer(wekaInstancesNoClass);
+
+		int[] clusterLabels = new int[wekaInstancesNoClass.size()];
+		for (int instIndex = 0; instIndex < clusterLabels.length; ++instIndex) {
+			try {
+				clusterLabels[instIndex] = clusterer.clusterInstance(wekaInstancesNoClass.get(instIndex));
+				header.get(instIndex).setClassValue(clusterLabels[instIndex]);
+			} catch (Exception e) {
+				clusterLabels[instIndex] = -1;
+				e.printStackTrace();
+			}
+		}
+		return clusterLabels;
+	}
+}
@@ -0,0 +1,56 @@
+package moa.classifiers.core.diversitytest;
+
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.Classifier;
+
+/**
+ * Which instances of a chunk a classifier classifies correctly, one bit per
+ * instance. The classifier predicts every instance once, and measures over
+ * pairs of classifiers are then counts of set bits.
+ */
+public class CorrectnessVector {
+
+	private final long[] bits;
+
+	private final int size;
+
+	public CorrectnessVector(Classifier classifier, List<Instance> chunk) {
+		this.size = chunk.size();
+		this.bits = new long[(this.size + Long.SIZE - 1) / Long.SIZE];
+		for (int i = 0; i < this.size; ++i) {
+			if (classifier.correctlyClassifies(chunk.get(i))) {
+				this.bits[i / Long.SIZE] |= 1L << i;
+			}
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isCorrect(int index) {
+		return (this.bits[index / Long.SIZE] & (1L << index)) != 0;
+	}
+
+	public int numCorrect() {
+		int count = 0;
+		for (long word : this.bits) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of instances both classifiers classify correctly
+	 */
+	public int numBothCorrect(CorrectnessVector other) {
+		int count = 0;
+		for (int w = 0; w < this.bits.length; ++w) {
+			count += Long.bitCount(this.bits[w] & other.bits[w]);
+		}
+		return count;
+	}
+}
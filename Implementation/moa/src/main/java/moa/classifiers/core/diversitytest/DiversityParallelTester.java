@@ -43,11 +43,15 @@ public class DiversityParallelTester {
 		int to_return = -1;
 		ExecutorService threadPool = Executors.newCachedThreadPool();
 		Map<Integer, Future<Double>> results = new HashMap<>();
+		// Every classifier predicts the chunk once, before the tests share the vectors
+		CorrectnessCache cache = new CorrectnessCache(this.testChunck);
+		cache.computeAll(this.classifierPool);
 		for (int i = 0; i < this.classifierPool.size(); ++i) {
 			List<Classifier> testingPool = new ArrayList<Classifier>(this.classifierPool);
 			testingPool.remove(i);
 			DiversityTest test = (DiversityTest) diversityTestType.copy();
 			test.set(this.testChunck, testingPool);
+			test.setCorrectnessCache(cache);
 			results.put(i, threadPool.submit(test));
 		}
 		int index = 0;
@@ -10,4 +10,13 @@ import moa.options.OptionHandler;
 public interface DiversityTest extends OptionHandler, Callable<Double> {
 	public void set(List<Instance> testChunk, List<Classifier> targetPool);
 	public boolean morePositiveMoreDiverse();
+
+	/**
+	 * Gives the test the correctness vectors of the classifiers over the
+	 * chunk, so that copies of the test running on subsets of the same pool
+	 * share one prediction pass. The cache must hold every classifier of the
+	 * target pool, as the test only reads from it.
+	 */
+	public default void setCorrectnessCache(CorrectnessCache cache) {
+	}
 }
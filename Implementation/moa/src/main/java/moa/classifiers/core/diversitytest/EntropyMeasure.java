@@ -18,6 +18,8 @@ public class EntropyMeasure extends AbstractOptionHandler implements DiversityTe
 	private List<Classifier> targetPool;
 	
 	private boolean isSet;
+
+	private transient CorrectnessCache correctnessCache;
 	
 	public EntropyMeasure() {
 		this.testChunk = null;
@@ -47,10 +49,15 @@ public class EntropyMeasure extends AbstractOptionHandler implements DiversityTe
 	
 	protected Double getEntropyMeasure() {
 		double entropySum = 0.0;
-		for (Instance instance : testChunk) {
+		CorrectnessCache cache = this.correctnessCache != null ? this.correctnessCache : new CorrectnessCache(this.testChunk);
+		CorrectnessVector[] vectors = new CorrectnessVector[this.targetPool.size()];
+		for (int c = 0; c < vectors.length; ++c) {
+			vectors[c] = cache.get(this.targetPool.get(c));
+		}
+		for (int i = 0; i < this.testChunk.size(); ++i) {
 			double correctSum = 0.0;
-			for (Classifier classifier : targetPool) {
-				correctSum += classifier.correctlyClassifies(instance) ? 1.0 : 0.0;
+			for (CorrectnessVector vector : vectors) {
+				correctSum += vector.isCorrect(i) ? 1.0 : 0.0;
 			}
 			entropySum += Math.min(correctSum, this.targetPool.size() - correctSum) / (this.targetPool.size() - Math.ceil((this.targetPool.size() - 2)));
 		}
@@ -75,4 +82,9 @@ public class EntropyMeasure extends AbstractOptionHandler implements DiversityTe
 		return true;
 	}
 
+	@Override
+	public void setCorrectnessCache(CorrectnessCache cache) {
+		this.correctnessCache = cache;
+	}
+
 }
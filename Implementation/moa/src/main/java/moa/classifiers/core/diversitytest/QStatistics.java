@@ -18,20 +18,22 @@ public class QStatistics extends AbstractOptionHandler implements DiversityTest
 	private List<Classifier> classifierPool;
 	
 	private boolean isSet;
+
+	private transient CorrectnessCache correctnessCache;
 	
 	public static Double getQScoreForTwo(List<Instance> chunk, Classifier d1, Classifier d2) {
-		double tt = 0.0, tf = 0.0, ft = 0.0, ff = 0.0;
-		for (Instance instance : chunk) {
-			if (d1.correctlyClassifies(instance) && d2.correctlyClassifies(instance)) {
-				++tt;
-			} else if (d1.correctlyClassifies(instance) && !d2.correctlyClassifies(instance)) {
-				++tf;
-			} else if (!d1.correctlyClassifies(instance) && d2.correctlyClassifies(instance)) {
-				++ft;
-			} else if (!d1.correctlyClassifies(instance) && !d2.correctlyClassifies(instance)) {
-				++ff;
-			}
-		}
+		return getQScoreForTwo(new CorrectnessVector(d1, chunk), new CorrectnessVector(d2, chunk));
+	}
+
+	/**
+	 * Q statistic of two classifiers from which instances of the same chunk
+	 * they classify correctly.
+	 */
+	public static Double getQScoreForTwo(CorrectnessVector d1, CorrectnessVector d2) {
+		double tt = d1.numBothCorrect(d2);
+		double tf = d1.numCorrect() - tt;
+		double ft = d2.numCorrect() - tt;
+		double ff = d1.size() - tt - tf - ft;
 		double a = tt * ff;
 		double b = ft * tf;
 		
@@ -68,8 +70,9 @@ public class QStatistics extends AbstractOptionHandler implements DiversityTest
 	
 	protected Double getAverageQScore() {
 		double qScoreSum = 0.0;
+		CorrectnessCache cache = this.correctnessCache != null ? this.correctnessCache : new CorrectnessCache(this.testChunk);
 		for (int i = 0; i < this.classifierPool.size()-1; ++i) {
-			qScoreSum += QStatistics.getQScoreForTwo(this.testChunk, this.classifierPool.get(i), this.classifierPool.get(i+1));
+			qScoreSum += QStatistics.getQScoreForTwo(cache.get(this.classifierPool.get(i)), cache.get(this.classifierPool.get(i+1)));
 		}
 		double poolSize = this.classifierPool.size();
 		return (2.0 / (poolSize*(poolSize-1.0)))*qScoreSum;
@@ -93,4 +96,9 @@ public class QStatistics extends AbstractOptionHandler implements DiversityTest
 		return false;
 	}
 
+	@Override
+	public void setCorrectnessCache(CorrectnessCache cache) {
+		this.correctnessCache = cache;
+	}
+
 }
@@ -19,7 +19,7 @@
  */
 package moa.classifiers.core.driftdetection;
 
-import java.util.TreeSet;
+import moa.core.ScoreRankTree;
 
 public class AUC_2class {
 	
@@ -86,12 +86,14 @@ public class AUC_2class {
       }
     }
 
-    protected TreeSet<Score> sortedScores;//the tree for calculating prequential AUC
+    protected ScoreRankTree sortedScores;//the tree for calculating prequential AUC
 
-    protected TreeSet<Score> holdoutSortedScores;//for calculating HoldoutAUC
+    protected double holdoutAUC;//the AUC at the last holdout evaluation, for "getHoldoutAUC"
 
     protected Score[] window;
 
+    protected int[] nodes;//the node of each example of the window in sortedScores
+
     protected double[] predictions;//if the example is correctly classified or not: 1-correct, 0-incorrect. 
 
     protected int posWindow;//the position where the oldest example that needs to be removed (if window is full) and where the new example that needs to be added.
@@ -114,10 +116,11 @@ public class AUC_2class {
 
     public AUC_2class(int sizeWindow) {
     	this.numClasses = 2; // PAUC is for binary classification task only.
-		this.sortedScores = new TreeSet<Score>();
-		this.holdoutSortedScores = new TreeSet<Score>();
+		this.sortedScores = new ScoreRankTree();
+		this.holdoutAUC = 0;
 		this.size = sizeWindow;
 		this.window = new Score[sizeWindow];
+		this.nodes = new int[sizeWindow];
 		this.predictions = new double[sizeWindow];
 		
 		this.rowKappa = new double[this.numClasses];
@@ -142,12 +145,7 @@ public class AUC_2class {
     	this.totalObservedInstances++;
     	
     	if (size > 0 && posWindow % this.size == 0) {
-    		this.holdoutSortedScores = new TreeSet<Score>();
-
-    		for (Score s : this.sortedScores) {
-    			this.holdoutSortedScores.add(s);
-    		}
-
+    		this.holdoutAUC = this.numPos + this.numNeg == 0 ? 0 : this.getAUC();
     		this.holdoutNumPos = this.numPos;
     		this.holdoutNumNeg = this.numNeg;
     	}
@@ -155,7 +153,7 @@ public class AUC_2class {
     	// // if the window is used and it's full			
     	if (size > 0 && posWindow >= this.size) {
     		// // remove the oldest example
-    		sortedScores.remove(window[posWindow % size]);
+    		sortedScores.remove(nodes[posWindow % size]);
     		correctPredictions -= predictions[posWindow % size];
 
     		if (window[posWindow % size].isPositive) {
@@ -173,7 +171,7 @@ public class AUC_2class {
 
     	// // add new example
     	Score newScore = new Score(score, posWindow, isPositive);
-    	sortedScores.add(newScore);
+    	int node = sortedScores.add(score, posWindow, isPositive);
     	correctPredictions += correctPrediction ? 1 : 0;
 
     	int trueClass = isPositive ? 0 : 1;
@@ -189,6 +187,7 @@ public class AUC_2class {
 
     	if (size > 0) {
     		window[posWindow % size] = newScore;
+    		nodes[posWindow % size] = node;
     		predictions[posWindow % size] = correctPrediction ? 1 : 0;
     	}
 
@@ -197,121 +196,16 @@ public class AUC_2class {
     }
 
     public double getAUC() {
-		double AUC = 0;
-		double c = 0;
-		double prevc = 0;
-		double lastPosScore = Double.MAX_VALUE;
-
-		if (numPos == 0 || numNeg == 0) {
-			return 1;
-		}
-
-		for (Score s : sortedScores) {
-			if (s.isPositive) {
-				if (s.value != lastPosScore) {
-					prevc = c;
-					lastPosScore = s.value;
-				}
-
-				c += 1;
-			} else {
-				if (s.value == lastPosScore) {
-					// tie
-					AUC += ((double) (c + prevc)) / 2.0;
-				} else {
-					AUC += c;
-				}
-			}
-		}
-
-		return AUC / (numPos * numNeg);
-	}
+    	return sortedScores.getAUC();
+    }
 
     public double getHoldoutAUC() {
-      double AUC = 0;
-      double c = 0;
-      double prevc = 0;
-	  double lastPosScore = Double.MAX_VALUE;
-
-      if (holdoutSortedScores.isEmpty()) {
-    	  return 0;
-      }
-
-      if (holdoutNumPos == 0 || holdoutNumNeg == 0) {
-    	  return 1;
-      }
-
-      for (Score s : holdoutSortedScores){
-    	  if(s.isPositive) {
-    		  if (s.value != lastPosScore) {
-					prevc = c;
-					lastPosScore = s.value;
-    		  }
-    		  c += 1;
-    	  } else {
-    		  if (s.value == lastPosScore) {
-					// tie
-					AUC += ((double) (c + prevc)) / 2.0;
-			  } else {
-				   AUC += c;
-			  }
-    	  }
-      	}
-
-      return AUC / (holdoutNumPos * holdoutNumNeg);
+    	return holdoutAUC;
     }
 
     public double getScoredAUC() {
-		double AOC = 0;
-		double AUC = 0;
-		double r = 0;
-		double prevr = 0;
-		double c = 0;
-		double prevc = 0;
-		double R_plus, R_minus;
-		double lastPosScore = Double.MAX_VALUE;
-		double lastNegScore = Double.MAX_VALUE;
-
-		if (numPos == 0 || numNeg == 0) {
-			return 1;
-		}
-
-		for (Score s : sortedScores) {
-			if (s.isPositive) {
-				if (s.value != lastPosScore) {
-					prevc = c;
-					lastPosScore = s.value;
-				}
-
-				c += s.value;
-
-				if (s.value == lastNegScore) {
-					// tie
-					AOC += ((double) (r + prevr)) / 2.0;
-				} else {
-					AOC += r;
-				}
-			} else {
-				if (s.value != lastNegScore) {
-					prevr = r;
-					lastNegScore = s.value;
-				}
-
-				r += s.value;
-
-				if (s.value == lastPosScore) {
-					// tie
-					AUC += ((double) (c + prevc)) / 2.0;
-				} else {
-					AUC += c;
-				}
-			}
-		}
-
-		R_minus = (numPos * r - AOC) / (numPos * numNeg);
-		R_plus = (AUC) / (numPos * numNeg);
-		return R_plus - R_minus;
-	}
+    	return sortedScores.getScoredAUC();
+    }
     
     public double getRatio() {
         if(numNeg == 0) {
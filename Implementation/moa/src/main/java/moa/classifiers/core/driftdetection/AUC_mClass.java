@@ -1,10 +1,9 @@
 package moa.classifiers.core.driftdetection;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
+import moa.core.ScoreRankTree;
 import weka.core.Utils;
 
 public class AUC_mClass {
@@ -81,19 +80,25 @@ public class AUC_mClass {
   	protected int neg_class;
   	protected double numPos;
   	protected double numNeg;
-  	protected TreeSet<Score> sortedScores;
+  	protected ScoreRankTree sortedScores;//scores of the positive class, keeps the AUC of the tree
+  	protected int[] nodes;//handle of the node of each example in the window, by window position
   	
   	public RB_tree(int pos_class_idx, int neg_class_idx) {
   		pos_class = pos_class_idx;
   		neg_class = neg_class_idx;
   		numPos = 0;
   		numNeg = 0;
-  		sortedScores = new TreeSet<Score>();   
+  		sortedScores = new ScoreRankTree();
+  		nodes = new int[Math.max(size, 0)];
   	}
   }
   
   protected List<RB_tree> rb_trees;//the set of red-black trees for any 2 classes (numClasses*(numClasses-1))
 
+  protected int[][] class_trees;//the tree indices involving each class, as returned by find_trees
+
+  protected int[][] pair_trees;//the tree index for each positive and negative class, as returned by find_onetree
+
   protected Score[] window;//store current window of examples
 
   protected double[] predictions;//store correct/incorrect prediction results for all examples in the window: if the example is correctly classified or not: 1-correct, 0-incorrect. 
@@ -118,18 +123,29 @@ public class AUC_mClass {
 
   public AUC_mClass(int sizeWindow, int numClasses) {
 	  this.numClasses = numClasses;
+  	this.size = sizeWindow;
 	  
   	this.rb_trees = new ArrayList<RB_tree>();
+  	this.class_trees = new int[this.numClasses][2*(this.numClasses-1)];
+  	this.pair_trees = new int[this.numClasses][this.numClasses];
+  	int[] num_class_trees = new int[this.numClasses];
   	for(int i = 0; i < this.numClasses-1; i++) {
   		for(int j = i+1; j < this.numClasses; j++) {
   			RB_tree tree_i = new RB_tree(i,j);//a redblack tree with class i as the positive class
   			RB_tree tree_j = new RB_tree(j,i);//a redblack tree with class j as the positive class
-  			this.rb_trees.add(tree_i);
-  			this.rb_trees.add(tree_j);
+  			for(RB_tree tree : new RB_tree[] {tree_i, tree_j}) {
+  				int idx = this.rb_trees.size();
+  				this.rb_trees.add(tree);
+  				this.class_trees[i][num_class_trees[i]++] = idx;
+  				this.class_trees[j][num_class_trees[j]++] = idx;
+  				this.pair_trees[tree.pos_class][tree.neg_class] = idx;
+  			}
   		}
   	}
+  	for(int i = 0; i < this.numClasses; i++) {
+  		this.pair_trees[i][i] = -1;
+  	}
 
-  	this.size = sizeWindow;
   	this.window = new Score[sizeWindow];
   	this.predictions = new double[sizeWindow];
   	this.correctPrediction_perclass = new double[this.numClasses];
@@ -166,8 +182,7 @@ public class AUC_mClass {
   		for(int i = 0; i < tree_idx_remove.length; i++) {
   			RB_tree tree_i = this.rb_trees.get(tree_idx_remove[i]);
   			// remove the oldest example from the tree with "trueClass"
-  			Score node = this.find_node(tree_i, posWindow);
-  			tree_i.sortedScores.remove(node);
+  			tree_i.sortedScores.remove(tree_i.nodes[posWindow % size]);
   			
   			if (window[posWindow % size].realClass == tree_i.pos_class) {
   				tree_i.numPos--;
@@ -188,8 +203,10 @@ public class AUC_mClass {
   	}
   	for(int i = 0; i < tree_idx_add.length; i++) {
   		RB_tree tree_i = this.rb_trees.get(tree_idx_add[i]);
-  		Score newScore_tree = new Score(trueClass, score, posWindow, tree_i.pos_class);//new score for updating trees
-  		tree_i.sortedScores.add(newScore_tree);
+  		int node = tree_i.sortedScores.add(score[tree_i.pos_class], posWindow, trueClass == tree_i.pos_class);
+  		if (size > 0) {
+  			tree_i.nodes[posWindow % size] = node;
+  		}
 
   		if (trueClass == tree_i.pos_class) {
   			tree_i.numPos++;
@@ -201,40 +218,14 @@ public class AUC_mClass {
   	posWindow++;
   }
 
-  public Score find_node(RB_tree tree_i, int posWindow) {
-  	Score node;
-  	Iterator<Score> iterator = tree_i.sortedScores.iterator();
-  	while(iterator.hasNext()) {
-          node = iterator.next();
-          if((node.posWindow % size) == (posWindow % size))             
-              return node;
-      }
-      return null;
-  }
-  
   //return the tree indices of those involving class_idx
   public int[] find_trees(int class_idx) {
-  	int[] tree_idx = new int[2*(this.numClasses-1)];
-  	int t = 0;
-  	for(RB_tree tree_i: this.rb_trees) {
-  		if((tree_i.pos_class == class_idx) || (tree_i.neg_class == class_idx)) {
-  			tree_idx[t] = this.rb_trees.indexOf(tree_i);
-  			t++;
-  		}
-  	}
-  	return tree_idx;
+  	return this.class_trees[class_idx];
   }
   
   //return the tree with given positive class index and negative class index
   public int find_onetree(int pos_class, int neg_class) {
-  	int idx=-1;
-  	for(RB_tree tree_i: this.rb_trees) {
-  		if((tree_i.pos_class == pos_class) && (tree_i.neg_class == neg_class)) {
-  			idx = this.rb_trees.indexOf(tree_i);
-  			break;
-  		}
-  	}
-  	return idx;
+  	return this.pair_trees[pos_class][neg_class];
   }
   
   public double getPMAUC() {
@@ -249,67 +240,12 @@ public class AUC_mClass {
   
   //calculate AUC for the given tree
   public double getAUC(RB_tree current_tree) {
-  	double AUC = 0;
-  	double c = 0;
-  	double prevc = 0;
-		double lastPosScore = Double.MAX_VALUE;
-  	
-  	if (current_tree.numPos == 0 || current_tree.numNeg == 0) {
-  		return 1;
-  	}
-  	
-  	for (Score s : current_tree.sortedScores){
-  		if(s.realClass==current_tree.pos_class) {
-  			if (s.value[s.realClass] != lastPosScore) {
-  				prevc = c;
-  				lastPosScore = s.value[s.realClass];
-  			}
-  			c += 1;
-  		} else {
-  			if (s.value[s.realClass] == lastPosScore) {
-  				// tie
-  				AUC += ((double) (c + prevc)) / 2.0;
-  			} else {
-  				AUC += c;
-  			}
-  		}
-  	}
-
-  	return AUC / (current_tree.numPos * current_tree.numNeg);
+  	return current_tree.sortedScores.getAUC();
   }
   
   //calculate AUC based on the given positive class index and negative class index.
   public double getAUC(int pos_class, int neg_class) {
-  	double AUC = 0;
-  	double c = 0;
-  	double prevc = 0;
-		double lastPosScore = Double.MAX_VALUE;
-  	
-  	int idx = this.find_onetree(pos_class, neg_class);
-  	RB_tree current_tree = this.rb_trees.get(idx);
-
-  	if (current_tree.numPos == 0 || current_tree.numNeg == 0) {
-  		return 1;
-  	}
-
-  	for (Score s : current_tree.sortedScores){
-  		if(s.realClass==pos_class) {
-  			if (s.value[s.realClass] != lastPosScore) {
-  				prevc = c;
-  				lastPosScore = s.value[s.realClass];
-  			}
-  			c += 1;
-  		} else {
-  			if (s.value[s.realClass] == lastPosScore) {
-  				// tie
-  				AUC += ((double) (c + prevc)) / 2.0;
-  			} else {
-  				AUC += c;
-  			}
-  		}
-  	}
-
-  	return AUC / (current_tree.numPos * current_tree.numNeg);
+  	return this.getAUC(this.rb_trees.get(this.find_onetree(pos_class, neg_class)));
   }
 
 
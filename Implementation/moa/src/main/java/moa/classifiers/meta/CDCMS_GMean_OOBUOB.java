@@ -30,7 +30,6 @@ import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
 import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Attribute;
-import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
@@ -38,6 +37,9 @@ import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.MultiClassClassifier;
+import moa.classifiers.core.diversitytest.CorrectnessCache;
+import moa.classifiers.core.diversitytest.CorrectnessRows;
+import moa.classifiers.core.diversitytest.CorrectnessVector;
 import moa.classifiers.core.diversitytest.QStatistics;
 import moa.classifiers.core.driftdetection.ChangeDetector;
 import moa.classifiers.core.driftdetection.DDM_GMean;
@@ -45,6 +47,7 @@ import moa.classifiers.core.driftdetection.DDM_OCI;
 import moa.core.AutoClassDiscovery;
 import moa.core.AutoExpandVector;
 import moa.core.DoubleVector;
+import moa.core.InstanceWindow;
 import moa.core.Measurement;
 import moa.core.MiscUtils;
 import moa.core.Utils;
@@ -116,7 +119,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 	
 	protected ChangeDetector driftDetector;
 	
-	protected List<Instance> instWindow;
+	protected InstanceWindow instWindow;
 	protected int instSeenAfterDrift;
 	
 	private Instances predictionErrorByClassifierFromRepo;
@@ -182,7 +185,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 		this.maxRepositorySize = this.repositorySizeOption.getValue() * this.poolSizeOption.getValue();
 		this.repository = new ArrayList<ClassifierWithInfo>(this.maxRepositorySize);
 		
-		this.instWindow = new ArrayList<Instance>(this.windowSizeOption.getValue());
+		this.instWindow = new InstanceWindow(this.windowSizeOption.getValue());
 		this.instSeenAfterDrift = 0;
 		
 		// Setting up Instances object for clustering classifiers.
@@ -390,52 +393,53 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 	}
 	
 	private void clusteringModels() throws Exception {
-		weka.core.Instances wekaInstances = this.instanceConverter.wekaInstances(this.predictionErrorByClassifierFromRepo);
-			
-		weka.filters.unsupervised.attribute.Remove filter = new weka.filters.unsupervised.attribute.Remove();
-		filter.setAttributeIndices("" + (wekaInstances.classIndex() + 1));
-				
-		filter.setInputFormat(wekaInstances);
-		weka.core.Instances wekaInstancesNoClass = weka.filters.Filter.useFilter(wekaInstances, filter);
-				
-		this.clusterer.buildClusterer(wekaInstancesNoClass);
-				
-		// Use forEachOrdered for debugging purposes.
-		wekaInstancesNoClass.parallelStream().forEach(wekaInstNoClass -> {
-			try {
-				int clusterLabel = this.clusterer.clusterInstance(wekaInstNoClass);
-				int instIndex = wekaInstancesNoClass.indexOf(wekaInstNoClass);
-				this.predictionErrorByClassifierFromRepo.get(instIndex).setClassValue(clusterLabel);
-				if (instIndex < this.repository.size()) {
-					this.repository.get(instIndex).setClusterLabel(clusterLabel);
-				} else {
-					this.ensemble_NL.ensemble.get(0).setClusterLabel(clusterLabel);
-				}
-						
-//				System.out.print("(" + instIndex + ", " + clusterLabel + "), ");
-//				if ((instIndex % 10 == 0 && instIndex != 0) || instIndex == wekaInstancesNoClass.size() - 1) {
-//					System.out.println("");
-//				}
-			} catch (Exception e) {
-//				System.out.println("instance #: " + this.trainingWeightSeenByModel);
-//				System.out.println("wwekaInstancesNoClass.numAttributes(): " + wekaInstancesNoClass.numAttributes());
-//				System.out.println("wekaInstancesNoClass.size(): " + wekaInstancesNoClass.size());
-//				System.out.println("==============================================");
-				e.printStackTrace();
+		int[] clusterLabels = CorrectnessRows.cluster(this.clusterer, this.predictionErrorByClassifierFromRepo, this.instanceConverter);
+		for (int instIndex = 0; instIndex < clusterLabels.length; ++instIndex) {
+			if (clusterLabels[instIndex] == -1) {
+				continue;
 			}
-		});
+			if (instIndex < this.repository.size()) {
+				this.repository.get(instIndex).setClusterLabel(clusterLabels[instIndex]);
+			} else {
+				this.ensemble_NL.ensemble.get(0).setClusterLabel(clusterLabels[instIndex]);
+			}
+		}
+	}
+	
+	/**
+	 * Adds one row of predictionErrorByClassifierFromRepo per model, in the
+	 * order of models.
+	 */
+	private void addPredictionErrors(List<ClassifierWithInfo> models) {
+		List<Classifier> classifiers = new ArrayList<Classifier>(models.size());
+		for (ClassifierWithInfo model : models) {
+			classifiers.add(model.getActualClassifier());
+		}
+		CorrectnessRows.add(this.predictionErrorByClassifierFromRepo, classifiers, this.instWindow);
 	}
 	
-	private int getMostSimilarAndNewFromRepo(ClassifierWithInfo target) {
+	/**
+	 * @param cache correctness vectors over instWindow, shared by the searches
+	 * made while neither the window nor the models change
+	 */
+	private int getMostSimilarAndNewFromRepo(ClassifierWithInfo target, CorrectnessCache cache) {
 		
 		if (this.repository.size() == 0) {
 			return -1;
 		}
 		
+		List<Classifier> classifiers = new ArrayList<Classifier>(this.repository.size() + 1);
+		classifiers.add(target.getActualClassifier());
+		for (ClassifierWithInfo model : this.repository) {
+			classifiers.add(model.getActualClassifier());
+		}
+		cache.computeAll(classifiers);
+		
+		CorrectnessVector targetCorrect = cache.get(target.getActualClassifier());
 		double[] qStatResults = new double[this.repository.size()];
 		
 		for (int i = 0; i < qStatResults.length; ++i) {
-			qStatResults[i] = QStatistics.getQScoreForTwo(this.instWindow, target.getActualClassifier(), this.repository.get(i).getActualClassifier());
+			qStatResults[i] = QStatistics.getQScoreForTwo(targetCorrect, cache.get(classifiers.get(i + 1)));
 		}
 		
 		int maxQIndex = 0;
@@ -460,7 +464,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 	@Override
 	public void trainOnInstanceImpl(Instance inst) {
 		
-		this.saveFIFO(this.instWindow, inst, this.windowSizeOption.getValue());
+		this.saveFIFO(this.instWindow, inst);
 		
 		double prediction = Utils.maxIndex(this.ensemble_NL.getVotesForInstance(inst)) == inst.classValue() ? 0.0 : 1.0;
 //		this.driftDetector.input(prediction);
@@ -489,10 +493,9 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 					// otherwise ensemble_NL = {C}
 					
 					this.initPredictionErrorStorage(this.instWindow.size());
-					for (ClassifierWithInfo classifier : this.repository) {
-						this.predictionErrorByClassifierFromRepo.add(classifier.makePredictionOnInstances(this.instWindow));
-					}
-					this.predictionErrorByClassifierFromRepo.add(this.ensemble_NL.ensemble.get(0).makePredictionOnInstances(this.instWindow));
+					List<ClassifierWithInfo> models = new ArrayList<ClassifierWithInfo>(this.repository);
+					models.add(this.ensemble_NL.ensemble.get(0));
+					this.addPredictionErrors(models);
 			
 					try {
 						this.clusteringModels();
@@ -542,7 +545,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 						
 						if (this.repository.size() >= this.maxRepositorySize) {
 							
-							int mostSimilarIndex = this.getMostSimilarAndNewFromRepo(worstInNL);
+							int mostSimilarIndex = this.getMostSimilarAndNewFromRepo(worstInNL, new CorrectnessCache(this.instWindow));
 							
 		 					if (mostSimilarIndex > -1 &&
 		 							worstInNL.getActualClassifier().trainingWeightSeenByModel() > this.repository.get(mostSimilarIndex).getActualClassifier().trainingWeightSeenByModel()) {
@@ -588,6 +591,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 				Boolean[] isAdd = new Boolean[this.ensemble_NL.size()];
 				
 				int tempMaxRepoSize = this.maxRepositorySize;
+				CorrectnessCache cache = new CorrectnessCache(this.instWindow);
 				
 				for (int i = 0; i < this.ensemble_NL.size(); ++i) {
 					
@@ -597,7 +601,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 						continue;
 					}
 					
-					int mostSimilarIndex = this.getMostSimilarAndNewFromRepo(this.ensemble_NL.getActualEnsemble().get(i));
+					int mostSimilarIndex = this.getMostSimilarAndNewFromRepo(this.ensemble_NL.getActualEnsemble().get(i), cache);
 					
 					if (mostSimilarIndex > -1 &&
 							this.ensemble_NL.getActualEnsemble().get(i).getActualClassifier().trainingWeightSeenByModel() > 
@@ -629,9 +633,7 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 					// Create ensemble_NH
 						
 					this.initPredictionErrorStorage(this.instWindow.size());
-					for (ClassifierWithInfo classifier : this.repository) {
-						this.predictionErrorByClassifierFromRepo.add(classifier.makePredictionOnInstances(this.instWindow));
-					}
+					this.addPredictionErrors(this.repository);
 						
 					try {
 						this.clusteringModels();
@@ -735,10 +737,8 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
         return finalClasses.toArray(new Class<?>[finalClasses.size()]);
     }
 	
-	private void saveFIFO(List<Instance> buffer, Instance toAdd, int maxSize) {
-		while (buffer.size() >= maxSize) {
-			buffer.remove(0);
-		}
+	private void saveFIFO(InstanceWindow buffer, Instance toAdd) {
+		// A full window evicts its oldest instance.
 		buffer.add(toAdd);
 		this.instSeenAfterDrift++;
 	}
@@ -1112,21 +1112,6 @@ public class CDCMS_GMean_OOBUOB extends AbstractClassifier implements MultiClass
 			this.resetPrequentialGMean();
 		}
 		
-
-		protected Instance makePredictionOnInstances(List<Instance> instances) {
-			
-			Instance predictions4Clustering = new DenseInstance(instances.size() + 1);
-			
-			predictions4Clustering.setDataset(predictionErrorByClassifierFromRepo);
-
-			instances.parallelStream()
-					 .forEach(inst -> predictions4Clustering.setValue(instances.indexOf(inst),
-														this.classifier.correctlyClassifies(inst) ? 1.0 : 0.0));			
-			predictions4Clustering.setMissing(predictions4Clustering.classIndex());
-			
-			return predictions4Clustering;
-		}
-		
 		protected void updatePrequentialGMean(Instance inst) {
 			double weight = inst.weight();
 			
@@ -1,19 +1,24 @@
 package moa.classifiers.meta;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
-import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
-import com.yahoo.labs.samoa.instances.WekaToSamoaInstanceConverter;
+import com.yahoo.labs.samoa.instances.OneHotEncoder;
 
 import moa.classifiers.AbstractClassifier;
 import moa.classifiers.Classifier;
@@ -22,13 +27,16 @@ import moa.classifiers.core.driftdetection.ChangeDetector;
 import moa.classifiers.core.driftdetection.DDM_GMean;
 import moa.classifiers.core.driftdetection.DDM_OCI;
 import moa.classifiers.core.driftdetection.PMAUC_EWAUC_WAUC_GMean_PH;
+import moa.cluster.BallTree;
 import moa.cluster.CFCluster;
 import moa.cluster.Clustering;
+import moa.cluster.MicroClusteringView;
 import moa.cluster.SphereCluster;
 import moa.clusterers.Clusterer;
+import moa.core.Distances;
 import moa.core.Measurement;
-import moa.core.MiscUtils;
 import moa.core.Utils;
+import moa.core.WeightedIndexSampler;
 import moa.options.ClassOption;
 
 public class SMOClust extends AbstractClassifier implements MultiClassClassifier {
@@ -45,7 +53,8 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
             "The time decay factor for class size.", 0.99, 0, 1);
 	
 	public ClassOption clusteringMethodOption = new ClassOption("clusteringMethod", 'x',
-			"Clustering method to use.", Clusterer.class, "clustream.Clustream");
+			"Clustering method to use. Its training instances are reused and overwritten after every call, so it must not keep them, "
+			+ "as the micro-clusterers that summarise points (Clustream, ClusTree, DenStream, ...) do not.", Clusterer.class, "clustream.Clustream");
 	
 	public FloatOption gaussianNoiseVarianceOption = new FloatOption("gaussianNoiseVariance", 'v',
 			"Variance for Gaussian noise to create synthetic examples", 0.01, 0.0, Double.MAX_VALUE);
@@ -62,12 +71,47 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 	
 	public FlagOption disableDDMOption = new FlagOption("disableDDM", 'z', "disableDDM");
 	
+	public FlagOption batchOversamplingOption = new FlagOption("batchOversampling", 'b',
+			"Work out how many synthetic examples are needed to balance the classes once, draw all their anchors in one pass and train on them as a batch.");
+	
+	public MultiChoiceOption oversamplingScheduleOption = new MultiChoiceOption("oversamplingSchedule", 's',
+			"When to generate the synthetic examples that balance the classes. In between, the class size deficit builds up.",
+			new String[]{"EveryInstance", "EveryNInstances", "EveryNMilliseconds"},
+			new String[]{"After every real instance.", "After every n-th real instance, n being the oversampling period.",
+					"After the first real instance that comes at least n ms after the last generation, n being the oversampling period."}, 0);
+	
+	public IntOption oversamplingPeriodOption = new IntOption("oversamplingPeriod", 'p',
+			"Period of the oversampling schedule, in real instances or in milliseconds.", 100, 1, Integer.MAX_VALUE);
+	
+	public FlagOption oversampleAllClassesOption = new FlagOption("oversampleAllClasses", 'a',
+			"Oversample every class that is smaller than the majority class, not only the minority class. The synthetic examples of each class are generated in parallel.");
+	
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used to generate the synthetic examples of the classes when oversampling all classes (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+	
 	protected BaseLearner baseLearner;
 	
-	protected SamoaToWekaInstanceConverter moaToWekaInstanceConverter;
-	protected WekaToSamoaInstanceConverter wekaToMoaInstanceConverter;
+	protected int instancesSinceOversampling;
+	protected long lastOversamplingTime;
+	
+	protected OneHotEncoder oneHotEncoder;
+	// Wraps the input buffer of the encoder: every instance passed to a clusterer overwrites the previous one.
+	protected Instance clustererInput;
 	
 	protected Clusterer[] clusterers;
+	protected Clustering[] mClusteringSnapshots;
+	protected long[] mClusteringSnapshotVersions;
+	protected BallTree[] mClusterIndices;
+	protected WeightedIndexSampler[] anchorSamplers;
+	protected long[] anchorSamplerVersions;
+	protected double[] anchorWeights;
+	protected Random[] classRandoms;
+	
+	// Buffers of the batch oversampling modes, one per class.
+	protected SynthBatch[] synthBatches;
+	protected Instance synthBinaryInst;
+	
+	protected transient ExecutorService executor;
 	protected Instance[] last_inst;
 	
 	protected ChangeDetector driftDetector;
@@ -87,11 +131,27 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 		
 		this.baseLearner = new BaseLearner(((Classifier) getPreparedClassOption(this.baseLearnerOption)).copy());
 		
-		this.moaToWekaInstanceConverter = new SamoaToWekaInstanceConverter();
-		this.wekaToMoaInstanceConverter = new WekaToSamoaInstanceConverter();
+		this.instancesSinceOversampling = 0;
+		this.lastOversamplingTime = System.currentTimeMillis();
+		
+		this.oneHotEncoder = null;
+		this.clustererInput = null;
+		this.synthBatches = null;
+		this.synthBinaryInst = null;
 		
 		this.clusterers = null;
+		this.mClusteringSnapshots = null;
+		this.mClusteringSnapshotVersions = null;
+		this.mClusterIndices = null;
+		this.anchorSamplers = null;
+		this.anchorSamplerVersions = null;
+		this.anchorWeights = null;
+		this.classRandoms = null;
 		this.last_inst = null;
+		if (this.executor != null) {
+			this.executor.shutdown();
+			this.executor = null;
+		}
 		
 		this.driftDetector = ((ChangeDetector) getPreparedClassOption(this.driftDetectorOption)).copy();
 		this.driftCount = 0;
@@ -114,6 +174,23 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 				clusterers[i] = ((Clusterer) getPreparedClassOption(this.clusteringMethodOption)).copy();
 				clusterers[i].resetLearning();
 			}
+			this.mClusteringSnapshots = new Clustering[inst.numClasses()];
+			this.mClusteringSnapshotVersions = new long[inst.numClasses()];
+			this.mClusterIndices = new BallTree[inst.numClasses()];
+			this.anchorSamplers = new WeightedIndexSampler[inst.numClasses()];
+			this.anchorSamplerVersions = new long[inst.numClasses()];
+			this.synthBatches = new SynthBatch[inst.numClasses()];
+			this.classRandoms = new Random[inst.numClasses()];
+			for (int i = 0; i < this.classRandoms.length; ++i) {
+				this.classRandoms[i] = new Random(this.randomSeed + i + 1);
+			}
+		}
+		if (this.oneHotEncoder == null) {
+			this.oneHotEncoder = new OneHotEncoder(inst.dataset());
+			this.clustererInput = new DenseInstance(1d, this.oneHotEncoder.encodeInputs(inst));
+			this.clustererInput.setDataset(this.oneHotEncoder.getBinaryHeader());
+			this.synthBinaryInst = new DenseInstance(1d, new double[this.oneHotEncoder.numBinaryAttributes()]);
+			this.synthBinaryInst.setDataset(this.oneHotEncoder.getBinaryHeader());
 		}
 		if (this.last_inst == null) {
 			last_inst = new Instance[inst.numClasses()];
@@ -174,45 +251,34 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 		int maj_class = this.baseLearner.getMajorityClass();
 		int min_class = this.baseLearner.getMinorityClass();
 		
-		Clustering[] mClusteringResults = null;
-		double[][][] allkNNmCluster_index_distance = null;
-		
-		mClusteringResults = new Clustering[inst.numClasses()];
-		allkNNmCluster_index_distance = new double[inst.numClasses()][][]; // [class][sorted index by distance][0 || 1]; [][0] is clusterIndex; [][1] is the distance;
-		
-		for (int i = 0; i < mClusteringResults.length; ++i) {
-			mClusteringResults[i] = this.clusterers[i].getMicroClusteringResult();
+		boolean isOversamplingDue = this.isOversamplingDue();
+		// Checking readiness goes through the micro-clusters of every clusterer, so only do it when examples are generated.
+		boolean isMicroClustersReady = isOversamplingDue && this.hasClassSizeDeficit(min_class, maj_class) && this.checkMicroClustersReady();
+		if (isOversamplingDue && this.oversampleAllClassesOption.isSet()) {
+			this.oversampleAllClasses(maj_class, isMicroClustersReady, inst.dataset());
 		}
+		boolean isMinorityOversamplingDue = isOversamplingDue && !this.oversampleAllClassesOption.isSet();
 		
-		Instance last_minority_oneHot = null;
-		if (this.last_inst[min_class] != null) {
-			last_minority_oneHot = this.last_inst[min_class].copy();
-			try {
-				last_minority_oneHot = this.nominalToBinary(last_minority_oneHot);
-			} catch (Exception e) {
-				e.printStackTrace();
+		Clustering[] mClusteringResults = null;
+		if (isMinorityOversamplingDue && isMicroClustersReady && this.baseLearner.getRawClassSize(min_class) < this.baseLearner.getRawClassSize(maj_class)) {
+			mClusteringResults = this.getMicroClusteringResults();
+			if (this.batchOversamplingOption.isSet()) {
+				this.oversampleInBatch(mClusteringResults, min_class, maj_class, inst.dataset());
 			}
 		}
 		
-		boolean isMicroClustersReady = this.checkMicroClustersReady(mClusteringResults);
-		
-		while (this.baseLearner.getRawClassSize(min_class) < this.baseLearner.getRawClassSize(maj_class) && (isMicroClustersReady || this.last_inst[min_class] != null)) {
+		while (isMinorityOversamplingDue && this.baseLearner.getRawClassSize(min_class) < this.baseLearner.getRawClassSize(maj_class) && (isMicroClustersReady || this.last_inst[min_class] != null)) {
 			if (isMicroClustersReady) {
 				
-				CFCluster anchor_mCluster = null;
-				anchor_mCluster = this.getAnchor_mCluster(mClusteringResults[min_class]);
-				for (int i = 0; i < allkNNmCluster_index_distance.length; ++i) {
-					allkNNmCluster_index_distance[i] = this.kNNmClusterIndex(anchor_mCluster, mClusteringResults[i]);
-				}
-				boolean isSurroundedBySameClass = checkSurroundedBySameClass(allkNNmCluster_index_distance, min_class);
+				int anchor_index = this.getAnchor_mClusterIndex(min_class);
+				SynthBatch workspace = this.synthBatch(min_class, 1);
+				workspace.clearkNN(mClusteringResults[min_class].size());
 				
 				try {
-					Instance synthInstOneHot = isSurroundedBySameClass ? this.generateSynthInstFromkNN(mClusteringResults, allkNNmCluster_index_distance, anchor_mCluster, min_class, last_minority_oneHot.dataset()) : 
-																		 this.generateSynthInstByGaussianSamplingmCluster(anchor_mCluster, min_class, last_minority_oneHot.dataset());
-					Instance synthInst = this.binaryToNominal(synthInstOneHot, this.last_inst[min_class].dataset());
+					this.generateSynthSample(workspace, mClusteringResults, min_class, anchor_index, this.classifierRandom, workspace.rows[0]);
+					Instance synthInst = this.decodeSynthInst(workspace.rows[0], min_class, inst.dataset());
 					
-					synthInstOneHot.deleteAttributeAt(synthInstOneHot.classIndex());
-    				this.clusterers[min_class].trainOnInstance(synthInstOneHot, false);
+    				this.clusterers[min_class].trainOnInstance(workspace.instances[0], false);
     				
     				// Train base learner with synthetic example.
             		this.baseLearner.trainOnInstance(synthInst);
@@ -229,39 +295,72 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 				Instance synthInst = this.addGaussianNoiseToInstance(this.last_inst[min_class]);
         		
         		// Train the corresponding stream clustering method with synthetic data
-				try {
-					Instance synthInstOneHot = this.nominalToBinary(synthInst);
-					synthInstOneHot.deleteAttributeAt(synthInstOneHot.classIndex());
-    				this.clusterers[min_class].trainOnInstance(synthInstOneHot, false);
-				} catch (Exception e) {
-					e.printStackTrace();
-					System.exit(2);
-					break;
-				}
+				this.clusterers[min_class].trainOnInstance(this.nominalToBinary(synthInst), false);
 				// Train base learner with synthetic example.
         		this.baseLearner.trainOnInstance(synthInst);
 			}
 			
 		} // End-while
 		
-		// Setting up the data for training the clusterer
-		Instance to_train_clusterer = inst.copy();
-		try {
-			to_train_clusterer = this.nominalToBinary(to_train_clusterer);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		to_train_clusterer.deleteAttributeAt(to_train_clusterer.classIndex());
 		// Train the corresponding stream clustering method with the most current real instance.
-		this.clusterers[current_class].trainOnInstance(to_train_clusterer, true);
+		this.clusterers[current_class].trainOnInstance(this.nominalToBinary(inst), true);
 		
     }
 	
 	// will result in an error if classSize is not initialised yet
 	@Override
     protected Measurement[] getModelMeasurementsImpl() {
-		return this.baseLearner.getModelMeasurements();
+		Measurement[] baseMeasurements = this.baseLearner.getModelMeasurements();
+		if (this.baseLearner.classSizeEstimation == null) {
+			return baseMeasurements;
+		}
+		Measurement[] measurements = Arrays.copyOf(baseMeasurements, baseMeasurements.length + 1);
+		measurements[baseMeasurements.length] = new Measurement("oversampling backlog (synthetic examples)",
+				this.oversamplingBacklog());
+		return measurements;
     }
+	
+	/**
+	 * The synthetic examples the next oversampling would generate: the deficit of the current minority class to the
+	 * majority class by default, or the sum of the deficits of all classes when every class is oversampled. Right after
+	 * oversampling the default backlog can already be positive, when another class has become the minority class.
+	 */
+	private int oversamplingBacklog() {
+		int maj_class = this.baseLearner.getMajorityClass();
+		if (!this.oversampleAllClassesOption.isSet()) {
+			return this.classSizeDeficit(this.baseLearner.getMinorityClass(), maj_class);
+		}
+		int backlog = 0;
+		for (int deficit : this.classSizeDeficits(maj_class)) {
+			backlog += deficit;
+		}
+		return backlog;
+	}
+	
+	/**
+	 * Counts the real instance and tells whether the oversampling schedule lets the synthetic examples be generated now.
+	 * Generation always closes the whole class size deficit, so deferring it keeps the same class balance in the long run.
+	 */
+	private boolean isOversamplingDue() {
+		this.instancesSinceOversampling++;
+		boolean isDue;
+		switch (this.oversamplingScheduleOption.getChosenIndex()) {
+			case 1:
+				isDue = this.instancesSinceOversampling >= this.oversamplingPeriodOption.getValue();
+				break;
+			case 2:
+				isDue = System.currentTimeMillis() - this.lastOversamplingTime >= this.oversamplingPeriodOption.getValue();
+				break;
+			default:
+				isDue = true;
+				break;
+		}
+		if (isDue) {
+			this.instancesSinceOversampling = 0;
+			this.lastOversamplingTime = System.currentTimeMillis();
+		}
+		return isDue;
+	}
 
 	@Override
 	public boolean isRandomizable() {
@@ -281,111 +380,291 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 		
 	}
 	
-	private Instance generateSynthInstFromkNN(Clustering[] mClusteringResults, double[][][] allkNNmCluster_index_distance, CFCluster anchor, int currentClass, Instances dataset) {
-		Clustering mClusters = (Clustering) mClusteringResults[currentClass].copy();
-		double[][] sorted_index_distance = Arrays.copyOf(allkNNmCluster_index_distance[currentClass], allkNNmCluster_index_distance[currentClass].length);
-		double[] anchor_centre = anchor.getCenter();
-		
-		// Create a sphere cluster wrapper for the current inst. Let it be SphereCluster(inst).
-		SphereCluster anchor_mCluster = new SphereCluster(anchor_centre, anchor.getRadius());
-
-		SphereCluster[] mClusters_to_combine = new SphereCluster[sorted_index_distance.length+1];
-		mClusters_to_combine[0] = anchor_mCluster;
-		for (int i = 0; i < sorted_index_distance.length; ++i) {
-			SphereCluster temp = (SphereCluster) mClusters.get((int) sorted_index_distance[i][0]).copy();
-			mClusters_to_combine[i+1] = temp;
+	/**
+	 * Batch oversampling: the number of synthetic examples needed to bring the minority class up to the majority class is
+	 * worked out once, their anchors are drawn in one pass and the examples are written into reused buffers before the minority
+	 * clusterer and the base learner are trained on the whole batch. The kNN micro-clusters are only searched once per distinct anchor.
+	 */
+	private void oversampleInBatch(Clustering[] mClusteringResults, int min_class, int maj_class, Instances original_header) {
+		int numSynth = this.classSizeDeficit(min_class, maj_class);
+		if (numSynth == 0) {
+			return;
 		}
-		
-		SphereCluster resultingCluster = this.combine_multiple_mClusters(mClusters_to_combine);
-		
-		// Sample the resulting SphereCluster as the synthetic example.
-		Instance sample_inst = resultingCluster.sample_around_target(classifierRandom, anchor_centre);
-		double[] sample = sample_inst.toDoubleArray();
-		
-		// Append the Class label to the synthetic example.
-		double[] sampleWithClass = new double[sample.length+1];
-		System.arraycopy(sample, 0, sampleWithClass, 0, sample.length);
-		sampleWithClass[sampleWithClass.length-1] = (double) currentClass;
-		
-		// Create an Instance based on the array and set weight to 1.0;
-		Instance synthInst = new DenseInstance(1d, sampleWithClass);
-		synthInst.setDataset(dataset);
-		
-		return synthInst;
-		
+		SynthBatch batch = this.synthBatch(min_class, numSynth);
+		this.generateSynthBatch(batch, mClusteringResults, min_class, this.anchorSampler(min_class), this.classifierRandom);
+		batch.trainClusterer(this.clusterers[min_class]);
+		this.trainBaseLearnerOnSynthBatch(batch, min_class, original_header);
 	}
 	
-	private SphereCluster combine_multiple_mClusters(SphereCluster[] mClusters) {
-		double[][] all_centres = new double[mClusters.length][];
-		double[] all_weights = new double[mClusters.length];
-		double[] all_radius = new double[mClusters.length];
-		
-		double sum_of_weights = 0.0;
-		
-		for (int i = 0; i < all_centres.length; ++i) {
-			all_centres[i] = mClusters[i].getCenter();
-			all_weights[i] = mClusters[i].getWeight();
-			sum_of_weights += all_weights[i];
-			all_radius[i] = mClusters[i].getRadius();
+	/**
+	 * Oversamples every class below the majority class. The number of synthetic examples of each class is found by replaying
+	 * the class size updates in class order. The examples of every class are then generated and fed to the clusterer of that
+	 * class on the worker pool, each class with its own random generator, before the shared base learner is trained on all
+	 * of them sequentially in class order, so the result does not depend on the number of jobs.
+	 */
+	private void oversampleAllClasses(int maj_class, boolean isMicroClustersReady, Instances original_header) {
+		int[] numSynth = this.classSizeDeficits(maj_class);
+		if (!isMicroClustersReady) {
+			for (int c = 0; c < numSynth.length; ++c) {
+				for (int i = 0; i < numSynth[c] && this.last_inst[c] != null; ++i) {
+					Instance synthInst = this.addGaussianNoiseToInstance(this.last_inst[c]);
+					this.clusterers[c].trainOnInstance(this.nominalToBinary(synthInst), false);
+					this.baseLearner.trainOnInstance(synthInst);
+				}
+			}
+			return;
 		}
 		
-		int dim = all_centres[0].length;
-		double[] newCentre = new double[dim];
-		
-		for (int i = 0; i < newCentre.length; ++i) { // i-th dimension
-			double dim_result = 0.0;
-			for (int j = 0; j < all_centres.length; ++j) { // j-th centre
-				dim_result += all_centres[j][i] * all_weights[j];
+		Clustering[] mClusteringResults = this.getMicroClusteringResults();
+		List<SynthBatchGenerator> generators = new ArrayList<SynthBatchGenerator>();
+		for (int c = 0; c < numSynth.length; ++c) {
+			if (numSynth[c] > 0) {
+				// The samplers and the buffers are prepared here, the workers only read the shared state.
+				generators.add(new SynthBatchGenerator(this.synthBatch(c, numSynth[c]), mClusteringResults, c, this.anchorSampler(c)));
 			}
-			newCentre[i] = dim_result / sum_of_weights;
 		}
-		
-		double[] r_n = new double[mClusters.length];
-		for (int i = 0; i < r_n.length; ++i) {
-			r_n[i] = all_radius[i] + Math.abs(distance(all_centres[i], newCentre));
+		ExecutorService executor = this.getExecutor();
+		if (executor == null) {
+			for (SynthBatchGenerator generator : generators) {
+				generator.run();
+			}
+		} else {
+			try {
+				for (Future<Integer> result : executor.invokeAll(generators)) {
+					result.get();
+				}
+			} catch (InterruptedException ex) {
+				throw new RuntimeException("Could not call invokeAll() on synthetic example generators.");
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Synthetic example generation failed.", ex.getCause());
+			}
+		}
+		for (SynthBatchGenerator generator : generators) {
+			this.trainBaseLearnerOnSynthBatch(generator.batch, generator.mClass, original_header);
 		}
-		
-		Arrays.sort(r_n);
-		double newRadius = r_n[r_n.length-1];
-		
-		return new SphereCluster(newCentre, newRadius);
 	}
 	
-	private double distance(double[] v1, double[] v2){
-		double distance = 0.0;
-		for (int i = 0; i < v1.length; i++) {
-			double d = v1[i] - v2[i];
-			distance += d * d;
+	private ExecutorService getExecutor() {
+		int numberOfJobs = this.numberOfJobsOption.getValue() == -1 ? Runtime.getRuntime().availableProcessors() : this.numberOfJobsOption.getValue();
+		if (this.executor == null && numberOfJobs != 0 && numberOfJobs != 1) {
+			this.executor = Executors.newFixedThreadPool(numberOfJobs, runnable -> {
+				Thread thread = new Thread(runnable, "SMOClust-generator");
+				thread.setDaemon(true);
+				return thread;
+			});
 		}
-		return Math.sqrt(distance);
+		return this.executor;
 	}
 	
-	private Instance generateSynthInstByGaussianSamplingmCluster(CFCluster anchor, int current_class, Instances dataset) {
-
-		Instance sample_inst = anchor.sampleGaussian(this.classifierRandom);
-		double[] sample = sample_inst.toDoubleArray();
-		
-		// Append the Class label to the synthetic example.
-		double[] sampleWithClass = new double[sample.length+1];
-		System.arraycopy(sample, 0, sampleWithClass, 0, sample.length);
-		sampleWithClass[sampleWithClass.length-1] = (double) current_class;
+	/**
+	 * Draws the anchors of the batch in one pass and writes a synthetic example of the given class for each of them into
+	 * the batch. The kNN micro-clusters are only searched once per distinct anchor.
+	 */
+	private void generateSynthBatch(SynthBatch batch, Clustering[] mClusteringResults, int mClass, WeightedIndexSampler anchorSampler, Random random) {
+		for (int i = 0; i < batch.size; ++i) {
+			batch.anchors[i] = anchorSampler.nextIndex(random);
+		}
+		batch.clearkNN(mClusteringResults[mClass].size());
+		for (int i = 0; i < batch.size; ++i) {
+			this.generateSynthSample(batch, mClusteringResults, mClass, batch.anchors[i], random, batch.rows[i]);
+		}
+	}
+	
+	/**
+	 * Writes the one-hot input values of a synthetic example of the given class around an anchor micro-cluster into sample.
+	 * If the anchor is surrounded by micro-clusters of its own class, the example is sampled from the combination of the
+	 * anchor and its kNN micro-clusters, skewed towards the anchor. Otherwise it is sampled from a Gaussian around the anchor.
+	 * Centres and radii are read from the micro-cluster indices and only the buffers of the batch are written.
+	 */
+	private void generateSynthSample(SynthBatch batch, Clustering[] mClusteringResults, int mClass, int anchor_index, Random random, double[] sample) {
+		BallTree mClusterIndex = this.mClusterIndices[mClass];
+		double[] anchor_centre = mClusterIndex.getCenter(anchor_index, batch.anchorCentre);
+		double anchor_radius = mClusterIndex.getRadius(anchor_index);
+		if (batch.anchorkNNStamp[anchor_index] != batch.kNNStamp) {
+			this.searchkNNmClusters(batch, anchor_centre, anchor_radius, anchor_index, mClass);
+		}
 		
-		// Create an Instance based on the array and set weight to 1.0;
-		Instance synthInst = new DenseInstance(1d, sampleWithClass);
-		synthInst.setDataset(dataset);
+		if (batch.anchorSurrounded[anchor_index]) {
+			double radius = this.combine_multiple_mClusters(anchor_centre, anchor_radius, mClusteringResults[mClass], mClusterIndex,
+					batch.anchorkNN[anchor_index], batch.anchorNumkNN[anchor_index], batch.mClusterCentre, batch.combinedCentre);
+			if (SphereCluster.sample_around_target(random, batch.combinedCentre, radius, anchor_centre, sample) == null) {
+				throw new IllegalStateException("The anchor micro-cluster " + anchor_index + " is outside its combined micro-cluster.");
+			}
+		} else {
+			SphereCluster.sampleGaussian(random, anchor_centre, anchor_radius, sample);
+		}
+	}
+	
+	/**
+	 * Searches the kNN micro-clusters of the anchor in the micro-clustering of every class (skipping the anchor itself in its
+	 * own class) and records, for the anchor, whether its own class has the smallest average kNN distance and which of its
+	 * own micro-clusters are its kNN.
+	 */
+	private void searchkNNmClusters(SynthBatch batch, double[] anchor_centre, double anchor_radius, int anchor_index, int anchor_class) {
+		int k = this.kNNOption.getValue();
+		double minimum = Double.MAX_VALUE;
+		int minIndex = -1;
+		int numkNN = 0;
+		for (int i = 0; i < this.mClusterIndices.length; ++i) {
+			int found = this.mClusterIndices[i].kNearest(anchor_centre, anchor_radius, k, i == anchor_class ? anchor_index : -1,
+					batch.kNNIndices, batch.kNNDistances);
+			double total = 0.0;
+			for (int j = 0; j < found; ++j) {
+				total += batch.kNNDistances[j];
+			}
+			double current_avgDistance = total / found;
+			if ((i == 0) || (current_avgDistance < minimum)) {
+				minIndex = i;
+				minimum = current_avgDistance;
+			}
+			if (i == anchor_class) {
+				System.arraycopy(batch.kNNIndices, 0, batch.anchorkNN[anchor_index], 0, found);
+				numkNN = found;
+			}
+		}
+		batch.anchorkNNStamp[anchor_index] = batch.kNNStamp;
+		batch.anchorSurrounded[anchor_index] = minIndex == anchor_class;
+		batch.anchorNumkNN[anchor_index] = numkNN;
+	}
+	
+	/**
+	 * Combines the anchor and its kNN micro-clusters into one sphere: the weighted mean of their centres, just big enough to
+	 * contain all of them. The anchor has the weight of a plain SphereCluster, i.e. 1.
+	 * @param mCluster_centre scratch buffer for the centres of the kNN micro-clusters
+	 * @param newCentre receives the centre of the combined sphere
+	 * @return the radius of the combined sphere
+	 */
+	private double combine_multiple_mClusters(double[] anchor_centre, double anchor_radius, Clustering mClusters, BallTree mClusterIndex,
+			int[] kNN, int numkNN, double[] mCluster_centre, double[] newCentre) {
+		double anchor_weight = 1.0;
+		double sum_of_weights = 0.0 + anchor_weight;
+		for (int i = 0; i < newCentre.length; ++i) {
+			newCentre[i] = 0.0 + anchor_centre[i] * anchor_weight;
+		}
+		for (int j = 0; j < numkNN; ++j) {
+			double weight = mClusters.get(kNN[j]).getWeight();
+			mClusterIndex.getCenter(kNN[j], mCluster_centre);
+			for (int i = 0; i < newCentre.length; ++i) {
+				newCentre[i] += mCluster_centre[i] * weight;
+			}
+			sum_of_weights += weight;
+		}
+		for (int i = 0; i < newCentre.length; ++i) {
+			newCentre[i] /= sum_of_weights;
+		}
 		
-		return synthInst;
+		double newRadius = anchor_radius + Math.abs(Distances.euclidean(anchor_centre, newCentre));
+		for (int j = 0; j < numkNN; ++j) {
+			mClusterIndex.getCenter(kNN[j], mCluster_centre);
+			newRadius = Math.max(newRadius, mClusterIndex.getRadius(kNN[j]) + Math.abs(Distances.euclidean(mCluster_centre, newCentre)));
+		}
+		return newRadius;
+	}
+	
+	private void trainBaseLearnerOnSynthBatch(SynthBatch batch, int mClass, Instances original_header) {
+		for (int i = 0; i < batch.size; ++i) {
+			this.baseLearner.trainOnInstance(this.decodeSynthInst(batch.rows[i], mClass, original_header));
+		}
+	}
+	
+	/**
+	 * Whether any class that is oversampled is smaller than the majority class.
+	 */
+	private boolean hasClassSizeDeficit(int min_class, int maj_class) {
+		if (!this.oversampleAllClassesOption.isSet()) {
+			return this.baseLearner.getRawClassSize(min_class) < this.baseLearner.getRawClassSize(maj_class);
+		}
+		for (int c = 0; c < this.clusterers.length; ++c) {
+			if (this.baseLearner.getRawClassSize(c) < this.baseLearner.getRawClassSize(maj_class)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
-	private CFCluster getAnchor_mCluster(Clustering mClusters) {
-		double[] weights = new double[mClusters.size()];
-		for (int i = 0; i < weights.length; ++i) {
+	/**
+	 * The number of minority examples the base learner has to be trained on before its raw minority class size reaches
+	 * the majority one, found by replaying the decayed class size update of the base learner.
+	 */
+	private int classSizeDeficit(int min_class, int maj_class) {
+		double theta = this.thetaOption.getValue();
+		double minSize = this.baseLearner.getRawClassSize(min_class);
+		double majSize = this.baseLearner.getRawClassSize(maj_class);
+		int deficit = 0;
+		while (minSize < majSize) {
+			minSize = theta * minSize + 1d;
+			majSize = theta * majSize;
+			deficit++;
+		}
+		return deficit;
+	}
+	
+	/**
+	 * The number of synthetic examples of every class needed to bring it up to the majority class, when the classes are
+	 * oversampled in class order.
+	 */
+	private int[] classSizeDeficits(int maj_class) {
+		double theta = this.thetaOption.getValue();
+		double[] classSizes = new double[this.clusterers.length];
+		for (int i = 0; i < classSizes.length; ++i) {
+			classSizes[i] = this.baseLearner.getRawClassSize(i);
+		}
+		int[] deficits = new int[classSizes.length];
+		for (int c = 0; c < classSizes.length; ++c) {
+			while (classSizes[c] < classSizes[maj_class]) {
+				for (int i = 0; i < classSizes.length; ++i) {
+					classSizes[i] = theta * classSizes[i] + (i == c ? 1d : 0d);
+				}
+				deficits[c]++;
+			}
+		}
+		return deficits;
+	}
+	
+	private SynthBatch synthBatch(int mClass, int size) {
+		if (this.synthBatches[mClass] == null) {
+			this.synthBatches[mClass] = new SynthBatch();
+		}
+		this.synthBatches[mClass].resize(size);
+		return this.synthBatches[mClass];
+	}
+	
+	/**
+	 * Decodes the one-hot input values of a synthetic example of the given class into a new instance with the original header.
+	 */
+	private Instance decodeSynthInst(double[] sample, int classValue, Instances original_header) {
+		int classIndex = this.oneHotEncoder.binaryClassIndex();
+		for (int i = 0; i < sample.length; ++i) {
+			this.synthBinaryInst.setValue(i < classIndex ? i : i + 1, sample[i]);
+		}
+		this.synthBinaryInst.setValue(classIndex, classValue);
+		return this.binaryToNominal(this.synthBinaryInst, original_header);
+	}
+	
+	private int getAnchor_mClusterIndex(int mClass) {
+		return this.anchorSampler(mClass).nextIndex(this.classifierRandom);
+	}
+	
+	/**
+	 * The sampler of anchor micro-clusters of a class, rebuilt only when the snapshot of its micro-clustering has changed.
+	 */
+	private WeightedIndexSampler anchorSampler(int mClass) {
+		if (this.anchorSamplers[mClass] == null) {
+			this.anchorSamplers[mClass] = new WeightedIndexSampler();
+		} else if (this.anchorSamplerVersions[mClass] == this.mClusteringSnapshotVersions[mClass]) {
+			return this.anchorSamplers[mClass];
+		}
+		Clustering mClusters = this.mClusteringSnapshots[mClass];
+		if (this.anchorWeights == null || this.anchorWeights.length < mClusters.size()) {
+			this.anchorWeights = new double[mClusters.size()];
+		}
+		for (int i = 0; i < mClusters.size(); ++i) {
 			CFCluster tmp = (CFCluster) mClusters.get(i);
-			weights[i] = tmp.getMeanTimeStamp() + 1.0; // just in case the Mean Time stamp is 0, then it will get 0 chance to be selected.
+			this.anchorWeights[i] = tmp.getMeanTimeStamp() + 1.0; // just in case the Mean Time stamp is 0, then it will get 0 chance to be selected.
 		}
-		
-		int index_to_get = MiscUtils.chooseRandomIndexBasedOnWeights(weights, this.classifierRandom);
-		return (CFCluster) mClusters.get(index_to_get);
+		this.anchorSamplers[mClass].setWeights(this.anchorWeights, mClusters.size());
+		this.anchorSamplerVersions[mClass] = this.mClusteringSnapshotVersions[mClass];
+		return this.anchorSamplers[mClass];
 	}
 	
 	private Instance addGaussianNoiseToInstance(Instance point) {
@@ -421,106 +700,162 @@ public class SMOClust extends AbstractClassifier implements MultiClassClassifier
 		return pointWithNoise;
 	}
 	
-	private boolean checkMicroClustersReady(Clustering[] mClusteringResults) {
-		for (Clustering mClusteringResult : mClusteringResults) {
+	private boolean checkMicroClustersReady() {
+		for (Clusterer clusterer : this.clusterers) {
+			MicroClusteringView mClusters = clusterer.getMicroClusteringView();
 			// k+1 because we need to skip the first element when find kNN for anchor mCluster.
-			if (mClusteringResult == null || mClusteringResult.size() < this.kNNOption.getValue() + 1) {
+			if (mClusters == null || mClusters.size() < this.kNNOption.getValue() + 1) {
 				return false;
 			}
 		}
 		return true;
 	}
 	
-	private boolean checkSurroundedBySameClass(double[][][] allkNNmCluster_index_distance, int currentClass) {
-		double minimum = Double.MAX_VALUE;
-		int minIndex = -1;
-		for (int i = 0; i < allkNNmCluster_index_distance.length; ++i) {
-			double current_avgDistance = kNNAvgDistance(allkNNmCluster_index_distance[i]);
-			if ((i == 0) || (current_avgDistance < minimum)) {
-				minIndex = i;
-				minimum = current_avgDistance;
+	/**
+	 * Snapshots of the micro-clusterings, only re-taken (and re-indexed) for the clusterers whose model changed since the last snapshot.
+	 */
+	private Clustering[] getMicroClusteringResults() {
+		for (int i = 0; i < this.clusterers.length; ++i) {
+			long version = this.clusterers[i].getModelVersion();
+			if (this.mClusteringSnapshots[i] == null || this.mClusteringSnapshotVersions[i] != version) {
+				this.mClusteringSnapshots[i] = this.clusterers[i].getMicroClusteringResult();
+				this.mClusteringSnapshotVersions[i] = version;
+				this.mClusterIndices[i] = this.indexMicroClusters(this.mClusterIndices[i], this.mClusteringSnapshots[i]);
 			}
 		}
-		return minIndex == currentClass;
-	}
-	
-	private double kNNAvgDistance(double[][] kNNmCluster_index_distance) {
-		return kNNTotalDistance(kNNmCluster_index_distance) / kNNmCluster_index_distance.length;
+		return this.mClusteringSnapshots;
 	}
 	
-	private double kNNTotalDistance(double[][] kNNmCluster_index_distance) {
-		double to_return = 0.0;
-		for (double[] index_distance : kNNmCluster_index_distance) {
-			to_return += index_distance[1];
+	/**
+	 * Moves the micro-clusters of the new snapshot in the existing index, or rebuilds it when the number of micro-clusters changed
+	 * or when the moved micro-clusters have made its bounds too loose.
+	 */
+	private BallTree indexMicroClusters(BallTree index, Clustering mClusters) {
+		if (index == null || index.size() != mClusters.size() || index.needsRebuild()) {
+			return new BallTree(mClusters);
 		}
-		return to_return;
+		for (int i = 0; i < mClusters.size(); ++i) {
+			SphereCluster mCluster = (SphereCluster) mClusters.get(i);
+			index.update(i, mCluster.getCenter(), mCluster.getRadius());
+		}
+		return index;
 	}
-
-    private double[][] kNNmClusterIndex(CFCluster anchor, Clustering mClusteringResult) {
-    	double[][] allDistanceWithClusterIndex = new double[mClusteringResult.size()][]; // [][0] is clusterIndex; [][1] is the distance;
-    	
-    	boolean result_contains_anchor = false;
-    	for (int i = 0; i < mClusteringResult.size(); ++i) {
-    		CFCluster mCluster = (CFCluster) mClusteringResult.get(i);
-    		result_contains_anchor = anchor.equals(mCluster);
-    		double distance = mCluster.getHullDistance(anchor);
-    		allDistanceWithClusterIndex[i] = new double[] {i, distance <= 0 ? 0.0 : distance};
-    		
-    	}
-    	Arrays.sort(allDistanceWithClusterIndex, Comparator.comparingDouble(ele -> ele[1])); // Sorting by distance in decending order.
-    	int k = this.kNNOption.getValue();
-    	double[][] to_return = new double[k][];
-    	// Skip anchor itself if result contains it.
-    	System.arraycopy(allDistanceWithClusterIndex, result_contains_anchor ? 1 : 0, to_return, 0, k);
-    	return to_return;
-    }
 	
-	private Instance binaryToNominal(Instance bin_inst, Instances original_header) throws Exception {
+	private Instance binaryToNominal(Instance bin_inst, Instances original_header) {
 		Instance tmp_inst = new DenseInstance(original_header.numAttributes());
 		tmp_inst.setDataset(original_header);
+		this.oneHotEncoder.decode(bin_inst, tmp_inst);
+		return tmp_inst;
+	}
+	
+	/**
+	 * One-hot encodes the input attributes of an instance for the clusterers.
+	 * The returned instance is reused and is overwritten by the next call.
+	 */
+	private Instance nominalToBinary(Instance original_inst) {
+		this.oneHotEncoder.encodeInputs(original_inst);
+		this.clustererInput.setWeight(original_inst.weight());
+		return this.clustererInput;
+	}
+	
+	/**
+	 * Reused buffer of synthetic examples of one class. The one-hot input values are written into the rows, which are wrapped
+	 * by instances with the encoded header, so the clusterers can be trained on them directly.
+	 */
+	protected class SynthBatch implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		protected int size;
+		protected int[] anchors = new int[0];
+		protected double[][] rows = new double[0][];
+		protected Instance[] instances = new Instance[0];
+		
+		// Scratch buffers of the sampling, so that generating an example allocates nothing.
+		protected double[] anchorCentre;
+		protected double[] mClusterCentre;
+		protected double[] combinedCentre;
+		protected int[] kNNIndices;
+		protected double[] kNNDistances;
+		
+		// kNN micro-clusters of the anchors met since the last clearkNN(), indexed by anchor.
+		protected int kNNStamp;
+		protected int[] anchorkNNStamp = new int[0];
+		protected boolean[] anchorSurrounded = new boolean[0];
+		protected int[][] anchorkNN = new int[0][];
+		protected int[] anchorNumkNN = new int[0];
+		
+		public SynthBatch() {
+			int dimensions = oneHotEncoder.numBinaryInputAttributes();
+			this.anchorCentre = new double[dimensions];
+			this.mClusterCentre = new double[dimensions];
+			this.combinedCentre = new double[dimensions];
+			this.kNNIndices = new int[kNNOption.getValue()];
+			this.kNNDistances = new double[kNNOption.getValue()];
+		}
 		
-		for (int i = 0; i < original_header.numAttributes(); ++i) {
-			String current_attr_name = original_header.attribute(i).name();
-			ArrayList<Double> values = new ArrayList<Double>();
-			
-			for (int j = 0; j < bin_inst.numAttributes(); ++j) {
-				if (bin_inst.attribute(j).name().contains(current_attr_name)) {
-					values.add(bin_inst.value(j));
-				}
+		/**
+		 * Forgets the kNN micro-clusters found so far, for a micro-clustering with the given number of anchors.
+		 */
+		public void clearkNN(int numAnchors) {
+			this.kNNStamp++;
+			if (numAnchors > this.anchorkNNStamp.length) {
+				this.anchorkNNStamp = new int[numAnchors];
+				this.anchorSurrounded = new boolean[numAnchors];
+				this.anchorkNN = new int[numAnchors][kNNOption.getValue()];
+				this.anchorNumkNN = new int[numAnchors];
 			}
-			
-			if (values.size() == 1 && original_header.attribute(i).isNumeric()) { // Numeric attribute
-				tmp_inst.setValue(i, values.get(0));
-			} else if (values.size() == 1 && original_header.attribute(i).isNominal()) { // True Binary attribute
-				int tmp_value = (int) Math.round(values.get(0));
-				if (tmp_value >= 1) tmp_value = 1;
-				if (tmp_value <= 0) tmp_value = 0;
-				tmp_inst.setValue(i, tmp_value);
-			} else if (values.size() > 1) { // Binary attribute: to be converted to nominal attribute
-				
-				double maxValue = Collections.max(values);
-				int maxIndex = values.indexOf(maxValue);
-				tmp_inst.setValue(i, maxIndex);
-				
-			} else { // matched_attributes.size == 0, which shouldn't happen but just in case.
-				throw new Exception("No matched attribute.");
+		}
+		
+		public void resize(int size) {
+			if (size > this.rows.length) {
+				int capacity = Math.max(size, 2 * this.rows.length);
+				this.anchors = new int[capacity];
+				this.rows = new double[capacity][oneHotEncoder.numBinaryInputAttributes()];
+				this.instances = new Instance[capacity];
+				for (int i = 0; i < capacity; ++i) {
+					this.instances[i] = new DenseInstance(1d, this.rows[i]);
+					this.instances[i].setDataset(oneHotEncoder.getBinaryHeader());
+				}
 			}
+			this.size = size;
 		}
 		
-		return tmp_inst;
+		public void trainClusterer(Clusterer clusterer) {
+			for (int i = 0; i < this.size; ++i) {
+				clusterer.trainOnInstance(this.instances[i], false);
+			}
+		}
 	}
 	
-	private Instance nominalToBinary(Instance original_inst) throws Exception {
-		Instances moaInstances = new Instances(original_inst.dataset());
-		moaInstances.add(original_inst);
+	/**
+	 * Generates the synthetic examples of one class and trains the clusterer of that class on them. It only modifies the
+	 * batch, the random generator and the clusterer of its class, so the classes can be run in parallel.
+	 */
+	protected class SynthBatchGenerator implements Runnable, Callable<Integer> {
+		final private SynthBatch batch;
+		final private Clustering[] mClusteringResults;
+		final private int mClass;
+		final private WeightedIndexSampler anchorSampler;
+		
+		public SynthBatchGenerator(SynthBatch batch, Clustering[] mClusteringResults, int mClass, WeightedIndexSampler anchorSampler) {
+			this.batch = batch;
+			this.mClusteringResults = mClusteringResults;
+			this.mClass = mClass;
+			this.anchorSampler = anchorSampler;
+		}
 		
-		weka.core.Instances wekaInstances = this.moaToWekaInstanceConverter.wekaInstances(moaInstances);
-		weka.filters.unsupervised.attribute.NominalToBinary nom2BinFilter = new weka.filters.unsupervised.attribute.NominalToBinary();
-		nom2BinFilter.setInputFormat(wekaInstances);
-		wekaInstances = weka.filters.Filter.useFilter(wekaInstances, nom2BinFilter);
-		moaInstances = this.wekaToMoaInstanceConverter.samoaInstances(wekaInstances);
+		@Override
+		public void run() {
+			generateSynthBatch(this.batch, this.mClusteringResults, this.mClass, this.anchorSampler, classRandoms[this.mClass]);
+			this.batch.trainClusterer(clusterers[this.mClass]);
+		}
 		
-		return moaInstances.get(0);
+		@Override
+		public Integer call() throws Exception {
+			run();
+			return 0;
+		}
 	}
 	
 	protected class BaseLearner extends AbstractClassifier {
@@ -0,0 +1,570 @@
+/*
+ *    BallTree.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.cluster;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import moa.core.Distances;
+
+/**
+ * Ball tree over the spheres of a clustering, used to find the k clusters with
+ * the smallest hull distance (see <code>SphereCluster.getHullDistance</code>)
+ * to a query sphere without scanning and sorting all of them. Over points
+ * (spheres of radius zero) queried with a point, the hull distance is the
+ * plain euclidean distance.
+ *
+ * Every node stores a ball that contains all the spheres below it, so a whole
+ * subtree is skipped once its lower bound is worse than the k-th best cluster
+ * found so far. Spheres can be moved with <code>update</code>, which only
+ * grows the balls on the path to the root; the tree should be rebuilt once
+ * <code>needsRebuild</code> says the balls have become too loose.
+ *
+ * Spheres can also be added and removed, which keeps the indices the same as
+ * in a list the spheres are appended to and removed from. Added spheres are
+ * kept aside and scanned linearly until the next rebuild; removed ones are
+ * left out of their leaf.
+ *
+ * Queries keep their state in the arrays supplied by the caller, so several
+ * threads can query the same tree as long as none of them modifies it.
+ */
+public class BallTree implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int LEAF_SIZE = 8;
+
+	private int dimensions;
+	private int size;
+
+	/** Sphere centres, one row of <code>dimensions</code> values per cluster. */
+	private double[] centers;
+	private double[] radii;
+
+	/**
+	 * Cluster indices, ordered so that every node covers a contiguous range.
+	 * Removed clusters are left as -1.
+	 */
+	private int[] order;
+	/** Leaf of every cluster, -1 for the clusters added since the last build. */
+	private int[] leafOf;
+	/** Number of positions of <code>order</code> the tree covers. */
+	private int treeSize;
+	/** Number of clusters added since the last build, the last ones. */
+	private int numPending;
+
+	private int numNodes;
+	private int[] nodeStart;
+	private int[] nodeEnd;
+	private int[] nodeLeft;
+	private int[] nodeRight;
+	private int[] nodeParent;
+	private double[] nodeCenters;
+	private double[] nodeRadii;
+
+	private int numUpdates;
+
+	public BallTree(Clustering clustering) {
+		build(clustering);
+	}
+
+	/**
+	 * Builds a tree over points, that is spheres with a radius of zero.
+	 * @param points one row per point, all of the same length
+	 */
+	public BallTree(double[][] points) {
+		build(points, null);
+	}
+
+	/**
+	 * Builds a tree over spheres.
+	 * @param centers one row per sphere, all of the same length
+	 * @param radii the radius of every sphere
+	 */
+	public BallTree(double[][] centers, double[] radii) {
+		build(centers, radii);
+	}
+
+	/**
+	 * Rebuilds the tree from scratch over the clusters of the given clustering,
+	 * which must all be <code>SphereCluster</code>s.
+	 */
+	public void build(Clustering clustering) {
+		int size = clustering.size();
+		allocate(size, size == 0 ? 0 : clustering.get(0).getCenter().length);
+		for (int i = 0; i < size; i++) {
+			SphereCluster cluster = (SphereCluster) clustering.get(i);
+			System.arraycopy(cluster.getCenter(), 0, this.centers, i * this.dimensions, this.dimensions);
+			this.radii[i] = cluster.getRadius();
+		}
+		rebuild();
+	}
+
+	/**
+	 * Rebuilds the tree from scratch over the given spheres.
+	 * @param radii the radius of every sphere, null for points
+	 */
+	public void build(double[][] centers, double[] radii) {
+		allocate(centers.length, centers.length == 0 ? 0 : centers[0].length);
+		for (int i = 0; i < centers.length; i++) {
+			System.arraycopy(centers[i], 0, this.centers, i * this.dimensions, this.dimensions);
+			this.radii[i] = radii == null ? 0.0 : radii[i];
+		}
+		rebuild();
+	}
+
+	private void allocate(int size, int dimensions) {
+		this.size = size;
+		this.dimensions = dimensions;
+		this.centers = new double[size * dimensions];
+		this.radii = new double[size];
+		this.order = new int[size];
+		this.leafOf = new int[size];
+		allocateNodes(size);
+	}
+
+	private void allocateNodes(int size) {
+		int maxNodes = Math.max(1, 2 * size);
+		this.nodeStart = new int[maxNodes];
+		this.nodeEnd = new int[maxNodes];
+		this.nodeLeft = new int[maxNodes];
+		this.nodeRight = new int[maxNodes];
+		this.nodeParent = new int[maxNodes];
+		this.nodeCenters = new double[maxNodes * this.dimensions];
+		this.nodeRadii = new double[maxNodes];
+	}
+
+	/**
+	 * Rebuilds the tree over the spheres it holds, as moved by
+	 * <code>update</code>, so that the balls are tight again.
+	 */
+	public void rebuild() {
+		if (this.order.length < this.size) {
+			this.order = new int[this.leafOf.length];
+		}
+		if (this.nodeStart.length < 2 * this.size) {
+			allocateNodes(this.leafOf.length);
+		} else {
+			Arrays.fill(this.nodeCenters, 0.0);
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.order[i] = i;
+		}
+		this.treeSize = this.size;
+		this.numPending = 0;
+		this.numNodes = 0;
+		this.numUpdates = 0;
+		if (this.size > 0) {
+			buildNode(0, this.size, -1);
+		}
+	}
+
+	/**
+	 * Appends a sphere, which gets the index <code>size()</code>.
+	 * @return the index of the sphere
+	 */
+	public int add(double[] center, double radius) {
+		if (this.size == 0) {
+			this.dimensions = center.length;
+		}
+		if (this.leafOf.length == this.size) {
+			int capacity = Math.max(LEAF_SIZE, 2 * this.size);
+			this.centers = Arrays.copyOf(this.centers, capacity * this.dimensions);
+			this.radii = Arrays.copyOf(this.radii, capacity);
+			this.leafOf = Arrays.copyOf(this.leafOf, capacity);
+		}
+		System.arraycopy(center, 0, this.centers, this.size * this.dimensions, this.dimensions);
+		this.radii[this.size] = radius;
+		this.leafOf[this.size] = -1;
+		this.numPending++;
+		return this.size++;
+	}
+
+	/**
+	 * Removes a sphere. The spheres after it move down by one index, as in a
+	 * list.
+	 */
+	public void remove(int index) {
+		int leaf = this.leafOf[index];
+		if (leaf != -1) {
+			for (int p = this.nodeStart[leaf]; p < this.nodeEnd[leaf]; p++) {
+				if (this.order[p] == index) {
+					this.order[p] = -1;
+				}
+			}
+			this.numUpdates++;
+		} else {
+			this.numPending--;
+		}
+		for (int p = 0; p < this.treeSize; p++) {
+			if (this.order[p] > index) {
+				this.order[p]--;
+			}
+		}
+		int moved = this.size - index - 1;
+		System.arraycopy(this.centers, (index + 1) * this.dimensions, this.centers, index * this.dimensions, moved * this.dimensions);
+		System.arraycopy(this.radii, index + 1, this.radii, index, moved);
+		System.arraycopy(this.leafOf, index + 1, this.leafOf, index, moved);
+		this.size--;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Writes the centre of a cluster, as it was when the tree was built or the
+	 * cluster last moved, into the given array.
+	 * @return the given array
+	 */
+	public double[] getCenter(int index, double[] center) {
+		System.arraycopy(this.centers, index * this.dimensions, center, 0, this.dimensions);
+		return center;
+	}
+
+	public double getRadius(int index) {
+		return this.radii[index];
+	}
+
+	/**
+	 * Moves the sphere of a cluster. The balls of its leaf and of all the
+	 * ancestors are grown to contain the new sphere.
+	 * @return true if the sphere changed
+	 */
+	public boolean update(int index, double[] center, double radius) {
+		int offset = index * this.dimensions;
+		boolean changed = this.radii[index] != radius;
+		for (int d = 0; d < this.dimensions && !changed; d++) {
+			changed = this.centers[offset + d] != center[d];
+		}
+		if (!changed) {
+			return false;
+		}
+		System.arraycopy(center, 0, this.centers, offset, this.dimensions);
+		this.radii[index] = radius;
+		this.numUpdates++;
+		for (int node = this.leafOf[index]; node != -1; node = this.nodeParent[node]) {
+			double r = Distances.euclidean(this.nodeCenters, node * this.dimensions, this.centers, offset, this.dimensions) + radius;
+			if (r > this.nodeRadii[node]) {
+				this.nodeRadii[node] = r;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true once more spheres have been moved or removed than the tree
+	 * holds, or once the spheres added since the last build cost more to scan
+	 * than a search of the tree
+	 */
+	public boolean needsRebuild() {
+		return this.numUpdates > this.size
+				|| (this.numPending > LEAF_SIZE && this.numPending * this.numPending > this.size);
+	}
+
+	/**
+	 * Finds the k clusters with the smallest hull distance to the given
+	 * sphere. Distances below zero (overlapping spheres) are reported as zero
+	 * and ties are broken by cluster index.
+	 * @param center the centre of the query sphere
+	 * @param radius the radius of the query sphere
+	 * @param k the number of neighbours
+	 * @param exclude a cluster index to leave out, -1 for none
+	 * @param indices receives the neighbour indices, nearest first
+	 * @param distances receives the neighbour distances
+	 * @return the number of neighbours found, at most k
+	 */
+	public int kNearest(double[] center, double radius, int k, int exclude, int[] indices, double[] distances) {
+		return kNearest(center, radius, k, exclude, indices, distances, false);
+	}
+
+	/**
+	 * Same as <code>kNearest</code>, but distances below zero are kept, so
+	 * that overlapping spheres come first in the order of how far they
+	 * overlap. For a query point this is the distance to the centre minus the
+	 * radius of the cluster.
+	 */
+	public int kNearestSigned(double[] center, double radius, int k, int exclude, int[] indices, double[] distances) {
+		return kNearest(center, radius, k, exclude, indices, distances, true);
+	}
+
+	private int kNearest(double[] center, double radius, int k, int exclude, int[] indices, double[] distances, boolean signed) {
+		int count = 0;
+		if (k > 0) {
+			if (this.treeSize > 0) {
+				count = search(0, center, radius, exclude, signed, k, indices, distances, count);
+			}
+			for (int index = this.size - this.numPending; index < this.size; index++) {
+				if (index != exclude) {
+					count = offer(indices, distances, count, k, index, hullDistance(index, center, radius, signed));
+				}
+			}
+		}
+		sort(indices, distances, count);
+		return count;
+	}
+
+	/**
+	 * @param count the number of neighbours found so far, kept as a heap in
+	 * <code>indices</code> and <code>distances</code>
+	 * @return the number of neighbours found after searching the node
+	 */
+	private int search(int node, double[] center, double radius, int exclude, boolean signed, int k, int[] indices, double[] distances, int count) {
+		if (this.nodeLeft[node] == -1) {
+			for (int p = this.nodeStart[node]; p < this.nodeEnd[node]; p++) {
+				int index = this.order[p];
+				if (index == -1 || index == exclude) {
+					continue;
+				}
+				count = offer(indices, distances, count, k, index, hullDistance(index, center, radius, signed));
+			}
+			return count;
+		}
+		int left = this.nodeLeft[node];
+		int right = this.nodeRight[node];
+		double leftBound = lowerBound(left, center, radius, signed);
+		double rightBound = lowerBound(right, center, radius, signed);
+		if (leftBound <= rightBound) {
+			count = visit(left, leftBound, center, radius, exclude, signed, k, indices, distances, count);
+			return visit(right, rightBound, center, radius, exclude, signed, k, indices, distances, count);
+		}
+		count = visit(right, rightBound, center, radius, exclude, signed, k, indices, distances, count);
+		return visit(left, leftBound, center, radius, exclude, signed, k, indices, distances, count);
+	}
+
+	private int visit(int node, double bound, double[] center, double radius, int exclude, boolean signed, int k, int[] indices, double[] distances, int count) {
+		// Equal bounds are still visited, they may hold ties with a smaller index.
+		if (count == k && bound > distances[0]) {
+			return count;
+		}
+		return search(node, center, radius, exclude, signed, k, indices, distances, count);
+	}
+
+	/**
+	 * Finds all clusters with a hull distance to the given sphere below a
+	 * maximum. For points in the tree and a query point this is the region
+	 * query of DBSCAN, the points closer than the maximum.
+	 * @param center the centre of the query sphere
+	 * @param radius the radius of the query sphere
+	 * @param maxDistance the distance the clusters have to be closer than
+	 * @param indices receives the cluster indices in ascending order, room
+	 * for <code>size()</code> of them
+	 * @return the number of clusters found
+	 */
+	public int withinDistance(double[] center, double radius, double maxDistance, int[] indices) {
+		int count = 0;
+		if (this.treeSize > 0) {
+			count = collect(0, center, radius, maxDistance, indices, count);
+		}
+		for (int index = this.size - this.numPending; index < this.size; index++) {
+			if (hullDistance(index, center, radius, true) < maxDistance) {
+				indices[count++] = index;
+			}
+		}
+		Arrays.sort(indices, 0, count);
+		return count;
+	}
+
+	private int collect(int node, double[] center, double radius, double maxDistance, int[] indices, int count) {
+		if (lowerBound(node, center, radius, true) > maxDistance) {
+			return count;
+		}
+		if (this.nodeLeft[node] == -1) {
+			for (int p = this.nodeStart[node]; p < this.nodeEnd[node]; p++) {
+				int index = this.order[p];
+				if (index != -1 && hullDistance(index, center, radius, true) < maxDistance) {
+					indices[count++] = index;
+				}
+			}
+			return count;
+		}
+		count = collect(this.nodeLeft[node], center, radius, maxDistance, indices, count);
+		return collect(this.nodeRight[node], center, radius, maxDistance, indices, count);
+	}
+
+	private double hullDistance(int index, double[] center, double radius, boolean signed) {
+		double distance = Distances.hull(this.centers, index * this.dimensions, this.radii[index], center, radius, this.dimensions);
+		return !signed && distance <= 0 ? 0.0 : distance;
+	}
+
+	private double lowerBound(int node, double[] center, double radius, boolean signed) {
+		double bound = Distances.hull(this.nodeCenters, node * this.dimensions, this.nodeRadii[node], center, radius, this.dimensions);
+		return !signed && bound <= 0 ? 0.0 : bound;
+	}
+
+	private int buildNode(int start, int end, int parent) {
+		int node = this.numNodes++;
+		this.nodeStart[node] = start;
+		this.nodeEnd[node] = end;
+		this.nodeParent[node] = parent;
+
+		int nodeOffset = node * this.dimensions;
+		for (int p = start; p < end; p++) {
+			int offset = this.order[p] * this.dimensions;
+			for (int d = 0; d < this.dimensions; d++) {
+				this.nodeCenters[nodeOffset + d] += this.centers[offset + d];
+			}
+		}
+		for (int d = 0; d < this.dimensions; d++) {
+			this.nodeCenters[nodeOffset + d] /= (end - start);
+		}
+		double nodeRadius = 0.0;
+		for (int p = start; p < end; p++) {
+			int index = this.order[p];
+			double r = Distances.euclidean(this.nodeCenters, nodeOffset, this.centers, index * this.dimensions, this.dimensions) + this.radii[index];
+			if (r > nodeRadius) {
+				nodeRadius = r;
+			}
+		}
+		this.nodeRadii[node] = nodeRadius;
+
+		if (end - start <= LEAF_SIZE) {
+			this.nodeLeft[node] = -1;
+			this.nodeRight[node] = -1;
+			for (int p = start; p < end; p++) {
+				this.leafOf[this.order[p]] = node;
+			}
+			return node;
+		}
+
+		// Split at the median of the dimension with the largest spread.
+		int splitDimension = 0;
+		double maxSpread = -1.0;
+		for (int d = 0; d < this.dimensions; d++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int p = start; p < end; p++) {
+				double value = this.centers[this.order[p] * this.dimensions + d];
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			if (max - min > maxSpread) {
+				maxSpread = max - min;
+				splitDimension = d;
+			}
+		}
+		int middle = (start + end) >>> 1;
+		select(start, end - 1, middle, splitDimension);
+
+		this.nodeLeft[node] = buildNode(start, middle, node);
+		this.nodeRight[node] = buildNode(middle, end, node);
+		return node;
+	}
+
+	/**
+	 * Partially sorts <code>order[left..right]</code> so that position
+	 * <code>nth</code> holds the cluster it would hold if the range was sorted
+	 * on the given dimension.
+	 */
+	private void select(int left, int right, int nth, int dimension) {
+		while (left < right) {
+			double pivot = this.centers[this.order[(left + right) >>> 1] * this.dimensions + dimension];
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (this.centers[this.order[i] * this.dimensions + dimension] < pivot) {
+					i++;
+				}
+				while (this.centers[this.order[j] * this.dimensions + dimension] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int tmp = this.order[i];
+					this.order[i] = this.order[j];
+					this.order[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (nth <= j) {
+				right = j;
+			} else if (nth >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Offers a neighbour to the neighbours found so far, a bounded max-heap
+	 * over the caller's arrays with the worst neighbour on top. Neighbours are
+	 * ordered by distance and then by index.
+	 * @return the number of neighbours in the heap after the offer
+	 */
+	private static int offer(int[] indices, double[] distances, int count, int k, int index, double distance) {
+		if (count < k) {
+			int child = count;
+			while (child > 0) {
+				int parent = (child - 1) >>> 1;
+				if (!isWorse(index, distance, indices[parent], distances[parent])) {
+					break;
+				}
+				indices[child] = indices[parent];
+				distances[child] = distances[parent];
+				child = parent;
+			}
+			indices[child] = index;
+			distances[child] = distance;
+			return count + 1;
+		}
+		if (isWorse(indices[0], distances[0], index, distance)) {
+			siftDown(indices, distances, index, distance, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Sorts the heap in place, nearest first.
+	 */
+	private static void sort(int[] indices, double[] distances, int count) {
+		for (int end = count - 1; end > 0; end--) {
+			int worstIndex = indices[0];
+			double worstDistance = distances[0];
+			siftDown(indices, distances, indices[end], distances[end], end);
+			indices[end] = worstIndex;
+			distances[end] = worstDistance;
+		}
+	}
+
+	private static void siftDown(int[] indices, double[] distances, int index, double distance, int heapSize) {
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && isWorse(indices[child + 1], distances[child + 1], indices[child], distances[child])) {
+				child++;
+			}
+			if (!isWorse(indices[child], distances[child], index, distance)) {
+				break;
+			}
+			indices[parent] = indices[child];
+			distances[parent] = distances[child];
+			parent = child;
+		}
+		indices[parent] = index;
+		distances[parent] = distance;
+	}
+
+	private static boolean isWorse(int indexA, double distanceA, int indexB, double distanceB) {
+		return distanceA > distanceB || (distanceA == distanceB && indexA > indexB);
+	}
+}
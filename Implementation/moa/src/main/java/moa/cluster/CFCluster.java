@@ -175,6 +175,19 @@ public abstract class CFCluster extends SphereCluster {
 		 return res;
 	 }
 
+	 /**
+	  * Writes this kernels' center into the given array instead of
+	  * allocating a new one.
+	  * @param center array of length <code>LS.length</code>
+	  * @return the given array
+	  */
+	 public double[] getCenter(double[] center) {
+		 for ( int i = 0; i < center.length; i++ ) {
+			 center[i] = this.LS[i] / N;
+		 }
+		 return center;
+	 }
+
 
 	 @Override
 	 public abstract double getInclusionProbability(Instance instance);
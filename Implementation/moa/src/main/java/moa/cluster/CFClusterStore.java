@@ -0,0 +1,284 @@
+/*
+ *    CFClusterStore.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.cluster;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays store for the cluster features of many micro-clusters.
+ * Instead of one <code>CFCluster</code> with two arrays per micro-cluster, the
+ * linear and squared sums of all of them are kept in two flat arrays, the
+ * linear sum of cluster <code>i</code> at
+ * <code>LS[i * dimensions, (i + 1) * dimensions)</code>, and the counts and
+ * time stamp sums in parallel arrays, so a micro-cluster costs no object
+ * headers or array references. The store only holds the statistics: searches
+ * over the centres are left to an index such as <code>BallTree</code>, as in
+ * Clustream.
+ *
+ * The statistics are updated with the same arithmetic as in
+ * <code>CFCluster</code>, so a store gives the same values as the objects it
+ * replaces. <code>CFCluster</code>s are only created on demand, as copies,
+ * by <code>getCluster</code>; <code>getView</code> reads the store without
+ * creating them.
+ *
+ * Subclasses define the radius and the type of the copies, and can keep
+ * further statistics per micro-cluster by extending <code>resize</code>
+ * and the update methods.
+ */
+public abstract class CFClusterStore implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final int dimensions;
+
+	protected int size;
+
+	/** Number of points of every micro-cluster. */
+	protected double[] N;
+	protected double[] unrecordedN;
+	/** Linear sums, <code>dimensions</code> values per micro-cluster. */
+	protected double[] LS;
+	/** Squared sums, <code>dimensions</code> values per micro-cluster. */
+	protected double[] SS;
+	protected double[] LS_timestamp;
+	protected double[] SS_timestamp;
+
+	public CFClusterStore(int dimensions, int capacity) {
+		this.dimensions = dimensions;
+		this.size = 0;
+		this.N = new double[0];
+		this.unrecordedN = new double[0];
+		this.LS = new double[0];
+		this.SS = new double[0];
+		this.LS_timestamp = new double[0];
+		this.SS_timestamp = new double[0];
+		resize(capacity);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int dimensions() {
+		return this.dimensions;
+	}
+
+	/**
+	 * Changes the number of micro-clusters there is room for.
+	 */
+	protected void resize(int capacity) {
+		this.N = Arrays.copyOf(this.N, capacity);
+		this.unrecordedN = Arrays.copyOf(this.unrecordedN, capacity);
+		this.LS = Arrays.copyOf(this.LS, capacity * this.dimensions);
+		this.SS = Arrays.copyOf(this.SS, capacity * this.dimensions);
+		this.LS_timestamp = Arrays.copyOf(this.LS_timestamp, capacity);
+		this.SS_timestamp = Arrays.copyOf(this.SS_timestamp, capacity);
+	}
+
+	/**
+	 * Appends an empty micro-cluster.
+	 * @return its index
+	 */
+	public int add() {
+		if (this.size == this.N.length) {
+			resize(Math.max(4, 2 * this.size));
+		}
+		clear(this.size);
+		return this.size++;
+	}
+
+	public void clear(int index) {
+		this.N[index] = 0;
+		this.unrecordedN[index] = 0;
+		Arrays.fill(this.LS, index * this.dimensions, (index + 1) * this.dimensions, 0.0);
+		Arrays.fill(this.SS, index * this.dimensions, (index + 1) * this.dimensions, 0.0);
+		this.LS_timestamp[index] = 0;
+		this.SS_timestamp[index] = 0;
+	}
+
+	/**
+	 * Replaces a micro-cluster by one holding the given point only, as
+	 * <code>CFCluster(double[], int, long, boolean)</code> does.
+	 */
+	public void setPoint(int index, double[] point, long timestamp, boolean isRecordTimeStamp) {
+		int offset = index * this.dimensions;
+		this.N[index] = 1;
+		for (int i = 0; i < this.dimensions; i++) {
+			this.LS[offset + i] = point[i];
+			this.SS[offset + i] = point[i] * point[i];
+		}
+		this.unrecordedN[index] = isRecordTimeStamp ? 0 : 1;
+		this.LS_timestamp[index] = isRecordTimeStamp ? timestamp : 0;
+		this.SS_timestamp[index] = isRecordTimeStamp ? timestamp * timestamp : 0;
+	}
+
+	/**
+	 * Adds a point to a micro-cluster, as <code>CFCluster.insert</code> does.
+	 */
+	public void insert(int index, double[] point, long timestamp, boolean isRecordTimeStamp) {
+		int offset = index * this.dimensions;
+		this.N[index]++;
+		for (int i = 0; i < this.dimensions; i++) {
+			this.LS[offset + i] += point[i];
+			this.SS[offset + i] += point[i] * point[i];
+		}
+		if (isRecordTimeStamp) {
+			this.LS_timestamp[index] += timestamp;
+			this.SS_timestamp[index] += timestamp * timestamp;
+		} else {
+			this.unrecordedN[index]++;
+		}
+	}
+
+	/**
+	 * Adds micro-cluster <code>source</code> to <code>target</code>, as
+	 * <code>CFCluster.add</code> does. The source is left unchanged.
+	 */
+	public void merge(int target, int source) {
+		int targetOffset = target * this.dimensions;
+		int sourceOffset = source * this.dimensions;
+		this.N[target] += this.N[source];
+		for (int i = 0; i < this.dimensions; i++) {
+			this.LS[targetOffset + i] += this.LS[sourceOffset + i];
+		}
+		for (int i = 0; i < this.dimensions; i++) {
+			this.SS[targetOffset + i] += this.SS[sourceOffset + i];
+		}
+		this.unrecordedN[target] += this.unrecordedN[source];
+		this.LS_timestamp[target] += this.LS_timestamp[source];
+		this.SS_timestamp[target] += this.SS_timestamp[source];
+	}
+
+	/**
+	 * Writes the statistics of a micro-cluster into the given cluster, whose
+	 * arrays must have <code>dimensions</code> values.
+	 */
+	public void get(int index, CFCluster cluster) {
+		cluster.N = this.N[index];
+		cluster.unrecordedN = this.unrecordedN[index];
+		System.arraycopy(this.LS, index * this.dimensions, cluster.LS, 0, this.dimensions);
+		System.arraycopy(this.SS, index * this.dimensions, cluster.SS, 0, this.dimensions);
+		cluster.LS_timestamp = this.LS_timestamp[index];
+		cluster.SS_timestamp = this.SS_timestamp[index];
+	}
+
+	public double getWeight(int index) {
+		return this.N[index];
+	}
+
+	/**
+	 * Writes the centre of a micro-cluster into the given array.
+	 * @return the given array
+	 */
+	public double[] getCenter(int index, double[] center) {
+		int offset = index * this.dimensions;
+		double n = this.N[index];
+		for (int i = 0; i < this.dimensions; i++) {
+			center[i] = this.LS[offset + i] / n;
+		}
+		return center;
+	}
+
+	public double getMeanTimeStamp(int index) {
+		double recordedN = this.N[index] - this.unrecordedN[index];
+		return recordedN <= 0 ? 0 : this.LS_timestamp[index] / recordedN;
+	}
+
+	/**
+	 * Mean over the dimensions of the standard deviation of a micro-cluster.
+	 * Variances in <code>(-epsilon, 0]</code>, which come from rounding, are
+	 * replaced by <code>minVariance</code>.
+	 */
+	public double getDeviation(int index, double epsilon, double minVariance) {
+		int offset = index * this.dimensions;
+		double n = this.N[index];
+		double sumOfDeviation = 0.0;
+		for (int i = 0; i < this.dimensions; i++) {
+			double lsDivN = this.LS[offset + i] / n;
+			double variance = this.SS[offset + i] / n - lsDivN * lsDivN;
+			if (variance <= 0.0 && variance > -epsilon) {
+				variance = minVariance;
+			}
+			sumOfDeviation += Math.sqrt(variance);
+		}
+		return sumOfDeviation / this.dimensions;
+	}
+
+	public abstract double getRadius(int index);
+
+	/**
+	 * @return a copy of a micro-cluster
+	 */
+	public abstract CFCluster getCluster(int index);
+
+	/**
+	 * @return a view over the live micro-clusters. Centres, radii, weights and
+	 * time stamps are read from the store; only <code>get</code> creates
+	 * a <code>CFCluster</code>.
+	 */
+	public MicroClusteringView getView() {
+		return new StoreView();
+	}
+
+	private class ClusterList extends AbstractList<CFCluster> implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public CFCluster get(int index) {
+			return getCluster(index);
+		}
+
+		@Override
+		public int size() {
+			return CFClusterStore.this.size;
+		}
+	}
+
+	private class StoreView extends MicroClusteringView {
+
+		private static final long serialVersionUID = 1L;
+
+		StoreView() {
+			super(new ClusterList());
+		}
+
+		@Override
+		public double[] getCenter(int index, double[] center) {
+			return CFClusterStore.this.getCenter(index, center);
+		}
+
+		@Override
+		public double getRadius(int index) {
+			return CFClusterStore.this.getRadius(index);
+		}
+
+		@Override
+		public double getWeight(int index) {
+			return CFClusterStore.this.getWeight(index);
+		}
+
+		@Override
+		public double getMeanTimeStamp(int index) {
+			return CFClusterStore.this.getMeanTimeStamp(index);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ *    MicroClusteringView.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.cluster;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view over the micro-clusters of a clusterer. Unlike
+ * <code>getMicroClusteringResult()</code>, the view does not copy the kernels:
+ * it reads the live model, so its content changes as the clusterer is trained.
+ * Use the model version of the clusterer to find out whether a snapshot taken
+ * earlier is still up to date.
+ */
+public class MicroClusteringView implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final MicroClusteringView EMPTY = new MicroClusteringView(Collections.<Cluster>emptyList());
+
+	private List<? extends Cluster> clusters;
+
+	/**
+	 * @param clusters the live micro-clusters, all of them <code>CFCluster</code>s
+	 */
+	public MicroClusteringView(List<? extends Cluster> clusters) {
+		this.clusters = clusters;
+	}
+
+	public int size() {
+		return this.clusters.size();
+	}
+
+	/**
+	 * @return the live micro-cluster, which must not be modified
+	 */
+	public CFCluster get(int index) {
+		return (CFCluster) this.clusters.get(index);
+	}
+
+	/**
+	 * Writes the centre of a micro-cluster into the given array.
+	 * @return the given array
+	 */
+	public double[] getCenter(int index, double[] center) {
+		return get(index).getCenter(center);
+	}
+
+	public double getRadius(int index) {
+		return get(index).getRadius();
+	}
+
+	public double getWeight(int index) {
+		return get(index).getWeight();
+	}
+
+	public double getMeanTimeStamp(int index) {
+		return get(index).getMeanTimeStamp();
+	}
+}
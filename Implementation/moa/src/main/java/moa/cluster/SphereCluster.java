@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Random;
 import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
+import moa.core.Distances;
 
 /**
  * A simple implementation of the <code>Cluster</code> interface representing
@@ -277,9 +278,7 @@ public class SphereCluster extends Cluster {
 		//get the center through getCenter so subclass have a chance
 		double[] center0 = getCenter();
 		double[] center1 = other.getCenter();
-		distance = distance(center0, center1);
-
-		distance = distance - getRadius() - other.getRadius();
+		distance = Distances.hull(center0, getRadius(), center1, other.getRadius());
 		return distance;
 	}
 
@@ -309,13 +308,7 @@ public class SphereCluster extends Cluster {
 	}
 
 	private double distance(double[] v1, double[] v2){
-		double distance = 0.0;
-		double[] center = getCenter();
-		for (int i = 0; i < center.length; i++) {
-			double d = v1[i] - v2[i];
-			distance += d * d;
-		}
-		return Math.sqrt(distance);
+		return Distances.euclidean(v1, v2);
 	}
 
 	public double[] getDistanceVector(Instance instance){
@@ -381,10 +374,25 @@ public class SphereCluster extends Cluster {
 	 * @return a point sampled from the skewed distribution with the mode at "target"
 	 */
 	public Instance sample_around_target(Random random, double[] target) {
-		double[] center = getCenter();
-		double radius = getRadius();
+		double[] res = sample_around_target(random, getCenter(), getRadius(), target, new double[target.length]);
+		return res == null ? null : new DenseInstance(1.0, res);
+	}
+	
+	/**
+	 * Same as <code>sample_around_target(Random, double[])</code> for the sphere with the given centre and radius, but writes
+	 * the sampled point into <code>result</code> instead of allocating an instance.
+	 * @param result the array to write the point into, it may not be <code>center</code> or <code>target</code>
+	 * @return result, or null if the target is outside the sphere
+	 */
+	public static double[] sample_around_target(Random random, double[] center, double radius, double[] target, double[] result) {
+		final int dimensions = center.length;
 		
-		double target_center_distance = distance(target, center);
+		double target_center_distance = 0.0;
+		for (int i = 0; i < dimensions; ++i) {
+			double d = target[i] - center[i];
+			target_center_distance += d * d;
+		}
+		target_center_distance = Math.sqrt(target_center_distance);
 		if (target_center_distance > radius) {
 			System.err.println("Target is outside this sphere cluster.");
 			System.err.println("Target: " + Arrays.toString(target));
@@ -393,52 +401,32 @@ public class SphereCluster extends Cluster {
 			System.err.println("Distance between target and center: " + target_center_distance);
 			return null;
 		}
-
-		final int dimensions = center.length;
-		
-		double[] point = sample_hypersphere(random, target, 1.0).toDoubleArray();
-		double[] direction_vector = distanceVector(target, point);
-		double t_intercept = hypersphere_line_intercept_scaler(target, point);
-		
-		double t_sample = Math.abs(random.nextGaussian()) * t_intercept / 3.0;
-		
-		double[] res = new double[dimensions];
-		for (int i = 0; i < dimensions; ++i) {
-			res[i] = target[i] + t_sample * direction_vector[i];
-		}
-		
-		return new DenseInstance(1.0, res);
-	}
-	
-	/**
-	 * @param target the origin of the line
-	 * @param another_point_on_line the other point on the same line
-	 * @return the scaler t in the parameterised equation of the line: x_i = x_0 + t * v_i
-	 */
-	private double hypersphere_line_intercept_scaler(double[] target, double[] another_point_on_line) {
-		double[] center = getCenter();
-		double radius = getRadius();
-		
-		final int dimensions = center.length;
 		
-		double[] delta = distanceVector(target, another_point_on_line);
-		double[] gamma = distanceVector(target, center);
+		// A point on the unit sphere around the target gives the direction vector.
+		sample_hypersphere(random, target, 1.0, result);
 		
+		// The scaler t in the parameterised equation of the line x_i = target_i + t * v_i where it leaves the sphere.
+		// We just need the +ve "t", as it goes with the direction vector. i.e. it follows the given angles.
+		// The -ve "t" follows the angles oppositely.
 		double a = 0, b = 0, c = 0;
 		for (int i = 0; i < dimensions; ++i) {
-			a += (delta[i] * delta[i]);
-			b += (delta[i] * gamma[i]);
-			c += (gamma[i] * gamma[i]);
+			double delta = result[i] - target[i];
+			double gamma = center[i] - target[i];
+			a += (delta * delta);
+			b += (delta * gamma);
+			c += (gamma * gamma);
 		}
-		
 		b *= -2;
 		c -= (radius * radius);
-		
 		double bb4ac = b * b - 4 * a * c;
+		double t_intercept = (-b + Math.sqrt(bb4ac)) / (2 * a);
 		
-		// We just need the +ve "t", as it goes with the direction vector. i.e. it follows the given angles.
-		// The -ve "t" follows the angles oppositely.
-		return (-b + Math.sqrt(bb4ac)) / (2 * a);
+		double t_sample = Math.abs(random.nextGaussian()) * t_intercept / 3.0;
+		
+		for (int i = 0; i < dimensions; ++i) {
+			result[i] = target[i] + t_sample * (result[i] - target[i]);
+		}
+		return result;
 	}
 	
 	/**
@@ -447,9 +435,19 @@ public class SphereCluster extends Cluster {
 	 * @return a point that usually (99.9% of time) lies inside this cluster and it is likely close to the centre.
 	 */
 	public Instance sampleGaussian(Random random) {
-		double r_sample = Math.abs(random.nextGaussian()) * getRadius() / 3.0;
+		double[] center = getCenter();
+		return new DenseInstance(1.0, sampleGaussian(random, center, getRadius(), new double[center.length]));
+	}
+	
+	/**
+	 * Same as <code>sampleGaussian(Random)</code> for the sphere with the given centre and radius, but writes the sampled
+	 * point into <code>result</code> instead of allocating an instance.
+	 * @return result
+	 */
+	public static double[] sampleGaussian(Random random, double[] center, double radius, double[] result) {
+		double r_sample = Math.abs(random.nextGaussian()) * radius / 3.0;
 		
-		return sample_hypersphere(random, getCenter(), r_sample);
+		return sample_hypersphere(random, center, r_sample, result);
 	}
 
  
@@ -463,15 +461,24 @@ public class SphereCluster extends Cluster {
 	}
 	
 	public static Instance sample_hypersphere(Random random, double[] center, double radius) {
+		return new DenseInstance(1.0, sample_hypersphere(random, center, radius, new double[center.length]));
+	}
+	
+	/**
+	 * Samples a point uniformly from inside the given sphere.
+	 * @param result the array to write the point into, it may not be <code>center</code>
+	 * @return result
+	 */
+	public static double[] sample_hypersphere(Random random, double[] center, double radius, double[] result) {
 		final int dimensions = center.length;
 		
-		double[] g = new double[dimensions];
+		double[] g = result;
 		for (int i = 0; i < dimensions; ++i) {
 			g[i] = random.nextGaussian();
 		}
 		
 		double l2_norm = 0;
-		for (int i = 0; i < g.length; ++i) {
+		for (int i = 0; i < dimensions; ++i) {
 			l2_norm += (g[i] * g[i]);
 		}
 		l2_norm = Math.sqrt(l2_norm);
@@ -486,7 +493,7 @@ public class SphereCluster extends Cluster {
 			g[i] = radius * g[i] * u_dRoot + center[i];
 		}
 		
-		return new DenseInstance(1.0, g);
+		return g;
 	}
 
 	@Override
@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import moa.cluster.Clustering;
+import moa.cluster.MicroClusteringView;
 
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.Measurement;
@@ -57,6 +58,11 @@ public abstract class AbstractClusterer extends AbstractOptionHandler
     protected Random clustererRandom;
 
     protected Clustering clustering;
+
+    /**
+     * Incremented whenever the model may have changed, see getModelVersion().
+     */
+    protected long modelVersion = 0;
     
 	public AbstractClusterer() {
 		if (isRandomizable()) {
@@ -119,6 +125,7 @@ public abstract class AbstractClusterer extends AbstractOptionHandler
 
 	public void resetLearning() {
 		this.trainingWeightSeenByModel = 0.0;
+		this.modelVersion++;
 		if (isRandomizable()) {
 			this.clustererRandom = new Random(this.randomSeed);
 		}
@@ -128,10 +135,32 @@ public abstract class AbstractClusterer extends AbstractOptionHandler
 	public void trainOnInstance(Instance inst) {
 		if (inst.weight() > 0.0) {
 			this.trainingWeightSeenByModel += inst.weight();
+			this.modelVersion++;
 			trainOnInstanceImpl(inst);
 		}
 	}
 
+	/**
+	 * The version changes every time the model is trained or reset, so a
+	 * snapshot of the (micro) clustering is still valid as long as the version
+	 * it was taken at is the current one.
+	 */
+	public long getModelVersion() {
+		return this.modelVersion;
+	}
+
+	/**
+	 * Clusterers that keep their micro-clusters as <code>CFCluster</code>s
+	 * should return a live view instead of this copy.
+	 */
+	public MicroClusteringView getMicroClusteringView() {
+		Clustering microClustering = getMicroClusteringResult();
+		if (microClustering == null) {
+			return null;
+		}
+		return new MicroClusteringView(microClustering.getClustering());
+	}
+
 	public Measurement[] getModelMeasurements() {
 		List<Measurement> measurementList = new LinkedList<Measurement>();
 		measurementList.add(new Measurement("model training instances",
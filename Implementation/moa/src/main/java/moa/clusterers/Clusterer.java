@@ -21,6 +21,7 @@ package moa.clusterers;
 
 import moa.MOAObject;
 import moa.cluster.Clustering;
+import moa.cluster.MicroClusteringView;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.Measurement;
 import moa.gui.AWTRenderable;
@@ -60,6 +61,10 @@ public interface Clusterer extends MOAObject, OptionHandler, AWTRenderable {
     public boolean implementsMicroClusterer();
 
     public Clustering getMicroClusteringResult();
+
+    public MicroClusteringView getMicroClusteringView();
+
+    public long getModelVersion();
     
     public boolean keepClassLabel();
 
@@ -26,6 +26,7 @@ import moa.cluster.CFCluster;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.cluster.SphereCluster;
+import moa.core.Distances;
 
 /**
  * A kMeans implementation for microclusterings. For now it only uses the real centers of the 
@@ -91,12 +92,7 @@ public class KMeans {
     }
 
     private static double distance(double[] pointA, double [] pointB){
-        double distance = 0.0;
-        for (int i = 0; i < pointA.length; i++) {
-            double d = pointA[i] - pointB[i];
-            distance += d * d;
-        }
-        return Math.sqrt(distance);
+        return Distances.euclidean(pointA, pointB);
     }
 
 
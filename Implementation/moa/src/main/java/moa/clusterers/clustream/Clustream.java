@@ -20,17 +20,17 @@
 
 package moa.clusterers.clustream;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import moa.cluster.BallTree;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
-import moa.cluster.SphereCluster;
+import moa.cluster.MicroClusteringView;
 import moa.clusterers.AbstractClusterer;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
-import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 
 /** Citation: CluStream: Charu C. Aggarwal, Jiawei Han, Jianyong Wang, Philip S. Yu:
@@ -51,28 +51,63 @@ public class Clustream extends AbstractClusterer{
 			"kernelRadiFactor", 't',
 			"Multiplier for the kernel radius", 2);
 
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used by k-means (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
+	/**
+	 * Centre updates of the Lloyd iterations at most, like the 100 repetitions
+	 * of the earlier k-means loop; they stop sooner once no point changes its
+	 * cluster.
+	 */
+	protected static final int KMEANS_MAX_ITERATIONS = 100;
+
 	private int timeWindow;
 	private long timestamp = -1;
-	private ClustreamKernel[] kernels;
+	/** The kernels, kept in flat arrays; created once the buffer is full. */
+	private ClustreamKernelStore kernels;
+	private MicroClusteringView kernelsView;
+	private int numKernels;
 	private boolean initialized;
 	private List<ClustreamKernel> buffer; // Buffer for initialization with kNN
 	private int bufferSize;
 	private double t;
 	private int m;
 
+	/** Index over the kernel centres, kept in sync with the kernels. */
+	private BallTree kernelIndex;
+	/**
+	 * Nearest other kernel of every kernel and its distance. Together they
+	 * give the closest pair of kernels without comparing all the pairs; the
+	 * links of the kernels moved since the last merge are refreshed lazily.
+	 */
+	private int[] nearestKernel;
+	private double[] nearestKernelDistance;
+	private boolean[] kernelMoved;
+	private int[] queryIndex;
+	private double[] queryDistance;
+	private double[] queryCenter;
+
 	public Clustream() {
 	}
 
 
 	@Override
 	public void resetLearningImpl() {
-		this.kernels = new ClustreamKernel[maxNumKernelsOption.getValue()];
+		this.numKernels = maxNumKernelsOption.getValue();
+		this.kernels = null;
+		this.kernelsView = null;
 		this.timeWindow = timeWindowOption.getValue();
 		this.initialized = false;
 		this.buffer = new LinkedList<ClustreamKernel>();
 		this.bufferSize = maxNumKernelsOption.getValue();
 		t = kernelRadiFactorOption.getValue();
 		m = maxNumKernelsOption.getValue();
+		this.kernelIndex = null;
+		this.nearestKernel = new int[this.numKernels];
+		this.nearestKernelDistance = new double[this.numKernels];
+		this.kernelMoved = new boolean[this.numKernels];
+		this.queryIndex = new int[1];
+		this.queryDistance = new double[1];
 	}
 	
 	@Override
@@ -83,6 +118,7 @@ public class Clustream extends AbstractClusterer{
 	public void trainOnInstance(Instance inst, boolean isRecordTimeStamp) {
 		if (inst.weight() > 0.0) {
 			this.trainingWeightSeenByModel += inst.weight();
+			this.modelVersion++;
 			trainOnInstanceImpl(inst, isRecordTimeStamp);
 		}
 	}
@@ -97,20 +133,26 @@ public class Clustream extends AbstractClusterer{
 				return;
 			}
 
-			int k = kernels.length;
+			int k = numKernels;
 			//System.err.println("k="+k+" bufferSize="+bufferSize);
 			assert (k <= bufferSize);
 
-			ClustreamKernel[] centers = new ClustreamKernel[k];
-			for ( int i = 0; i < k; i++ ) {
-				centers[i] = buffer.get( i ); // TODO: make random!
+			KMeansEngine.Result kmeans = new KMeansEngine(KMeansEngine.getPool(numberOfJobsOption.getValue()), KMeansEngine.Seeding.KMEANS_PLUS_PLUS, KMEANS_MAX_ITERATIONS)
+					.cluster(KMeansEngine.toPoints(buffer, dim), buffer.size(), dim, k, new Random(0));
+
+			kernels = new ClustreamKernelStore(dim, k, t, m);
+			kernelsView = kernels.getView();
+			for ( int i = 0; i < kmeans.getK(); i++ ) {
+				kernels.setPoint( kernels.add(), kmeans.getCenter(i), timestamp, isRecordTimeStamp );
 			}
-			Clustering kmeans_clustering = kMeans(k, centers, buffer);
-//			Clustering kmeans_clustering = kMeans(k, buffer);
 
-			for ( int i = 0; i < kmeans_clustering.size(); i++ ) {
-				kernels[i] = new ClustreamKernel( new DenseInstance(1.0,centers[i].getCenter()), dim, timestamp, isRecordTimeStamp, t, m );
+			double[][] kernelCenters = new double[k][];
+			for ( int i = 0; i < k; i++ ) {
+				kernelCenters[i] = kernels.getCenter(i, new double[dim]);
 			}
+			kernelIndex = new BallTree(kernelCenters);
+			queryCenter = new double[dim];
+			Arrays.fill(kernelMoved, true);
 
 			buffer.clear();
 			initialized = true;
@@ -119,39 +161,29 @@ public class Clustream extends AbstractClusterer{
 
 
 		// 1. Determine closest kernel
-		ClustreamKernel closestKernel = null;
-		double minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			//System.out.println(i+" "+kernels[i].getWeight()+" "+kernels[i].getDeviation());
-			double distance = distance(instance.toDoubleArray(), kernels[i].getCenter() );
-			if ( distance < minDistance || i == 0) { // <--- mc: added i==0 to prevent closestKernel = null
-				closestKernel = kernels[i];
-				minDistance = distance;
-			}
-		}
+		double[] point = instance.toDoubleArray();
+		kernelIndex.kNearest(point, 0.0, 1, -1, queryIndex, queryDistance);
+		int closest = queryIndex[0];
+		double minDistance = queryDistance[0];
 
 		// 2. Check whether instance fits into closestKernel
 		double radius = 0.0;
-		if ( closestKernel.getWeight() == 1 ) {
+		if ( kernels.getWeight(closest) == 1 ) {
 			// Special case: estimate radius by determining the distance to the
 			// next closest cluster
 			radius = Double.MAX_VALUE;
-			double[] center = closestKernel.getCenter();
-			for ( int i = 0; i < kernels.length; i++ ) {
-				if ( kernels[i] == closestKernel ) {
-					continue;
-				}
-
-				double distance = distance(kernels[i].getCenter(), center );
-				radius = Math.min( distance, radius );
+			kernelIndex.getCenter(closest, queryCenter);
+			if ( kernelIndex.kNearest(queryCenter, 0.0, 1, closest, queryIndex, queryDistance) == 1 ) {
+				radius = queryDistance[0];
 			}
 		} else {
-			radius = closestKernel.getRadius();
+			radius = kernels.getRadius(closest);
 		}
 
 		if ( minDistance < radius ) {
 			// Date fits, put into kernel and be happy
-			closestKernel.insert( instance, timestamp, isRecordTimeStamp);
+			kernels.insert( closest, point, timestamp, isRecordTimeStamp );
+			kernelMoved(closest);
 			return;
 		}
 
@@ -160,32 +192,75 @@ public class Clustream extends AbstractClusterer{
 		long threshold = timestamp - timeWindow; // Kernels before this can be forgotten
 
 		// 3.1 Try to forget old kernels
-		for ( int i = 0; i < kernels.length; i++ ) {
-			if ( kernels[i].getRelevanceStamp() < threshold ) {
-				kernels[i] = new ClustreamKernel( instance, dim, timestamp, isRecordTimeStamp, t, m );
+		for ( int i = 0; i < numKernels; i++ ) {
+			if ( kernels.getRelevanceStamp(i) < threshold ) {
+				kernels.setPoint( i, point, timestamp, isRecordTimeStamp );
+				kernelMoved(i);
 				return;
 			}
 		}
 
 		// 3.2 Merge closest two kernels
+		updateNearestKernels();
 		int closestA = 0;
 		int closestB = 0;
 		minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			double[] centerA = kernels[i].getCenter();
-			for ( int j = i + 1; j < kernels.length; j++ ) {
-				double dist = distance( centerA, kernels[j].getCenter() );
-				if ( dist < minDistance ) {
-					minDistance = dist;
-					closestA = i;
-					closestB = j;
-				}
+		for ( int i = 0; i < numKernels; i++ ) {
+			int j = nearestKernel[i];
+			if ( j == -1 ) {
+				continue;
+			}
+			// Ties are resolved as the scan over all the pairs (a, b), a < b, did
+			int a = Math.min(i, j);
+			int b = Math.max(i, j);
+			double dist = nearestKernelDistance[i];
+			if ( dist < minDistance || (dist == minDistance && (a < closestA || (a == closestA && b < closestB))) ) {
+				minDistance = dist;
+				closestA = a;
+				closestB = b;
 			}
 		}
 		assert (closestA != closestB);
 
-		kernels[closestA].add( kernels[closestB] );
-		kernels[closestB] = new ClustreamKernel( instance, dim, timestamp, isRecordTimeStamp, t,  m );
+		kernels.merge( closestA, closestB );
+		kernels.setPoint( closestB, point, timestamp, isRecordTimeStamp );
+		kernelMoved(closestA);
+		kernelMoved(closestB);
+	}
+
+	/**
+	 * Moves the centre of a kernel that changed in the index and marks its
+	 * nearest kernel link as stale.
+	 */
+	private void kernelMoved(int index) {
+		kernelIndex.update(index, kernels.getCenter(index, queryCenter), 0.0);
+		kernelMoved[index] = true;
+		if ( kernelIndex.needsRebuild() ) {
+			kernelIndex.rebuild();
+		}
+	}
+
+	/**
+	 * Refreshes the nearest kernel links that may be stale. A link only needs
+	 * to be searched again if the kernel or its nearest kernel moved: a kernel
+	 * that moved closer to an unchanged kernel than its nearest one has a
+	 * link of its own that is at least as short, so the closest pair is still
+	 * one of the links.
+	 */
+	private void updateNearestKernels() {
+		for ( int i = 0; i < numKernels; i++ ) {
+			int j = nearestKernel[i];
+			if ( kernelMoved[i] || j == -1 || kernelMoved[j] ) {
+				kernelIndex.getCenter(i, queryCenter);
+				if ( kernelIndex.kNearest(queryCenter, 0.0, 1, i, queryIndex, queryDistance) == 1 ) {
+					nearestKernel[i] = queryIndex[0];
+					nearestKernelDistance[i] = queryDistance[0];
+				} else {
+					nearestKernel[i] = -1;
+				}
+			}
+		}
+		Arrays.fill(kernelMoved, false);
 	}
 
 	@Override
@@ -194,14 +269,22 @@ public class Clustream extends AbstractClusterer{
 			return new Clustering( new Cluster[0] );
 		}
 
-		ClustreamKernel[] res = new ClustreamKernel[kernels.length];
+		ClustreamKernel[] res = new ClustreamKernel[numKernels];
 		for ( int i = 0; i < res.length; i++ ) {
-			res[i] = new ClustreamKernel( kernels[i], t, m );
+			res[i] = kernels.getCluster(i);
 		}
 
 		return new Clustering( res );
 	}
 
+	@Override
+	public MicroClusteringView getMicroClusteringView() {
+		if ( !initialized ) {
+			return MicroClusteringView.EMPTY;
+		}
+		return kernelsView;
+	}
+
 	@Override
 	public boolean implementsMicroClusterer() {
 		return true;
@@ -216,15 +299,6 @@ public class Clustream extends AbstractClusterer{
 		return "Clustream " + timeWindow;
 	}
 
-	private static double distance(double[] pointA, double [] pointB){
-		double distance = 0.0;
-		for (int i = 0; i < pointA.length; i++) {
-			double d = pointA[i] - pointB[i];
-			distance += d * d;
-		}
-		return Math.sqrt(distance);
-	}
-
 	//wrapper... we need to rewrite kmeans to points, not clusters, doesnt make sense anymore
 	//    public static Clustering kMeans( int k, ArrayList<Instance> points, int dim ) {
 	//        ArrayList<ClustreamKernel> cl = new ArrayList<ClustreamKernel>();
@@ -235,94 +309,28 @@ public class Clustream extends AbstractClusterer{
 	//        return clustering;
 	//    }
 
+	/**
+	 * k-means with k-means++ seeding, on the calling thread.
+	 */
 	public static Clustering kMeans( int k, List<? extends Cluster> data ) {
-		Random random = new Random(0);
-		Cluster[] centers = new Cluster[k];
-		for (int i = 0; i < centers.length; i++) {
-			int rid = random.nextInt(k);
-			centers[i] = new SphereCluster(data.get(rid).getCenter(),0);
-		}
-		Clustering clustering = kMeans(k, centers, data);
-		return clustering;
+		int dimensions = data.get(0).getCenter().length;
+		return new KMeansEngine(null, KMeansEngine.Seeding.KMEANS_PLUS_PLUS, KMEANS_MAX_ITERATIONS)
+				.cluster(KMeansEngine.toPoints(data, dimensions), data.size(), dimensions, k, new Random(0))
+				.toClustering();
 	}
 
-
-
-
-
+	/**
+	 * k-means from the given centres, on the calling thread.
+	 */
 	public static Clustering kMeans( int k, Cluster[] centers, List<? extends Cluster> data ) {
 		assert (centers.length == k);
 		assert (k > 0);
 
 		int dimensions = centers[0].getCenter().length;
-
-		ArrayList<ArrayList<Cluster>> clustering = new ArrayList<ArrayList<Cluster>>();
-		for ( int i = 0; i < k; i++ ) {
-			clustering.add( new ArrayList<Cluster>() );
-		}
-
-		int repetitions = 100;
-		while ( repetitions-- >= 0 ) {
-			// Assign points to clusters
-			for ( Cluster point : data ) {
-				double minDistance = distance( point.getCenter(), centers[0].getCenter() );
-				int closestCluster = 0;
-				for ( int i = 1; i < k; i++ ) {
-					double distance = distance( point.getCenter(), centers[i].getCenter() );
-					if ( distance < minDistance ) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}
-
-				clustering.get( closestCluster ).add( point );
-			}
-
-			// Calculate new centers and clear clustering lists
-			SphereCluster[] newCenters = new SphereCluster[centers.length];
-			for ( int i = 0; i < k; i++ ) {
-				newCenters[i] = calculateCenter( clustering.get( i ), dimensions );
-				clustering.get( i ).clear();
-			}
-			centers = newCenters;
-		}
-
-		return new Clustering( centers );
-	}
-
-	private static SphereCluster calculateCenter( ArrayList<Cluster> cluster, int dimensions ) {
-		double[] res = new double[dimensions];
-		for ( int i = 0; i < res.length; i++ ) {
-			res[i] = 0.0;
-		}
-
-		if ( cluster.size() == 0 ) {
-			return new SphereCluster( res, 0.0 );
-		}
-
-		for ( Cluster point : cluster ) {
-			double [] center = point.getCenter();
-			for (int i = 0; i < res.length; i++) {
-				res[i] += center[i];
-			}
-		}
-
-		// Normalize
-		for ( int i = 0; i < res.length; i++ ) {
-			res[i] /= cluster.size();
-		}
-
-		// Calculate radius
-		double radius = 0.0;
-		for ( Cluster point : cluster ) {
-			double dist = distance( res, point.getCenter() );
-			if ( dist > radius ) {
-				radius = dist;
-			}
-		}
-		SphereCluster sc = new SphereCluster( res, radius );
-		sc.setWeight(cluster.size());
-		return sc;
+		return new KMeansEngine(null, KMeansEngine.Seeding.KMEANS_PLUS_PLUS, KMEANS_MAX_ITERATIONS)
+				.cluster(KMeansEngine.toPoints(data, dimensions), data.size(), dimensions,
+						KMeansEngine.toPoints(Arrays.asList(centers), dimensions), k)
+				.toClustering();
 	}
 
 	@Override
@@ -54,6 +54,18 @@ public class ClustreamKernel extends CFCluster {
         this.SST = cluster.SST;
     }
     
+    /**
+     * Copies a kernel out of a store.
+     */
+    public ClustreamKernel( ClustreamKernelStore store, int index, double t, int m ) {
+        super(store.dimensions());
+        store.get(index, this);
+        this.t = t;
+        this.m = m;
+        this.LST = store.LST[index];
+        this.SST = store.SST[index];
+    }
+    
     @Override
     public void insert( Instance instance, long timestamp, boolean isRecordTimeStamp ) {
     	super.insert(instance, timestamp, isRecordTimeStamp);
@@ -0,0 +1,113 @@
+/*
+ *    ClustreamKernelStore.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustream;
+
+import java.util.Arrays;
+import moa.cluster.CFClusterStore;
+
+/**
+ * <code>ClustreamKernel</code>s kept in a <code>CFClusterStore</code>, with
+ * the time stamp sums of Clustream and the same radius and relevance stamp as
+ * <code>ClustreamKernel</code>.
+ */
+public class ClustreamKernelStore extends CFClusterStore {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static double EPSILON = 0.00005;
+
+	private final double radiusFactor = 1.8;
+
+	protected double[] LST;
+	protected double[] SST;
+
+	private final double t;
+	private final int m;
+
+	public ClustreamKernelStore(int dimensions, int capacity, double t, int m) {
+		super(dimensions, capacity);
+		this.t = t;
+		this.m = m;
+	}
+
+	@Override
+	protected void resize(int capacity) {
+		super.resize(capacity);
+		this.LST = this.LST == null ? new double[capacity] : Arrays.copyOf(this.LST, capacity);
+		this.SST = this.SST == null ? new double[capacity] : Arrays.copyOf(this.SST, capacity);
+	}
+
+	@Override
+	public void clear(int index) {
+		super.clear(index);
+		this.LST[index] = 0;
+		this.SST[index] = 0;
+	}
+
+	@Override
+	public void setPoint(int index, double[] point, long timestamp, boolean isRecordTimeStamp) {
+		super.setPoint(index, point, timestamp, isRecordTimeStamp);
+		this.LST[index] = timestamp;
+		this.SST[index] = timestamp * timestamp;
+	}
+
+	@Override
+	public void insert(int index, double[] point, long timestamp, boolean isRecordTimeStamp) {
+		super.insert(index, point, timestamp, isRecordTimeStamp);
+		this.LST[index] += timestamp;
+		this.SST[index] += timestamp * timestamp;
+	}
+
+	@Override
+	public void merge(int target, int source) {
+		super.merge(target, source);
+		this.LST[target] += this.LST[source];
+		this.SST[target] += this.SST[source];
+	}
+
+	/**
+	 * @see ClustreamKernel#getRadius()
+	 */
+	@Override
+	public double getRadius(int index) {
+		//trivial cluster
+		if (this.N[index] == 1) return 0;
+
+		return getDeviation(index, EPSILON, ClustreamKernel.MIN_VARIANCE) * this.radiusFactor;
+	}
+
+	/**
+	 * @see ClustreamKernel#getRelevanceStamp()
+	 */
+	public double getRelevanceStamp(int index) {
+		double n = this.N[index];
+		double muTime = this.LST[index] / n;
+		if (n < 2 * this.m)
+			return muTime;
+
+		double sigmaTime = Math.sqrt(this.SST[index] / n - muTime * muTime);
+		double z = ((double) this.m) / (2 * n);
+		return muTime + sigmaTime * (Math.sqrt(2) * ClustreamKernel.inverseError(2 * z - 1));
+	}
+
+	@Override
+	public ClustreamKernel getCluster(int index) {
+		return new ClustreamKernel(this, index, this.t, this.m);
+	}
+}
@@ -0,0 +1,586 @@
+/*
+ *    KMeansEngine.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustream;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.cluster.SphereCluster;
+import moa.core.Distances;
+
+/**
+ * k-means over points kept in a flat array, point <code>i</code> at
+ * <code>[i * dimensions, (i + 1) * dimensions)</code>, with k-means++ or
+ * k-means|| seeding and Lloyd iterations that stop as soon as no point changes
+ * its cluster.
+ *
+ * The passes over the points, the distance updates of the seeding and the
+ * assignment step of the iterations, are split into at most
+ * {@value #MAX_TASKS} ranges of at least {@value #MIN_TASK_SIZE} points,
+ * whose results are merged pairwise; the centre update is the merge of the
+ * per-range sums. The ranges run in the <code>ForkJoinPool</code> of the
+ * engine, or on the calling thread if it has none. The ranges and the order
+ * of the merges only depend on the number of points, so the number of jobs
+ * does not change a clustering, only how fast it is computed.
+ *
+ * Citations: David Arthur, Sergei Vassilvitskii: k-means++: the advantages of
+ * careful seeding. SODA 2007: 1027-1035. Bahman Bahmani, Benjamin Moseley,
+ * Andrea Vattani, Ravi Kumar, Sergei Vassilvitskii: Scalable k-means++.
+ * PVLDB 5(7): 622-633 (2012)
+ */
+public class KMeansEngine {
+
+	public enum Seeding {
+		KMEANS_PLUS_PLUS, KMEANS_PARALLEL
+	}
+
+	/** Points of a range below which it is not split further. */
+	public static final int MIN_TASK_SIZE = 64;
+
+	/** Ranges a pass is split into at most, enough for workers that finish early to steal. */
+	public static final int MAX_TASKS = 64;
+
+	/** The pools for the numbers of jobs, shared by all the engines. */
+	private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+	/** Rounds of k-means|| sampling. */
+	protected static final int PARALLEL_SEEDING_ROUNDS = 5;
+
+	/** Candidates k-means|| samples per round, as a multiple of k. */
+	protected static final double PARALLEL_SEEDING_OVERSAMPLING = 2.0;
+
+	private final ForkJoinPool pool;
+	private final Seeding seeding;
+	private final int maxIterations;
+
+	/**
+	 * @param pool pool to run the passes over the points in, null to run them
+	 * on the calling thread
+	 * @param maxIterations maximum number of centre updates
+	 */
+	public KMeansEngine(ForkJoinPool pool, Seeding seeding, int maxIterations) {
+		this.pool = pool;
+		this.seeding = seeding;
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * Gets the pool for the given number of jobs, as the
+	 * <code>numberOfJobs</code> options of the clusterers give it. The pools
+	 * are shared by all the clusterers and live as long as the JVM; their
+	 * worker threads are daemons that end when idle.
+	 * @param numberOfJobs -1 for the common pool
+	 * @return the pool, null for 0 or 1 job
+	 */
+	public static ForkJoinPool getPool(int numberOfJobs) {
+		if (numberOfJobs == -1) {
+			return ForkJoinPool.commonPool();
+		}
+		if (numberOfJobs <= 1) {
+			return null;
+		}
+		ForkJoinPool pool = POOLS.get(numberOfJobs);
+		if (pool == null) {
+			ForkJoinPool created = new ForkJoinPool(numberOfJobs);
+			pool = POOLS.putIfAbsent(numberOfJobs, created);
+			if (pool == null) {
+				pool = created;
+			} else {
+				created.shutdown();
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Copies the centres of the clusters into a flat array.
+	 */
+	public static double[] toPoints(List<? extends Cluster> clusters, int dimensions) {
+		double[] points = new double[clusters.size() * dimensions];
+		int offset = 0;
+		for (Cluster cluster : clusters) {
+			System.arraycopy(cluster.getCenter(), 0, points, offset, dimensions);
+			offset += dimensions;
+		}
+		return points;
+	}
+
+	/**
+	 * Seeds k centres among the points and runs k-means from them.
+	 */
+	public Result cluster(double[] points, int numPoints, int dimensions, int k, Random random) {
+		assert (k > 0);
+		double[] centers;
+		if (this.seeding == Seeding.KMEANS_PARALLEL) {
+			centers = seedParallel(points, numPoints, dimensions, k, random);
+		} else {
+			centers = seedPlusPlus(points, numPoints, dimensions, k, random);
+		}
+		return cluster(points, numPoints, dimensions, centers, k);
+	}
+
+	/**
+	 * Runs k-means from the given centres, which are updated in place.
+	 */
+	public Result cluster(double[] points, int numPoints, int dimensions, double[] centers, int k) {
+		assert (k > 0);
+		int[] assignment = new int[numPoints];
+		Arrays.fill(assignment, -1);
+		Assignment pass;
+		int iterations = 0;
+		while (true) {
+			pass = invoke(new AssignmentTask(points, dimensions, centers, k, assignment, 0, numPoints));
+			// The last pass always assigned the points to the final centres
+			if (pass.changed == 0 || iterations == this.maxIterations) {
+				break;
+			}
+			for (int c = 0; c < k; c++) {
+				if (pass.counts[c] > 0) {
+					int offset = c * dimensions;
+					for (int i = 0; i < dimensions; i++) {
+						centers[offset + i] = pass.sums[offset + i] / pass.counts[c];
+					}
+				}
+			}
+			iterations++;
+		}
+		return new Result(dimensions, k, centers, assignment, pass.counts, pass.radii, iterations);
+	}
+
+	/**
+	 * k-means++ seeding: every next centre is drawn with a probability
+	 * proportional to the squared distance of the point to the closest centre
+	 * drawn so far.
+	 */
+	protected double[] seedPlusPlus(double[] points, int numPoints, int dimensions, int k, Random random) {
+		double[] centers = new double[k * dimensions];
+		double[] minDistances = new double[numPoints];
+		Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+		int chosen = random.nextInt(numPoints);
+		for (int c = 0; c < k; c++) {
+			if (c > 0) {
+				chosen = sample(minDistances, numPoints, random.nextDouble(), random);
+			}
+			System.arraycopy(points, chosen * dimensions, centers, c * dimensions, dimensions);
+			if (c < k - 1) {
+				invoke(new DistanceTask(points, dimensions, centers, c, c + 1, minDistances, null, 0, numPoints));
+			}
+		}
+		return centers;
+	}
+
+	/**
+	 * k-means|| seeding: in a few rounds, every point is drawn independently
+	 * with a probability proportional to its squared distance to the candidates
+	 * drawn so far, so a round costs one pass over the points instead of
+	 * k. The k centres are then drawn from the candidates, weighted by the
+	 * number of points closest to them, with k-means++.
+	 */
+	protected double[] seedParallel(double[] points, int numPoints, int dimensions, int k, Random random) {
+		double oversampling = PARALLEL_SEEDING_OVERSAMPLING * k;
+		double[] candidates = new double[Math.max(4, 2 * k) * dimensions];
+		double[] minDistances = new double[numPoints];
+		Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+		int[] nearestCandidate = new int[numPoints];
+		boolean[] isCandidate = new boolean[numPoints];
+
+		int first = random.nextInt(numPoints);
+		System.arraycopy(points, first * dimensions, candidates, 0, dimensions);
+		isCandidate[first] = true;
+		int numCandidates = 1;
+		double cost = invoke(new DistanceTask(points, dimensions, candidates, 0, 1, minDistances, nearestCandidate, 0, numPoints));
+		for (int round = 0; round < PARALLEL_SEEDING_ROUNDS && cost > 0.0; round++) {
+			int from = numCandidates;
+			for (int i = 0; i < numPoints; i++) {
+				// Drawn for every point, so which number a point gets does not depend on the others
+				double u = random.nextDouble();
+				if (!isCandidate[i] && u * cost < oversampling * minDistances[i]) {
+					if ((numCandidates + 1) * dimensions > candidates.length) {
+						candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+					}
+					System.arraycopy(points, i * dimensions, candidates, numCandidates * dimensions, dimensions);
+					isCandidate[i] = true;
+					numCandidates++;
+				}
+			}
+			if (numCandidates == from) {
+				continue;
+			}
+			cost = invoke(new DistanceTask(points, dimensions, candidates, from, numCandidates, minDistances, nearestCandidate, 0, numPoints));
+		}
+
+		if (numCandidates <= k) {
+			// Too few candidates to choose from, the points are spread over fewer
+			// than k places; the missing centres are drawn as k-means++ does
+			double[] centers = Arrays.copyOf(candidates, k * dimensions);
+			for (int c = numCandidates; c < k; c++) {
+				int chosen = sample(minDistances, numPoints, random.nextDouble(), random);
+				System.arraycopy(points, chosen * dimensions, centers, c * dimensions, dimensions);
+				invoke(new DistanceTask(points, dimensions, centers, c, c + 1, minDistances, null, 0, numPoints));
+			}
+			return centers;
+		}
+
+		double[] weights = new double[numCandidates];
+		for (int i = 0; i < numPoints; i++) {
+			weights[nearestCandidate[i]]++;
+		}
+		return seedWeighted(candidates, weights, numCandidates, dimensions, k, random);
+	}
+
+	/**
+	 * k-means++ seeding on weighted points, on the calling thread. Used on the
+	 * k-means|| candidates, which are few.
+	 */
+	private static double[] seedWeighted(double[] points, double[] weights, int numPoints, int dimensions, int k, Random random) {
+		double[] centers = new double[k * dimensions];
+		double[] minDistances = new double[numPoints];
+		double[] scores = new double[numPoints];
+		Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+		System.arraycopy(weights, 0, scores, 0, numPoints);
+		for (int c = 0; c < k; c++) {
+			int chosen = sample(scores, numPoints, random.nextDouble(), random);
+			System.arraycopy(points, chosen * dimensions, centers, c * dimensions, dimensions);
+			for (int i = 0; i < numPoints; i++) {
+				double distance = Distances.squaredEuclidean(points, i * dimensions, centers, c * dimensions, dimensions);
+				if (distance < minDistances[i]) {
+					minDistances[i] = distance;
+				}
+				scores[i] = weights[i] * minDistances[i];
+			}
+		}
+		return centers;
+	}
+
+	/**
+	 * Draws an index with a probability proportional to its score, uniformly
+	 * if all the scores are 0.
+	 */
+	private static int sample(double[] scores, int size, double u, Random random) {
+		double sum = 0.0;
+		for (int i = 0; i < size; i++) {
+			sum += scores[i];
+		}
+		if (!(sum > 0.0)) {
+			return random.nextInt(size);
+		}
+		double target = u * sum;
+		double cumulated = 0.0;
+		int last = 0;
+		for (int i = 0; i < size; i++) {
+			if (scores[i] > 0.0) {
+				cumulated += scores[i];
+				last = i;
+				if (target < cumulated) {
+					return i;
+				}
+			}
+		}
+		// Rounding of the cumulated sum
+		return last;
+	}
+
+	/**
+	 * Gets the largest range a pass over the given number of points is split
+	 * into.
+	 */
+	static int maxTaskSize(int numPoints) {
+		return Math.max(MIN_TASK_SIZE, (numPoints + MAX_TASKS - 1) / MAX_TASKS);
+	}
+
+	private <T> T invoke(RangeTask<T> task) {
+		task.maxTaskSize = maxTaskSize(task.to - task.from);
+		if (this.pool == null || task.to - task.from <= task.maxTaskSize) {
+			return task.compute();
+		}
+		return this.pool.invoke(task);
+	}
+
+	/**
+	 * Outcome of a k-means run. The points are assigned to the closest of the
+	 * final centres.
+	 */
+	public static class Result {
+
+		private final int dimensions;
+		private final int k;
+		private final double[] centers;
+		private final int[] assignment;
+		private final int[] sizes;
+		private final double[] radii;
+		private final int iterations;
+
+		Result(int dimensions, int k, double[] centers, int[] assignment, int[] sizes, double[] radii, int iterations) {
+			this.dimensions = dimensions;
+			this.k = k;
+			this.centers = centers;
+			this.assignment = assignment;
+			this.sizes = sizes;
+			this.radii = radii;
+			this.iterations = iterations;
+		}
+
+		public int getK() {
+			return this.k;
+		}
+
+		/**
+		 * @return a copy of the centre of a cluster
+		 */
+		public double[] getCenter(int cluster) {
+			return Arrays.copyOfRange(this.centers, cluster * this.dimensions, (cluster + 1) * this.dimensions);
+		}
+
+		/**
+		 * @return the cluster of every point
+		 */
+		public int[] getAssignment() {
+			return this.assignment;
+		}
+
+		public int getSize(int cluster) {
+			return this.sizes[cluster];
+		}
+
+		/**
+		 * @return the distance from the centre of a cluster to its farthest
+		 * point, 0 if it is empty
+		 */
+		public double getRadius(int cluster) {
+			return this.radii[cluster];
+		}
+
+		/**
+		 * @return the number of centre updates
+		 */
+		public int getIterations() {
+			return this.iterations;
+		}
+
+		/**
+		 * @return the clusters as <code>SphereCluster</code>s weighted by
+		 * their number of points
+		 */
+		public Clustering toClustering() {
+			SphereCluster[] clusters = new SphereCluster[this.k];
+			for (int c = 0; c < this.k; c++) {
+				clusters[c] = new SphereCluster(getCenter(c), this.radii[c], this.sizes[c]);
+			}
+			return new Clustering(clusters);
+		}
+	}
+
+	/**
+	 * Pass over the points <code>[from, to)</code>. Ranges larger than
+	 * <code>maxTaskSize</code> points are split in halves whose results are
+	 * merged, in a pool if the task runs in one and on the current thread
+	 * otherwise.
+	 */
+	private abstract static class RangeTask<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final int from;
+		protected final int to;
+		protected int maxTaskSize = Integer.MAX_VALUE;
+
+		RangeTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected T compute() {
+			if (this.to - this.from <= this.maxTaskSize) {
+				return computeRange();
+			}
+			int middle = (this.from + this.to) >>> 1;
+			RangeTask<T> left = subTask(this.from, middle);
+			RangeTask<T> right = subTask(middle, this.to);
+			left.maxTaskSize = this.maxTaskSize;
+			right.maxTaskSize = this.maxTaskSize;
+			if (ForkJoinTask.inForkJoinPool()) {
+				left.fork();
+				T rightResult = right.compute();
+				return merge(left.join(), rightResult);
+			}
+			T leftResult = left.compute();
+			return merge(leftResult, right.compute());
+		}
+
+		protected abstract RangeTask<T> subTask(int from, int to);
+
+		protected abstract T computeRange();
+
+		protected abstract T merge(T left, T right);
+	}
+
+	/**
+	 * Lowers the squared distance of every point to its closest centre with
+	 * the centres <code>[centerFrom, centerTo)</code>.
+	 * @return the sum of the squared distances
+	 */
+	private static class DistanceTask extends RangeTask<Double> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] points;
+		private final int dimensions;
+		private final double[] centers;
+		private final int centerFrom;
+		private final int centerTo;
+		private final double[] minDistances;
+		/** Receives the index of the closest centre, may be null. */
+		private final int[] nearest;
+
+		DistanceTask(double[] points, int dimensions, double[] centers, int centerFrom, int centerTo,
+				double[] minDistances, int[] nearest, int from, int to) {
+			super(from, to);
+			this.points = points;
+			this.dimensions = dimensions;
+			this.centers = centers;
+			this.centerFrom = centerFrom;
+			this.centerTo = centerTo;
+			this.minDistances = minDistances;
+			this.nearest = nearest;
+		}
+
+		@Override
+		protected RangeTask<Double> subTask(int from, int to) {
+			return new DistanceTask(this.points, this.dimensions, this.centers, this.centerFrom, this.centerTo,
+					this.minDistances, this.nearest, from, to);
+		}
+
+		@Override
+		protected Double computeRange() {
+			double sum = 0.0;
+			for (int i = this.from; i < this.to; i++) {
+				for (int c = this.centerFrom; c < this.centerTo; c++) {
+					double distance = Distances.squaredEuclidean(this.points, i * this.dimensions,
+							this.centers, c * this.dimensions, this.dimensions);
+					if (distance < this.minDistances[i]) {
+						this.minDistances[i] = distance;
+						if (this.nearest != null) {
+							this.nearest[i] = c;
+						}
+					}
+				}
+				sum += this.minDistances[i];
+			}
+			return sum;
+		}
+
+		@Override
+		protected Double merge(Double left, Double right) {
+			return left + right;
+		}
+	}
+
+	/**
+	 * Sums of the points assigned to every centre in a range, with their
+	 * number, the distance of the farthest one and how many points changed
+	 * their centre.
+	 */
+	private static class Assignment {
+
+		final double[] sums;
+		final int[] counts;
+		final double[] radii;
+		int changed;
+
+		Assignment(int k, int dimensions) {
+			this.sums = new double[k * dimensions];
+			this.counts = new int[k];
+			this.radii = new double[k];
+		}
+	}
+
+	/**
+	 * Assigns every point to its closest centre.
+	 */
+	private static class AssignmentTask extends RangeTask<Assignment> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] points;
+		private final int dimensions;
+		private final double[] centers;
+		private final int k;
+		private final int[] assignment;
+
+		AssignmentTask(double[] points, int dimensions, double[] centers, int k, int[] assignment, int from, int to) {
+			super(from, to);
+			this.points = points;
+			this.dimensions = dimensions;
+			this.centers = centers;
+			this.k = k;
+			this.assignment = assignment;
+		}
+
+		@Override
+		protected RangeTask<Assignment> subTask(int from, int to) {
+			return new AssignmentTask(this.points, this.dimensions, this.centers, this.k, this.assignment, from, to);
+		}
+
+		@Override
+		protected Assignment computeRange() {
+			Assignment result = new Assignment(this.k, this.dimensions);
+			double[] point = new double[this.dimensions];
+			for (int i = this.from; i < this.to; i++) {
+				int offset = i * this.dimensions;
+				System.arraycopy(this.points, offset, point, 0, this.dimensions);
+				int closest = Distances.nearest(point, this.centers, this.k, this.dimensions);
+				if (this.assignment[i] != closest) {
+					this.assignment[i] = closest;
+					result.changed++;
+				}
+				result.counts[closest]++;
+				int centerOffset = closest * this.dimensions;
+				for (int d = 0; d < this.dimensions; d++) {
+					result.sums[centerOffset + d] += point[d];
+				}
+				double distance = Distances.euclidean(this.centers, centerOffset, point, 0, this.dimensions);
+				if (distance > result.radii[closest]) {
+					result.radii[closest] = distance;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		protected Assignment merge(Assignment left, Assignment right) {
+			for (int i = 0; i < left.sums.length; i++) {
+				left.sums[i] += right.sums[i];
+			}
+			for (int c = 0; c < this.k; c++) {
+				left.counts[c] += right.counts[c];
+				left.radii[c] = Math.max(left.radii[c], right.radii[c]);
+			}
+			left.changed += right.changed;
+			return left;
+		}
+	}
+}
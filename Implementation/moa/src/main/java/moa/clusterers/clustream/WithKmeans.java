@@ -37,8 +37,10 @@ import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.cluster.SphereCluster;
 import moa.clusterers.AbstractClusterer;
+import moa.core.Distances;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 
@@ -61,6 +63,18 @@ public class WithKmeans extends AbstractClusterer {
 			"k", 'k',
 			"k of macro k-means (number of clusters)", 5);
 
+	public MultiChoiceOption seedingOption = new MultiChoiceOption("seeding", 's',
+			"How macro k-means chooses its initial centres.",
+			new String[]{"kMeans++", "kMeans||"},
+			new String[]{"Draws the centres one at a time, each with a probability proportional to the squared distance to the closest one drawn so far.",
+					"Draws many candidates in a few parallel rounds and chooses the centres among them with kMeans++."}, 0);
+
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used by k-means (-1 = as much as possible, 0 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
+	/** No cap: the Lloyd iterations run until no point changes its cluster. */
+	protected static final int KMEANS_MAX_ITERATIONS = Integer.MAX_VALUE;
+
 	private int timeWindow;
 	private long timestamp = -1;
 	private ClustreamKernel[] kernels;
@@ -93,6 +107,7 @@ public class WithKmeans extends AbstractClusterer {
 	public void trainOnInstance(Instance inst, boolean isRecordTimeStamp) {
 		if (inst.weight() > 0.0) {
 			this.trainingWeightSeenByModel += inst.weight();
+			this.modelVersion++;
 			trainOnInstanceImpl(inst, isRecordTimeStamp);
 		}
 	}
@@ -106,8 +121,10 @@ public class WithKmeans extends AbstractClusterer {
 				buffer.add(new ClustreamKernel(instance, dim, timestamp, isRecordTimeStamp, t, m));
 				return;
 			} else {
-				for (int i = 0; i < buffer.size(); i++) {
-					kernels[i] = new ClustreamKernel(new DenseInstance(1.0, buffer.get(i).getCenter()), dim, timestamp, isRecordTimeStamp, t, m);
+				KMeansEngine.Result kmeans = new KMeansEngine(KMeansEngine.getPool(numberOfJobsOption.getValue()), KMeansEngine.Seeding.KMEANS_PLUS_PLUS, KMEANS_MAX_ITERATIONS)
+						.cluster(KMeansEngine.toPoints(buffer, dim), buffer.size(), dim, kernels.length, new Random(0));
+				for (int i = 0; i < kernels.length; i++) {
+					kernels[i] = new ClustreamKernel(new DenseInstance(1.0, kmeans.getCenter(i)), dim, timestamp, isRecordTimeStamp, t, m);
 				}
 	
 				buffer.clear();
@@ -206,7 +223,17 @@ public class WithKmeans extends AbstractClusterer {
                 if (!initialized) {
                     return new Clustering(new Cluster[0]);
 		}
-		return kMeans_rand(kOption.getValue(), getMicroClusteringResult());
+		ArrayList<CFCluster> microclusters = new ArrayList<CFCluster>(kernels.length);
+		for (ClustreamKernel kernel : kernels) {
+			microclusters.add(new ClustreamKernel(kernel, t, m));
+		}
+		int k = kOption.getValue();
+		int dimensions = kernels[0].getCenter().length;
+		KMeansEngine.Seeding seeding = seedingOption.getChosenIndex() == 1
+				? KMeansEngine.Seeding.KMEANS_PARALLEL : KMeansEngine.Seeding.KMEANS_PLUS_PLUS;
+		KMeansEngine.Result result = new KMeansEngine(KMeansEngine.getPool(numberOfJobsOption.getValue()), seeding, KMEANS_MAX_ITERATIONS)
+				.cluster(KMeansEngine.toPoints(microclusters, dimensions), microclusters.size(), dimensions, k, new Random(0));
+		return cleanUpKMeans(k, result.getAssignment(), microclusters);
 	}
 	
 	public Clustering getClusteringResult(Clustering gtClustering) {
@@ -225,12 +252,7 @@ public class WithKmeans extends AbstractClusterer {
 	 * @return dist
 	 */
 	private static double distance(double[] pointA, double [] pointB) {
-		double distance = 0.0;
-		for (int i = 0; i < pointA.length; i++) {
-			double d = pointA[i] - pointB[i];
-			distance += d * d;
-		}
-		return Math.sqrt(distance);
+		return Distances.euclidean(pointA, pointB);
 	}
 
 	/**
@@ -318,52 +340,10 @@ public class WithKmeans extends AbstractClusterer {
 		assert (k > 0);
 
 		int dimensions = centers[0].getCenter().length;
-
-		ArrayList<ArrayList<Cluster>> clustering = new ArrayList<ArrayList<Cluster>>();
-		for (int i = 0; i < k; i++) {
-			clustering.add(new ArrayList<Cluster>());
-		}
-
-		while (true) {
-			// Assign points to clusters
-			for (Cluster point : data) {
-				double minDistance = distance(point.getCenter(), centers[0].getCenter());
-				int closestCluster = 0;
-				for (int i = 1; i < k; i++) {
-					double distance = distance(point.getCenter(), centers[i].getCenter());
-					if (distance < minDistance) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}
-
-				clustering.get(closestCluster).add(point);
-			}
-
-			// Calculate new centers and clear clustering lists
-			SphereCluster[] newCenters = new SphereCluster[centers.length];
-			for (int i = 0; i < k; i++) {
-				newCenters[i] = calculateCenter(clustering.get(i), dimensions);
-				clustering.get(i).clear();
-			}
-			
-			// Convergence check
-			boolean converged = true;
-			for (int i = 0; i < k; i++) {
-				if (!Arrays.equals(centers[i].getCenter(), newCenters[i].getCenter())) {
-					converged = false;
-					break;
-				}
-			}
-			
-			if (converged) {
-				break;
-			} else {
-				centers = newCenters;
-			}
-		}
-
-		return new Clustering(centers);
+		return new KMeansEngine(null, KMeansEngine.Seeding.KMEANS_PLUS_PLUS, KMEANS_MAX_ITERATIONS)
+				.cluster(KMeansEngine.toPoints(data, dimensions), data.size(), dimensions,
+						KMeansEngine.toPoints(Arrays.asList(centers), dimensions), k)
+				.toClustering();
 	}
 	
 	/**
@@ -374,21 +354,33 @@ public class WithKmeans extends AbstractClusterer {
 	 * @return
 	 */
 	protected static Clustering cleanUpKMeans(Clustering kMeansResult, ArrayList<CFCluster> microclusters) {
-		/* Convert k-means result to CFClusters */
 		int k = kMeansResult.size();
+		int dimensions = kMeansResult.get(0).getCenter().length;
+		double[] centers = KMeansEngine.toPoints(kMeansResult.getClustering(), dimensions);
+
+		// Find closest kMeans cluster
+		int[] assignment = new int[microclusters.size()];
+		for (int i = 0; i < assignment.length; i++) {
+			assignment[i] = Distances.nearest(microclusters.get(i).getCenter(), centers, k, dimensions);
+		}
+		return cleanUpKMeans(k, assignment, microclusters);
+	}
+
+	/**
+	 * Rearrange the k-means result into a set of CFClusters, cleaning up the redundancies.
+	 * 
+	 * @param k
+	 * @param assignment - kMeans cluster of every microcluster
+	 * @param microclusters
+	 * @return
+	 */
+	protected static Clustering cleanUpKMeans(int k, int[] assignment, ArrayList<CFCluster> microclusters) {
+		/* Convert k-means result to CFClusters */
 		CFCluster[] converted = new CFCluster[k];
 
-		for (CFCluster mc : microclusters) {
-		    // Find closest kMeans cluster
-		    double minDistance = Double.MAX_VALUE;
-		    int closestCluster = 0;
-		    for (int i = 0; i < k; i++) {
-		    	double distance = distance(kMeansResult.get(i).getCenter(), mc.getCenter());
-				if (distance < minDistance) {
-				    closestCluster = i;
-				    minDistance = distance;
-				}
-		    }
+		for (int i = 0; i < assignment.length; i++) {
+		    CFCluster mc = microclusters.get(i);
+		    int closestCluster = assignment[i];
 
 		    // Add to cluster
 		    if ( converted[closestCluster] == null ) {
@@ -416,50 +408,6 @@ public class WithKmeans extends AbstractClusterer {
 	}
 
 	
-
-	/**
-	 * k-means helper: Calculate a wrapping cluster of assigned points[microclusters].
-	 * 
-	 * @param assigned
-	 * @param dimensions
-	 * @return SphereCluster (with center and radius)
-	 */
-	private static SphereCluster calculateCenter(ArrayList<Cluster> assigned, int dimensions) {
-		double[] result = new double[dimensions];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = 0.0;
-		}
-
-		if (assigned.size() == 0) {
-			return new SphereCluster(result, 0.0);
-		}
-
-		for (Cluster point : assigned) {
-			double[] center = point.getCenter();
-			for (int i = 0; i < result.length; i++) {
-				result[i] += center[i];
-			}
-		}
-
-		// Normalize
-		for (int i = 0; i < result.length; i++) {
-			result[i] /= assigned.size();
-		}
-
-		// Calculate radius: biggest wrapping distance from center
-		double radius = 0.0;
-		for (Cluster point : assigned) {
-			double dist = distance(result, point.getCenter());
-			if (dist > radius) {
-				radius = dist;
-			}
-		}
-		SphereCluster sc = new SphereCluster(result, radius);
-		sc.setWeight(assigned.size());
-		return sc;
-	}
-
-	
 	/** Miscellaneous **/
 	
 	@Override
@@ -24,6 +24,7 @@ import moa.clusterers.clustree.util.*;
 import java.util.Arrays;
 import moa.cluster.CFCluster;
 import moa.cluster.Cluster;
+import moa.core.Distances;
 import com.yahoo.labs.samoa.instances.Instance;
 
 /**
@@ -144,17 +145,9 @@ public class ClusKernel extends CFCluster{
         double N1 = this.getWeight();
         double N2 = other.getWeight();
 
-        double[] thisLS = this.LS;
-        double[] otherLS = other.LS;
-
-        double res = 0.0;
-        for (int i = 0; i < thisLS.length; i++) {
-            double substracted = (thisLS[i] / N1) - (otherLS[i] / N2);
-            res += substracted * substracted;
-        }
-
         // TODO INFO: added sqrt to the computation [PK 10.09.10] 
-        return Math.sqrt(res);
+        return Distances.euclideanBetweenMeans(this.LS, 0, N1, other.LS, 0, N2,
+                this.LS.length);
     }
 
     /**
@@ -22,10 +22,15 @@ package moa.clusterers.clustree;
 
 import java.util.ArrayList;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import moa.clusterers.clustree.util.*;
 import moa.cluster.Clustering;
+import moa.cluster.MicroClusteringView;
 import moa.clusterers.AbstractClusterer;
+import moa.core.Distances;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.FlagOption;
@@ -49,6 +54,11 @@ public class ClusTree extends AbstractClusterer{
 	public FlagOption breadthFirstStrategyOption = new FlagOption(
 			"breadthFirstStrategy", 'B',
 			"Use breadth first strategy");
+
+	public IntOption bulkLoadSizeOption = new IntOption("bulkLoadSize",
+			'l', "Number of instances buffered to bulk-load the initial tree, "
+			+ "0 to insert them one by one. There is no clustering until the "
+			+ "buffer is full.", 0, 0, Integer.MAX_VALUE);
     
     protected int getDefaultHeight() {
     	return 8;
@@ -101,6 +111,18 @@ public class ClusTree extends AbstractClusterer{
     
     //TODO: cleanup
     private Entry alsoUpdate;
+
+    /**
+     * Leaf kernels collected at <code>microClusteringViewVersion</code>.
+     */
+    private MicroClusteringView microClusteringView;
+    private long microClusteringViewVersion;
+
+    /**
+     * The points buffered to bulk-load the tree, <code>null</code> once the
+     * tree has been built or if bulk-loading is off.
+     */
+    private List<ClusKernel> bulkLoadBuffer;
     
     @Override
     public void resetLearningImpl() {
@@ -114,6 +136,9 @@ public class ClusTree extends AbstractClusterer{
         height = 0;
         numRootSplits = 0;
         numberInsertions = 0;
+        microClusteringView = null;
+        bulkLoadBuffer = bulkLoadSizeOption.getValue() > 0
+                ? new ArrayList<ClusKernel>(bulkLoadSizeOption.getValue()) : null;
     }
 
 
@@ -148,26 +173,80 @@ public class ClusTree extends AbstractClusterer{
 	public void trainOnInstance(Instance inst, boolean isRecordTimeStamp) {
 		if (inst.weight() > 0.0) {
 			this.trainingWeightSeenByModel += inst.weight();
+			this.modelVersion++;
 			trainOnInstanceImpl(inst, isRecordTimeStamp);
 		}
 	}
 
 	public void trainOnInstanceImpl(Instance instance, boolean isRecordTimeStamp) {
+        ClusKernel newPointAsKernel = toKernel(instance, isRecordTimeStamp);
+        if (!bufferForBulkLoad(newPointAsKernel)) {
+            insert(newPointAsKernel, new SimpleBudget(1000), timestamp);
+        }
+    }
+
+	/**
+	 * Trains on a block of instances at once. The instances get the same
+	 * timestamps as if they were trained on one by one, but they are routed
+	 * down the tree together.
+	 * @param instances The instances, in the order in which they arrived.
+	 * @see #insertBatch(List, Budget, long)
+	 */
+	public void trainOnInstances(Instance[] instances) {
+		List<ClusKernel> batch = new ArrayList<ClusKernel>(instances.length);
+		for (Instance inst : instances) {
+			if (inst.weight() > 0.0) {
+				this.trainingWeightSeenByModel += inst.weight();
+				this.modelVersion++;
+				ClusKernel newPointAsKernel = toKernel(inst, true);
+				if (!bufferForBulkLoad(newPointAsKernel)) {
+					batch.add(newPointAsKernel);
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			insertBatch(batch, new SimpleBudget(1000), timestamp);
+		}
+	}
+
+	/**
+	 * Advances the time and returns the instance as a kernel with that
+	 * timestamp.
+	 */
+	private ClusKernel toKernel(Instance instance, boolean isRecordTimeStamp) {
         timestamp++;
         
         //TODO check if instance contains label
         if(root == null){
             numberDimensions = instance.numAttributes();
-            root = new Node(numberDimensions, 0);
+            if (bulkLoadBuffer == null) {
+                root = new Node(numberDimensions, 0);
+            }
         }
         else{
             if(numberDimensions!=instance.numAttributes())
                 System.out.println("Wrong dimensionality, expected:"+numberDimensions+ "found:"+instance.numAttributes());
         }
 
-        ClusKernel newPointAsKernel = new ClusKernel(instance.toDoubleArray(), numberDimensions, timestamp, isRecordTimeStamp);
-        insert(newPointAsKernel, new SimpleBudget(1000),timestamp);
-    }
+        return new ClusKernel(instance.toDoubleArray(), numberDimensions, timestamp, isRecordTimeStamp);
+	}
+
+	/**
+	 * Buffers the point if the tree is still to be bulk-loaded, and bulk-loads
+	 * it once the buffer is full.
+	 * @return <code>true</code> if the point was taken by the buffer.
+	 */
+	private boolean bufferForBulkLoad(ClusKernel newPoint) {
+		if (bulkLoadBuffer == null) {
+			return false;
+		}
+		bulkLoadBuffer.add(newPoint);
+		if (bulkLoadBuffer.size() >= bulkLoadSizeOption.getValue()) {
+			bulkLoad(bulkLoadBuffer, timestamp);
+			bulkLoadBuffer = null;
+		}
+		return true;
+	}
 
 
     /**
@@ -213,6 +292,174 @@ public class ClusTree extends AbstractClusterer{
         }
     }
 
+    /**
+     * Insert a block of points in the <code>Tree</code>. The points should be
+     * represented as clusters with a single data point and are taken to have
+     * arrived one per time step, the last one at <code>timestamp</code>.
+     *
+     * Every point is first aged to <code>timestamp</code>, so the entries
+     * only have to be aged once per batch instead of once per point, and
+     * the points going through the same node are routed together: the
+     * centers of the entries of a node are computed once, and the points are
+     * aggregated to the entries and passed down to their children as a group.
+     * The statistics of the entries are the same as for one by one insertion,
+     * but the points are routed by the state of the tree at the start of the
+     * batch, so the tree can be different.
+     * @param newPoints The points to be inserted, in order of arrival. They
+     * are aged by this call.
+     * @param budget The budget and statistics recollector for the insertion.
+     * @param timestamp The moment at which the last point is inserted.
+     * @see #insert(ClusKernel, Budget, long)
+     */
+    public void insertBatch(List<ClusKernel> newPoints, Budget budget,
+            long timestamp) {
+        int numPoints = newPoints.size();
+        ClusKernel[] points = newPoints.toArray(new ClusKernel[numPoints]);
+        for (int i = 0; i < numPoints; i++) {
+            points[i].makeOlder(numPoints - 1 - i, this.negLambda);
+        }
+
+        if (breadthFirstStrat) {
+            for (ClusKernel point : points) {
+                insertBreadthFirst(point, budget, timestamp);
+            }
+        } else {
+            double[][] centers = new double[numPoints][];
+            int[] batch = new int[numPoints];
+            for (int i = 0; i < numPoints; i++) {
+                centers[i] = points[i].getCenter();
+                batch[i] = i;
+            }
+
+            Entry rootEntry = new Entry(this.numberDimensions,
+                    root, timestamp, null, null);
+            List<Entry> toInsertHere = insertBatch(points, centers, batch,
+                    numPoints, root, rootEntry, budget, timestamp);
+
+            // Grow the tree until the root takes all the entries split off.
+            boolean tooHigh = false;
+            while (!toInsertHere.isEmpty()) {
+                tooHigh |= this.hasMaximalSize();
+                this.numRootSplits++;
+                this.height += this.height < this.maxHeight ? 1 : 0;
+
+                Entry firstEntry = toInsertHere.get(0);
+                Node newRoot = new Node(this.numberDimensions,
+                        firstEntry.getChild().getRawLevel() + 1);
+                newRoot.addEntry(rootEntry, timestamp);
+                newRoot.addEntry(firstEntry, timestamp);
+                rootEntry.setNode(newRoot);
+                firstEntry.setNode(newRoot);
+                this.root = newRoot;
+
+                rootEntry = new Entry(this.numberDimensions,
+                        root, timestamp, null, null);
+                toInsertHere = insertEntries(
+                        toInsertHere.subList(1, toInsertHere.size()),
+                        rootEntry, budget, timestamp);
+            }
+            // The leaves split before the root did, so cut the tree back to
+            // the maximal height as the next clean up would.
+            if (tooHigh) {
+                cleanUp(this.root, 0);
+            }
+        }
+
+        countInsertions(numPoints);
+    }
+
+    /**
+     * Builds the tree from the first points of the stream, replacing the
+     * current tree. The points are split top-down, three ways along the
+     * dimension with the widest range, until they fit into single entries or
+     * the maximal height is reached, so all leaves are at the same depth, as
+     * in a tree grown by insertion.
+     * @param newPoints The points, in order of arrival. They are aged by this
+     * call.
+     * @param timestamp The moment at which the last point arrived.
+     */
+    public void bulkLoad(List<ClusKernel> newPoints, long timestamp) {
+        int numPoints = newPoints.size();
+        final double[][] centers = new double[numPoints][];
+        Integer[] order = new Integer[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            ClusKernel point = newPoints.get(i);
+            point.makeOlder(numPoints - 1 - i, this.negLambda);
+            centers[i] = point.getCenter();
+            order[i] = i;
+        }
+
+        int treeHeight = 0;
+        for (long capacity = Node.NUMBER_ENTRIES; capacity < numPoints
+                && treeHeight < this.maxHeight; capacity *= Node.NUMBER_ENTRIES) {
+            treeHeight++;
+        }
+
+        this.root = bulkLoad(newPoints, centers, order, 0, numPoints,
+                treeHeight, timestamp);
+        this.height = treeHeight;
+        this.numRootSplits = treeHeight;
+        countInsertions(numPoints);
+    }
+
+    private Node bulkLoad(List<ClusKernel> points, final double[][] centers,
+            Integer[] order, int from, int to, int rawLevel, long timestamp) {
+        // Sort the points along the dimension with the widest range.
+        int splitDimension = 0;
+        double widestRange = -1.0;
+        for (int d = 0; d < this.numberDimensions; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = centers[order[i]][d];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestRange) {
+                widestRange = max - min;
+                splitDimension = d;
+            }
+        }
+        final int dimension = splitDimension;
+        Arrays.sort(order, from, to, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(centers[a][dimension], centers[b][dimension]);
+            }
+        });
+
+        Node node = new Node(this.numberDimensions, rawLevel);
+        int numParts = Math.min(Node.NUMBER_ENTRIES, to - from);
+        for (int part = 0; part < numParts; part++) {
+            int partFrom = from + (int) ((long) (to - from) * part / numParts);
+            int partTo = from + (int) ((long) (to - from) * (part + 1) / numParts);
+            Entry entry;
+            if (rawLevel == 0) {
+                ClusKernel kernel = new ClusKernel(this.numberDimensions);
+                for (int i = partFrom; i < partTo; i++) {
+                    kernel.add(points.get(order[i]));
+                }
+                entry = new Entry(this.numberDimensions, kernel, timestamp);
+            } else {
+                Node child = bulkLoad(points, centers, order, partFrom, partTo,
+                        rawLevel - 1, timestamp);
+                entry = new Entry(this.numberDimensions, child, timestamp,
+                        null, node);
+            }
+            node.addEntry(entry, timestamp);
+        }
+        return node;
+    }
+
+    private void countInsertions(int numPoints) {
+        int before = this.numberInsertions;
+        this.numberInsertions += numPoints;
+        if (before / INSERTIONS_BETWEEN_CLEANUPS
+                != this.numberInsertions / INSERTIONS_BETWEEN_CLEANUPS) {
+            cleanUp(this.root, 0);
+        }
+    }
+
     /**
      * insert newPoint into the tree using the BreadthFirst strategy, i.e.: insert into
      * the closest entry in a leaf node.
@@ -541,6 +788,132 @@ public class ClusTree extends AbstractClusterer{
         return null;
     }
 
+    /**
+     * Inserts the points <code>batch[0..batchSize)</code> below the given
+     * node, sharing the aging of the node and the centers of its entries
+     * between all of them.
+     * @return The entries split off the node, which have to be inserted in
+     * the node above.
+     */
+    private List<Entry> insertBatch(ClusKernel[] points, double[][] centers,
+            int[] batch, int batchSize, Node currentNode, Entry parentEntry,
+            Budget budget, long timestamp) {
+        assert (currentNode.isLeaf()
+                || currentNode.getEntries()[0].getChild() != null);
+
+        currentNode.makeOlder(timestamp, this.negLambda);
+
+        if (currentNode.isLeaf()) {
+            List<Entry> newEntries = new ArrayList<Entry>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                newEntries.add(new Entry(this.numberDimensions,
+                        points[batch[i]], timestamp, parentEntry, currentNode));
+            }
+            return insertEntries(newEntries, parentEntry, budget, timestamp);
+        }
+
+        // Same choice as Node.nearestEntry(ClusKernel), with the centers of
+        // the entries computed once for the whole batch.
+        Entry[] entries = currentNode.getEntries();
+        int numEntries = 1;
+        while (numEntries < entries.length && !entries[numEntries].isEmpty()) {
+            numEntries++;
+        }
+        double[][] entryCenters = new double[numEntries][];
+        for (int e = 0; e < numEntries; e++) {
+            entryCenters[e] = entries[e].getData().getCenter();
+        }
+        int[] nearest = new int[batchSize];
+        int[] groupEnd = new int[numEntries];
+        for (int i = 0; i < batchSize; i++) {
+            double[] center = centers[batch[i]];
+            double min = Double.POSITIVE_INFINITY;
+            for (int e = 0; e < numEntries; e++) {
+                double distance = Distances.squaredEuclidean(entryCenters[e], center);
+                if (e == 0 || distance < min) {
+                    min = distance;
+                    nearest[i] = e;
+                }
+            }
+            groupEnd[nearest[i]]++;
+        }
+        for (int e = 1; e < numEntries; e++) {
+            groupEnd[e] += groupEnd[e - 1];
+        }
+        int[] groups = new int[batchSize];
+        for (int i = batchSize - 1; i >= 0; i--) {
+            groups[--groupEnd[nearest[i]]] = batch[i];
+        }
+
+        List<Entry> toInsertHere = new ArrayList<Entry>();
+        for (int e = 0; e < numEntries; e++) {
+            int groupFrom = groupEnd[e];
+            int groupTo = e + 1 < numEntries ? groupEnd[e + 1] : batchSize;
+            if (groupFrom == groupTo) {
+                continue;
+            }
+            Entry bestEntry = entries[e];
+            for (int i = groupFrom; i < groupTo; i++) {
+                bestEntry.aggregateCluster(points[groups[i]], timestamp,
+                        this.negLambda);
+            }
+
+            // A buffer left here by an earlier insertion goes down on its own.
+            if (!bestEntry.getBuffer().isEmpty()) {
+                ClusKernel takeAlongBuffer = bestEntry.emptyBuffer(timestamp,
+                        this.negLambda);
+                Entry split = insert(takeAlongBuffer,
+                        new ClusKernel(this.numberDimensions),
+                        bestEntry.getChild(), bestEntry, budget, timestamp);
+                if (split != null) {
+                    toInsertHere.add(split);
+                }
+            }
+
+            int[] group = Arrays.copyOfRange(groups, groupFrom, groupTo);
+            toInsertHere.addAll(insertBatch(points, centers, group,
+                    group.length, bestEntry.getChild(), bestEntry, budget,
+                    timestamp));
+        }
+
+        return insertEntries(toInsertHere, parentEntry, budget, timestamp);
+    }
+
+    /**
+     * Inserts the entries one by one into the child of the parent entry. Once
+     * that child is split, the remaining entries go to the nearest of the
+     * nodes it was split into.
+     * @return The entries split off the child of the parent entry, which have
+     * to be inserted next to the parent entry.
+     */
+    private List<Entry> insertEntries(List<Entry> newEntries,
+            Entry parentEntry, Budget budget, long timestamp) {
+        List<Entry> splitEntries = new ArrayList<Entry>();
+        ClusKernel emptyBuffer = new ClusKernel(this.numberDimensions);
+        for (Entry newEntry : newEntries) {
+            Entry target = parentEntry;
+            if (!splitEntries.isEmpty()) {
+                double min = parentEntry.calcDistance(newEntry);
+                for (Entry splitEntry : splitEntries) {
+                    double distance = splitEntry.calcDistance(newEntry);
+                    if (distance < min) {
+                        min = distance;
+                        target = splitEntry;
+                    }
+                }
+                // The split recalculated the data from the nodes, which do
+                // not hold this entry yet.
+                target.add(newEntry);
+            }
+            Entry split = insertHere(newEntry, target.getChild(), target,
+                    emptyBuffer, budget, timestamp);
+            if (split != null) {
+                splitEntries.add(split);
+            }
+        }
+        return splitEntries;
+    }
+
     /**
      * Inserts an <code>Entry</code> into a <code>Node</code> without inducing
      * a split.
@@ -769,6 +1142,27 @@ public class ClusTree extends AbstractClusterer{
     }
 
 
+    /**
+     * The kernels at the leaf level, not copied. Unlike the other
+     * micro-clusterers, the list is collected again after every change of the
+     * model: collecting ages the entries to the current time and leaves out
+     * the ones that became irrelevant, so which kernels belong to the view
+     * changes with every instance. A call after training therefore still
+     * walks the tree and allocates a list of the kernels, only repeated calls
+     * in between are free.
+     */
+    @Override
+    public MicroClusteringView getMicroClusteringView() {
+        if (root == null) {
+            return null;
+        }
+        if (microClusteringView == null || microClusteringViewVersion != modelVersion) {
+            microClusteringView = new MicroClusteringView(getKernels(timestamp, -1));
+            microClusteringViewVersion = modelVersion;
+        }
+        return microClusteringView;
+    }
+
     /**
      * @param currentTime The current time
      * @return The kernels at the given level as a clustering.
@@ -779,6 +1173,19 @@ public class ClusTree extends AbstractClusterer{
         }
 
         Clustering clusters = new Clustering();
+        for (ClusKernel kernel : getKernels(currentTime, targetLevel)) {
+            clusters.add(new ClusKernel(kernel));
+        }
+
+        return clusters;
+    }
+
+    /**
+     * @param currentTime The current time
+     * @return The kernels at the given level, not copied.
+     */
+    private List<ClusKernel> getKernels(long currentTime, int targetLevel) {
+        List<ClusKernel> kernels = new ArrayList<ClusKernel>();
         LinkedList<Node> queue = new LinkedList<Node>();
         queue.add(root);
 
@@ -805,14 +1212,12 @@ public class ClusTree extends AbstractClusterer{
                     if (entry.isIrrelevant(this.weightThreshold))
                     	continue;
 
-                    ClusKernel gaussKernel = new ClusKernel(entry.getData());
-
 //                  long diff = currentTime - entry.getTimestamp();
 //                    if (diff > 0) {
 //                        gaussKernel.makeOlder(diff, negLambda);
 //                    }
 
-                    clusters.add(gaussKernel);
+                    kernels.add(entry.getData());
                 }
             } else if (!current.isLeaf()) {
                 Entry[] entries = current.getEntries();
@@ -832,7 +1237,7 @@ public class ClusTree extends AbstractClusterer{
             }
         }
 
-        return clusters;
+        return kernels;
     }
 
 
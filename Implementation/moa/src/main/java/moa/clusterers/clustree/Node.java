@@ -24,7 +24,7 @@ import java.io.Serializable;
 
 public class Node implements Serializable {
 
-	final int NUMBER_ENTRIES = 3;
+	static final int NUMBER_ENTRIES = 3;
     static int INSERTIONS_BETWEEN_CLEANUPS = 10000;
     
     /**
@@ -22,6 +22,11 @@ package moa.clusterers.denstream;
 import moa.cluster.CFCluster;
 import com.yahoo.labs.samoa.instances.Instance;
 
+/**
+ * DenStream micro-cluster. The CF vectors and N are kept as they were at the
+ * last insertion, and the decay 2^(-lambda dt) since then is applied lazily
+ * when the cluster is read, with a single <code>Math.pow</code> per read.
+ */
 public class MicroCluster extends CFCluster {
 
     private long lastEditT = -1;
@@ -58,20 +63,12 @@ public class MicroCluster extends CFCluster {
         return lastEditT;
     }
 
-    private double[] calcCF2(long dt) {
-        double[] cf2 = new double[SS.length];
-        for (int i = 0; i < SS.length; i++) {
-            cf2[i] = Math.pow(2, -lambda * dt) * SS[i];
-        }
-        return cf2;
-    }
-
-    private double[] calcCF1(long dt) {
-        double[] cf1 = new double[LS.length];
-        for (int i = 0; i < LS.length; i++) {
-            cf1[i] = Math.pow(2, -lambda * dt) * LS[i];
-        }
-        return cf1;
+    /**
+     * @return the decay factor between the last insertion and the given time
+     */
+    private double decayFactor(long timestamp) {
+        long dt = timestamp - lastEditT;
+        return Math.pow(2, -lambda * dt);
     }
 
     @Override
@@ -79,9 +76,11 @@ public class MicroCluster extends CFCluster {
         return getWeight(currentTimestamp.getTimestamp());
     }
 
-    private double getWeight(long timestamp) {
-        long dt = timestamp - lastEditT;
-        return (N * Math.pow(2, -lambda * dt));
+    /**
+     * @return the weight, decayed to the given time
+     */
+    public double getWeight(long timestamp) {
+        return (N * decayFactor(timestamp));
     }
 
     public long getCreationTime() {
@@ -94,12 +93,12 @@ public class MicroCluster extends CFCluster {
     }
 
     private double[] getCenter(long timestamp) {
-        long dt = timestamp - lastEditT;
+        double decay = decayFactor(timestamp);
         double w = getWeight(timestamp);
         double[] res = new double[LS.length];
         for (int i = 0; i < LS.length; i++) {
             res[i] = LS[i];
-            res[i] *= Math.pow(2, -lambda * dt);
+            res[i] *= decay;
             res[i] /= w;
         }
         return res;
@@ -111,17 +110,48 @@ public class MicroCluster extends CFCluster {
     }
 
     public double getRadius(long timestamp) {
-        long dt = timestamp - lastEditT;
-        double[] cf1 = calcCF1(dt);
-        double[] cf2 = calcCF2(dt);
+        double decay = decayFactor(timestamp);
         double w = getWeight(timestamp);
         double max = 0;
-        double sum = 0;
         for (int i = 0; i < SS.length; i++) {
-            double x1 = cf2[i] / w;
-            double x2 = Math.pow(cf1[i] / w, 2);
-            //sum += Math.pow(x1 - x2,2);
-            sum += (x1 - x2);
+            double x1 = decay * SS[i] / w;
+            double x2 = Math.pow(decay * LS[i] / w, 2);
+            if (Math.sqrt(x1 - x2) > max) {
+                max = Math.sqrt(x1 - x2);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Radius, as <code>getRadius(long)</code> gives it, that this cluster would
+     * have if the point was inserted now. Computed from the CF vectors without
+     * changing them: same as inserting into a copy and asking for its radius
+     * at the time of insertion.
+     */
+    public double getRadiusIfInserted(double[] point) {
+        double w = N + 1;
+        double max = 0;
+        for (int i = 0; i < SS.length; i++) {
+            double x1 = (SS[i] + point[i] * point[i]) / w;
+            double x2 = Math.pow((LS[i] + point[i]) / w, 2);
+            if (Math.sqrt(x1 - x2) > max) {
+                max = Math.sqrt(x1 - x2);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Radius, as <code>getRadius(long)</code> gives it, computed from the CF
+     * vectors as they are. The decay cancels out between the CF vectors and
+     * the weight, so this only changes when a point is inserted.
+     */
+    public double getCFRadius() {
+        double max = 0;
+        for (int i = 0; i < SS.length; i++) {
+            double x1 = SS[i] / N;
+            double x2 = Math.pow(LS[i] / N, 2);
             if (Math.sqrt(x1 - x2) > max) {
                 max = Math.sqrt(x1 - x2);
             }
@@ -24,10 +24,19 @@
 
 package moa.clusterers.denstream;
 
+import java.io.Serializable;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import moa.cluster.BallTree;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
+import moa.cluster.MicroClusteringView;
 import moa.clusterers.AbstractClusterer;
 import moa.clusterers.macro.dbscan.DBScan;
 import moa.core.Measurement;
@@ -72,7 +81,28 @@ public class WithDBSCAN extends AbstractClusterer {
 	double beta;
 
 	Clustering p_micro_cluster;
+	MicroClusteringView p_micro_cluster_view;
 	Clustering o_micro_cluster;
+	/** Indexes over the p- and o-micro-clusters, in the order of their lists. */
+	BallTree p_micro_cluster_index;
+	BallTree o_micro_cluster_index;
+	/**
+	 * Micro-clusters ordered by the earliest time at which they can be pruned,
+	 * so that pruning only looks at the ones that are due.
+	 */
+	PriorityQueue<Expiry> p_micro_cluster_expiry;
+	PriorityQueue<Expiry> o_micro_cluster_expiry;
+	/**
+	 * The current entry of every o-micro-cluster in its expiry queue. Entries
+	 * of clusters promoted to p-micro-clusters stay in the queue and are
+	 * skipped once they are polled.
+	 */
+	Map<MicroCluster, Expiry> o_micro_cluster_expiry_entry;
+	/**
+	 * True to prune by checking every micro-cluster, which the tests compare
+	 * the expiry queues against.
+	 */
+	boolean fullScan;
 	ArrayList<DenPoint> initBuffer;
 
 	boolean initialized;
@@ -86,6 +116,38 @@ public class WithDBSCAN extends AbstractClusterer {
 	protected int processingSpeed;
 	// TODO Some variables to prevent duplicated processes
 
+	/** Index over the initial buffer and its points while it is clustered. */
+	private transient BallTree initIndex;
+	private transient double[][] initPoints;
+	private transient int[] neighbourBuffer;
+
+	private int[] nearestIndex = new int[1];
+	private double[] nearestDistance = new double[1];
+	private double[] centerBuffer;
+
+	/**
+	 * Projected expiry time of a micro-cluster. Points inserted since only
+	 * make it expire later, so it is a lower bound that is checked and
+	 * projected again when it is reached.
+	 */
+	private static class Expiry implements Comparable<Expiry>, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		protected final long time;
+		protected final MicroCluster cluster;
+
+		public Expiry(long time, MicroCluster cluster) {
+			this.time = time;
+			this.cluster = cluster;
+		}
+
+		@Override
+		public int compareTo(Expiry other) {
+			return Long.compare(this.time, other.time);
+		}
+	}
+
 	private class DenPoint extends DenseInstance {
 		
 		private static final long serialVersionUID = 1L;
@@ -113,7 +175,13 @@ public class WithDBSCAN extends AbstractClusterer {
 
 		initialized = false;
 		p_micro_cluster = new Clustering();
+		p_micro_cluster_view = new MicroClusteringView(p_micro_cluster.getClustering());
 		o_micro_cluster = new Clustering();
+		p_micro_cluster_index = null;
+		o_micro_cluster_index = null;
+		p_micro_cluster_expiry = new PriorityQueue<Expiry>();
+		o_micro_cluster_expiry = new PriorityQueue<Expiry>();
+		o_micro_cluster_expiry_entry = new IdentityHashMap<MicroCluster, Expiry>();
 		initBuffer = new ArrayList<DenPoint>();
 		
 		tp = Math.round(1 / lambda * Math.log((beta * mu) / (beta * mu - 1))) + 1;
@@ -123,13 +191,19 @@ public class WithDBSCAN extends AbstractClusterer {
 	}
 
 	public void initialDBScan(boolean isRecordTimeStamp) {
+		double[][] points = new double[initBuffer.size()][];
+		for (int p = 0; p < initBuffer.size(); p++) {
+			points[p] = initBuffer.get(p).toDoubleArray();
+		}
+		initIndex = new BallTree(points);
+		initPoints = points;
+		neighbourBuffer = new int[points.length];
 		for (int p = 0; p < initBuffer.size(); p++) {
 			DenPoint point = initBuffer.get(p);
 			if (!point.covered) {
 				point.covered = true;
-				ArrayList<Integer> neighbourhood = getNeighbourhoodIDs(point,
-						initBuffer, epsilon);
-				if (neighbourhood.size() > minPoints) {
+				int[] neighbourhood = getNeighbourhoodIDs(p, initBuffer, epsilon);
+				if (neighbourhood.length > minPoints) {
 					MicroCluster mc = new MicroCluster(point,
 							point.numAttributes(), timestamp, lambda,
 							currentTimestamp, isRecordTimeStamp);
@@ -140,6 +214,9 @@ public class WithDBSCAN extends AbstractClusterer {
 				}
 			}
 		}
+		initIndex = null;
+		initPoints = null;
+		neighbourBuffer = null;
 	}
 
 	@Override
@@ -151,6 +228,7 @@ public class WithDBSCAN extends AbstractClusterer {
 	public void trainOnInstance(Instance inst, boolean isRecordTimeStamp) {
 		if (inst.weight() > 0.0) {
 			this.trainingWeightSeenByModel += inst.weight();
+			this.modelVersion++;
 			trainOnInstanceImpl(inst, isRecordTimeStamp);
 		}
 	}
@@ -172,133 +250,279 @@ public class WithDBSCAN extends AbstractClusterer {
 			initBuffer.add(point);
 			if (initBuffer.size() >= initPointsOption.getValue()) {
 				initialDBScan(isRecordTimeStamp);
+				p_micro_cluster_index = indexMicroClusters(p_micro_cluster);
+				o_micro_cluster_index = indexMicroClusters(o_micro_cluster);
+				for (Cluster c : p_micro_cluster.getClustering()) {
+					MicroCluster x = (MicroCluster) c;
+					p_micro_cluster_expiry.add(new Expiry(potentialExpiry(x), x));
+				}
 				initialized = true;
 			}
 		} else {
 			// ////////////
 			// Merging(p)//
 			// ////////////
+			double[] values = point.toDoubleArray();
 			boolean merged = false;
 			if (p_micro_cluster.getClustering().size() != 0) {
-				MicroCluster x = nearestCluster(point, p_micro_cluster);
-				MicroCluster xCopy = x.copy();
-				xCopy.insert(point, timestamp, isRecordTimeStamp);
-				if (xCopy.getRadius(timestamp) <= epsilon) {
+				int i = nearestCluster(values, p_micro_cluster_index);
+				MicroCluster x = (MicroCluster) p_micro_cluster.get(i);
+				if (x.getRadiusIfInserted(values) <= epsilon) {
 					x.insert(point, timestamp, isRecordTimeStamp);
+					updateIndex(p_micro_cluster_index, i, x);
 					merged = true;
 				}
 			}
 			if (!merged && (o_micro_cluster.getClustering().size() != 0)) {
-				MicroCluster x = nearestCluster(point, o_micro_cluster);
-				MicroCluster xCopy = x.copy();
-				xCopy.insert(point, timestamp, isRecordTimeStamp);
+				int i = nearestCluster(values, o_micro_cluster_index);
+				MicroCluster x = (MicroCluster) o_micro_cluster.get(i);
 
-				if (xCopy.getRadius(timestamp) <= epsilon) {
+				if (x.getRadiusIfInserted(values) <= epsilon) {
 					x.insert(point, timestamp, isRecordTimeStamp);
 					merged = true;
 					if (x.getWeight() > beta * mu) {
-						o_micro_cluster.getClustering().remove(x);
+						o_micro_cluster.getClustering().remove(i);
+						o_micro_cluster_index.remove(i);
+						o_micro_cluster_expiry_entry.remove(x);
 						p_micro_cluster.getClustering().add(x);
+						addToIndex(p_micro_cluster_index, x);
+						p_micro_cluster_expiry.add(new Expiry(potentialExpiry(x), x));
+					} else {
+						updateIndex(o_micro_cluster_index, i, x);
 					}
 				}
 			}
 			if (!merged) {
-				o_micro_cluster.getClustering().add(
-						new MicroCluster(point.toDoubleArray(), point
-								.toDoubleArray().length, timestamp, lambda,
-								currentTimestamp, isRecordTimeStamp));
+				MicroCluster x = new MicroCluster(values, values.length,
+						timestamp, lambda, currentTimestamp, isRecordTimeStamp);
+				o_micro_cluster.getClustering().add(x);
+				addToIndex(o_micro_cluster_index, x);
+				addOutlierExpiry(new Expiry(outlierExpiry(x), x));
 			}
 
 			// //////////////////////////
 			// Periodic cluster removal//
 			// //////////////////////////
 			if (timestamp % tp == 0) {
-				ArrayList<MicroCluster> removalList = new ArrayList<MicroCluster>();
-				for (Cluster c : p_micro_cluster.getClustering()) {
-					if (((MicroCluster) c).getWeight() < beta * mu) {
-						removalList.add((MicroCluster) c);
-					}
-				}
-				for (Cluster c : removalList) {
-					p_micro_cluster.getClustering().remove(c);
+				if (fullScan) {
+					pruneByScan();
+				} else {
+					pruneExpired();
 				}
+			}
 
-				for (Cluster c : o_micro_cluster.getClustering()) {
-					long t0 = ((MicroCluster) c).getCreationTime();
-					double xsi1 = Math
-							.pow(2, (-lambda * (timestamp - t0 + tp))) - 1;
-					double xsi2 = Math.pow(2, -lambda * tp) - 1;
-					double xsi = xsi1 / xsi2;
-					if (((MicroCluster) c).getWeight() < xsi) {
-						removalList.add((MicroCluster) c);
-					}
-				}
-				for (Cluster c : removalList) {
-					o_micro_cluster.getClustering().remove(c);
-				}
+		}
+	}
+
+	/**
+	 * Removes the micro-clusters whose expiry time has come and whose weight
+	 * fell below their limit, and projects the expiry of the others again.
+	 */
+	private void pruneExpired() {
+		Set<MicroCluster> removalSet = Collections.newSetFromMap(new IdentityHashMap<MicroCluster, Boolean>());
+		while (!p_micro_cluster_expiry.isEmpty() && p_micro_cluster_expiry.peek().time <= timestamp) {
+			MicroCluster x = p_micro_cluster_expiry.poll().cluster;
+			if (x.getWeight() < beta * mu) {
+				removalSet.add(x);
+			} else {
+				p_micro_cluster_expiry.add(new Expiry(Math.max(potentialExpiry(x), timestamp + 1), x));
+			}
+		}
+		removeMicroClusters(p_micro_cluster, p_micro_cluster_index, removalSet);
+
+		removalSet.clear();
+		while (!o_micro_cluster_expiry.isEmpty() && o_micro_cluster_expiry.peek().time <= timestamp) {
+			Expiry expiry = o_micro_cluster_expiry.poll();
+			MicroCluster x = expiry.cluster;
+			if (o_micro_cluster_expiry_entry.get(x) != expiry) {
+				// Promoted to a p-micro-cluster since.
+				continue;
+			}
+			if (x.getWeight() < outlierLimit(x)) {
+				removalSet.add(x);
+				o_micro_cluster_expiry_entry.remove(x);
+			} else {
+				addOutlierExpiry(new Expiry(Math.max(outlierExpiry(x), timestamp + 1), x));
+			}
+		}
+		removeMicroClusters(o_micro_cluster, o_micro_cluster_index, removalSet);
+	}
+
+	/**
+	 * Checks the weight of every micro-cluster, as DenStream did before the
+	 * expiry queues, which then are not needed.
+	 */
+	private void pruneByScan() {
+		Set<MicroCluster> removalSet = Collections.newSetFromMap(new IdentityHashMap<MicroCluster, Boolean>());
+		for (Cluster c : p_micro_cluster.getClustering()) {
+			if (((MicroCluster) c).getWeight() < beta * mu) {
+				removalSet.add((MicroCluster) c);
+			}
+		}
+		removeMicroClusters(p_micro_cluster, p_micro_cluster_index, removalSet);
+
+		removalSet.clear();
+		for (Cluster c : o_micro_cluster.getClustering()) {
+			MicroCluster x = (MicroCluster) c;
+			if (x.getWeight() < outlierLimit(x)) {
+				removalSet.add(x);
 			}
+		}
+		removeMicroClusters(o_micro_cluster, o_micro_cluster_index, removalSet);
+		p_micro_cluster_expiry.clear();
+		o_micro_cluster_expiry.clear();
+		o_micro_cluster_expiry_entry.clear();
+	}
+
+	/**
+	 * Lower limit xsi of the weight of an o-micro-cluster at the current time.
+	 */
+	private double outlierLimit(MicroCluster x) {
+		long t0 = x.getCreationTime();
+		double xsi1 = Math
+				.pow(2, (-lambda * (timestamp - t0 + tp))) - 1;
+		double xsi2 = Math.pow(2, -lambda * tp) - 1;
+		return xsi1 / xsi2;
+	}
+
+	/**
+	 * Earliest time at which the weight of a p-micro-cluster, as it is now,
+	 * can drop below beta * mu: N 2^(-lambda (t - lastEdit)) < beta mu once
+	 * t - lastEdit > log2(N / (beta mu)) / lambda.
+	 */
+	private long potentialExpiry(MicroCluster x) {
+		double dt = Math.log(x.getN() / (beta * mu)) / Math.log(2) / lambda;
+		return expiry(x.getLastEditTimestamp(), dt);
+	}
+
+	/**
+	 * Earliest time at which the weight of an o-micro-cluster, as it is now,
+	 * can drop below its lower limit xsi. With a = 2^(-lambda tp) and
+	 * b = 2^(-lambda (lastEdit - t0 + tp)), N 2^(-lambda (t - lastEdit)) is
+	 * below xsi = (1 - b 2^(-lambda (t - lastEdit))) / (1 - a) once
+	 * t - lastEdit > log2(N (1 - a) + b) / lambda.
+	 */
+	private long outlierExpiry(MicroCluster x) {
+		long lastEdit = x.getLastEditTimestamp();
+		double a = Math.pow(2, -lambda * tp);
+		double b = Math.pow(2, -lambda * (lastEdit - x.getCreationTime() + tp));
+		double dt = Math.log(x.getN() * (1 - a) + b) / Math.log(2) / lambda;
+		return expiry(lastEdit, dt);
+	}
 
+	/**
+	 * Rounds the projection down with a margin, so that rounding errors
+	 * cannot make it later than the time the cluster expires.
+	 */
+	private static long expiry(long lastEdit, double dt) {
+		if (!(dt > 1)) {
+			return lastEdit;
+		}
+		if (dt >= Long.MAX_VALUE / 4) {
+			return Long.MAX_VALUE;
+		}
+		return lastEdit + (long) Math.floor(dt) - 1;
+	}
+
+	private void addOutlierExpiry(Expiry expiry) {
+		o_micro_cluster_expiry.add(expiry);
+		o_micro_cluster_expiry_entry.put(expiry.cluster, expiry);
+	}
+
+	private void removeMicroClusters(Clustering cl, BallTree index, Set<MicroCluster> removalSet) {
+		if (removalSet.isEmpty()) {
+			return;
+		}
+		for (int c = cl.size() - 1; c >= 0; c--) {
+			if (removalSet.contains(cl.get(c))) {
+				cl.getClustering().remove(c);
+				index.remove(c);
+			}
+		}
+		if (index.needsRebuild()) {
+			index.rebuild();
 		}
 	}
 
 	private void expandCluster(MicroCluster mc, ArrayList<DenPoint> points,
-			ArrayList<Integer> neighbourhood, boolean isRecordTimeStamp) {
+			int[] neighbourhood, boolean isRecordTimeStamp) {
 		for (int p : neighbourhood) {
 			DenPoint npoint = points.get(p);
 			if (!npoint.covered) {
 				npoint.covered = true;
 				mc.insert(npoint, timestamp, isRecordTimeStamp);
-				ArrayList<Integer> neighbourhood2 = getNeighbourhoodIDs(npoint,
-						initBuffer, epsilon);
-				if (neighbourhood.size() > minPoints) {
+				int[] neighbourhood2 = getNeighbourhoodIDs(p, initBuffer,
+						epsilon);
+				if (neighbourhood.length > minPoints) {
 					expandCluster(mc, points, neighbourhood2, isRecordTimeStamp);
 				}
 			}
 		}
 	}
 
-	private ArrayList<Integer> getNeighbourhoodIDs(DenPoint point,
-			ArrayList<DenPoint> points, double eps) {
-		ArrayList<Integer> neighbourIDs = new ArrayList<Integer>();
-		for (int p = 0; p < points.size(); p++) {
-			DenPoint npoint = points.get(p);
-			if (!npoint.covered) {
-				double dist = distance(point.toDoubleArray(), points.get(p)
-						.toDoubleArray());
-				if (dist < eps) {
-					neighbourIDs.add(p);
-				}
+	/**
+	 * Finds the points of the initial buffer that are not covered yet and
+	 * closer than eps to point p, in the order of the buffer.
+	 */
+	private int[] getNeighbourhoodIDs(int p, ArrayList<DenPoint> points,
+			double eps) {
+		int numNeighbours = initIndex.withinDistance(initPoints[p], 0.0, eps,
+				neighbourBuffer);
+		int[] neighbourIDs = new int[numNeighbours];
+		int size = 0;
+		for (int n = 0; n < numNeighbours; n++) {
+			int neighbour = neighbourBuffer[n];
+			if (!points.get(neighbour).covered) {
+				neighbourIDs[size++] = neighbour;
 			}
 		}
-		return neighbourIDs;
+		return Arrays.copyOf(neighbourIDs, size);
 	}
 
-	private MicroCluster nearestCluster(DenPoint p, Clustering cl) {
-		MicroCluster min = null;
-		double minDist = 0;
+	/**
+	 * Finds the cluster the point lies deepest in, that is with the smallest
+	 * distance to its centre minus its radius. As the linear scan this
+	 * replaces, it returns the first cluster if the point is in none of them.
+	 */
+	private int nearestCluster(double[] point, BallTree index) {
+		index.kNearestSigned(point, 0.0, 1, -1, nearestIndex, nearestDistance);
+		return nearestDistance[0] < 0 ? nearestIndex[0] : 0;
+	}
+
+	/**
+	 * Indexes the micro-clusters by their centre and radius, which do not
+	 * depend on the current time.
+	 */
+	private BallTree indexMicroClusters(Clustering cl) {
+		double[][] centers = new double[cl.size()][];
+		double[] radii = new double[cl.size()];
 		for (int c = 0; c < cl.size(); c++) {
 			MicroCluster x = (MicroCluster) cl.get(c);
-			if (min == null) {
-				min = x;
-			}
-			double dist = distance(p.toDoubleArray(), x.getCenter());
-			dist -= x.getRadius(timestamp);
-			if (dist < minDist) {
-				minDist = dist;
-				min = x;
-			}
+			centers[c] = x.getCenter(new double[x.LS.length]);
+			radii[c] = x.getCFRadius();
 		}
-		return min;
+		return new BallTree(centers, radii);
+	}
 
+	private void updateIndex(BallTree index, int c, MicroCluster x) {
+		index.update(c, x.getCenter(centerBuffer(x)), x.getCFRadius());
+		if (index.needsRebuild()) {
+			index.rebuild();
+		}
+	}
+
+	private void addToIndex(BallTree index, MicroCluster x) {
+		index.add(x.getCenter(centerBuffer(x)), x.getCFRadius());
+		if (index.needsRebuild()) {
+			index.rebuild();
+		}
 	}
 
-	private double distance(double[] pointA, double[] pointB) {
-		double distance = 0.0;
-		for (int i = 0; i < pointA.length; i++) {
-			double d = pointA[i] - pointB[i];
-			distance += d * d;
+	private double[] centerBuffer(MicroCluster x) {
+		if (centerBuffer == null || centerBuffer.length != x.LS.length) {
+			centerBuffer = new double[x.LS.length];
 		}
-		return Math.sqrt(distance);
+		return centerBuffer;
 	}
 
 	public Clustering getClusteringResult() {
@@ -311,9 +535,23 @@ public class WithDBSCAN extends AbstractClusterer {
 		return true;
 	}
 
+	/**
+	 * @return a snapshot of the potential micro-clusters, which does not change
+	 * as the clusterer is trained; use <code>getMicroClusteringView()</code> to
+	 * read the live micro-clusters
+	 */
 	@Override
 	public Clustering getMicroClusteringResult() {
-		return p_micro_cluster;
+		Clustering snapshot = new Clustering();
+		for (Cluster c : p_micro_cluster.getClustering()) {
+			snapshot.add(((MicroCluster) c).copy());
+		}
+		return snapshot;
+	}
+
+	@Override
+	public MicroClusteringView getMicroClusteringView() {
+		return p_micro_cluster_view;
 	}
 
 	@Override
@@ -18,6 +18,8 @@
 
 package moa.clusterers.dstream;
 
+import java.io.Serializable;
+
 /**
  * The Characteristic Vector of a density grid is defined in 
  * Definition 3.2 of Chen and Tu 2007 as:
@@ -30,12 +32,17 @@ package moa.clusterers.dstream;
  * Citation: Y. Chen and L. Tu, “Density-Based Clustering for Real-Time Stream Data,” in
  * Proceedings of the 13th ACM SIGKDD international conference on Knowledge discovery and
  * data mining, 2007, pp. 133–142.
+ * 
+ * The density is decayed lazily: D is only rebased when a record is added to
+ * the grid, and the density at any later time is evaluated on read.
  */
-public class CharacteristicVector {
+public class CharacteristicVector implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	
-	private static final int SPARSE = 0;
-	private static final int TRANSITIONAL = 1;
-	private static final int DENSE = 2;
+	public static final int SPARSE = 0;
+	public static final int TRANSITIONAL = 1;
+	public static final int DENSE = 2;
 	
 	/**
 	 * t_g in the characteristic vector tuple; 
@@ -154,7 +161,27 @@ public class CharacteristicVector {
 	 */
 	public double getCurrGridDensity(int currTime, double decayFactor)
 	{
-		return Math.pow(decayFactor, (currTime-this.getUpdateTime())) * this.getGridDensity();
+		return Math.pow(decayFactor, (currTime-this.getDensityTimeStamp())) * this.getGridDensity();
+	}
+	
+	/**
+	 * Returns a time up to which the density of the grid stays above the given
+	 * threshold if no records are added to it. The time is rounded down, so the
+	 * density may still be above the threshold a little after it.
+	 * 
+	 * @param threshold - the density threshold
+	 * @param decayFactor - the decay factor, lambda, of the algorithm
+	 * 
+	 * @return the time stamp of the density if it is not above the threshold,
+	 * at most Integer.MAX_VALUE
+	 */
+	public int getDecayTime(double threshold, double decayFactor)
+	{
+		if (this.getGridDensity() <= threshold)
+			return this.getDensityTimeStamp();
+		
+		double steps = Math.floor(Math.log(threshold / this.getGridDensity()) / Math.log(decayFactor));
+		return (int) Math.min((double) this.getDensityTimeStamp() + steps, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -216,7 +243,7 @@ public class CharacteristicVector {
 		double densityOfG = this.getGridDensity();
 		
 		//System.out.print("["+decayFactor+"^("+currTime+" - "+this.getDensityTimeStamp()+") * "+densityOfG+"] + 1.0 = ");
-		densityOfG = (Math.pow(decayFactor, (currTime-this.getUpdateTime())) * densityOfG)+1.0;
+		densityOfG = (Math.pow(decayFactor, (currTime-this.getDensityTimeStamp())) * densityOfG)+1.0;
 		//System.out.println(densityOfG);
 		
 		this.setGridDensity(densityOfG, currTime);
@@ -224,28 +251,26 @@ public class CharacteristicVector {
 	
 	/**
 	 * Implements the update the density of all grids step given at line 2 of 
-	 * both Fig 3 and Fig 4 of Chen and Tu 2007.
+	 * both Fig 3 and Fig 4 of Chen and Tu 2007. The stored density is left as
+	 * it is; the attribute is evaluated from the density at currTime.
 	 * 
 	 * @param currTime the data stream's current internal time
 	 * @param decayFactor the value of lambda
 	 * @param dl the threshold for sparse grids
 	 * @param dm the threshold for dense grids
-	 * @param addRecord TRUE if a record has been added to the density grid, FALSE otherwise
 	 */
 	public void updateGridDensity(int currTime, double decayFactor, double dl, double dm)
 	{
 		// record the last attribute
 		int lastAtt = this.getAttribute();
 
-		// Update the density grid's density
-		double densityOfG = (Math.pow(decayFactor, (currTime-this.getDensityTimeStamp())) * this.getGridDensity());
-
-		this.setGridDensity(densityOfG, currTime);
+		// Evaluate the density grid's density at the current time
+		double densityOfG = this.getCurrGridDensity(currTime, decayFactor);
 
 		// Evaluate whether or not the density grid is now SPARSE, DENSE or TRANSITIONAL
-		if (this.isSparse(dl))
+		if (densityOfG <= dl)
 			this.attribute = SPARSE;
-		else if (this.isDense(dm))
+		else if (densityOfG >= dm)
 			this.attribute = DENSE;
 		else
 			this.attribute = TRANSITIONAL;
@@ -259,7 +284,7 @@ public class CharacteristicVector {
 	
 	/**
 	 * Implements the test for whether a density grid is dense given
-	 * in eq 8 of Chen and Tu 2007.
+	 * in eq 8 of Chen and Tu 2007, for the density at the last update.
 	 * 
 	 * @param dm the threshold for dense grids
 	 */
@@ -273,7 +298,7 @@ public class CharacteristicVector {
 	
 	/**
 	 * Implements the test for whether a density grid is sparse given
-	 * in eq 9 of Chen and Tu 2007.
+	 * in eq 9 of Chen and Tu 2007, for the density at the last update.
 	 * 
 	 * @param dl the threshold for sparse grids
 	 */
@@ -287,7 +312,7 @@ public class CharacteristicVector {
 	
 	/**
 	 * Implements the test for whether a density grid is transitional
-	 * given in eq 10 of Chen and Tu 2007.
+	 * given in eq 10 of Chen and Tu 2007, for the density at the last update.
 	 * 
 	 * @param dm the threshold for dense grids
 	 * @param dl the threshold for sparse grids
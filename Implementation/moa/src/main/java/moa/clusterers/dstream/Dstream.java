@@ -20,6 +20,7 @@ package moa.clusterers.dstream;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -35,6 +36,13 @@ import moa.core.Measurement;
 /** Citation: Y. Chen and L. Tu, “Density-Based Clustering for Real-Time Stream Data,” in
  *  Proceedings of the 13th ACM SIGKDD international conference on Knowledge discovery and
  *  data mining, 2007, pp. 133–142.
+ *  
+ *  The grids are kept in a GridTable and their densities are decayed lazily. Every gap 
+ *  only inspects the grids which received records since the last gap and the grids whose 
+ *  density may have crossed a threshold since then. The time of the next crossing is 
+ *  scheduled whenever a grid is inspected, so the grids which are left alone keep their 
+ *  attribute and status, as the densities only decay in between records. All grids are 
+ *  inspected again when N, and with it the thresholds, changes.
  */
 public class Dstream extends AbstractClusterer {
 
@@ -43,6 +51,7 @@ public class Dstream extends AbstractClusterer {
 	private static final int SPARSE = 0;
 	private static final int TRANSITIONAL = 1;
 	private static final int DENSE = 2;
+	private static final int MIN_FORGET_THRESHOLD = 1024;
 
 	public FloatOption decayFactorOption = new FloatOption("decayFactor",
 			'd', "The decay factor, lambda, in (0,1)", 0.998, 0.001, 0.999);
@@ -119,16 +128,49 @@ public class Dstream extends AbstractClusterer {
 	
 	/**
 	 * A list of all density grids which are being monitored;
-	 * given in figure 1 of Chen and Tu 2007
+	 * given in figure 1 of Chen and Tu 2007. It also holds the density
+	 * grids which have been deleted, which allows the recording of 
+	 * tm - the last time when the grid is removed from grid list as a 
+	 * sporadic grid (if ever).
 	 */
-	private HashMap<DensityGrid,CharacteristicVector> grid_list;
+	private GridTable grid_list;
 	
 	/**
-	 * A list of all density grids which have been deleted;
-	 * allows the recording of tm - the last time when the 
-	 * grid is removed from grid list as a sporadic grid (if ever).
+	 * The number of deleted grids above which the deleted grids whose
+	 * window of protection has passed are forgotten.
 	 */
-	private HashMap<DensityGrid,Integer> deleted_grids;
+	private int forgetThreshold;
+	
+	/**
+	 * True if the thresholds changed since the last gap, so that every grid
+	 * must be inspected at the next gap.
+	 */
+	private boolean thresholdsChanged;
+	
+	/**
+	 * True to inspect every grid at every gap, which the tests compare the
+	 * scheduled checks against.
+	 */
+	boolean fullPass;
+	
+	/**
+	 * The number of the current gap, used to mark the grids collected for it.
+	 */
+	private int passMark;
+	
+	/**
+	 * The grids which received a record since the last gap.
+	 */
+	private int[] touchedGrids;
+	
+	private int numTouched;
+	
+	/**
+	 * The grids inspected at the current gap.
+	 */
+	private int[] candidates;
+	
+	private int numCandidates;
 	
 	
 	/**
@@ -203,8 +245,14 @@ public class Dstream extends AbstractClusterer {
 		//System.out.println("Option values set...");
 
 		this.initialized = false;
-		this.grid_list = new HashMap<DensityGrid, CharacteristicVector>();
-		this.deleted_grids = new HashMap<DensityGrid, Integer>();
+		this.grid_list = null;
+		this.forgetThreshold = MIN_FORGET_THRESHOLD;
+		this.thresholdsChanged = false;
+		this.passMark = 0;
+		this.touchedGrids = new int[16];
+		this.numTouched = 0;
+		this.candidates = new int[16];
+		this.numCandidates = 0;
 		this.cluster_list = new ArrayList<GridCluster>();
 		//System.out.println("Data structures initialized...");
 
@@ -229,7 +277,7 @@ public class Dstream extends AbstractClusterer {
 		
 		//System.out.print("Dstream.trainOnInstanceImpl (");
 		int[]g;
-		DensityGrid dg;
+		int entry;
 		CharacteristicVector cv;
 		boolean recalculateN = false;	// flag indicating whether N needs to be recalculated after this instance
 
@@ -244,6 +292,7 @@ public class Dstream extends AbstractClusterer {
 			//System.out.println("d = "+this.d);
 			this.minVals = new int[this.d];
 			this.maxVals = new int[this.d];
+			this.grid_list = new GridTable(this.d);
 			//System.out.println("...data initialized");
 			
 			for(int i = 0 ; i < this.d ; i++)
@@ -292,7 +341,8 @@ public class Dstream extends AbstractClusterer {
 		if (recalculateN)
 		{
 			//System.out.print(" recalculateN:");
-			int n = 1;
+			// N grows exponentially with d, so it is computed as a double and capped
+			double n = 1;
 			for (int i = 0 ; i < this.d ; i++)
 			{
 				//System.out.print(" "+n);
@@ -302,7 +352,7 @@ public class Dstream extends AbstractClusterer {
 					n = n * (3+maxVals[i]-minVals[i]);
 			}
 			//System.out.print(" "+n);
-			this.N = n;
+			this.N = (int) Math.min(n, Integer.MAX_VALUE);
 			this.dl = this.cl/(this.N * (1.0 - this.decayFactor));
 			this.dm = this.cm/(this.N * (1.0 - this.decayFactor));
 			//System.out.print(" dl = " + this.dl + ", dm = " + this.dm);
@@ -317,27 +367,21 @@ public class Dstream extends AbstractClusterer {
 				gap = 1;
 			}
 			//System.out.println(" A is "+optionA+", B is "+optionB+" and gap = "+gap);
+			this.thresholdsChanged = true;
 		}
 
-		dg = new DensityGrid(g);
-		//System.out.println(dg.toString());
-		
 		// 3. If (g not in grid_list) insert dg to grid_list
 		//System.out.println(" & Step 3 or 4");
+		entry = this.grid_list.find(g);
 		
-		if(!this.grid_list.containsKey(dg))
+		if(entry == -1 || !this.grid_list.isGrid(entry))
 		{
 			//System.out.print("3 - dg wasn't in grid_list!");
-			if(this.deleted_grids.containsKey(dg))
-			{
-				//System.out.print(" but it was in deleted_grids!");
-				cv = new CharacteristicVector(this.getCurrTime(), this.deleted_grids.get(dg).intValue(), 1.0, -1, false, this.getDL(), this.getDM());
-				this.deleted_grids.remove(dg);
-			}
-			else
-				cv = new CharacteristicVector(this.getCurrTime(), -1, 1.0, -1, false, this.getDL(), this.getDM());
+			// If dg was deleted, its entry still records tm
+			int removeTime = (entry == -1) ? -1 : this.grid_list.getRemoveTime(entry);
+			cv = new CharacteristicVector(this.getCurrTime(), removeTime, 1.0, -1, false, this.getDL(), this.getDM());
 			
-			this.grid_list.put(dg, cv);
+			entry = this.grid_list.put(new DensityGrid(g), cv);
 			//System.out.print(" "+dg.toString()+" "+cv.toString());
 			//System.out.println(" The size of grid_list is now "+grid_list.size());
 		}
@@ -345,15 +389,20 @@ public class Dstream extends AbstractClusterer {
 		else
 		{
 			//System.out.print("4 - dg was in grid_list!");
-			cv = this.grid_list.get(dg);
+			cv = this.grid_list.getVector(entry);
 				
 			cv.densityWithNew(this.getCurrTime(), this.getDecayFactor());
 				
 			cv.setUpdateTime(this.getCurrTime());
 		
 			//System.out.println(" "+dg.toString()+" "+cv.toString());
+		}
 		
-			grid_list.put(dg, cv);
+		if (this.grid_list.mark(entry, ~this.passMark))
+		{
+			if (this.numTouched == this.touchedGrids.length)
+				this.touchedGrids = Arrays.copyOf(this.touchedGrids, 2 * this.numTouched);
+			this.touchedGrids[this.numTouched++] = entry;
 		}
 
 		// 5. If tc == gap, then initial clustering
@@ -367,14 +416,17 @@ public class Dstream extends AbstractClusterer {
 			if (this.getCurrTime() == gap)
 			{
 				//System.out.print(" & Step 5 x6x");
+				this.collectCandidates(true);
 				this.initialClustering();
 			}
 			else
 			{
 				//System.out.print(" & Step x5x 6");
+				this.collectCandidates(this.thresholdsChanged || this.fullPass);
 				this.removeSporadic();
 				this.adjustClustering();
 			}
+			this.scheduleChecks();
 		}
 
 		// 7. Increment tc
@@ -413,14 +465,12 @@ public class Dstream extends AbstractClusterer {
 		// 2. Assign each dense grid to a distinct cluster
 		// and
 		// 3. Label all other grids as NO_CLASS	
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		
-		while(glIter.hasNext())
+		for (int entry = 0 ; entry < this.grid_list.numEntries() ; entry++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
+			if (!this.grid_list.isGrid(entry))
+				continue;
+			DensityGrid dg = this.grid_list.getGrid(entry);
+			CharacteristicVector cvOfG = this.grid_list.getVector(entry);
 
 			//System.out.print(dg.toString());
 			if(cvOfG.getAttribute() == DENSE)
@@ -436,10 +486,8 @@ public class Dstream extends AbstractClusterer {
 				cvOfG.setLabel(NO_CLASS);
 
 			//System.out.println();
-			newGL.put(dg, cvOfG);
 		}
 
-		this.grid_list = newGL;
 		//printGridClusters();
 		
 		// 4. Make changes to grid labels by doing:
@@ -495,17 +543,16 @@ public class Dstream extends AbstractClusterer {
 				{
 					//System.out.println(" Density grid dg is outside!");
 					// c. for each neighbouring grid, dgprime, of dg
-					Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-					
-					while(dgNeighbourhood.hasNext())
+					for (int n = 0 ; n < 2 * this.d ; n++)
 					{
-						DensityGrid dgprime = dgNeighbourhood.next();
+						int h = this.findNeighbour(dg, n);
 						//System.out.print("Inspecting neighbour, dgprime:"+dgprime.toString()+", standby...");
 						
-						if(this.grid_list.containsKey(dgprime))
+						if(h != -1)
 						{
+							DensityGrid dgprime = this.grid_list.getGrid(h);
 							CharacteristicVector cv1 = this.grid_list.get(dg);
-							CharacteristicVector cv2 = this.grid_list.get(dgprime);
+							CharacteristicVector cv2 = this.grid_list.getVector(h);
 							//System.out.print(" 1: "+cv1.toString()+", 2: "+cv2.toString());
 							int class1 = cv1.getLabel();
 							int class2 = cv2.getLabel();
@@ -527,13 +574,12 @@ public class Dstream extends AbstractClusterer {
 
 								}
 								// If dgprime is transitional and outside of c, assign it to c
-								else if (cv2.isTransitional(dm, dl))
+								else if (cv2.getAttribute() == TRANSITIONAL)
 								{
 									//System.out.println("h is transitional and is assigned to cluster "+class1);
 									cv2.setLabel(class1);
 									c.addGrid(dgprime);
 									this.cluster_list.set(class1, c);
-									this.grid_list.put(dg, cv2);
 									return true;
 								}
 							}
@@ -565,11 +611,7 @@ public class Dstream extends AbstractClusterer {
 		//    a. If dg is sparse
 		//    b. If dg is dense
 		//    c. If dg is transitional
-		boolean changesMade = false;
-		
-		do{
-			changesMade=inspectChangedGrids();
-		}while(changesMade);
+		inspectChangedGrids();
 
 		//printGridList();
 		//System.out.print("Time: "+this.getCurrTime()+" and ");
@@ -584,48 +626,34 @@ public class Dstream extends AbstractClusterer {
 	}
 
 	/**
-	 * Inspects each density grid in grid_list whose attribute has changed since the last 
-	 * call to adjustClustering. Implements lines 3/4/7/19 of the procedure given in Figure 
-	 * 4 of Chen and Tu 2007.
-	 * 
-	 * @return TRUE if any grids are updated; FALSE otherwise.
+	 * Inspects each density grid inspected at this gap whose attribute has changed since the 
+	 * last call to adjustClustering. Implements lines 3/4/7/19 of the procedure given in Figure 
+	 * 4 of Chen and Tu 2007. Only the grids inspected at this gap can have changed.
 	 */
-	private boolean inspectChangedGrids()
+	private void inspectChangedGrids()
 	{
-		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> gridIter = this.grid_list.entrySet().iterator();
-		
-		while (gridIter.hasNext() && glNew.isEmpty())
+		for (int i = 0 ; i < this.numCandidates ; i++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = gridIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			int entry = this.candidates[i];
+			if (!this.grid_list.isGrid(entry))
+				continue;
+			DensityGrid dg = this.grid_list.getGrid(entry);
+			CharacteristicVector cv = this.grid_list.getVector(entry);
 			int dgClass = cv.getLabel();
 			
-			if(cv.isAttChanged() && !dg.isVisited())
+			if(cv.isAttChanged())
 			{
-				dg.setVisited(true);
-				glNew.put(dg, cv);
 				//System.out.print(dg.toString()+" is changed and now ");
 				if (cv.getAttribute() == SPARSE)
-					glNew.putAll(adjustForSparseGrid(dg, cv, dgClass));
+					adjustForSparseGrid(dg, cv, dgClass);
 				else if (cv.getAttribute() == DENSE)
-					glNew.putAll(adjustForDenseGrid(dg, cv, dgClass));
+					adjustForDenseGrid(dg, cv, dgClass);
 				else	// TRANSITIONAL
-					glNew.putAll(adjustForTransitionalGrid(dg, cv, dgClass));
+					adjustForTransitionalGrid(dg, cv, dgClass);
+				
+				cleanClusters();
 			}
 		}
-		
-		// If there are grids in glNew, update the corresponding grids in grid_list and clean up the cluster list
-		if (!glNew.isEmpty())
-		{
-			//System.out.println("There are "+glNew.size()+" entries to update from glNew to grid_list.");
-			this.grid_list.putAll(glNew);
-			cleanClusters();
-			return true;
-		}
-		else
-			return false;
 	}
 	
 	
@@ -635,12 +663,9 @@ public class Dstream extends AbstractClusterer {
 	 * @param dg the sparse density grid being adjusted
 	 * @param cv the characteristic vector of dg
 	 * @param dgClass the cluster to which dg belonged
-	 * 
-	 * @return a HashMap<DensityGrid, CharacteristicVector> containing density grids for update after this iteration
 	 */
-	private HashMap<DensityGrid, CharacteristicVector> adjustForSparseGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
+	private void adjustForSparseGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
 	{
-		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
 		//System.out.print("Density grid "+dg.toString()+" is adjusted as a sparse grid at time "+this.getCurrTime()+". ");
 		if (dgClass != NO_CLASS)
 		{
@@ -648,16 +673,13 @@ public class Dstream extends AbstractClusterer {
 			GridCluster gc = this.cluster_list.get(dgClass);
 			gc.removeGrid(dg);
 			cv.setLabel(NO_CLASS);
-			glNew.put(dg, cv);
 			this.cluster_list.set(dgClass, gc);
 			
 			if(gc.getWeight() > 0.0 && !gc.isConnected())
-				glNew.putAll(recluster(gc));
+				recluster(gc);
 		}
 		//else
 			//System.out.println("It was not clustered ("+dgClass+").");
-
-		return glNew;
 	}
 	
 	/**
@@ -770,7 +792,7 @@ public class Dstream extends AbstractClusterer {
 									return glAdjusted;
 								}
 								// If dgprime is transitional and outside of c, assign it to c
-								else if (cv2.isTransitional(dm, dl))
+								else if (cv2.getAttribute() == TRANSITIONAL)
 								{
 									cv2.setLabel(class1);
 									c1.addGrid(dgprime);
@@ -823,30 +845,26 @@ public class Dstream extends AbstractClusterer {
 	 * @param dg the dense density grid being adjusted
 	 * @param cv the characteristic vector of dg
 	 * @param dgClass the cluster to which dg belonged
-	 * 
-	 * @return a HashMap<DensityGrid, CharacteristicVector> containing density grids for update after this iteration
 	 */
-	private HashMap<DensityGrid, CharacteristicVector> adjustForDenseGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
+	private void adjustForDenseGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
 	{
 		//System.out.print("Density grid "+dg.toString()+" is adjusted as a dense grid at time "+this.getCurrTime()+". ");
 
 		// Among all neighbours of dg, find the grid h whose cluster ch has the largest size
 		GridCluster ch;								// The cluster, ch, of h
-		DensityGrid hChosen = new DensityGrid(dg);	// The chosen grid h, whose cluster ch has the largest size
+		DensityGrid hChosen = dg;					// The chosen grid h, whose cluster ch has the largest size
 		double hChosenSize = -1.0;					// The size of ch, the largest cluster
-		DensityGrid dgH;							// The neighbour of g being considered
+		int h;										// The neighbour of g being considered
 		int hClass = NO_CLASS;						// The class label of h
 		int hChosenClass = NO_CLASS;				// The class label of ch
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
 		
-		while (dgNeighbourhood.hasNext())
+		for (int n = 0 ; n < 2 * this.d ; n++)
 		{
-			dgH = dgNeighbourhood.next();
+			h = this.findNeighbour(dg, n);
 		
-			if (this.grid_list.containsKey(dgH))
+			if (h != -1)
 			{
-				hClass = this.grid_list.get(dgH).getLabel();
+				hClass = this.grid_list.getVector(h).getLabel();
 				if (hClass != NO_CLASS)
 				{
 					ch = this.cluster_list.get(hClass);
@@ -855,7 +873,7 @@ public class Dstream extends AbstractClusterer {
 					{
 						hChosenSize = ch.getWeight();
 						hChosenClass = hClass;
-						hChosen = new DensityGrid(dgH);
+						hChosen = this.grid_list.getGrid(h);
 					}
 				}
 			}
@@ -876,7 +894,6 @@ public class Dstream extends AbstractClusterer {
 				{
 					//System.out.println("g was labelled NO_CLASS");
 					cv.setLabel(hChosenClass);
-					glNew.put(dg, cv);
 					ch.addGrid(dg);
 					this.cluster_list.set(hChosenClass, ch);
 					
@@ -902,7 +919,6 @@ public class Dstream extends AbstractClusterer {
 				if (dgClass == NO_CLASS && !ch.isInside(hChosen, dg))
 				{
 					cv.setLabel(hChosenClass);
-					glNew.put(dg, cv);
 					ch.addGrid(dg);
 					this.cluster_list.set(hChosenClass, ch);
 					//System.out.println(" dg is added to cluster "+hChosenClass+".");
@@ -920,7 +936,6 @@ public class Dstream extends AbstractClusterer {
 						c.addGrid(hChosen);
 						CharacteristicVector cvhChosen = this.grid_list.get(hChosen);
 						cvhChosen.setLabel(dgClass);
-						glNew.put(hChosen, cvhChosen);
 						//System.out.println("dgClass is "+dgClass+", hChosenClass is "+hChosenClass+", gSize is "+gSize+" and hChosenSize is "+hChosenSize+" h is added to cluster "+dgClass+".");
 						this.cluster_list.set(hChosenClass, ch);
 						this.cluster_list.set(dgClass, c);
@@ -939,25 +954,22 @@ public class Dstream extends AbstractClusterer {
 			//System.out.println("Added "+dg.toString()+" to cluster "+newClass+".");
 			this.cluster_list.add(c);
 			cv.setLabel(newClass);
-			glNew.put(dg, cv);
 			
 			// Iterate through the neighbourhood until no more transitional neighbours can be added
 			// (dense neighbours will add themselves as part of their adjust process)
-			dgNeighbourhood = dg.getNeighbours().iterator();
-					
-			while(dgNeighbourhood.hasNext())
+			for (int n = 0 ; n < 2 * this.d ; n++)
 			{
-				DensityGrid dghprime = dgNeighbourhood.next();
+				int hprime = this.findNeighbour(dg, n);
 						
-				if (this.grid_list.containsKey(dghprime) && !c.getGrids().containsKey(dghprime))
+				if (hprime != -1 && !c.getGrids().containsKey(this.grid_list.getGrid(hprime)))
 				{
-					CharacteristicVector cvhprime = this.grid_list.get(dghprime);
+					DensityGrid dghprime = this.grid_list.getGrid(hprime);
+					CharacteristicVector cvhprime = this.grid_list.getVector(hprime);
 					if(cvhprime.getAttribute() == TRANSITIONAL)
 					{
 						//System.out.println("Added "+dghprime.toString()+" to cluster "+newClass+".");
 						c.addGrid(dghprime);
 						cvhprime.setLabel(newClass);
-						glNew.put(dghprime, cvhprime);
 					}
 				}
 			}
@@ -965,8 +977,6 @@ public class Dstream extends AbstractClusterer {
 			this.cluster_list.set(newClass, c);
 			//System.out.println("Cluster "+newClass+": "+this.cluster_list.get(newClass).toString());		
 		}
-		
-		return glNew;
 	}
 	
 	/**
@@ -975,10 +985,8 @@ public class Dstream extends AbstractClusterer {
 	 * @param dg the dense density grid being adjusted
 	 * @param cv the characteristic vector of dg
 	 * @param dgClass the cluster to which dg belonged
-	 * 
-	 * @return a HashMap<DensityGrid, CharacteristicVector> containing density grids for update after this iteration
 	 */
-	private HashMap<DensityGrid, CharacteristicVector> adjustForTransitionalGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
+	private void adjustForTransitionalGrid(DensityGrid dg, CharacteristicVector cv, int dgClass)
 	{
 		//System.out.print("Density grid "+dg.toString()+" is adjusted as a transitional grid at time "+this.getCurrTime()+". ");
 		
@@ -986,19 +994,17 @@ public class Dstream extends AbstractClusterer {
 		// and satisfies that dg would be an outside grid if added to it
 		GridCluster ch;								// The cluster, ch, of h
 		double hChosenSize = 0.0;					// The size of ch, the largest cluster
-		DensityGrid dgH;							// The neighbour of dg being considered
+		int h;										// The neighbour of dg being considered
 		int hClass = NO_CLASS;						// The class label of h
 		int hChosenClass = NO_CLASS;				// The class label of ch
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
 		
-		while (dgNeighbourhood.hasNext())
+		for (int n = 0 ; n < 2 * this.d ; n++)
 		{
-			dgH = dgNeighbourhood.next();
+			h = this.findNeighbour(dg, n);
 			
-			if (this.grid_list.containsKey(dgH))
+			if (h != -1)
 			{
-				hClass = this.grid_list.get(dgH).getLabel();
+				hClass = this.grid_list.getVector(h).getLabel();
 				if (hClass != NO_CLASS)
 				{
 					ch = this.cluster_list.get(hClass);
@@ -1028,15 +1034,13 @@ public class Dstream extends AbstractClusterer {
 			}
 			
 			cv.setLabel(hChosenClass);
-			glNew.put(dg, cv);
 		}
-		
-		return glNew;
 	}
 	
 	/**
 	 * Iterates through cluster_list to ensure that all empty clusters have been removed and
-	 * that all cluster IDs match the cluster's index in cluster_list.
+	 * that all cluster IDs match the cluster's index in cluster_list. The grids of a cluster
+	 * carry its ID, so only the grids of clusters whose ID changes are relabelled.
 	 */
 	private void cleanClusters()
 	{
@@ -1065,15 +1069,14 @@ public class Dstream extends AbstractClusterer {
 		}
 
 		// Adjust remaining clusters as necessary
-		clusIter = this.cluster_list.iterator();
-
-		while(clusIter.hasNext())
+		for (int index = 0 ; index < this.cluster_list.size() ; index++)
 		{
-			GridCluster c = clusIter.next();
-			int index = this.cluster_list.indexOf(c);
+			GridCluster c = this.cluster_list.get(index);
+			
+			if (c.getClusterLabel() == index)
+				continue;
 
 			c.setClusterLabel(index);
-			this.cluster_list.set(index, c);
 
 			Iterator<Map.Entry<DensityGrid, Boolean>> gridsOfClus = c.getGrids().entrySet().iterator();
 
@@ -1089,7 +1092,6 @@ public class Dstream extends AbstractClusterer {
 				}
 				//System.out.println("Cluster "+index+": "+dg.toString()+" is here.");
 				cv.setLabel(index);
-				this.grid_list.put(dg, cv);
 			}
 		}
 	}
@@ -1156,16 +1158,12 @@ public class Dstream extends AbstractClusterer {
 		//    b. Else
 		//       i. If (S1 && S2), mark as sporadic
 		
-		// For each grid g in grid_list
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		ArrayList<DensityGrid> remGL = new ArrayList<DensityGrid>();
-				
-		while(glIter.hasNext())
+		// For each grid g inspected at this gap; the status of the other grids stays the same
+		for (int i = 0 ; i < this.numCandidates ; i++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			int entry = this.candidates[i];
+			DensityGrid dg = this.grid_list.getGrid(entry);
+			CharacteristicVector cv = this.grid_list.getVector(entry);
 			
 			// If g is sporadic
 			if (cv.isSporadic())
@@ -1178,15 +1176,14 @@ public class Dstream extends AbstractClusterer {
 					if (dgClass != -1)
 						this.cluster_list.get(dgClass).removeGrid(dg);
 					
-					remGL.add(dg);
-					//System.out.println("Removed "+dg.toString()+" from cluster "+dgClass);
+					//System.out.println("Removing sporadic grid "+dg.toString()+" at time "+this.getCurrTime()+".");
+					this.grid_list.remove(entry, this.getCurrTime());
 				}
 				// Else if (S1 && S2), mark as sporadic - Else mark as normal
 				else
 				{
 					cv.setSporadic(checkIfSporadic(cv));
 					//System.out.println("within gap" + dg.toString() + " sporadicity assessed "+cv.isSporadic());
-					newGL.put(dg, cv);
 				}
 				
 			}
@@ -1195,23 +1192,26 @@ public class Dstream extends AbstractClusterer {
 			{
 				cv.setSporadic(checkIfSporadic(cv));
 				//System.out.println(dg.toString() + " sporadicity assessed "+cv.isSporadic());
-				newGL.put(dg, cv);
 			}
 		}
 		
-		this.grid_list.putAll(newGL);
-		
-		//System.out.println(" - Removed "+remGL.size()+" grids from grid_list.");
-		Iterator<DensityGrid> remIter = remGL.iterator();
-		
-		while(remIter.hasNext())
+		if (this.grid_list.numRemoved() > this.forgetThreshold)
+			forgetDeletedGrids();
+	}
+	
+	/**
+	 * Forgets the deleted grids whose window of protection has passed, i.e. for which 
+	 * S2 holds from now on, so that they are the same as grids which were never deleted.
+	 */
+	private void forgetDeletedGrids()
+	{
+		for (int entry = 0 ; entry < this.grid_list.numEntries() ; entry++)
 		{
-			DensityGrid sporadicDG = remIter.next();
-			//System.out.println("Removing sporadic grid "+sporadicDG.toString()+" at time "+this.getCurrTime()+".");
-			this.deleted_grids.put(sporadicDG, new Integer(this.getCurrTime()));
-			this.grid_list.remove(sporadicDG);
+			if (this.grid_list.isRemoved(entry) 
+					&& this.getCurrTime() >= ((1 + this.beta)*this.grid_list.getRemoveTime(entry)))
+				this.grid_list.forget(entry);
 		}
-		
+		this.forgetThreshold = Math.max(MIN_FORGET_THRESHOLD, 2 * this.grid_list.numRemoved());
 	}
 
 	/**
@@ -1255,18 +1255,13 @@ public class Dstream extends AbstractClusterer {
 	private void mergeClusters (int smallClus, int bigClus)
 	{		
 		//System.out.println("Merge clusters "+smallClus+" and "+bigClus+".");
-		// Iterate through the density grids in grid_list to find those which are in highClass
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		// Assign the density grids of smallClus to bigClus
+		for (DensityGrid dg : this.cluster_list.get(smallClus).getGrids().keySet())
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			CharacteristicVector cv = this.grid_list.get(dg);
 
-			// Assign density grids in smallClus to bigClus
-			if(cv.getLabel() == smallClus)
-			{
+			if(cv != null)
 				cv.setLabel(bigClus);
-				this.grid_list.put(dg, cv);
-			}
 		}
 		//System.out.println("Density grids assigned to cluster "+bigClus+".");
 		
@@ -1280,22 +1275,135 @@ public class Dstream extends AbstractClusterer {
 	}
 
 	/**
-	 * Iterates through grid_list and updates the density for each density grid therein.
-	 * Also marks each density grid as unvisited for this call to adjustClustering.
+	 * Updates the density, and with it the attribute, of each density grid inspected at 
+	 * this gap. The attributes of the other grids cannot have changed since the last gap.
 	 */
 	private void updateGridListDensity()
 	{
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int i = 0 ; i < this.numCandidates ; i++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
-
-			dg.setVisited(false);
-			cvOfG.updateGridDensity(this.getCurrTime(), this.getDecayFactor(), this.getDL(), this.getDM());
-
-			this.grid_list.put(dg, cvOfG);
+			int entry = this.candidates[i];
+			
+			if (this.grid_list.isGrid(entry))
+				this.grid_list.getVector(entry).updateGridDensity(this.getCurrTime(), this.getDecayFactor(), this.getDL(), this.getDM());
+		}
+	}
+	
+	/**
+	 * Collects the density grids to be inspected at this gap: those which received a record
+	 * since the last gap and those whose scheduled check is due, or all of them.
+	 * 
+	 * @param all - TRUE if all density grids must be inspected
+	 */
+	private void collectCandidates(boolean all)
+	{
+		this.passMark++;
+		this.numCandidates = 0;
+		
+		if (all)
+		{
+			for (int entry = 0 ; entry < this.grid_list.numEntries() ; entry++)
+			{
+				if (this.grid_list.isGrid(entry))
+					addCandidate(entry);
+			}
+		}
+		else
+		{
+			for (int i = 0 ; i < this.numTouched ; i++)
+			{
+				if (this.grid_list.isGrid(this.touchedGrids[i]))
+					addCandidate(this.touchedGrids[i]);
+			}
+			
+			int entry;
+			while ((entry = this.grid_list.pollDue(this.getCurrTime())) != -1)
+				addCandidate(entry);
+			
+			// Inspect the grids in the order of grid_list
+			Arrays.sort(this.candidates, 0, this.numCandidates);
+		}
+		
+		this.numTouched = 0;
+		this.thresholdsChanged = false;
+	}
+	
+	private void addCandidate(int entry)
+	{
+		if (this.grid_list.mark(entry, this.passMark))
+		{
+			if (this.numCandidates == this.candidates.length)
+				this.candidates = Arrays.copyOf(this.candidates, 2 * this.numCandidates);
+			this.candidates[this.numCandidates++] = entry;
 		}
 	}
+	
+	/**
+	 * Schedules the next check of each density grid inspected at this gap, at a time no 
+	 * later than the time at which its attribute or its status can change if it receives
+	 * no more records: when its density drops below the threshold of its attribute, when it
+	 * meets S1 and S2, or at the next gap if it is sporadic.
+	 */
+	private void scheduleChecks()
+	{
+		for (int i = 0 ; i < this.numCandidates ; i++)
+		{
+			int entry = this.candidates[i];
+			if (!this.grid_list.isGrid(entry))
+				continue;
+			CharacteristicVector cv = this.grid_list.getVector(entry);
+			
+			int checkTime;
+			if (cv.isSporadic())
+				checkTime = this.getCurrTime() + gap;
+			else
+				checkTime = getSporadicTime(cv);
+			
+			if (cv.getAttribute() == DENSE)
+				checkTime = Math.min(checkTime, cv.getDecayTime(this.getDM(), this.getDecayFactor()));
+			else if (cv.getAttribute() == TRANSITIONAL)
+				checkTime = Math.min(checkTime, cv.getDecayTime(this.getDL(), this.getDecayFactor()));
+			
+			this.grid_list.schedule(entry, Math.max(checkTime, this.getCurrTime() + 1));
+		}
+	}
+	
+	/**
+	 * Returns a time no later than the time from which a density grid which receives no more 
+	 * records meets S1 and S2. With x = lambda^(t - tg), S1 holds when D * x < Dl * (1 - lambda * x), 
+	 * i.e. when the density drops below D * Dl / (D + Dl * lambda).
+	 * 
+	 * @param cv - the CharacteristicVector of the density grid
+	 */
+	private int getSporadicTime(CharacteristicVector cv)
+	{
+		double density = cv.getGridDensity();
+		int s1 = cv.getDecayTime(density * this.getDL() / (density + this.getDL() * this.getDecayFactor()), this.getDecayFactor());
+		
+		if (cv.getRemoveTime() == -1)
+			return s1;
+		
+		int s2 = (int) Math.min(Math.floor((1 + this.beta)*cv.getRemoveTime()), Integer.MAX_VALUE);
+		return Math.max(s1, s2);
+	}
+	
+	/**
+	 * Finds a neighbour of a density grid in grid_list. Neighbour 2i is the one below dg in 
+	 * dimension i and neighbour 2i+1 the one above it, as in DensityGrid.getNeighbours().
+	 * 
+	 * @param dg - the density grid
+	 * @param n - the number of the neighbour, in [0, 2d)
+	 * 
+	 * @return the entry of the neighbour in grid_list, or -1 if it is not in grid_list
+	 */
+	private int findNeighbour(DensityGrid dg, int n)
+	{
+		int entry = this.grid_list.findNeighbour(dg.getCoordinates(), n >> 1, (n & 1) == 0 ? -1 : 1);
+		
+		if (entry != -1 && !this.grid_list.isGrid(entry))
+			return -1;
+		return entry;
+	}
 
 	/**
 	 * @return currTime - the stream's internal time
@@ -1321,6 +1429,14 @@ public class Dstream extends AbstractClusterer {
 		this.currTime++;
 	}
 
+	/**
+	 * @return grid_list, for inspecting the grids
+	 */
+	GridTable getGridList()
+	{
+		return this.grid_list;
+	}
+
 	/**
 	 * @return decay factor - represented as lambda in Chen and Tu 2007
 	 */
@@ -1379,10 +1495,12 @@ public class Dstream extends AbstractClusterer {
 	public void printGridList()
 	{
 		System.out.println("Grid List. Size "+this.grid_list.size()+".");
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int entry = 0 ; entry < this.grid_list.numEntries() ; entry++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			if (!this.grid_list.isGrid(entry))
+				continue;
+			DensityGrid dg = this.grid_list.getGrid(entry);
+			CharacteristicVector cv = this.grid_list.getVector(entry);
 			
 			if (cv.getAttribute() != SPARSE)
 			{
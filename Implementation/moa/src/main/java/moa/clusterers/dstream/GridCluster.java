@@ -76,16 +76,14 @@ public class GridCluster extends NonConvexCluster
 	{
 		Boolean inside = isInside(dg);
 		this.grids.put(dg, inside);
-		
-		for(Map.Entry<DensityGrid, Boolean> gridToUpdate : this.grids.entrySet())
+
+		// Only the neighbours of dg can become inside grids
+		for(DensityGrid dg2U : dg.getNeighbours())
 		{
-			Boolean inside2U = gridToUpdate.getValue();
-			
-			if(!inside2U)
-			{
-				DensityGrid dg2U = gridToUpdate.getKey();
+			Boolean inside2U = this.grids.get(dg2U);
+
+			if(inside2U != null && !inside2U)
 				this.grids.put(dg2U, this.isInside(dg2U));
-			}
 		}
 	}
 	
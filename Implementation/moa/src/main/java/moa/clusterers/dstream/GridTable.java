@@ -0,0 +1,463 @@
+/**
+ *    GridTable.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package moa.clusterers.dstream;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The grid_list of D-Stream: an open addressing table of density grids keyed
+ * by their coordinates packed into a long.
+ *
+ * Every grid is an entry with a stable index, which holds its coordinates,
+ * its DensityGrid and its CharacteristicVector. A grid removed as sporadic
+ * keeps its entry, without the objects, to remember the time it was removed
+ * (t_m) until the entry is forgotten.
+ *
+ * The packed key holds 64/d bits of every coordinate, so it identifies a grid
+ * for up to 64 dimensions and small coordinates. Otherwise grids can share a
+ * key, so the coordinates are compared on every hit.
+ *
+ * The table also keeps, per entry, a mark used to collect entries once per
+ * pass and the time of its next scheduled check, with a heap of the
+ * scheduled checks.
+ */
+public class GridTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int EMPTY = -1;
+
+	private final int dimensions;
+
+	private final int bitsPerDimension;
+
+	private final long coordinateMask;
+
+	/** entry of every position of the open addressing index, or EMPTY */
+	private int[] index;
+
+	private int numIndexed;
+
+	// per entry
+	private long[] keys;
+
+	private int[] coordinates;
+
+	private DensityGrid[] grids;
+
+	private CharacteristicVector[] vectors;
+
+	private int[] removeTimes;
+
+	private int[] marks;
+
+	private int[] checkTimes;
+
+	private int numEntries;
+
+	private int numGrids;
+
+	private int numRemoved;
+
+	private int[] freeEntries;
+
+	private int numFree;
+
+	/** scheduled checks, (time << 32) | entry, as a binary min-heap */
+	private long[] heap;
+
+	private int heapSize;
+
+	private final int[] scratch;
+
+	public GridTable(int dimensions)
+	{
+		this.dimensions = dimensions;
+		this.bitsPerDimension = Math.max(1, Long.SIZE / dimensions);
+		this.coordinateMask = this.bitsPerDimension == Long.SIZE ? -1L : (1L << this.bitsPerDimension) - 1;
+		this.index = new int[64];
+		Arrays.fill(this.index, EMPTY);
+		int capacity = 16;
+		this.keys = new long[capacity];
+		this.coordinates = new int[capacity * dimensions];
+		this.grids = new DensityGrid[capacity];
+		this.vectors = new CharacteristicVector[capacity];
+		this.removeTimes = new int[capacity];
+		this.marks = new int[capacity];
+		this.checkTimes = new int[capacity];
+		this.freeEntries = new int[capacity];
+		this.heap = new long[capacity];
+		this.scratch = new int[dimensions];
+	}
+
+	/**
+	 * @return the number of grids in the table, not counting removed ones
+	 */
+	public int size()
+	{
+		return this.numGrids;
+	}
+
+	/**
+	 * @return the number of removed grids which are still remembered
+	 */
+	public int numRemoved()
+	{
+		return this.numRemoved;
+	}
+
+	/**
+	 * @return an upper bound of the entry indices, for iterating over the entries
+	 */
+	public int numEntries()
+	{
+		return this.numEntries;
+	}
+
+	/**
+	 * @return TRUE if the entry holds a grid of grid_list, FALSE if it is
+	 * removed or free
+	 */
+	public boolean isGrid(int entry)
+	{
+		return this.vectors[entry] != null;
+	}
+
+	/**
+	 * @return TRUE if the entry remembers a removed grid
+	 */
+	public boolean isRemoved(int entry)
+	{
+		return this.vectors[entry] == null && this.removeTimes[entry] >= 0;
+	}
+
+	public DensityGrid getGrid(int entry)
+	{
+		return this.grids[entry];
+	}
+
+	public CharacteristicVector getVector(int entry)
+	{
+		return this.vectors[entry];
+	}
+
+	/**
+	 * @return the time at which the grid of the entry was removed, or -1
+	 */
+	public int getRemoveTime(int entry)
+	{
+		return this.removeTimes[entry];
+	}
+
+	/**
+	 * @return the characteristic vector of the grid, or null if the grid is not
+	 * in grid_list
+	 */
+	public CharacteristicVector get(DensityGrid dg)
+	{
+		int entry = this.find(dg.getCoordinates());
+		return entry == EMPTY ? null : this.vectors[entry];
+	}
+
+	/**
+	 * @return the entry of the grid with the given coordinates, or -1 if there is
+	 * none. The entry may be a removed grid.
+	 */
+	public int find(int[] c)
+	{
+		long key = this.key(c);
+		int mask = this.index.length - 1;
+		for (int pos = position(key, mask) ; ; pos = (pos + 1) & mask)
+		{
+			int entry = this.index[pos];
+			if (entry == EMPTY || (this.keys[entry] == key && this.hasCoordinates(entry, c)))
+				return entry;
+		}
+	}
+
+	/**
+	 * @return the entry of the grid next to c in dimension dim, in direction
+	 * delta (-1 or 1), or -1 if there is none. The entry may be a removed grid.
+	 */
+	public int findNeighbour(int[] c, int dim, int delta)
+	{
+		System.arraycopy(c, 0, this.scratch, 0, this.dimensions);
+		this.scratch[dim] += delta;
+		return this.find(this.scratch);
+	}
+
+	/**
+	 * Adds a grid to grid_list, reusing the entry of the grid if it was removed.
+	 *
+	 * @return the entry of the grid
+	 */
+	public int put(DensityGrid dg, CharacteristicVector cv)
+	{
+		int[] c = dg.getCoordinates();
+		int entry = this.find(c);
+		if (entry == EMPTY)
+		{
+			entry = this.newEntry(c);
+			this.numGrids++;
+		}
+		else if (this.vectors[entry] == null)
+		{
+			this.numRemoved--;
+			this.numGrids++;
+		}
+		this.grids[entry] = dg;
+		this.vectors[entry] = cv;
+		this.removeTimes[entry] = -1;
+		return entry;
+	}
+
+	/**
+	 * Removes the grid of the entry from grid_list and remembers the time at
+	 * which it was removed.
+	 */
+	public void remove(int entry, int removeTime)
+	{
+		this.grids[entry] = null;
+		this.vectors[entry] = null;
+		this.removeTimes[entry] = removeTime;
+		this.checkTimes[entry] = Integer.MAX_VALUE;
+		this.numGrids--;
+		this.numRemoved++;
+	}
+
+	/**
+	 * Forgets a removed grid and frees its entry.
+	 */
+	public void forget(int entry)
+	{
+		int mask = this.index.length - 1;
+		int pos = position(this.keys[entry], mask);
+		while (this.index[pos] != entry)
+			pos = (pos + 1) & mask;
+
+		// shift the following entries of the probe sequence back
+		for (int next = (pos + 1) & mask ; this.index[next] != EMPTY ; next = (next + 1) & mask)
+		{
+			int home = position(this.keys[this.index[next]], mask);
+			if (pos <= next ? (home <= pos || home > next) : (home <= pos && home > next))
+			{
+				this.index[pos] = this.index[next];
+				pos = next;
+			}
+		}
+		this.index[pos] = EMPTY;
+		this.numIndexed--;
+
+		this.removeTimes[entry] = -1;
+		this.checkTimes[entry] = Integer.MAX_VALUE;
+		this.numRemoved--;
+		this.freeEntries[this.numFree++] = entry;
+	}
+
+	/**
+	 * Sets the mark of an entry.
+	 *
+	 * @return FALSE if the entry already had the mark, TRUE otherwise
+	 */
+	public boolean mark(int entry, int mark)
+	{
+		if (this.marks[entry] == mark)
+			return false;
+		this.marks[entry] = mark;
+		return true;
+	}
+
+	/**
+	 * Schedules the next check of the grid of an entry, replacing an earlier
+	 * schedule.
+	 */
+	public void schedule(int entry, int time)
+	{
+		this.checkTimes[entry] = time;
+		if (this.heapSize > 4 * (this.numGrids + 16))
+			this.compactHeap();
+		if (this.heapSize == this.heap.length)
+			this.heap = Arrays.copyOf(this.heap, 2 * this.heap.length);
+		long item = ((long) time << 32) | entry;
+		int pos = this.heapSize++;
+		while (pos > 0 && this.heap[(pos - 1) >> 1] > item)
+		{
+			this.heap[pos] = this.heap[(pos - 1) >> 1];
+			pos = (pos - 1) >> 1;
+		}
+		this.heap[pos] = item;
+	}
+
+	/**
+	 * Takes the next grid whose check is due at the given time.
+	 *
+	 * @return the entry of the grid, or -1 if no check is due
+	 */
+	public int pollDue(int time)
+	{
+		while (this.heapSize > 0)
+		{
+			long item = this.heap[0];
+			int itemTime = (int) (item >>> 32);
+			if (itemTime > time)
+				return EMPTY;
+			this.removeTop();
+			int entry = (int) item;
+			if (this.vectors[entry] != null && this.checkTimes[entry] == itemTime)
+			{
+				this.checkTimes[entry] = Integer.MAX_VALUE;
+				return entry;
+			}
+		}
+		return EMPTY;
+	}
+
+	private void removeTop()
+	{
+		long item = this.heap[--this.heapSize];
+		int pos = 0;
+		int child;
+		while ((child = 2 * pos + 1) < this.heapSize)
+		{
+			if (child + 1 < this.heapSize && this.heap[child + 1] < this.heap[child])
+				child++;
+			if (this.heap[child] >= item)
+				break;
+			this.heap[pos] = this.heap[child];
+			pos = child;
+		}
+		this.heap[pos] = item;
+	}
+
+	/**
+	 * Drops the stale and repeated schedules from the heap and restores its
+	 * order. A schedule is repeated when an entry is scheduled again at an
+	 * earlier time of it.
+	 */
+	private void compactHeap()
+	{
+		int size = 0;
+		for (int i = 0 ; i < this.heapSize ; i++)
+		{
+			long item = this.heap[i];
+			int entry = (int) item;
+			if (this.vectors[entry] != null && this.checkTimes[entry] == (int) (item >>> 32))
+				this.heap[size++] = item;
+		}
+		Arrays.sort(this.heap, 0, size);
+		int unique = 0;
+		for (int i = 0 ; i < size ; i++)
+		{
+			if (unique == 0 || this.heap[i] != this.heap[unique - 1])
+				this.heap[unique++] = this.heap[i];
+		}
+		this.heapSize = unique;
+	}
+
+	private int newEntry(int[] c)
+	{
+		int entry;
+		if (this.numFree > 0)
+			entry = this.freeEntries[--this.numFree];
+		else
+		{
+			if (this.numEntries == this.keys.length)
+				this.growEntries();
+			entry = this.numEntries++;
+		}
+		long key = this.key(c);
+		this.keys[entry] = key;
+		System.arraycopy(c, 0, this.coordinates, entry * this.dimensions, this.dimensions);
+		this.marks[entry] = 0;
+		this.checkTimes[entry] = Integer.MAX_VALUE;
+
+		if (2 * (this.numIndexed + 1) > this.index.length)
+			this.rehash(2 * this.index.length);
+		this.insertIntoIndex(entry);
+		this.numIndexed++;
+		return entry;
+	}
+
+	private void insertIntoIndex(int entry)
+	{
+		int mask = this.index.length - 1;
+		int pos = position(this.keys[entry], mask);
+		while (this.index[pos] != EMPTY)
+			pos = (pos + 1) & mask;
+		this.index[pos] = entry;
+	}
+
+	private void rehash(int capacity)
+	{
+		int[] old = this.index;
+		this.index = new int[capacity];
+		Arrays.fill(this.index, EMPTY);
+		for (int entry : old)
+		{
+			if (entry != EMPTY)
+				this.insertIntoIndex(entry);
+		}
+	}
+
+	private void growEntries()
+	{
+		int capacity = 2 * this.keys.length;
+		this.keys = Arrays.copyOf(this.keys, capacity);
+		this.coordinates = Arrays.copyOf(this.coordinates, capacity * this.dimensions);
+		this.grids = Arrays.copyOf(this.grids, capacity);
+		this.vectors = Arrays.copyOf(this.vectors, capacity);
+		this.removeTimes = Arrays.copyOf(this.removeTimes, capacity);
+		this.marks = Arrays.copyOf(this.marks, capacity);
+		this.checkTimes = Arrays.copyOf(this.checkTimes, capacity);
+		this.freeEntries = Arrays.copyOf(this.freeEntries, capacity);
+	}
+
+	private boolean hasCoordinates(int entry, int[] c)
+	{
+		int offset = entry * this.dimensions;
+		for (int i = 0 ; i < this.dimensions ; i++)
+		{
+			if (this.coordinates[offset + i] != c[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Packs the low bits of every coordinate into a long. Beyond 64 dimensions
+	 * the bits of later coordinates are folded onto the earlier ones.
+	 */
+	private long key(int[] c)
+	{
+		long key = 0L;
+		for (int i = 0 ; i < this.dimensions ; i++)
+			key = Long.rotateLeft(key, this.bitsPerDimension) ^ (c[i] & this.coordinateMask);
+		return key;
+	}
+
+	private static int position(long key, int mask)
+	{
+		// the finalizer of MurmurHash3, so that similar keys spread over the index
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+}
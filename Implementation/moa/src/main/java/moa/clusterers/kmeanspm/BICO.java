@@ -26,6 +26,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
 
@@ -65,6 +66,9 @@ public class BICO extends AbstractClusterer {
 			"Number of random projections used for the nearest neighbour search.",
 			10, 1, Integer.MAX_VALUE);
 
+	public FlagOption featureObjectsOption = new FlagOption("featureObjects",
+			'o', "Keep the ClusteringFeature tree as objects instead of flat arrays.");
+
 	protected int numClusters;
 	protected int numDimensions;
 	protected int maxNumClusterFeatures;
@@ -76,6 +80,7 @@ public class BICO extends AbstractClusterer {
 	private int pairwiseDifferent;
 
 	private ClusteringTreeNode root;
+	private ClusteringFeatureTree tree;
 	private int rootCount;
 	private double T;
 
@@ -106,6 +111,10 @@ public class BICO extends AbstractClusterer {
 	 */
 	@Override
 	public Clustering getMicroClusteringResult() {
+		if (this.tree != null) {
+			return this.tree.addToClustering(new Clustering(
+					new AutoExpandVector<Cluster>(this.tree.size())));
+		}
 		return this.root.addToClustering(new Clustering(
 				new AutoExpandVector<Cluster>(this.rootCount)));
 	}
@@ -119,6 +128,10 @@ public class BICO extends AbstractClusterer {
 	 *            If an I/O error occurs
 	 */
 	public void printMicroClusteringResult(Writer stream) throws IOException {
+		if (this.tree != null) {
+			this.tree.printClusteringCenters(stream);
+			return;
+		}
 		this.root.printClusteringCenters(stream);
 	}
 
@@ -128,7 +141,7 @@ public class BICO extends AbstractClusterer {
 	 * @return The size of the micro clustering
 	 */
 	public int getMicroClusteringSize() {
-		return this.rootCount;
+		return this.tree != null ? this.tree.size() : this.rootCount;
 	}
 
 	/*
@@ -179,6 +192,9 @@ public class BICO extends AbstractClusterer {
 					microClustering.add(pointWeighted);
 				}
 			}
+		} else if (this.tree != null) {
+			microClustering = this.tree
+					.addToClusteringCenters(new ArrayList<double[]>(this.tree.size()));
 		} else {
 			// Collects all nodes as arrays with the weight in the first element
 			microClustering = this.root
@@ -228,12 +244,20 @@ public class BICO extends AbstractClusterer {
 		this.minDistance = Double.POSITIVE_INFINITY;
 		this.pairwiseDifferent = 0;
 
-		int hashSize = (int) Math.ceil(Math.log(
-				5 * this.maxNumClusterFeaturesOption.getValue()) / Math.log(2));
-		this.root = new ClusteringTreeHeadNode(null, new ClusteringFeature(
-				new double[0], 1), this.numDimensionsOption.getValue(),
-				this.numProjectionsOption.getValue(), Math.min(hashSize, 30),
-				this.clustererRandom);
+		if (this.featureObjectsOption.isSet()) {
+			int hashSize = (int) Math.ceil(Math.log(
+					5 * this.maxNumClusterFeaturesOption.getValue()) / Math.log(2));
+			this.root = new ClusteringTreeHeadNode(null, new ClusteringFeature(
+					new double[0], 1), this.numDimensionsOption.getValue(),
+					this.numProjectionsOption.getValue(), Math.min(hashSize, 30),
+					this.clustererRandom);
+			this.tree = null;
+		} else {
+			this.tree = new ClusteringFeatureTree(this.numDimensions,
+					this.numProjections, this.maxNumClusterFeatures,
+					this.clustererRandom);
+			this.root = null;
+		}
 		this.rootCount = 0;
 	}
 
@@ -270,7 +294,11 @@ public class BICO extends AbstractClusterer {
 			if (this.pairwiseDifferent >= this.maxNumClusterFeatures + 1) {
 				// Calculates the starting threshold
 				this.T = 16 * minDistance;
-				this.root.setThreshold(calcRSquared(1));
+				if (this.tree != null) {
+					this.tree.setThreshold(this.T);
+				} else {
+					this.root.setThreshold(calcRSquared(1));
+				}
 				this.bufferPhase = false;
 				// Adds all points to the ClusteringFeature tree
 				for (double[] point : this.buffer) {
@@ -293,6 +321,10 @@ public class BICO extends AbstractClusterer {
 	 */
 	protected void bicoUpdate(double[] x) {
 		assert (!this.bufferPhase && this.numDimensions == x.length);
+		if (this.tree != null) {
+			this.tree.insert(x);
+			return;
+		}
 		// Starts with the global root node as the current root node
 		ClusteringTreeNode r = this.root;
 		int i = 1;
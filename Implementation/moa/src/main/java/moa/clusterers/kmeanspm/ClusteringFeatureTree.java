@@ -0,0 +1,635 @@
+/*
+ *    ClusteringFeatureTree.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.clusterers.kmeanspm;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import moa.cluster.Clustering;
+import moa.cluster.SphereCluster;
+import moa.core.Distances;
+
+/**
+ * The ClusteringFeature tree of BICO in flat arrays.
+ *
+ * Node <code>i</code> has the representation
+ * <code>centers[i * dimension ..]</code>, the ClusteringFeature
+ * <code>numPoints[i]</code>, <code>sumPoints[i * dimension ..]</code>,
+ * <code>sumSquaredLengths[i]</code> and the threshold
+ * <code>thresholds[i]</code>. The children of a node are linked in insertion
+ * order and node 0 is the root. The children of the root are also kept in one
+ * bucket table per random projection, which maps a bucket number to a linked
+ * list of nodes, instead of the <code>CuckooHashing</code> tables of
+ * <code>ClusteringTreeHeadNode</code>.
+ *
+ * The tree is built with the same steps and arithmetic as
+ * <code>ClusteringTreeNode</code>, so for the same projections it holds the
+ * same ClusteringFeatures.
+ *
+ * Citation: Hendrik Fichtenberger, Marc Gillé, Melanie Schmidt,
+ * Chris Schwiegelshohn, Christian Sohler:
+ * BICO: BIRCH Meets Coresets for k-Means Clustering.
+ * ESA 2013: 481-492 (2013)
+ * http://ls2-www.cs.tu-dortmund.de/bico/
+ *
+ */
+public class ClusteringFeatureTree implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int ROOT = 0;
+
+	private static final int NONE = -1;
+
+	protected final int dimension;
+
+	protected final int numProjections;
+
+	protected final int maxNumClusterFeatures;
+
+	protected final double[] projections;
+
+	protected final ProjectionBuckets[] buckets;
+
+	protected double T;
+
+	protected int rootCount;
+
+	protected int numNodes;
+
+	protected int freeNodes;
+
+	protected double[] centers;
+
+	protected int[] numPoints;
+
+	protected double[] sumPoints;
+
+	protected double[] sumSquaredLengths;
+
+	protected double[] thresholds;
+
+	protected int[] firstChild;
+
+	protected int[] lastChild;
+
+	protected int[] nextSibling;
+
+	protected int[] queue;
+
+	/**
+	 * Creates an empty tree. The projections are drawn from
+	 * <code>random</code> as in <code>ClusteringTreeHeadNode</code>.
+	 *
+	 * @param dimension
+	 *            the number of dimensions of the points
+	 * @param numProjections
+	 *            the number of projections to use for the nearest neighbor
+	 *            search
+	 * @param maxNumClusterFeatures
+	 *            the maximum number of ClusteringFeatures
+	 * @param random
+	 *            instance to generate a stream of pseudorandom numbers
+	 */
+	public ClusteringFeatureTree(int dimension, int numProjections,
+			int maxNumClusterFeatures, Random random) {
+		this.dimension = dimension;
+		this.numProjections = numProjections;
+		this.maxNumClusterFeatures = maxNumClusterFeatures;
+
+		this.projections = new double[numProjections * dimension];
+		for (int i = 0; i < numProjections; i++) {
+			int offset = i * dimension;
+			double norm = 0.0;
+			for (int j = 0; j < dimension; j++) {
+				double d = random.nextGaussian();
+				this.projections[offset + j] = d;
+				norm += d * d;
+			}
+			norm = Math.sqrt(norm);
+			for (int j = 0; j < dimension; j++) {
+				this.projections[offset + j] /= norm;
+			}
+		}
+
+		int capacity = maxNumClusterFeatures + 2;
+		this.centers = new double[capacity * dimension];
+		this.numPoints = new int[capacity];
+		this.sumPoints = new double[capacity * dimension];
+		this.sumSquaredLengths = new double[capacity];
+		this.thresholds = new double[capacity];
+		this.firstChild = new int[capacity];
+		this.lastChild = new int[capacity];
+		this.nextSibling = new int[capacity];
+		this.queue = new int[capacity];
+		this.buckets = new ProjectionBuckets[numProjections];
+		for (int i = 0; i < numProjections; i++) {
+			this.buckets[i] = new ProjectionBuckets(capacity);
+		}
+
+		this.numNodes = 1;
+		this.freeNodes = NONE;
+		this.firstChild[ROOT] = NONE;
+		this.lastChild[ROOT] = NONE;
+		this.nextSibling[ROOT] = NONE;
+		this.thresholds[ROOT] = 1;
+		this.rootCount = 0;
+	}
+
+	/**
+	 * Sets the global threshold T.
+	 *
+	 * @param T
+	 *            the threshold
+	 */
+	public void setThreshold(double T) {
+		this.T = T;
+		this.thresholds[ROOT] = calcRSquared(1);
+	}
+
+	/**
+	 * Returns the number of ClusteringFeatures in the tree.
+	 *
+	 * @return the number of ClusteringFeatures
+	 */
+	public int size() {
+		return this.rootCount;
+	}
+
+	/**
+	 * Inserts a new point into the tree and rebuilds it if the number of
+	 * ClusteringFeatures exceeds the maximum.
+	 *
+	 * @param x
+	 *            the point
+	 */
+	public void insert(double[] x) {
+		int d = this.dimension;
+		int r = ROOT;
+		int i = 1;
+		while (true) {
+			int y = nearestChild(r, x, 0);
+			// Checks if the point can not be added to the current level
+			if (this.firstChild[r] == NONE || y == NONE
+					|| Distances.squaredEuclidean(x, 0, this.centers, y * d, d) > calcRSquared(i)) {
+				int node = allocate();
+				System.arraycopy(x, 0, this.centers, node * d, d);
+				System.arraycopy(x, 0, this.sumPoints, node * d, d);
+				this.numPoints[node] = 1;
+				this.sumSquaredLengths[node] = Metric.distanceSquared(x);
+				this.thresholds[node] = calcR(i);
+				addChild(r, node);
+				this.rootCount++;
+				break;
+			} else if (calcKMeansCosts(y, x) <= this.T) {
+				// Adds the point to the ClusteringFeature
+				int offset = y * d;
+				this.numPoints[y] += 1;
+				for (int j = 0; j < d; j++) {
+					this.sumPoints[offset + j] += x[j];
+				}
+				this.sumSquaredLengths[y] += Metric.distanceSquared(x);
+				break;
+			} else {
+				// Navigates one level down in the tree
+				r = y;
+				i++;
+			}
+		}
+		if (this.rootCount > this.maxNumClusterFeatures) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Doubles the global threshold and inserts all nodes again, until the
+	 * number of ClusteringFeatures does not exceed the maximum.
+	 */
+	protected void rebuild() {
+		while (this.rootCount > this.maxNumClusterFeatures) {
+			this.T *= 2.0;
+			this.thresholds[ROOT] = calcRSquared(1);
+			// Adds all nodes to the tree again, level by level
+			int head = 0;
+			int tail = 0;
+			for (int c = this.firstChild[ROOT]; c != NONE; c = this.nextSibling[c]) {
+				this.queue[tail++] = c;
+			}
+			this.firstChild[ROOT] = NONE;
+			this.lastChild[ROOT] = NONE;
+			for (ProjectionBuckets bucket : this.buckets) {
+				bucket.clear();
+			}
+			this.rootCount = 0;
+			while (head < tail) {
+				int x = this.queue[head++];
+				for (int c = this.firstChild[x]; c != NONE; c = this.nextSibling[c]) {
+					this.queue[tail++] = c;
+				}
+				this.firstChild[x] = NONE;
+				this.lastChild[x] = NONE;
+				cfUpdate(x);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a node, without children, into the tree.
+	 *
+	 * @param x
+	 *            the node
+	 */
+	protected void cfUpdate(int x) {
+		int d = this.dimension;
+		int r = ROOT;
+		int i = 1;
+		while (true) {
+			int y = nearestChild(r, this.centers, x * d);
+			// Checks if the node can not be merged to the current level
+			if (this.firstChild[r] == NONE || y == NONE
+					|| Distances.squaredEuclidean(this.centers, x * d, this.centers, y * d, d) > calcRSquared(i)) {
+				this.thresholds[x] = calcR(i);
+				addChild(r, x);
+				this.rootCount++;
+				break;
+			} else if (calcKMeansCosts(y, x) <= this.T) {
+				// Merges the ClusteringFeature of the node into the nearest node
+				int offset = y * d;
+				int offsetX = x * d;
+				this.numPoints[y] += this.numPoints[x];
+				for (int j = 0; j < d; j++) {
+					this.sumPoints[offset + j] += this.sumPoints[offsetX + j];
+				}
+				this.sumSquaredLengths[y] += this.sumSquaredLengths[x];
+				release(x);
+				break;
+			} else {
+				r = y;
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Searches for the nearest child of a node: by the projection buckets for
+	 * the root, by comparing each representation otherwise.
+	 */
+	protected int nearestChild(int r, double[] point, int offset) {
+		int d = this.dimension;
+		if (r == ROOT) {
+			int minBucketProjection = NONE;
+			int minSize = Integer.MAX_VALUE;
+			int minSlot = NONE;
+			for (int i = 0; i < this.numProjections; i++) {
+				ProjectionBuckets current = this.buckets[i];
+				int slot = current.find(calcBucketNumber(point, offset, i));
+				int bucketSize;
+				if (slot != NONE && (bucketSize = current.sizes[slot]) <= minSize) {
+					minBucketProjection = i;
+					minSize = bucketSize;
+					minSlot = slot;
+				}
+			}
+			if (minBucketProjection == NONE) {
+				return NONE;
+			}
+			ProjectionBuckets current = this.buckets[minBucketProjection];
+			double minDistance = Double.POSITIVE_INFINITY;
+			int min = NONE;
+			for (int c = current.heads[minSlot]; c != NONE; c = current.next[c]) {
+				double distance = Distances.euclidean(point, offset, this.centers, c * d, d);
+				if (distance < minDistance) {
+					minDistance = distance;
+					min = c;
+				}
+			}
+			return min;
+		}
+		double minDistance = Double.POSITIVE_INFINITY;
+		int min = NONE;
+		for (int c = this.firstChild[r]; c != NONE; c = this.nextSibling[c]) {
+			double distance = Distances.euclidean(point, offset, this.centers, c * d, d);
+			if (distance < minDistance) {
+				minDistance = distance;
+				min = c;
+			}
+		}
+		return min;
+	}
+
+	protected void addChild(int r, int node) {
+		this.nextSibling[node] = NONE;
+		if (this.lastChild[r] == NONE) {
+			this.firstChild[r] = node;
+		} else {
+			this.nextSibling[this.lastChild[r]] = node;
+		}
+		this.lastChild[r] = node;
+		if (r == ROOT) {
+			int offset = node * this.dimension;
+			for (int i = 0; i < this.numProjections; i++) {
+				this.buckets[i].add(calcBucketNumber(this.centers, offset, i), node);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the bucket number of a point in a projection of the root.
+	 */
+	protected long calcBucketNumber(double[] point, int offset, int projection) {
+		int d = this.dimension;
+		int projectionOffset = projection * d;
+		double product = 0.0;
+		for (int j = 0; j < d; j++) {
+			product += point[offset + j] * this.projections[projectionOffset + j];
+		}
+		return (long) Math.floor(product / this.thresholds[ROOT]);
+	}
+
+	/**
+	 * Calculates the k-means costs of the ClusteringFeature of node y and a
+	 * point to the representation of y.
+	 */
+	protected double calcKMeansCosts(int y, double[] point) {
+		int d = this.dimension;
+		int offset = y * d;
+		double withAddition = 0.0;
+		double centerSquared = 0.0;
+		for (int j = 0; j < d; j++) {
+			double center = this.centers[offset + j];
+			withAddition += (this.sumPoints[offset + j] + point[j]) * center;
+			centerSquared += center * center;
+		}
+		return (this.sumSquaredLengths[y] + Metric.distanceSquared(point)) - 2
+				* withAddition + (this.numPoints[y] + 1) * centerSquared;
+	}
+
+	/**
+	 * Calculates the k-means costs of the ClusteringFeatures of node y and
+	 * node x to the representation of y.
+	 */
+	protected double calcKMeansCosts(int y, int x) {
+		int d = this.dimension;
+		int offset = y * d;
+		int offsetX = x * d;
+		double withAddition = 0.0;
+		double centerSquared = 0.0;
+		for (int j = 0; j < d; j++) {
+			double center = this.centers[offset + j];
+			withAddition += (this.sumPoints[offset + j] + this.sumPoints[offsetX + j]) * center;
+			centerSquared += center * center;
+		}
+		return (this.sumSquaredLengths[y] + this.sumSquaredLengths[x]) - 2
+				* withAddition + (this.numPoints[y] + this.numPoints[x]) * centerSquared;
+	}
+
+	protected double calcRSquared(int level) {
+		return this.T / (double) (1 << (3 + level));
+	}
+
+	protected double calcR(int level) {
+		return Math.sqrt(calcRSquared(level));
+	}
+
+	/**
+	 * Adds all ClusteringFeatures to a Clustering, in preorder.
+	 *
+	 * @param clustering
+	 *            the Clustering to add the ClusteringFeatures too.
+	 * @return the input Clustering
+	 */
+	public Clustering addToClustering(Clustering clustering) {
+		for (int c = this.firstChild[ROOT]; c != NONE; c = this.nextSibling[c]) {
+			addToClustering(c, clustering);
+		}
+		return clustering;
+	}
+
+	private void addToClustering(int node, Clustering clustering) {
+		int d = this.dimension;
+		double[] output = new double[d];
+		System.arraycopy(this.sumPoints, node * d, output, 0, d);
+		for (int i = 0; i < d; i++) {
+			output[i] /= this.numPoints[node];
+		}
+		clustering.add(new SphereCluster(output, this.thresholds[node], this.numPoints[node]));
+		for (int c = this.firstChild[node]; c != NONE; c = this.nextSibling[c]) {
+			addToClustering(c, clustering);
+		}
+	}
+
+	/**
+	 * Adds the centers of all ClusteringFeatures, in preorder, as arrays with
+	 * the weight in the first element.
+	 *
+	 * @param clustering
+	 *            the List to add the clustering centers too.
+	 * @return the input List
+	 */
+	public List<double[]> addToClusteringCenters(List<double[]> clustering) {
+		for (int c = this.firstChild[ROOT]; c != NONE; c = this.nextSibling[c]) {
+			addToClusteringCenters(c, clustering);
+		}
+		return clustering;
+	}
+
+	private void addToClusteringCenters(int node, List<double[]> clustering) {
+		int d = this.dimension;
+		double[] output = new double[d + 1];
+		System.arraycopy(this.sumPoints, node * d, output, 1, d);
+		output[0] = this.numPoints[node];
+		for (int i = 1; i < output.length; i++) {
+			output[i] /= this.numPoints[node];
+		}
+		clustering.add(output);
+		for (int c = this.firstChild[node]; c != NONE; c = this.nextSibling[c]) {
+			addToClusteringCenters(c, clustering);
+		}
+	}
+
+	/**
+	 * Writes the centers of all ClusteringFeatures, in preorder, to a given
+	 * stream.
+	 *
+	 * @param stream
+	 *            the stream
+	 * @throws IOException
+	 *            If an I/O error occurs
+	 */
+	public void printClusteringCenters(Writer stream) throws IOException {
+		for (int c = this.firstChild[ROOT]; c != NONE; c = this.nextSibling[c]) {
+			printClusteringCenters(c, stream);
+		}
+	}
+
+	private void printClusteringCenters(int node, Writer stream) throws IOException {
+		int d = this.dimension;
+		int offset = node * d;
+		stream.write(String.valueOf(this.numPoints[node]));
+		for (int j = 0; j < d; j++) {
+			stream.write(' ');
+			stream.write(String.valueOf(this.sumPoints[offset + j] / this.numPoints[node]));
+		}
+		stream.write(System.getProperty("line.separator"));
+		for (int c = this.firstChild[node]; c != NONE; c = this.nextSibling[c]) {
+			printClusteringCenters(c, stream);
+		}
+	}
+
+	private int allocate() {
+		int node;
+		if (this.freeNodes != NONE) {
+			node = this.freeNodes;
+			this.freeNodes = this.nextSibling[node];
+		} else {
+			if (this.numNodes == this.numPoints.length) {
+				grow(2 * this.numNodes);
+			}
+			node = this.numNodes++;
+		}
+		this.firstChild[node] = NONE;
+		this.lastChild[node] = NONE;
+		this.nextSibling[node] = NONE;
+		return node;
+	}
+
+	private void release(int node) {
+		this.nextSibling[node] = this.freeNodes;
+		this.freeNodes = node;
+	}
+
+	private void grow(int capacity) {
+		int d = this.dimension;
+		this.centers = Arrays.copyOf(this.centers, capacity * d);
+		this.numPoints = Arrays.copyOf(this.numPoints, capacity);
+		this.sumPoints = Arrays.copyOf(this.sumPoints, capacity * d);
+		this.sumSquaredLengths = Arrays.copyOf(this.sumSquaredLengths, capacity);
+		this.thresholds = Arrays.copyOf(this.thresholds, capacity);
+		this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+		this.lastChild = Arrays.copyOf(this.lastChild, capacity);
+		this.nextSibling = Arrays.copyOf(this.nextSibling, capacity);
+		this.queue = Arrays.copyOf(this.queue, capacity);
+		for (ProjectionBuckets bucket : this.buckets) {
+			bucket.next = Arrays.copyOf(bucket.next, capacity);
+		}
+	}
+
+	/**
+	 * Open addressing table from bucket numbers to linked lists of nodes, in
+	 * insertion order.
+	 */
+	protected static class ProjectionBuckets implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		protected long[] keys;
+
+		protected int[] heads;
+
+		protected int[] tails;
+
+		/** Number of nodes in the bucket, 0 for a free slot. */
+		protected int[] sizes;
+
+		/** Next node in the same bucket, indexed by node. */
+		protected int[] next;
+
+		protected int numBuckets;
+
+		protected ProjectionBuckets(int numNodes) {
+			int capacity = Integer.highestOneBit(Math.max(2, 2 * numNodes - 1)) << 1;
+			this.keys = new long[capacity];
+			this.heads = new int[capacity];
+			this.tails = new int[capacity];
+			this.sizes = new int[capacity];
+			this.next = new int[numNodes];
+			this.numBuckets = 0;
+		}
+
+		private int slot(long key) {
+			int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & (this.keys.length - 1);
+		}
+
+		protected int find(long key) {
+			int mask = this.keys.length - 1;
+			for (int s = slot(key); this.sizes[s] != 0; s = (s + 1) & mask) {
+				if (this.keys[s] == key) {
+					return s;
+				}
+			}
+			return NONE;
+		}
+
+		protected void add(long key, int node) {
+			int mask = this.keys.length - 1;
+			int s = slot(key);
+			while (this.sizes[s] != 0 && this.keys[s] != key) {
+				s = (s + 1) & mask;
+			}
+			this.next[node] = NONE;
+			if (this.sizes[s] == 0) {
+				this.keys[s] = key;
+				this.heads[s] = node;
+				this.sizes[s] = 1;
+				this.numBuckets++;
+			} else {
+				this.next[this.tails[s]] = node;
+				this.sizes[s]++;
+			}
+			this.tails[s] = node;
+			if (2 * this.numBuckets > this.keys.length) {
+				rehash();
+			}
+		}
+
+		protected void clear() {
+			Arrays.fill(this.sizes, 0);
+			this.numBuckets = 0;
+		}
+
+		private void rehash() {
+			long[] oldKeys = this.keys;
+			int[] oldHeads = this.heads;
+			int[] oldTails = this.tails;
+			int[] oldSizes = this.sizes;
+			int capacity = 2 * oldKeys.length;
+			this.keys = new long[capacity];
+			this.heads = new int[capacity];
+			this.tails = new int[capacity];
+			this.sizes = new int[capacity];
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldSizes[i] != 0) {
+					int s = slot(oldKeys[i]);
+					while (this.sizes[s] != 0) {
+						s = (s + 1) & mask;
+					}
+					this.keys[s] = oldKeys[i];
+					this.heads[s] = oldHeads[i];
+					this.tails[s] = oldTails[i];
+					this.sizes[s] = oldSizes[i];
+				}
+			}
+		}
+	}
+}
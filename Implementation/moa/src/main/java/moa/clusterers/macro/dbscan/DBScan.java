@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
+import moa.cluster.BallTree;
 import moa.cluster.CFCluster;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
@@ -39,36 +40,48 @@ public class DBScan extends AbstractMacroClusterer {
 	private double mEps;
 	private int mMinPts;
 
+	/** Centres of the micro-clusters being clustered, in the order of the list. */
+	private double[][] centers;
+	/** Index over the centres, for the region queries. */
+	private BallTree index;
+	/** Receives the neighbourhood of the last region query. */
+	private int[] neighbourhood;
+	/** Micro-clusters waiting in the queue of the cluster being expanded. */
+	private boolean[] queued;
+
 	public DBScan(Clustering microClusters, double eps, int MinPts) {
 		datasource = microClusters;
 		mEps = eps;
 		mMinPts = MinPts;
 	}
 
-	private ArrayList<DenseMicroCluster> expandCluster(DenseMicroCluster dmc,
-			List<DenseMicroCluster> neighbours,
-			ArrayList<DenseMicroCluster> arrayList,
-			Vector<DenseMicroCluster> dbmc) {
-
+	/**
+	 * Expands a cluster from a core micro-cluster breadth first. A
+	 * micro-cluster is queued at most once, as it is visited when it leaves
+	 * the queue.
+	 * @param first the index of the core micro-cluster
+	 * @param numNeighbours the size of its neighbourhood, which is in
+	 * <code>neighbourhood</code>
+	 */
+	private ArrayList<DenseMicroCluster> expandCluster(int first,
+			int numNeighbours, Vector<DenseMicroCluster> dbmc) {
+		ArrayList<DenseMicroCluster> arrayList = new ArrayList<DenseMicroCluster>();
+		DenseMicroCluster dmc = dbmc.get(first);
 		if (!dmc.isClustered()) {
 			dmc.setClustered();
 			arrayList.add(dmc);
 		}
-		while (!neighbours.isEmpty()) {
-			DenseMicroCluster mc = neighbours.get(0);
-			neighbours.remove(0);
+		int[] queue = new int[dbmc.size()];
+		int head = 0;
+		int tail = enqueue(numNeighbours, queue, 0, dbmc);
+		while (head < tail) {
+			int next = queue[head++];
+			DenseMicroCluster mc = dbmc.get(next);
 			if (!mc.isVisited()) {
 				mc.setVisited();
-				List<DenseMicroCluster> neighbours2 = getNeighbourhood(mc, dbmc);
-				if (neighbours2.size() >= mMinPts) {
-					while (!neighbours2.isEmpty()) {
-						DenseMicroCluster temp = neighbours2.get(0);
-						neighbours2.remove(0);
-						if (!temp.isVisited()) {
-							neighbours.add(temp);
-						}
-					}
-					neighbours.addAll(neighbours2);
+				int numNeighbours2 = getNeighbourhood(next);
+				if (numNeighbours2 >= mMinPts) {
+					tail = enqueue(numNeighbours2, queue, tail, dbmc);
 					if (!mc.isClustered()) {
 						mc.setClustered();
 						arrayList.add(mc);
@@ -79,30 +92,25 @@ public class DBScan extends AbstractMacroClusterer {
 		return arrayList;
 	}
 
-	private List<DenseMicroCluster> getNeighbourhood(DenseMicroCluster mc,
+	private int enqueue(int numNeighbours, int[] queue, int tail,
 			Vector<DenseMicroCluster> dbmc) {
-		List<DenseMicroCluster> res = new Vector<DenseMicroCluster>();
-		for (DenseMicroCluster dmc : dbmc) {
-			if (distance(dmc.getCFCluster().getCenter(), mc.getCFCluster().getCenter()) < mEps) {
-				res.add(dmc);
+		for (int n = 0; n < numNeighbours; n++) {
+			int neighbour = neighbourhood[n];
+			if (!queued[neighbour] && !dbmc.get(neighbour).isVisited()) {
+				queued[neighbour] = true;
+				queue[tail++] = neighbour;
 			}
 		}
-		return res;
+		return tail;
 	}
 
 	/**
-	 * eclidean distance
-	 * 
-	 * @param center
-	 * @param center2
-	 * @return
+	 * Finds the micro-clusters whose centre is closer than eps to the centre
+	 * of the given one, itself included, in the order of the list.
+	 * @return the number of neighbours, which are in <code>neighbourhood</code>
 	 */
-	private double distance(double[] center, double[] center2) {
-		double d = 0D;
-		for (int i = 0; i < center.length; i++) {
-			d += Math.pow((center[i] - center2[i]), 2);
-		}
-		return Math.sqrt(d);
+	private int getNeighbourhood(int mc) {
+		return index.withinDistance(centers[mc], 0.0, mEps, neighbourhood);
 	}
 
 	@Override
@@ -118,21 +126,32 @@ public class DBScan extends AbstractMacroClusterer {
 					throw new RuntimeException();
 			}
 
+			centers = new double[dbmc.size()][];
+			for (int i = 0; i < dbmc.size(); i++) {
+				centers[i] = dbmc.get(i).getCFCluster().getCenter();
+			}
+			index = new BallTree(centers);
+			neighbourhood = new int[dbmc.size()];
+			queued = new boolean[dbmc.size()];
+
 			ArrayList<ArrayList<DenseMicroCluster>> clusters = new ArrayList<ArrayList<DenseMicroCluster>>();
 
-			for (DenseMicroCluster dmc : dbmc) {
+			for (int i = 0; i < dbmc.size(); i++) {
+				DenseMicroCluster dmc = dbmc.get(i);
 				if (!dmc.isVisited()) {
 					dmc.setVisited();
-					List<DenseMicroCluster> neighbours = getNeighbourhood(dmc,
-							dbmc);
-					if (neighbours.size() >= mMinPts) {
+					int numNeighbours = getNeighbourhood(i);
+					if (numNeighbours >= mMinPts) {
 						ArrayList<DenseMicroCluster> cluster = expandCluster(
-								dmc, neighbours,
-								new ArrayList<DenseMicroCluster>(), dbmc);
+								i, numNeighbours, dbmc);
 						clusters.add(cluster);
 					}
 				}
 			}
+			centers = null;
+			index = null;
+			neighbourhood = null;
+			queued = null;
 			// ** create big microclusters,
 			// CFCluster[] res = new CFCluster[clusters.size()];
 			// int clusterPos = 0;
@@ -0,0 +1,221 @@
+/*
+ *    ArrayBucketManager.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.streamkm;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * The merge-and-reduce buckets of <code>BucketManager</code> on
+ * <code>PointArray</code>s. Buckets are moved by swapping arrays instead of
+ * cloning points, and a new bucket is added when the last one overflows, so
+ * the stream does not have to be shorter than the given length. The
+ * coresets are those of <code>BucketManager</code> as long as all nonempty
+ * buckets are full, but a bucket that is not full only contributes its
+ * points, and taking a coreset leaves the buckets unchanged.
+ *
+ * With background merging, a full first bucket is handed to a worker thread
+ * that merges it up the buckets while the next points are inserted into a
+ * fresh first bucket. Only one merge runs at a time and the coreset waits for
+ * it, so the coresets and the random numbers drawn are the same as without
+ * background merging.
+ */
+public class ArrayBucketManager implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Enough buckets for any stream with an int number of points. */
+	private static final int MAX_BUCKETS = Integer.SIZE + 1;
+
+	protected final int dimension;
+
+	protected final int maxBucketsize;
+
+	protected final PointArray[] points;
+
+	protected final PointArray[] spillover;
+
+	protected final MTRandom clustererRandom;
+
+	protected final ArrayTreeCoreset treeCoreset;
+
+	protected final boolean backgroundMerge;
+
+	protected transient ExecutorService executor;
+
+	protected transient Future<?> pendingMerge;
+
+	/**
+	 * Initializes a bucket manager for about n points with bucket size maxsize
+	 * and dimension d.
+	 */
+	public ArrayBucketManager(int n, int d, int maxsize, MTRandom random, boolean backgroundMerge) {
+		this.dimension = d;
+		this.maxBucketsize = maxsize;
+		this.clustererRandom = random;
+		this.backgroundMerge = backgroundMerge;
+		this.treeCoreset = new ArrayTreeCoreset();
+		this.points = new PointArray[MAX_BUCKETS];
+		this.spillover = new PointArray[MAX_BUCKETS];
+		int numberOfBuckets = (int) Math.ceil(Math.log((double) n / (double) maxsize) / Math.log(2)) + 2;
+		for (int i = 0; i < Math.max(2, Math.min(numberOfBuckets, MAX_BUCKETS)); i++) {
+			this.addBucket(i);
+		}
+	}
+
+	/**
+	 * Inserts a single point into the first bucket, after moving a full first
+	 * bucket up.
+	 */
+	public void insertPoint(Instance inst, int id) {
+		if (this.points[0].size() >= this.maxBucketsize) {
+			this.waitForMerge();
+			if (this.points[1].size() == 0) {
+				swap(this.points, 0, this.points, 1);
+			} else {
+				swap(this.points, 0, this.spillover, 1);
+				if (this.backgroundMerge) {
+					this.pendingMerge = this.getExecutor().submit(new Runnable() {
+						@Override
+						public void run() {
+							ArrayBucketManager.this.mergeSpillover();
+						}
+					});
+				} else {
+					this.mergeSpillover();
+				}
+			}
+			this.points[0].clear();
+		}
+		this.points[0].add(inst, id);
+	}
+
+	/**
+	 * Merges the spillover of bucket 1 with bucket 1 and carries the coreset
+	 * up as long as the next bucket is full.
+	 */
+	protected void mergeSpillover() {
+		int curbucket = 1;
+		int nextbucket = 2;
+		while (this.points[nextbucket] != null && this.points[nextbucket].size() == this.maxBucketsize) {
+			this.treeCoreset.unionTreeCoreset(this.maxBucketsize, this.points[curbucket], this.spillover[curbucket],
+					this.spillover[nextbucket], this.clustererRandom);
+			this.points[curbucket].clear();
+			curbucket++;
+			nextbucket++;
+		}
+		if (this.points[nextbucket] == null) {
+			this.addBucket(nextbucket);
+		}
+		this.treeCoreset.unionTreeCoreset(this.maxBucketsize, this.points[curbucket], this.spillover[curbucket],
+				this.points[nextbucket], this.clustererRandom);
+		this.points[curbucket].clear();
+	}
+
+	/**
+	 * Computes a coreset of all nonempty buckets. The returned points belong to
+	 * the manager and are only valid until the next point is inserted.
+	 */
+	public PointArray getCoresetFromManager() {
+		this.waitForMerge();
+		PointArray coreset = null;
+		for (int i = 0; i < MAX_BUCKETS && this.points[i] != null; i++) {
+			if (this.points[i].size() == 0) {
+				continue;
+			}
+			if (coreset == null) {
+				coreset = this.points[i];
+			} else {
+				//output the coreset into the spillover of bucket i
+				this.treeCoreset.unionTreeCoreset(this.maxBucketsize, this.points[i], coreset, this.spillover[i],
+						this.clustererRandom);
+				coreset = this.spillover[i];
+			}
+		}
+		return coreset == null ? new PointArray(this.dimension, 0) : coreset;
+	}
+
+	/**
+	 * Waits until a merge running in the background is finished.
+	 */
+	protected void waitForMerge() {
+		if (this.pendingMerge == null) {
+			return;
+		}
+		try {
+			this.pendingMerge.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the buckets to be merged.", ex);
+		} catch (ExecutionException ex) {
+			throw new RuntimeException("Merging the buckets failed.", ex.getCause());
+		} finally {
+			this.pendingMerge = null;
+		}
+	}
+
+	/**
+	 * Stops the worker thread once a merge running in the background is
+	 * finished. Inserting another point starts a new one.
+	 */
+	public void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+			this.executor = null;
+		}
+	}
+
+	private ExecutorService getExecutor() {
+		if (this.executor == null) {
+			this.executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "StreamKM-merge");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return this.executor;
+	}
+
+	private void addBucket(int i) {
+		this.points[i] = new PointArray(this.dimension, this.maxBucketsize);
+		this.spillover[i] = new PointArray(this.dimension, this.maxBucketsize);
+	}
+
+	/**
+	 * Waits for the merge running in the background, which changes the
+	 * buckets being written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.waitForMerge();
+		out.defaultWriteObject();
+	}
+
+	private static void swap(PointArray[] a, int i, PointArray[] b, int j) {
+		PointArray tmp = a[i];
+		a[i] = b[j];
+		b[j] = tmp;
+	}
+}
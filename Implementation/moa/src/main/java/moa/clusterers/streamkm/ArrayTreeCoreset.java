@@ -0,0 +1,300 @@
+/*
+ *    ArrayTreeCoreset.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.streamkm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import moa.core.Distances;
+
+/**
+ * The coreset tree of <code>TreeCoreset</code> on <code>PointArray</code>s.
+ *
+ * The points of the union are numbered setA first, their centroids are
+ * computed once, and every point keeps its squared distance to the centre of
+ * its leaf. A tree node is a range of a permutation of the points, which is
+ * partitioned stably when the node is split, so the nodes see their points in
+ * the same order as the <code>Point[]</code> arrays of <code>TreeCoreset</code>
+ * and draw the same random numbers.
+ *
+ * Unlike <code>TreeCoreset</code>, the input sets are not modified and dummy
+ * centres are separate points.
+ */
+public class ArrayTreeCoreset implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/** How many times a centre is sampled from the selected leaf. */
+	private static final int TIMES = 3;
+
+	// per point of the union
+	protected double[] centroids = new double[0];
+
+	protected double[] weights = new double[0];
+
+	protected double[] distances = new double[0];
+
+	protected int[] centreIndices = new int[0];
+
+	protected int[] order = new int[0];
+
+	protected int[] buffer = new int[0];
+
+	// per centre
+	protected double[] centreCentroids = new double[0];
+
+	protected int[] centreSources = new int[0];
+
+	// per tree node
+	protected int numNodes;
+
+	protected int[] nodeFrom = new int[0];
+
+	protected int[] nodeTo = new int[0];
+
+	protected int[] nodeCentre = new int[0];
+
+	protected int[] nodeParent = new int[0];
+
+	protected int[] nodeLeft = new int[0];
+
+	protected int[] nodeRight = new int[0];
+
+	protected double[] nodeCost = new double[0];
+
+	protected int dimension;
+
+	/**
+	 * Replaces the contents of <code>centres</code> with a coreset of size k of
+	 * the union of setA and setB. If the union has at most k points, it is
+	 * its own coreset.
+	 */
+	public void unionTreeCoreset(int k, PointArray setA, PointArray setB, PointArray centres, MTRandom clustererRandom) {
+		int n1 = setA.size();
+		int n = n1 + setB.size();
+		centres.clear();
+		if (n <= k) {
+			for (int i = 0; i < n; i++) {
+				centres.add(i < n1 ? setA : setB, i < n1 ? i : i - n1);
+			}
+			return;
+		}
+		int d = setA.dimension();
+		this.ensureCapacity(n, k, d);
+		setA.centroids(this.centroids, 0);
+		setB.centroids(this.centroids, n1 * d);
+		System.arraycopy(setA.weights, 0, this.weights, 0, n1);
+		System.arraycopy(setB.weights, 0, this.weights, n1, n - n1);
+
+		//choose the first centre (each point has the same probability of being choosen)
+		int j = clustererRandom.nextInt(n);
+		this.setCentre(0, j);
+		for (int i = 0; i < n; i++) {
+			this.order[i] = i;
+			this.centreIndices[i] = 0;
+		}
+		Distances.squaredEuclideanToAll(this.centreCentroids, this.centroids, 0, n, d, this.distances);
+		this.numNodes = 0;
+		int root = this.newNode(0, n, 0, -1);
+
+		//choose the remaining points
+		for (int choosenPoints = 1; choosenPoints < k; choosenPoints++) {
+			if (this.nodeCost[root] > 0.0) {
+				int leaf = this.selectNode(root, clustererRandom);
+				int centre = this.chooseCentre(leaf, clustererRandom);
+				this.setCentre(choosenPoints, centre);
+				this.split(leaf, centre, choosenPoints);
+			} else {
+				this.centreSources[choosenPoints] = -1;
+			}
+		}
+
+		//copy the centres and recalculate their clustering features
+		for (int c = 0; c < k; c++) {
+			int source = this.centreSources[c];
+			if (source < 0) {
+				centres.addDummy();
+			} else {
+				centres.add(source < n1 ? setA : setB, source < n1 ? source : source - n1);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			PointArray set = i < n1 ? setA : setB;
+			int row = i < n1 ? i : i - n1;
+			int index = this.centreIndices[i];
+			if (centres.ids[index] != set.ids[row]) {
+				centres.merge(index, set, row);
+			}
+		}
+	}
+
+	/**
+	 * Selects a leaf node (using the kMeans++ distribution).
+	 */
+	protected int selectNode(int node, MTRandom clustererRandom) {
+		double random = clustererRandom.nextDouble();
+		while (this.nodeLeft[node] >= 0) {
+			int lc = this.nodeLeft[node];
+			int rc = this.nodeRight[node];
+			if (this.nodeCost[lc] == 0 && this.nodeCost[rc] == 0) {
+				if (this.nodeTo[lc] == this.nodeFrom[lc]) {
+					node = rc;
+				} else if (this.nodeTo[rc] == this.nodeFrom[rc]) {
+					node = lc;
+				} else if (random < 0.5) {
+					random = clustererRandom.nextDouble();
+					node = lc;
+				} else {
+					random = clustererRandom.nextDouble();
+					node = rc;
+				}
+			} else if (random < this.nodeCost[lc] / this.nodeCost[node]) {
+				node = lc;
+			} else {
+				node = rc;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Selects a new centre from the points of a leaf (using the kMeans++
+	 * distribution), keeping the candidate that lowers the cost of the leaf
+	 * most. A try that lands on a dummy point is discarded.
+	 */
+	protected int chooseCentre(int node, MTRandom clustererRandom) {
+		double minCost = this.nodeCost[node];
+		int bestCentre = -1;
+		for (int j = 0; j < TIMES; j++) {
+			double sum = 0.0;
+			double random = clustererRandom.nextDouble();
+			for (int pos = this.nodeFrom[node]; pos < this.nodeTo[node]; pos++) {
+				int i = this.order[pos];
+				double weight = this.weights[i];
+				sum += (weight == 0.0 ? 0.0 : this.distances[i] * weight) / this.nodeCost[node];
+				if (sum >= random) {
+					if (weight != 0.0) {
+						double curCost = this.splitCost(node, i);
+						if (curCost < minCost) {
+							bestCentre = i;
+							minCost = curCost;
+						}
+					}
+					break;
+				}
+			}
+		}
+		return bestCentre < 0 ? this.order[this.nodeFrom[node]] : bestCentre;
+	}
+
+	/**
+	 * Computes the cost of the node if it was split with the given point as
+	 * the new centre.
+	 */
+	protected double splitCost(int node, int centre) {
+		int d = this.dimension;
+		double sum = 0.0;
+		for (int pos = this.nodeFrom[node]; pos < this.nodeTo[node]; pos++) {
+			int i = this.order[pos];
+			double distanceA = this.distances[i];
+			double distanceB = Distances.squaredEuclidean(this.centroids, i * d, this.centroids, centre * d, d);
+			sum += (distanceA < distanceB ? distanceA : distanceB) * this.weights[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Splits a leaf into a child with the points of its centre and a child
+	 * with the points closer to the new centre.
+	 */
+	protected void split(int leaf, int centre, int centreIndex) {
+		int d = this.dimension;
+		int from = this.nodeFrom[leaf];
+		int to = this.nodeTo[leaf];
+		int numOld = 0;
+		int numNew = 0;
+		for (int pos = from; pos < to; pos++) {
+			int i = this.order[pos];
+			double distance = Distances.squaredEuclidean(this.centroids, i * d, this.centroids, centre * d, d);
+			if (this.distances[i] < distance) {
+				this.order[from + numOld++] = i;
+			} else {
+				this.distances[i] = distance;
+				this.centreIndices[i] = centreIndex;
+				this.buffer[numNew++] = i;
+			}
+		}
+		System.arraycopy(this.buffer, 0, this.order, from + numOld, numNew);
+		this.nodeLeft[leaf] = this.newNode(from, from + numOld, this.nodeCentre[leaf], leaf);
+		this.nodeRight[leaf] = this.newNode(from + numOld, to, centreIndex, leaf);
+
+		//propagate the cost changes to the parent nodes
+		for (int node = leaf; node >= 0; node = this.nodeParent[node]) {
+			this.nodeCost[node] = this.nodeCost[this.nodeLeft[node]] + this.nodeCost[this.nodeRight[node]];
+		}
+	}
+
+	protected int newNode(int from, int to, int centre, int parent) {
+		int node = this.numNodes++;
+		this.nodeFrom[node] = from;
+		this.nodeTo[node] = to;
+		this.nodeCentre[node] = centre;
+		this.nodeParent[node] = parent;
+		this.nodeLeft[node] = -1;
+		this.nodeRight[node] = -1;
+		double sum = 0.0;
+		for (int pos = from; pos < to; pos++) {
+			int i = this.order[pos];
+			sum += this.distances[i] * this.weights[i];
+		}
+		this.nodeCost[node] = sum;
+		return node;
+	}
+
+	protected void setCentre(int centreIndex, int point) {
+		System.arraycopy(this.centroids, point * this.dimension, this.centreCentroids, centreIndex * this.dimension,
+				this.dimension);
+		this.centreSources[centreIndex] = point;
+	}
+
+	protected void ensureCapacity(int n, int k, int d) {
+		this.dimension = d;
+		if (this.weights.length < n || this.centroids.length < n * d) {
+			this.centroids = new double[n * d];
+			this.weights = new double[n];
+			this.distances = new double[n];
+			this.centreIndices = new int[n];
+			this.order = new int[n];
+			this.buffer = new int[n];
+		}
+		if (this.centreSources.length < k || this.centreCentroids.length < k * d) {
+			this.centreCentroids = new double[k * d];
+			this.centreSources = new int[k];
+			int numNodes = 2 * k - 1;
+			this.nodeFrom = new int[numNodes];
+			this.nodeTo = new int[numNodes];
+			this.nodeCentre = new int[numNodes];
+			this.nodeParent = new int[numNodes];
+			this.nodeLeft = new int[numNodes];
+			this.nodeRight = new int[numNodes];
+			this.nodeCost = new double[numNodes];
+		}
+		Arrays.fill(this.centreSources, 0, k, -1);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ *    PointArray.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.streamkm;
+
+import java.io.Serializable;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * A fixed capacity set of weighted points stored in flat arrays: the
+ * clustering features (weight, squareSum, linear sum) of point <code>i</code>
+ * are <code>weights[i]</code>, <code>squareSums[i]</code> and
+ * <code>coordinates[i * dimension .. (i + 1) * dimension - 1]</code>.
+ *
+ * This is the array counterpart of a <code>Point[]</code> bucket, used by
+ * <code>ArrayBucketManager</code> and <code>ArrayTreeCoreset</code>.
+ */
+public class PointArray implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final int dimension;
+
+	protected int size;
+
+	protected final double[] coordinates;
+
+	protected final double[] weights;
+
+	protected final double[] squareSums;
+
+	protected final int[] ids;
+
+	public PointArray(int dimension, int capacity) {
+		this.dimension = dimension;
+		this.size = 0;
+		this.coordinates = new double[capacity * dimension];
+		this.weights = new double[capacity];
+		this.squareSums = new double[capacity];
+		this.ids = new int[capacity];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int capacity() {
+		return this.weights.length;
+	}
+
+	public int dimension() {
+		return this.dimension;
+	}
+
+	public double getWeight(int i) {
+		return this.weights[i];
+	}
+
+	public int getId(int i) {
+		return this.ids[i];
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Appends an instance, with the same features as
+	 * <code>new Point(inst, id)</code>.
+	 */
+	public void add(Instance inst, int id) {
+		int i = this.size++;
+		int offset = i * this.dimension;
+		double squareSum = 0.0;
+		for (int l = 0; l < this.dimension; l++) {
+			double value = inst.value(l);
+			double nextNumber = value * value;
+			this.coordinates[offset + l] = value;
+			squareSum += nextNumber * nextNumber;
+		}
+		this.weights[i] = inst.weight();
+		this.squareSums[i] = squareSum;
+		this.ids[i] = id;
+	}
+
+	/**
+	 * Appends a copy of point <code>j</code> of <code>other</code>.
+	 */
+	public void add(PointArray other, int j) {
+		int i = this.size++;
+		System.arraycopy(other.coordinates, j * this.dimension, this.coordinates, i * this.dimension, this.dimension);
+		this.weights[i] = other.weights[j];
+		this.squareSums[i] = other.squareSums[j];
+		this.ids[i] = other.ids[j];
+	}
+
+	/**
+	 * Appends a dummy point, which carries no weight and is never chosen as a
+	 * centre.
+	 */
+	public void addDummy() {
+		int i = this.size++;
+		int offset = i * this.dimension;
+		for (int l = 0; l < this.dimension; l++) {
+			this.coordinates[offset + l] = -1 * 1000000;
+		}
+		this.weights[i] = 0.0;
+		this.squareSums[i] = 0.0;
+		this.ids[i] = -1;
+	}
+
+	/**
+	 * Adds the clustering features of point <code>j</code> of
+	 * <code>other</code> to point <code>i</code>.
+	 */
+	public void merge(int i, PointArray other, int j) {
+		this.weights[i] += other.weights[j];
+		this.squareSums[i] += other.squareSums[j];
+		if (other.weights[j] != 0.0) {
+			int offset = i * this.dimension;
+			int otherOffset = j * this.dimension;
+			for (int l = 0; l < this.dimension; l++) {
+				this.coordinates[offset + l] += other.coordinates[otherOffset + l];
+			}
+		}
+	}
+
+	/**
+	 * Writes the centroid of every point, <code>coordinates / weight</code>, or
+	 * the coordinates themselves for points without weight.
+	 */
+	public void centroids(double[] destination, int destinationOffset) {
+		for (int i = 0; i < this.size; i++) {
+			int offset = i * this.dimension;
+			double weight = this.weights[i];
+			for (int l = 0; l < this.dimension; l++) {
+				destination[destinationOffset + offset + l] = weight != 0.0 ? this.coordinates[offset + l] / weight
+						: this.coordinates[offset + l];
+			}
+		}
+	}
+
+	public Point toPoint(int i) {
+		Point point = new Point(this.dimension);
+		System.arraycopy(this.coordinates, i * this.dimension, point.coordinates, 0, this.dimension);
+		point.weight = this.weights[i];
+		point.squareSum = this.squareSums[i];
+		point.id = this.ids[i];
+		return point;
+	}
+
+	public Point[] toPoints() {
+		Point[] points = new Point[this.size];
+		for (int i = 0; i < this.size; i++) {
+			points[i] = this.toPoint(i);
+		}
+		return points;
+	}
+}
@@ -37,6 +37,12 @@ public class StreamKM extends AbstractClusterer {
 	public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
 			"Seed for random behaviour of the classifier.", 1);	
 
+	public FlagOption pointObjectsOption = new FlagOption("pointObjects",
+			'o', "Keep the buckets as Point objects instead of flat arrays.");
+
+	public FlagOption backgroundMergeOption = new FlagOption("backgroundMerge",
+			'b', "Merge full buckets on a background thread while the next points are inserted (flat arrays only).");
+
 	protected MTRandom clustererRandom;
 	protected Point[] centresStreamingCoreset;
 
@@ -49,6 +55,8 @@ public class StreamKM extends AbstractClusterer {
 
 	protected BucketManager manager;
 
+	protected ArrayBucketManager arrayManager;
+
 	protected boolean initialized = false;	
 
 	private final static double THRESHOLD = 1.000;
@@ -56,6 +64,10 @@ public class StreamKM extends AbstractClusterer {
 	@Override
 	public void resetLearningImpl() {
 		this.initialized = false;
+		if (this.arrayManager != null) {
+			this.arrayManager.shutdown();
+			this.arrayManager = null;
+		}
 		this.coresetsize = sizeCoresetOption.getValue();
 		this.numberOfCentres = numClustersOption.getValue();
 		this.length = lengthOption.getValue();
@@ -70,23 +82,37 @@ public class StreamKM extends AbstractClusterer {
 
 		if (this.initialized == false) {
 			this.dimension =  inst.numAttributes();
-			manager = new BucketManager(this.length, this.dimension, this.coresetsize, this.clustererRandom);
+			if (pointObjectsOption.isSet()) {
+				manager = new BucketManager(this.length, this.dimension, this.coresetsize, this.clustererRandom);
+				arrayManager = null;
+			} else {
+				arrayManager = new ArrayBucketManager(this.length, this.dimension, this.coresetsize, this.clustererRandom,
+						backgroundMergeOption.isSet());
+				manager = null;
+			}
 			this.initialized = true;
 		}
 
-		manager.insertPoint(new Point(inst, this.numberInstances));     
+		if (arrayManager != null) {
+			arrayManager.insertPoint(inst, this.numberInstances);
+		} else {
+			manager.insertPoint(new Point(inst, this.numberInstances));     
+		}
 
 		this.numberInstances++;
 		if (this.numberInstances % lengthOption.getValue() == 0) {
 
-			Point[] streamingCoreset = manager.getCoresetFromManager(dimension);
+			Point[] streamingCoreset = getStreamingCoreset();
+			if (streamingCoreset.length <= numberOfCentres) {
+				return;
+			}
 
 			//compute 5 clusterings of the coreset with kMeans++ and take the best
 			CoresetCostTriple triple;
 			double minCost = 0.0;
 			double curCost = 0.0;
 
-			triple = lloydPlusPlus(numberOfCentres, coresetsize, dimension, streamingCoreset);
+			triple = lloydPlusPlus(numberOfCentres, streamingCoreset.length, dimension, streamingCoreset);
 			minCost = triple.getCoresetCost();
 			for (int j = 0 ; j < this.numberOfCentres ; j++)
 			{
@@ -95,7 +121,7 @@ public class StreamKM extends AbstractClusterer {
 			curCost = minCost;
 
 			for(int i = 1; i < 5; i++){
-				triple = lloydPlusPlus(numberOfCentres, coresetsize, dimension, streamingCoreset);
+				triple = lloydPlusPlus(numberOfCentres, streamingCoreset.length, dimension, streamingCoreset);
 				curCost = triple.getCoresetCost();
 
 				if(curCost < minCost) {
@@ -138,14 +164,20 @@ public class StreamKM extends AbstractClusterer {
 
 		if (!evaluateOption.isSet())
 		{
-			Point[] streamingCoreset = manager.getCoresetFromManager(dimension);
+			Point[] streamingCoreset = getStreamingCoreset();
+			if (streamingCoreset.length <= numberOfCentres) {
+				for (Point point : streamingCoreset) {
+					clustering.add(point.toCluster(0.0));
+				}
+				return clustering;
+			}
 
 			//compute 5 clusterings of the coreset with kMeans++ and take the best
 			CoresetCostTriple triple;
 			double minCost = 0.0;
 			double curCost = 0.0;
 
-			triple = lloydPlusPlus(numberOfCentres, coresetsize, dimension, streamingCoreset);
+			triple = lloydPlusPlus(numberOfCentres, streamingCoreset.length, dimension, streamingCoreset);
 			minCost = triple.getCoresetCost();
 			for (int j = 0 ; j < this.numberOfCentres ; j++)
 			{
@@ -154,7 +186,7 @@ public class StreamKM extends AbstractClusterer {
 			curCost = minCost;
 
 			for(int i = 1; i < 5; i++){
-				triple = lloydPlusPlus(numberOfCentres, coresetsize, dimension, streamingCoreset);
+				triple = lloydPlusPlus(numberOfCentres, streamingCoreset.length, dimension, streamingCoreset);
 				curCost = triple.getCoresetCost();
 
 				if(curCost < minCost) {
@@ -177,6 +209,17 @@ public class StreamKM extends AbstractClusterer {
 	}
 
 
+	/**
+	returns the coreset of the points seen so far, either the Point array of the manager
+	or a copy of the flat coreset, which holds only the points actually in the buckets
+	**/
+	protected Point[] getStreamingCoreset(){
+		if (arrayManager != null) {
+			return arrayManager.getCoresetFromManager().toPoints();
+		}
+		return manager.getCoresetFromManager(dimension);
+	}
+
 	public CoresetCostTriple lloydPlusPlus(int k, int n, int d, Point points[]){
 		//printf("starting kMeans++\n");
 		CoresetCostTriple triple;
@@ -0,0 +1,121 @@
+/*
+ *    Distances.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.core;
+
+/**
+ * Distance kernels shared by the clusterers and the classes that work on
+ * their micro-clusters.
+ *
+ * Vectors can be given as a whole array or as a slice of a flat array, the
+ * layout used for many centres at once (centre <code>i</code> at
+ * <code>[i * dimensions, (i + 1) * dimensions)</code>). The loops are plain
+ * counted loops over the arrays without calls or branches in their body, the
+ * form the JIT compiles best. The squared differences are summed in index
+ * order, so the results are exactly those of the loops these methods
+ * replaced.
+ */
+public final class Distances {
+
+    private Distances() {
+    }
+
+    public static double squaredEuclidean(double[] a, double[] b) {
+        return squaredEuclidean(a, 0, b, 0, a.length);
+    }
+
+    public static double squaredEuclidean(double[] a, int offsetA, double[] b,
+            int offsetB, int length) {
+        double distance = 0.0;
+        for (int i = 0; i < length; i++) {
+            double d = a[offsetA + i] - b[offsetB + i];
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    public static double euclidean(double[] a, double[] b) {
+        return Math.sqrt(squaredEuclidean(a, 0, b, 0, a.length));
+    }
+
+    public static double euclidean(double[] a, int offsetA, double[] b,
+            int offsetB, int length) {
+        return Math.sqrt(squaredEuclidean(a, offsetA, b, offsetB, length));
+    }
+
+    /**
+     * Euclidean distance between the means of two sums, i.e. between
+     * <code>sumA / countA</code> and <code>sumB / countB</code>, without
+     * computing the means first. Cluster features keep their centre this way.
+     */
+    public static double euclideanBetweenMeans(double[] sumA, int offsetA,
+            double countA, double[] sumB, int offsetB, double countB,
+            int length) {
+        double distance = 0.0;
+        for (int i = 0; i < length; i++) {
+            double d = sumA[offsetA + i] / countA - sumB[offsetB + i] / countB;
+            distance += d * d;
+        }
+        return Math.sqrt(distance);
+    }
+
+    /**
+     * Distance between the surfaces of two spheres, negative if they overlap.
+     */
+    public static double hull(double[] centerA, double radiusA,
+            double[] centerB, double radiusB) {
+        return euclidean(centerA, centerB) - radiusA - radiusB;
+    }
+
+    public static double hull(double[] centers, int offset, double radius,
+            double[] center, double otherRadius, int length) {
+        return euclidean(centers, offset, center, 0, length) - radius - otherRadius;
+    }
+
+    /**
+     * Squared euclidean distances from a point to the centres
+     * <code>from</code> to <code>to - 1</code> of a flat centre matrix.
+     * @param distances receives the distance to centre <code>i</code> at
+     * index <code>i - from</code>
+     */
+    public static void squaredEuclideanToAll(double[] point, double[] centers,
+            int from, int to, int dimensions, double[] distances) {
+        for (int c = from; c < to; c++) {
+            distances[c - from] = squaredEuclidean(centers, c * dimensions,
+                    point, 0, dimensions);
+        }
+    }
+
+    /**
+     * Finds the centre of a flat centre matrix that is closest to a point, the
+     * one with the lowest index among equally close ones.
+     * @return the index of the centre, -1 if there are none
+     */
+    public static int nearest(double[] point, double[] centers, int numCenters,
+            int dimensions) {
+        int nearest = -1;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < numCenters; c++) {
+            double distance = squaredEuclidean(centers, c * dimensions, point,
+                    0, dimensions);
+            if (nearest == -1 || distance < minDistance) {
+                nearest = c;
+                minDistance = distance;
+            }
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *    InstanceWindow.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.core;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * The most recent instances of a stream, up to a fixed capacity, kept in a
+ * ring buffer. Adding an instance to a full window evicts the oldest one in
+ * constant time, without shifting the others. As a list the window holds the
+ * instances from the oldest to the newest, and it is only modified through
+ * add and clear.
+ *
+ * The attribute values of the window can also be read as a column-major
+ * matrix, which is built on the first request and kept until the window
+ * changes.
+ */
+public class InstanceWindow extends AbstractList<Instance> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected Instance[] instances;
+
+    /** Position of the oldest instance in instances. */
+    protected int first;
+
+    protected int size;
+
+    protected transient double[][] columns;
+
+    public InstanceWindow(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Window capacity must be positive: " + capacity);
+        }
+        this.instances = new Instance[capacity];
+    }
+
+    public int capacity() {
+        return this.instances.length;
+    }
+
+    public boolean isFull() {
+        return this.size == this.instances.length;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public Instance get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+        return this.instances[slot(index)];
+    }
+
+    /**
+     * Appends the instance as the newest one, evicting the oldest one if the
+     * window is full.
+     *
+     * @return always true
+     */
+    @Override
+    public boolean add(Instance instance) {
+        if (isFull()) {
+            this.instances[this.first] = instance;
+            this.first = slot(1);
+        } else {
+            this.instances[slot(this.size)] = instance;
+            this.size++;
+        }
+        this.modCount++;
+        this.columns = null;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.instances[slot(i)] = null;
+        }
+        this.first = 0;
+        this.size = 0;
+        this.modCount++;
+        this.columns = null;
+    }
+
+    /**
+     * Gets the attribute values of the window by attribute, the class
+     * included, so that the value of attribute j of get(i) is
+     * getColumns()[j][i]. The matrix is shared until the window changes and
+     * must not be modified.
+     *
+     * @return the columns of the window, none if it is empty
+     */
+    public double[][] getColumns() {
+        if (this.columns == null) {
+            int numAttributes = this.size == 0 ? 0 : get(0).numAttributes();
+            double[][] matrix = new double[numAttributes][this.size];
+            for (int i = 0; i < this.size; i++) {
+                Instance instance = get(i);
+                for (int j = 0; j < numAttributes; j++) {
+                    matrix[j][i] = instance.value(j);
+                }
+            }
+            this.columns = matrix;
+        }
+        return this.columns;
+    }
+
+    private int slot(int index) {
+        int slot = this.first + index;
+        return slot < this.instances.length ? slot : slot - this.instances.length;
+    }
+}
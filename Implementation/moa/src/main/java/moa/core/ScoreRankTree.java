@@ -0,0 +1,501 @@
+/*
+ *    ScoreRankTree.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Scores of positive and negative examples ordered as the sorted score trees
+ * of the prequential AUC estimators: by descending score, and examples with
+ * the same score by ascending age, optionally with the positive ones first.
+ * Every subtree keeps its number of positive and negative examples and the
+ * sums of their scores, so the examples ranked before any position are
+ * counted in O(log n), and the area under the ROC curve and the scored AUC
+ * are kept up to date as examples are added and removed.
+ *
+ * The AUC is the one of the walk over the sorted scores it replaces: every
+ * negative example counts the positive examples with a higher score and half
+ * the ones with the same score ranked before it. The counts are kept as
+ * integers, so the
+ * result is exactly that of the walk. The scored AUC weights the same pairs by
+ * the scores, and its sums are recomputed with the walk once the tree has seen
+ * as many updates as it holds examples, so that rounding errors do not add up.
+ *
+ * The tree is a treap over arrays. Nodes are addressed by the handle
+ * <code>add</code> returns, which stays valid until the node is removed.
+ */
+public class ScoreRankTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Whether positive examples are ranked before negative ones with the same score. */
+    private final boolean positivesFirst;
+
+    private double[] score;
+    private long[] age;
+    private boolean[] positive;
+    private int[] priority;
+    private int[] left;
+    private int[] right;
+    /** Positive and negative examples in the subtree of every node. */
+    private int[] subtreePositives;
+    private int[] subtreeNegatives;
+    /** Sums of the scores of the positive and negative examples in the subtree. */
+    private double[] subtreePositiveScores;
+    private double[] subtreeNegativeScores;
+
+    private int root = -1;
+    /** Head of the list of free nodes, chained through <code>left</code>. */
+    private int free = -1;
+    private int used;
+
+    private int numPositives;
+    private int numNegatives;
+
+    /**
+     * Twice the sum over the negative examples of the positive ones ranked
+     * before them, where the older ones with the same score count half.
+     */
+    private long twiceRankSum;
+
+    /**
+     * Sum over the negative examples of the scores of the positive ones
+     * ranked before them, where the older ones with the same score count
+     * half.
+     */
+    private double positiveFirstSum;
+    /** The same sum with the roles of the positive and negative examples swapped. */
+    private double negativeFirstSum;
+    private double negativeScoreSum;
+    /** Updates since the scored sums were last recomputed. */
+    private int numUpdates;
+
+    /** Results of <code>rank</code>. */
+    private int rankCount;
+    private double rankScores;
+
+    private long seed = 0x2545F4914F6CDD1DL;
+
+    /** Results of <code>split</code>. */
+    private int splitLeft;
+    private int splitRight;
+
+    /**
+     * Creates a tree where examples with the same score are ranked by age.
+     */
+    public ScoreRankTree() {
+        this(false);
+    }
+
+    /**
+     * @param positivesFirst true to rank positive examples before negative
+     * ones with the same score, and only examples with the same label by age
+     */
+    public ScoreRankTree(boolean positivesFirst) {
+        this.positivesFirst = positivesFirst;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        this.score = new double[capacity];
+        this.age = new long[capacity];
+        this.positive = new boolean[capacity];
+        this.priority = new int[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.subtreePositives = new int[capacity];
+        this.subtreeNegatives = new int[capacity];
+        this.subtreePositiveScores = new double[capacity];
+        this.subtreeNegativeScores = new double[capacity];
+    }
+
+    private void grow() {
+        int capacity = 2 * this.score.length;
+        this.score = Arrays.copyOf(this.score, capacity);
+        this.age = Arrays.copyOf(this.age, capacity);
+        this.positive = Arrays.copyOf(this.positive, capacity);
+        this.priority = Arrays.copyOf(this.priority, capacity);
+        this.left = Arrays.copyOf(this.left, capacity);
+        this.right = Arrays.copyOf(this.right, capacity);
+        this.subtreePositives = Arrays.copyOf(this.subtreePositives, capacity);
+        this.subtreeNegatives = Arrays.copyOf(this.subtreeNegatives, capacity);
+        this.subtreePositiveScores = Arrays.copyOf(this.subtreePositiveScores, capacity);
+        this.subtreeNegativeScores = Arrays.copyOf(this.subtreeNegativeScores, capacity);
+    }
+
+    /**
+     * Adds an example.
+     * @param score the score of the example
+     * @param age the age of the example, unique within the tree
+     * @param positive true if the true label of the example is positive
+     * @return the handle of the example, for <code>remove</code>
+     */
+    public int add(double score, long age, boolean positive) {
+        int node;
+        if (this.free != -1) {
+            node = this.free;
+            this.free = this.left[node];
+        } else {
+            if (this.used == this.score.length) {
+                grow();
+            }
+            node = this.used++;
+        }
+        this.score[node] = score;
+        this.age[node] = age;
+        this.positive[node] = positive;
+        this.priority[node] = nextPriority();
+        this.left[node] = -1;
+        this.right[node] = -1;
+        this.subtreePositives[node] = positive ? 1 : 0;
+        this.subtreeNegatives[node] = positive ? 0 : 1;
+        this.subtreePositiveScores[node] = positive ? score : 0.0;
+        this.subtreeNegativeScores[node] = positive ? 0.0 : score;
+
+        addPairs(node, 1);
+        if (positive) {
+            this.numPositives++;
+        } else {
+            this.numNegatives++;
+        }
+        this.root = insert(this.root, node);
+        updated();
+        return node;
+    }
+
+    /**
+     * Removes the example with the given handle.
+     */
+    public void remove(int node) {
+        this.root = remove(this.root, node);
+        if (this.positive[node]) {
+            this.numPositives--;
+        } else {
+            this.numNegatives--;
+        }
+        addPairs(node, -1);
+        this.left[node] = this.free;
+        this.free = node;
+        updated();
+    }
+
+    public void clear() {
+        this.root = -1;
+        this.free = -1;
+        this.used = 0;
+        this.numPositives = 0;
+        this.numNegatives = 0;
+        this.twiceRankSum = 0;
+        this.positiveFirstSum = 0.0;
+        this.negativeFirstSum = 0.0;
+        this.negativeScoreSum = 0.0;
+        this.numUpdates = 0;
+    }
+
+    public int numPositives() {
+        return this.numPositives;
+    }
+
+    public int numNegatives() {
+        return this.numNegatives;
+    }
+
+    /**
+     * @return the area under the ROC curve, 1 if there are no positive or no
+     * negative examples
+     */
+    public double getAUC() {
+        if (this.numPositives == 0 || this.numNegatives == 0) {
+            return 1;
+        }
+        return (this.twiceRankSum / 2.0) / ((double) this.numPositives * this.numNegatives);
+    }
+
+    /**
+     * @return the scored AUC of Wu et al., the AUC with the pairs weighted by
+     * the difference of their scores, 1 if there are no positive or no
+     * negative examples
+     */
+    public double getScoredAUC() {
+        if (this.numPositives == 0 || this.numNegatives == 0) {
+            return 1;
+        }
+        double pairs = (double) this.numPositives * this.numNegatives;
+        double rMinus = (this.numPositives * this.negativeScoreSum - this.negativeFirstSum) / pairs;
+        double rPlus = this.positiveFirstSum / pairs;
+        return rPlus - rMinus;
+    }
+
+    /**
+     * Counts the positive or the negative examples with a higher score, or
+     * with the same score and older, and sums their scores, into
+     * <code>rankCount</code> and <code>rankScores</code>. Examples are ranked
+     * that way among the ones with the same label, whichever the order of the
+     * labels.
+     */
+    private void rank(double score, long age, boolean positive) {
+        int count = 0;
+        double scores = 0.0;
+        int node = this.root;
+        while (node != -1) {
+            if (isBefore(this.score[node], this.age[node], score, age)) {
+                int l = this.left[node];
+                if (l != -1) {
+                    count += positive ? this.subtreePositives[l] : this.subtreeNegatives[l];
+                    scores += positive ? this.subtreePositiveScores[l] : this.subtreeNegativeScores[l];
+                }
+                if (this.positive[node] == positive) {
+                    count++;
+                    scores += this.score[node];
+                }
+                node = this.right[node];
+            } else {
+                node = this.left[node];
+            }
+        }
+        this.rankCount = count;
+        this.rankScores = scores;
+    }
+
+    /**
+     * Adds the pairs an example forms with the examples of the other label to
+     * the sums, or subtracts them for a sign of -1. The example must not be in
+     * the tree.
+     */
+    private void addPairs(int node, int sign) {
+        double score = this.score[node];
+        boolean positive = this.positive[node];
+        rank(score, Long.MIN_VALUE, !positive);
+        int higher = this.rankCount;
+        double higherScores = this.rankScores;
+        rank(score, Long.MAX_VALUE, !positive);
+        int same = this.rankCount - higher;
+        double sameScores = this.rankScores - higherScores;
+        int lower = (positive ? this.numNegatives : this.numPositives) - this.rankCount;
+
+        // The examples of the other label with the same score ranked before this one
+        int sameBefore;
+        double sameBeforeScores;
+        if (this.positivesFirst) {
+            sameBefore = positive ? 0 : same;
+            sameBeforeScores = positive ? 0.0 : sameScores;
+        } else {
+            rank(score, this.age[node], !positive);
+            sameBefore = this.rankCount - higher;
+            sameBeforeScores = this.rankScores - higherScores;
+        }
+        int sameAfter = same - sameBefore;
+
+        // The other examples ranked before this one, weighted by their scores,
+        // and this one ranked before the other ones, weighted by its score
+        double otherFirst = higherScores + sameBeforeScores / 2.0;
+        double thisFirst = score * (lower + sameAfter / 2.0);
+        if (positive) {
+            this.twiceRankSum += sign * (2L * lower + sameAfter);
+            this.positiveFirstSum += sign * thisFirst;
+            this.negativeFirstSum += sign * otherFirst;
+        } else {
+            this.twiceRankSum += sign * (2L * higher + sameBefore);
+            this.positiveFirstSum += sign * otherFirst;
+            this.negativeFirstSum += sign * thisFirst;
+            this.negativeScoreSum += sign * score;
+        }
+    }
+
+    private void updated() {
+        if (++this.numUpdates > Math.max(INITIAL_CAPACITY, this.numPositives + this.numNegatives)) {
+            recomputeScoredSums();
+        }
+    }
+
+    /**
+     * Recomputes the sums of the scored AUC with the walk over the sorted
+     * scores.
+     */
+    private void recomputeScoredSums() {
+        double c = 0;
+        double prevc = 0;
+        double r = 0;
+        double prevr = 0;
+        double positiveFirst = 0;
+        double negativeFirst = 0;
+        double lastPosScore = Double.MAX_VALUE;
+        double lastNegScore = Double.MAX_VALUE;
+
+        int[] stack = new int[this.numPositives + this.numNegatives];
+        int depth = 0;
+        int node = this.root;
+        while (node != -1 || depth > 0) {
+            while (node != -1) {
+                stack[depth++] = node;
+                node = this.left[node];
+            }
+            node = stack[--depth];
+            double value = this.score[node];
+            if (this.positive[node]) {
+                if (value != lastPosScore) {
+                    prevc = c;
+                    lastPosScore = value;
+                }
+                c += value;
+                negativeFirst += value == lastNegScore ? (r + prevr) / 2.0 : r;
+            } else {
+                if (value != lastNegScore) {
+                    prevr = r;
+                    lastNegScore = value;
+                }
+                r += value;
+                positiveFirst += value == lastPosScore ? (c + prevc) / 2.0 : c;
+            }
+            node = this.right[node];
+        }
+        this.positiveFirstSum = positiveFirst;
+        this.negativeFirstSum = negativeFirst;
+        this.negativeScoreSum = r;
+        this.numUpdates = 0;
+    }
+
+    private static boolean isBefore(double scoreA, long ageA, double scoreB, long ageB) {
+        if (scoreA > scoreB) {
+            return true;
+        } else if (scoreA < scoreB) {
+            return false;
+        }
+        return ageA < ageB;
+    }
+
+    private boolean isBefore(int a, int b) {
+        if (this.positivesFirst && this.score[a] == this.score[b] && this.positive[a] != this.positive[b]) {
+            return this.positive[a];
+        }
+        return isBefore(this.score[a], this.age[a], this.score[b], this.age[b]);
+    }
+
+    private int insert(int node, int added) {
+        if (node == -1) {
+            return added;
+        }
+        if (this.priority[added] > this.priority[node]) {
+            split(node, added);
+            this.left[added] = this.splitLeft;
+            this.right[added] = this.splitRight;
+            update(added);
+            return added;
+        }
+        if (isBefore(added, node)) {
+            this.left[node] = insert(this.left[node], added);
+        } else {
+            this.right[node] = insert(this.right[node], added);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits a subtree into the nodes ranked before the key node and the ones
+     * ranked after it, into <code>splitLeft</code> and
+     * <code>splitRight</code>.
+     */
+    private void split(int node, int key) {
+        if (node == -1) {
+            this.splitLeft = -1;
+            this.splitRight = -1;
+        } else if (isBefore(node, key)) {
+            split(this.right[node], key);
+            this.right[node] = this.splitLeft;
+            update(node);
+            this.splitLeft = node;
+        } else {
+            split(this.left[node], key);
+            this.left[node] = this.splitRight;
+            update(node);
+            this.splitRight = node;
+        }
+    }
+
+    private int remove(int node, int removed) {
+        if (node == removed) {
+            return merge(this.left[node], this.right[node]);
+        }
+        if (isBefore(removed, node)) {
+            this.left[node] = remove(this.left[node], removed);
+        } else {
+            this.right[node] = remove(this.right[node], removed);
+        }
+        update(node);
+        return node;
+    }
+
+    private int merge(int a, int b) {
+        if (a == -1) {
+            return b;
+        }
+        if (b == -1) {
+            return a;
+        }
+        if (this.priority[a] > this.priority[b]) {
+            this.right[a] = merge(this.right[a], b);
+            update(a);
+            return a;
+        }
+        this.left[b] = merge(a, this.left[b]);
+        update(b);
+        return b;
+    }
+
+    private void update(int node) {
+        int positives = 0;
+        int negatives = 0;
+        double positiveScores = 0.0;
+        double negativeScores = 0.0;
+        if (this.positive[node]) {
+            positives = 1;
+            positiveScores = this.score[node];
+        } else {
+            negatives = 1;
+            negativeScores = this.score[node];
+        }
+        int l = this.left[node];
+        if (l != -1) {
+            positives += this.subtreePositives[l];
+            negatives += this.subtreeNegatives[l];
+            positiveScores += this.subtreePositiveScores[l];
+            negativeScores += this.subtreeNegativeScores[l];
+        }
+        int r = this.right[node];
+        if (r != -1) {
+            positives += this.subtreePositives[r];
+            negatives += this.subtreeNegatives[r];
+            positiveScores += this.subtreePositiveScores[r];
+            negativeScores += this.subtreeNegativeScores[r];
+        }
+        this.subtreePositives[node] = positives;
+        this.subtreeNegatives[node] = negatives;
+        this.subtreePositiveScores[node] = positiveScores;
+        this.subtreeNegativeScores[node] = negativeScores;
+    }
+
+    private int nextPriority() {
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 7;
+        this.seed ^= this.seed << 17;
+        return (int) (this.seed >>> 32);
+    }
+}
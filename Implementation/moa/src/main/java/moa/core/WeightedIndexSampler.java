@@ -0,0 +1,89 @@
+/*
+ *    WeightedIndexSampler.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+package moa.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Reusable version of <code>MiscUtils.chooseRandomIndexBasedOnWeights</code>
+ * for drawing many indices from the same weights. The cumulative weights are
+ * computed once when the weights are set, and every draw is a binary search,
+ * so it costs O(log n) instead of O(n).
+ *
+ * Draws return exactly the index the linear scan of
+ * <code>MiscUtils.chooseRandomIndexBasedOnWeights</code> would return for the
+ * same random number.
+ */
+public class WeightedIndexSampler implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** cumulativeWeights[i] is the sum of the weights 0 to i. */
+    protected double[] cumulativeWeights = new double[0];
+
+    protected int size;
+
+    /**
+     * Sets the weights to draw from. The weights are not kept, so the array
+     * can be reused by the caller.
+     */
+    public void setWeights(double[] weights, int size) {
+        if (this.cumulativeWeights.length < size) {
+            this.cumulativeWeights = new double[size];
+        }
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += weights[i];
+            this.cumulativeWeights[i] = sum;
+        }
+        this.size = size;
+    }
+
+    public void setWeights(double[] weights) {
+        setWeights(weights, weights.length);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Draws an index with a probability proportional to its weight.
+     *
+     * @return the index, or -1 if there are no weights, as the linear scan
+     * returns for an empty array
+     */
+    public int nextIndex(Random random) {
+        if (this.size == 0) {
+            return -1;
+        }
+        double val = random.nextDouble() * this.cumulativeWeights[this.size - 1];
+        // First index whose cumulative weight is above val, the last one if none is.
+        int low = 0;
+        int high = this.size - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.cumulativeWeights[middle] > val) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -18,11 +18,10 @@
  */
 package moa.evaluation;
 
-import java.util.TreeSet;
-
 import moa.core.Example;
 import moa.core.Measurement;
 import moa.core.ObjectRepository;
+import moa.core.ScoreRankTree;
 import moa.core.Utils;
 import moa.options.AbstractOptionHandler;
 
@@ -141,11 +140,13 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 			}
 		}
 
-		protected TreeSet<Score> sortedScores;
+		protected ScoreRankTree sortedScores;
 		
-		protected TreeSet<Score> holdoutSortedScores;
+		protected double holdoutAUC;
 
 		protected Score[] window;
+
+		protected int[] nodes;
 		
 		protected double[] predictions;
 
@@ -170,10 +171,11 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 	    protected double[] rowKappa;
 
 		public Estimator(int sizeWindow) {
-			this.sortedScores = new TreeSet<Score>();
-			this.holdoutSortedScores = new TreeSet<Score>();
+			this.sortedScores = new ScoreRankTree(true);
+			this.holdoutAUC = 0;
 			this.size = sizeWindow;
 			this.window = new Score[sizeWindow];
+			this.nodes = new int[sizeWindow];
 			this.predictions = new double[sizeWindow];
 			
 	        this.rowKappa = new double[numClasses];
@@ -193,14 +195,9 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 		}
 
 		public void add(double score, boolean isPositive, boolean correctPrediction) {
-            // // periodically update holdout evaluation
+            // // periodically update holdout evaluation, only its AUC is kept
 			if (size > 0 && posWindow % this.size == 0) {
-				this.holdoutSortedScores = new TreeSet<Score>();
-				
-				for (Score s : this.sortedScores) {
-					this.holdoutSortedScores.add(s);
-				}
-				
+				this.holdoutAUC = this.numPos + this.numNeg == 0 ? 0 : this.getAUC();
 				this.holdoutNumPos = this.numPos;
 				this.holdoutNumNeg = this.numNeg;
 			}
@@ -208,7 +205,7 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 			// // if the window is used and it's full			
 			if (size > 0 && posWindow >= this.size) {
 				// // remove the oldest example
-				sortedScores.remove(window[posWindow % size]);
+				sortedScores.remove(nodes[posWindow % size]);
 				correctPredictions -= predictions[posWindow % size];
 				correctPositivePredictions -= window[posWindow % size].isPositive ? predictions[posWindow % size] : 0;
 				
@@ -227,7 +224,7 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 			
 			// // add new example
 			Score newScore = new Score(score, posWindow, isPositive);
-			sortedScores.add(newScore);
+			int node = sortedScores.add(score, posWindow, isPositive);
 			correctPredictions += correctPrediction ? 1 : 0;
 			correctPositivePredictions += correctPrediction && isPositive ? 1 : 0;
 			
@@ -244,6 +241,7 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 
 			if (size > 0) {
 				window[posWindow % size] = newScore;
+				nodes[posWindow % size] = node;
 				predictions[posWindow % size] = correctPrediction ? 1 : 0;
 			}
 			
@@ -252,121 +250,15 @@ public class WindowAUCImbalancedPerformanceEvaluator extends
 		}
 
 		public double getAUC() {
-			double AUC = 0;
-			double c = 0;
-			double prevc = 0;
-			double lastPosScore = Double.MAX_VALUE;
-					
-			if (numPos == 0 || numNeg == 0) {
-				return 1;
-			}
-			
-			for (Score s : sortedScores){
-				if(s.isPositive) {			
-					if (s.value != lastPosScore) {
-						prevc = c;
-						lastPosScore = s.value;
-					}
-					
-					c += 1;
-				} else {
-					if (s.value == lastPosScore) {
-						// tie
-						AUC += ((double)(c + prevc))/2.0;
-					} else {
-						AUC += c;
-					}
-				}
-			}
-			
-			return AUC / (numPos * numNeg);
+			return sortedScores.getAUC();
 		}
 		
 		public double getHoldoutAUC() {
-			double AUC = 0;
-			double c = 0;
-			double prevc = 0;
-			double lastPosScore = Double.MAX_VALUE;
-
-			if (holdoutSortedScores.isEmpty()) {
-				return 0;
-			}
-			
-			if (holdoutNumPos == 0 || holdoutNumNeg == 0) {
-				return 1;
-			}
-
-			for (Score s : holdoutSortedScores){
-				if(s.isPositive) {
-					if (s.value != lastPosScore) {
-						prevc = c;
-						lastPosScore = s.value;
-					}
-					
-					c += 1;
-				} else {
-					if (s.value == lastPosScore) {
-						// tie
-						AUC += ((double)(c + prevc))/2.0;
-					} else {
-						AUC += c;
-					}
-				}
-			}
-			
-			return AUC / (holdoutNumPos * holdoutNumNeg);
+			return holdoutAUC;
 		}
 
 		public double getScoredAUC() {
-			double AOC = 0;
-			double AUC = 0;
-			double r = 0;
-			double prevr = 0;
-			double c = 0;
-			double prevc = 0;
-			double R_plus, R_minus;
-			double lastPosScore = Double.MAX_VALUE;
-			double lastNegScore = Double.MAX_VALUE;
-			
-			if (numPos == 0 || numNeg == 0) {
-				return 1;
-			}
-			
-			for (Score s : sortedScores){
-				if(s.isPositive) {
-					if (s.value != lastPosScore) {
-						prevc = c;
-						lastPosScore = s.value;
-					}
-					
-					c += s.value;
-					
-					if (s.value == lastNegScore) {
-						// tie
-						AOC += ((double)(r + prevr))/2.0;
-					} else {
-						AOC += r;
-					}
-				} else {
-					if (s.value != lastNegScore) {
-						prevr = r;
-						lastNegScore = s.value;
-					}
-					
-					r += s.value;
-					
-					if (s.value == lastPosScore) {
-						// tie
-						AUC += ((double)(c + prevc))/2.0;
-					} else {
-						AUC += c;
-					}
-				}
-			}
-			
-			R_minus = (numPos*r - AOC)/(numPos * numNeg);
-			R_plus = (AUC)/(numPos * numNeg);		
-			return R_plus - R_minus;
+			return sortedScores.getScoredAUC();
 		}
 		
 		public double getRatio() {
@@ -0,0 +1,105 @@
+package com.yahoo.labs.samoa.instances;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test OneHotEncoder against the Weka NominalToBinary filter
+ */
+public class OneHotEncoderTest {
+	private static double EPS=0.00000001;
+	private static Instances header;
+	private static OneHotEncoder encoder;
+
+	@BeforeClass
+	public static void setUpBeforeClass() {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		attributes.add(new Attribute("x"));
+		attributes.add(new Attribute("colour", Arrays.asList("red", "green", "blue")));
+		attributes.add(new Attribute("flag", Arrays.asList("no", "yes")));
+		attributes.add(new Attribute("y"));
+		attributes.add(new Attribute("class", Arrays.asList("c0", "c1", "c2")));
+		header = new Instances("test", attributes, 0);
+		header.setClassIndex(4);
+		encoder = new OneHotEncoder(header);
+	}
+
+	private static Instance instance(double... values) {
+		Instance inst = new DenseInstance(1.0, values);
+		inst.setDataset(header);
+		return inst;
+	}
+
+	private static Instances wekaNominalToBinary(Instance inst) throws Exception {
+		Instances moaInstances = new Instances(inst.dataset());
+		moaInstances.add(inst);
+		weka.core.Instances wekaInstances = new SamoaToWekaInstanceConverter().wekaInstances(moaInstances);
+		weka.filters.unsupervised.attribute.NominalToBinary filter = new weka.filters.unsupervised.attribute.NominalToBinary();
+		filter.setInputFormat(wekaInstances);
+		wekaInstances = weka.filters.Filter.useFilter(wekaInstances, filter);
+		return new WekaToSamoaInstanceConverter().samoaInstances(wekaInstances);
+	}
+
+	@Test
+	public void testHeader() throws Exception {
+		Instances expected = wekaNominalToBinary(instance(0.5, 1, 0, 2.0, 2));
+		Instances actual = encoder.getBinaryHeader();
+		assertEquals(expected.numAttributes(), actual.numAttributes());
+		for (int i = 0; i < expected.numAttributes(); i++) {
+			assertEquals(expected.attribute(i).name(), actual.attribute(i).name());
+			assertEquals(expected.attribute(i).isNominal(), actual.attribute(i).isNominal());
+		}
+		assertEquals(expected.classIndex(), actual.classIndex());
+		assertEquals(actual.numAttributes() - 1, encoder.numBinaryInputAttributes());
+	}
+
+	@Test
+	public void testEncode() throws Exception {
+		double[][] rows = {{0.5, 1, 0, 2.0, 2}, {-1.25, 0, 1, 0.0, 0}, {3.0, 2, 1, -4.5, 1}, {Double.NaN, Double.NaN, Double.NaN, 1.0, 1}};
+		for (double[] row : rows) {
+			Instance inst = instance(row);
+			double[] expected = wekaNominalToBinary(inst).get(0).toDoubleArray();
+			assertArrayEquals(expected, encoder.encode(inst), EPS);
+
+			double[] expectedInputs = new double[expected.length - 1];
+			int classIndex = encoder.binaryClassIndex();
+			System.arraycopy(expected, 0, expectedInputs, 0, classIndex);
+			System.arraycopy(expected, classIndex + 1, expectedInputs, classIndex, expected.length - classIndex - 1);
+			assertArrayEquals(expectedInputs, encoder.encodeInputs(inst), EPS);
+		}
+	}
+
+	@Test
+	public void testDecode() {
+		double[][] rows = {{0.5, 1, 0, 2.0, 2}, {-1.25, 0, 1, 0.0, 0}, {3.0, 2, 1, -4.5, 1}};
+		for (double[] row : rows) {
+			Instance binaryInst = new DenseInstance(1.0, encoder.encode(instance(row)).clone());
+			Instance decoded = instance(new double[row.length]);
+			encoder.decode(binaryInst, decoded);
+			assertArrayEquals(row, decoded.toDoubleArray(), EPS);
+		}
+
+		// synthetic vectors are not exactly one-hot
+		Instance binaryInst = new DenseInstance(1.0, new double[] {0.25, 0.1, 0.2, 0.7, 0.8, -1.5, 2});
+		Instance decoded = instance(new double[5]);
+		encoder.decode(binaryInst, decoded);
+		assertArrayEquals(new double[] {0.25, 2, 1, -1.5, 2}, decoded.toDoubleArray(), EPS);
+	}
+
+	@Test
+	public void testColumnRanges() {
+		int[] first = {0, 1, 4, 5, 6};
+		int[] width = {1, 3, 1, 1, 1};
+		for (int i = 0; i < first.length; i++) {
+			assertEquals(first[i], encoder.firstColumn(i));
+			assertEquals(width[i], encoder.numColumns(i));
+		}
+	}
+
+}
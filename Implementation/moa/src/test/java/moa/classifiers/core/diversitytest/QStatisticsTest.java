@@ -0,0 +1,208 @@
+/*
+ *    QStatisticsTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.classifiers.core.diversitytest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.classifiers.AbstractClassifier;
+import moa.classifiers.Classifier;
+import moa.core.Measurement;
+
+/**
+ * Compares the Q statistic of the correctness vectors with the one counted
+ * instance by instance, over chunks longer than the 64 instances of a word of
+ * the vectors, and the vectors computed in parallel with the ones computed
+ * one at a time.
+ */
+public class QStatisticsTest {
+
+	private static final int NUM_CLASSIFIERS = 3;
+
+	/**
+	 * Predicts the class held in one attribute of the instance, so that the
+	 * stream decides which instances it classifies correctly.
+	 */
+	private static class AttributeClassifier extends AbstractClassifier {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int attribute;
+
+		AttributeClassifier(int attribute) {
+			this.attribute = attribute;
+		}
+
+		@Override
+		public double[] getVotesForInstance(Instance inst) {
+			double[] votes = new double[2];
+			votes[(int) inst.value(this.attribute)] = 1.0;
+			return votes;
+		}
+
+		@Override
+		public boolean isRandomizable() {
+			return false;
+		}
+
+		@Override
+		public void resetLearningImpl() {
+		}
+
+		@Override
+		public void trainOnInstanceImpl(Instance inst) {
+		}
+
+		@Override
+		protected Measurement[] getModelMeasurementsImpl() {
+			return null;
+		}
+
+		@Override
+		public void getModelDescription(StringBuilder out, int indent) {
+		}
+	}
+
+	/**
+	 * Draws a chunk where every classifier is correct with its own
+	 * probability.
+	 */
+	private static List<Instance> randomChunk(Random random, int length, double[] accuracies) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (int i = 0; i <= accuracies.length; i++) {
+			attributes.add(new Attribute("a" + i, Arrays.asList("0", "1")));
+		}
+		Instances header = new Instances("chunk", attributes, 0);
+		header.setClassIndex(accuracies.length);
+
+		List<Instance> chunk = new ArrayList<Instance>();
+		for (int n = 0; n < length; n++) {
+			double[] values = new double[accuracies.length + 1];
+			int classValue = random.nextInt(2);
+			for (int i = 0; i < accuracies.length; i++) {
+				values[i] = random.nextDouble() < accuracies[i] ? classValue : 1 - classValue;
+			}
+			values[accuracies.length] = classValue;
+			Instance inst = new DenseInstance(1.0, values);
+			inst.setDataset(header);
+			chunk.add(inst);
+		}
+		return chunk;
+	}
+
+	private static double countedQScore(List<Instance> chunk, AttributeClassifier d1, AttributeClassifier d2) {
+		double tt = 0.0, tf = 0.0, ft = 0.0, ff = 0.0;
+		for (Instance instance : chunk) {
+			boolean c1 = d1.correctlyClassifies(instance);
+			boolean c2 = d2.correctlyClassifies(instance);
+			if (c1 && c2) {
+				++tt;
+			} else if (c1) {
+				++tf;
+			} else if (c2) {
+				++ft;
+			} else {
+				++ff;
+			}
+		}
+		double a = tt * ff;
+		double b = ft * tf;
+		return (a - b) / (a + b);
+	}
+
+	@Test
+	public void testQScoreMatchesCount() {
+		Random random = new Random(1);
+		AttributeClassifier[] classifiers = new AttributeClassifier[NUM_CLASSIFIERS];
+		for (int i = 0; i < NUM_CLASSIFIERS; i++) {
+			classifiers[i] = new AttributeClassifier(i);
+		}
+		double[][] settings = {{0.5, 0.5, 0.9}, {0.8, 0.7, 0.99}, {1.0, 0.5, 0.0}};
+		for (int length : new int[]{1, 63, 64, 65, 128, 200, 1000}) {
+			for (double[] accuracies : settings) {
+				List<Instance> chunk = randomChunk(random, length, accuracies);
+				CorrectnessCache cache = new CorrectnessCache(chunk);
+				for (int i = 0; i < NUM_CLASSIFIERS; i++) {
+					CorrectnessVector vector = cache.get(classifiers[i]);
+					assertSame(vector, cache.get(classifiers[i]));
+					assertEquals(length, vector.size());
+					for (int n = 0; n < length; n++) {
+						assertEquals(classifiers[i].correctlyClassifies(chunk.get(n)), vector.isCorrect(n));
+					}
+				}
+				for (int i = 0; i < NUM_CLASSIFIERS; i++) {
+					for (int j = 0; j < NUM_CLASSIFIERS; j++) {
+						double expected = countedQScore(chunk, classifiers[i], classifiers[j]);
+						assertEquals(expected, QStatistics.getQScoreForTwo(cache.get(classifiers[i]), cache.get(classifiers[j])), 0.0);
+						assertEquals(expected, QStatistics.getQScoreForTwo(chunk, classifiers[i], classifiers[j]), 0.0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testComputeAllMatchesGet() {
+		Random random = new Random(2);
+		int numClassifiers = 40;
+		AttributeClassifier[] classifiers = new AttributeClassifier[numClassifiers];
+		double[] accuracies = new double[numClassifiers];
+		for (int i = 0; i < numClassifiers; i++) {
+			classifiers[i] = new AttributeClassifier(i);
+			accuracies[i] = random.nextDouble();
+		}
+		for (int length : new int[]{0, 1, 63, 64, 65, 1000}) {
+			List<Instance> chunk = randomChunk(random, length, accuracies);
+			CorrectnessCache sequential = new CorrectnessCache(chunk);
+			CorrectnessCache parallel = new CorrectnessCache(chunk);
+			// Some vectors are cached before and some classifiers are listed twice.
+			CorrectnessVector cached = parallel.get(classifiers[3]);
+			List<Classifier> listed = new ArrayList<Classifier>(Arrays.asList(classifiers));
+			listed.add(classifiers[0]);
+			listed.add(classifiers[3]);
+			parallel.computeAll(listed);
+			assertSame(cached, parallel.get(classifiers[3]));
+
+			for (AttributeClassifier classifier : classifiers) {
+				CorrectnessVector expected = sequential.get(classifier);
+				CorrectnessVector actual = parallel.get(classifier);
+				assertNotSame(expected, actual);
+				assertEquals(expected.size(), actual.size());
+				assertEquals(expected.numCorrect(), actual.numCorrect());
+				for (int n = 0; n < length; n++) {
+					assertEquals(expected.isCorrect(n), actual.isCorrect(n));
+				}
+				assertSame(actual, parallel.get(classifier));
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * SMOClustTest.java
+ */
+package moa.classifiers.meta;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import moa.classifiers.AbstractMultipleClassifierTestCase;
+import moa.classifiers.Classifier;
+import moa.core.Measurement;
+import moa.core.Utils;
+import moa.streams.ImbalancedStream;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.util.concurrent.ExecutorService;
+
+import static moa.test.MoaTestCase.runTest;
+
+/**
+ * Tests the SMOClust classifier.
+ */
+public class SMOClustTest
+  extends AbstractMultipleClassifierTestCase {
+
+  /** the name of the model measurement of the oversampling backlog. */
+  protected static final String BACKLOG = "oversampling backlog (synthetic examples)";
+
+  /**
+   * Constructs the test case. Called by subclasses.
+   *
+   * @param name 	the name of the test
+   */
+  public SMOClustTest(String name) {
+    super(name);
+    this.setNumberTests(5);
+  }
+
+  /**
+   * Returns the classifier setups to use in the regression test.
+   *
+   * @return		the setups
+   */
+  @Override
+  protected Classifier[] getRegressionClassifierSetups() {
+    SMOClust batch = new SMOClust();
+    batch.batchOversamplingOption.set();
+    SMOClust scheduled = new SMOClust();
+    scheduled.oversamplingScheduleOption.setChosenLabel("EveryNInstances");
+    scheduled.oversamplingPeriodOption.setValue(50);
+    SMOClust allClasses = new SMOClust();
+    allClasses.oversampleAllClassesOption.set();
+    SMOClust parallel = new SMOClust();
+    parallel.oversampleAllClassesOption.set();
+    parallel.numberOfJobsOption.setValue(4);
+
+    return new Classifier[]{
+	new SMOClust(),
+	batch,
+	scheduled,
+	allClasses,
+	parallel,
+    };
+  }
+
+  /**
+   * Draws instances from a random RBF stream with the given class ratio.
+   *
+   * @param classRatio	the ratio of every class, separated by semicolons
+   * @param length	the number of instances
+   * @return		the instances
+   */
+  protected static Instance[] imbalancedStream(String classRatio, int length) {
+    ImbalancedStream stream = new ImbalancedStream();
+    stream.streamOption.setValueViaCLIString("generators.RandomRBFGenerator -c " + classRatio.split(";").length + " -a 5");
+    stream.classRatioOption.setValue(classRatio);
+    stream.prepareForUse();
+    Instance[] instances = new Instance[length];
+    for (int i = 0; i < length; i++)
+      instances[i] = stream.nextInstance().getData();
+    return instances;
+  }
+
+  /**
+   * Prepares the classifier for the header of the instances, with naive
+   * Bayes as the base learner to keep the tests fast.
+   *
+   * @param cls		the classifier
+   * @param instances	the instances it is going to be trained on
+   * @return		the classifier
+   */
+  protected static SMOClust prepare(SMOClust cls, Instance[] instances) {
+    cls.baseLearnerOption.setValueViaCLIString("bayes.NaiveBayes");
+    cls.setModelContext((InstancesHeader) instances[0].dataset());
+    cls.prepareForUse();
+    return cls;
+  }
+
+  /**
+   * Returns the oversampling backlog of the classifier.
+   *
+   * @param cls		the classifier
+   * @return		the backlog
+   */
+  protected static double backlog(SMOClust cls) {
+    for (Measurement m: cls.getModelMeasurements()) {
+      if (m.getName().equals(BACKLOG))
+	return m.getValue();
+    }
+    fail("No backlog measurement");
+    return -1;
+  }
+
+  /**
+   * Returns the raw class sizes, the oversampling backlog and the training
+   * instances of the classifier and of its clusterers.
+   *
+   * @param cls		the classifier
+   * @return		the measurements, one per line
+   */
+  protected static String classSizes(SMOClust cls) {
+    StringBuilder result = new StringBuilder();
+    for (Measurement m: cls.getModelMeasurements()) {
+      if (m.getName().startsWith("[Raw]") || m.getName().equals(BACKLOG) || m.getName().equals("model training instances"))
+	result.append(m.getName() + ": " + m.getValue() + "\n");
+    }
+    for (int i = 0; i < cls.clusterers.length; i++)
+      result.append("clusterer " + i + ": " + cls.clusterers[i].trainingWeightSeenByModel() + "\n");
+    return result.toString();
+  }
+
+  /**
+   * Checks that the batch mode generates as many synthetic examples of the
+   * minority class as the default mode, and trains the base learner and the
+   * clusterers on them, after every instance. Drift detection
+   * is off, as its resets depend on the synthetic examples themselves.
+   */
+  public void testBatchOversamplingMatchesDefault() {
+    for (String classRatio: new String[]{"0.9;0.1", "0.5;0.3;0.2"}) {
+      Instance[] instances = imbalancedStream(classRatio, 1000);
+      SMOClust single = new SMOClust();
+      single.disableDDMOption.set();
+      SMOClust batch = new SMOClust();
+      batch.disableDDMOption.set();
+      batch.batchOversamplingOption.set();
+      prepare(single, instances);
+      prepare(batch, instances);
+      for (Instance inst: instances) {
+	single.trainOnInstance(inst);
+	batch.trainOnInstance(inst);
+	assertEquals(classSizes(single), classSizes(batch));
+      }
+    }
+  }
+
+  /**
+   * Checks that the backlog builds up in between the oversamplings of the
+   * EveryNInstances schedule and is flushed by them. Closing the deficit of
+   * a class takes its size just past the one of the majority class, which
+   * leaves the former majority class short of one example, so a flush leaves
+   * a backlog of at most one example per class but the majority class. By
+   * default only the minority class is oversampled, and the next smallest
+   * class keeps its deficit, so that mode is checked on two classes only.
+   */
+  public void testScheduleFlushesBacklog() {
+    for (String classRatio: new String[]{"0.9;0.1", "0.5;0.3;0.2"}) {
+      int numClasses = classRatio.split(";").length;
+      Instance[] instances = imbalancedStream(classRatio, 1000);
+      for (boolean allClasses: numClasses == 2 ? new boolean[]{false, true} : new boolean[]{true}) {
+	SMOClust cls = new SMOClust();
+	cls.oversamplingScheduleOption.setChosenLabel("EveryNInstances");
+	cls.oversamplingPeriodOption.setValue(50);
+	if (allClasses)
+	  cls.oversampleAllClassesOption.set();
+	prepare(cls, instances);
+	double maxBacklog = 0;
+	for (int i = 0; i < instances.length; i++) {
+	  cls.trainOnInstance(instances[i]);
+	  if ((i + 1) % 50 == 0 && i >= 50)
+	    assertTrue("Backlog left after instance " + (i + 1), backlog(cls) <= numClasses - 1);
+	  else
+	    maxBacklog = Math.max(maxBacklog, backlog(cls));
+	}
+	assertTrue(maxBacklog > numClasses - 1);
+      }
+    }
+  }
+
+  /**
+   * Checks that oversampling all classes gives the same votes and class
+   * sizes whatever the number of jobs, and that resetting the classifier
+   * shuts its worker pool down.
+   */
+  public void testNumberOfJobsDoNotChangeResult() {
+    Instance[] instances = imbalancedStream("0.55;0.25;0.15;0.05", 1000);
+    SMOClust sequential = new SMOClust();
+    sequential.oversampleAllClassesOption.set();
+    SMOClust parallel = new SMOClust();
+    parallel.oversampleAllClassesOption.set();
+    parallel.numberOfJobsOption.setValue(4);
+    prepare(sequential, instances);
+    prepare(parallel, instances);
+    for (Instance inst: instances) {
+      double[] votes = sequential.getVotesForInstance(inst);
+      assertEquals(Utils.arrayToString(votes), Utils.arrayToString(parallel.getVotesForInstance(inst)));
+      sequential.trainOnInstance(inst);
+      parallel.trainOnInstance(inst);
+      assertEquals(classSizes(sequential), classSizes(parallel));
+    }
+    assertNull(sequential.executor);
+
+    ExecutorService executor = parallel.executor;
+    assertNotNull(executor);
+    parallel.resetLearning();
+    assertTrue(executor.isShutdown());
+    assertNull(parallel.executor);
+  }
+
+  /**
+   * Returns a test suite.
+   *
+   * @return		the test suite
+   */
+  public static Test suite() {
+    return new TestSuite(SMOClustTest.class);
+  }
+
+  /**
+   * Runs the test from commandline.
+   *
+   * @param args	ignored
+   */
+  public static void main(String[] args) {
+    runTest(suite());
+  }
+}
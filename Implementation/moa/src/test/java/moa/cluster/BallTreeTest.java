@@ -0,0 +1,214 @@
+/*
+ *    BallTreeTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.cluster;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import moa.core.Distances;
+
+/**
+ * Compares the queries of the ball tree with a scan over all spheres. The
+ * centres are on a coarse grid, so that many spheres are at the same distance
+ * and the ties have to be broken by index.
+ */
+public class BallTreeTest {
+
+	private static final int DIMENSIONS = 3;
+
+	private List<double[]> centers = new ArrayList<double[]>();
+
+	private List<Double> radii = new ArrayList<Double>();
+
+	private double[] randomCenter(Random random) {
+		double[] center = new double[DIMENSIONS];
+		for (int d = 0; d < DIMENSIONS; d++) {
+			center[d] = random.nextInt(6);
+		}
+		return center;
+	}
+
+	private double randomRadius(Random random) {
+		return random.nextInt(3) * 0.5;
+	}
+
+	private double hullDistance(int index, double[] center, double radius) {
+		return Distances.hull(this.centers.get(index), this.radii.get(index), center, radius);
+	}
+
+	private void addRandomSpheres(Random random, int count) {
+		for (int i = 0; i < count; i++) {
+			this.centers.add(randomCenter(random));
+			this.radii.add(randomRadius(random));
+		}
+	}
+
+	private BallTree buildTree() {
+		double[] r = new double[this.radii.size()];
+		for (int i = 0; i < r.length; i++) {
+			r[i] = this.radii.get(i);
+		}
+		return new BallTree(this.centers.toArray(new double[0][]), r);
+	}
+
+	private void checkKNearest(BallTree tree, double[] center, double radius, int k, int exclude, boolean signed) {
+		final double[] all = new double[this.centers.size()];
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < all.length; i++) {
+			double distance = hullDistance(i, center, radius);
+			all[i] = !signed && distance <= 0 ? 0.0 : distance;
+			if (i != exclude) {
+				expected.add(i);
+			}
+		}
+		expected.sort(new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byDistance = Double.compare(all[a], all[b]);
+				return byDistance != 0 ? byDistance : Integer.compare(a, b);
+			}
+		});
+		int numExpected = Math.min(k, expected.size());
+
+		int[] indices = new int[k];
+		double[] distances = new double[k];
+		int found = signed ? tree.kNearestSigned(center, radius, k, exclude, indices, distances)
+				: tree.kNearest(center, radius, k, exclude, indices, distances);
+		assertEquals(numExpected, found);
+		for (int i = 0; i < found; i++) {
+			int index = expected.get(i);
+			assertEquals(index, indices[i]);
+			assertEquals(all[index], distances[i], 0.0);
+		}
+	}
+
+	private void checkWithinDistance(BallTree tree, double[] center, double radius, double maxDistance) {
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < this.centers.size(); i++) {
+			if (hullDistance(i, center, radius) < maxDistance) {
+				expected.add(i);
+			}
+		}
+		int[] indices = new int[this.centers.size()];
+		int found = tree.withinDistance(center, radius, maxDistance, indices);
+		assertEquals(expected.size(), found);
+		for (int i = 0; i < found; i++) {
+			assertEquals(expected.get(i).intValue(), indices[i]);
+		}
+	}
+
+	private void checkQueries(BallTree tree, Random random) {
+		assertEquals(this.centers.size(), tree.size());
+		for (int q = 0; q < 20; q++) {
+			double[] center = randomCenter(random);
+			double radius = randomRadius(random);
+			int k = 1 + random.nextInt(12);
+			int exclude = random.nextBoolean() || this.centers.isEmpty() ? -1 : random.nextInt(this.centers.size());
+			checkKNearest(tree, center, radius, k, exclude, false);
+			checkKNearest(tree, center, radius, k, exclude, true);
+			checkWithinDistance(tree, center, radius, random.nextInt(5) * 0.5);
+		}
+	}
+
+	@Test
+	public void testKNearestMatchesScan() {
+		Random random = new Random(1);
+		for (int size : new int[]{0, 1, 7, 8, 9, 50, 300}) {
+			this.centers.clear();
+			this.radii.clear();
+			addRandomSpheres(random, size);
+			checkQueries(buildTree(), random);
+		}
+	}
+
+	@Test
+	public void testKNearestOverPoints() {
+		Random random = new Random(2);
+		addRandomSpheres(random, 200);
+		for (int i = 0; i < this.radii.size(); i++) {
+			this.radii.set(i, 0.0);
+		}
+		BallTree tree = new BallTree(this.centers.toArray(new double[0][]));
+		for (int q = 0; q < 50; q++) {
+			checkKNearest(tree, randomCenter(random), 0.0, 1 + random.nextInt(20), random.nextInt(200), false);
+		}
+	}
+
+	@Test
+	public void testWithinDistanceMatchesScan() {
+		Random random = new Random(4);
+		addRandomSpheres(random, 300);
+		for (int i = 0; i < this.radii.size(); i++) {
+			this.radii.set(i, 0.0);
+		}
+		BallTree tree = new BallTree(this.centers.toArray(new double[0][]));
+		// Whole distances on the grid, so points at exactly eps are left out.
+		for (double eps : new double[]{0.0, 0.5, 1.0, 2.0, Math.sqrt(2.0), 3.0, 100.0}) {
+			for (int q = 0; q < 30; q++) {
+				checkWithinDistance(tree, randomCenter(random), 0.0, eps);
+			}
+		}
+	}
+
+	@Test
+	public void testAddRemoveUpdateRebuild() {
+		Random random = new Random(3);
+		addRandomSpheres(random, 100);
+		BallTree tree = buildTree();
+		double[] center = new double[DIMENSIONS];
+		for (int step = 0; step < 400; step++) {
+			int operation = random.nextInt(4);
+			if (operation == 0 || this.centers.isEmpty()) {
+				double[] added = randomCenter(random);
+				double radius = randomRadius(random);
+				assertEquals(this.centers.size(), tree.add(added, radius));
+				this.centers.add(added);
+				this.radii.add(radius);
+			} else if (operation == 1) {
+				int index = random.nextInt(this.centers.size());
+				tree.remove(index);
+				this.centers.remove(index);
+				this.radii.remove(index);
+			} else {
+				int index = random.nextInt(this.centers.size());
+				double[] moved = randomCenter(random);
+				double radius = randomRadius(random);
+				tree.update(index, moved, radius);
+				this.centers.set(index, moved);
+				this.radii.set(index, radius);
+			}
+			if (tree.needsRebuild()) {
+				tree.rebuild();
+			}
+			for (int i = 0; i < this.centers.size(); i++) {
+				assertArrayEquals(this.centers.get(i), tree.getCenter(i, center), 0.0);
+				assertEquals(this.radii.get(i), tree.getRadius(i), 0.0);
+			}
+			checkQueries(tree, random);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *    RandomClusterStream.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Generates the streams that the clusterer tests feed to two variants of a
+ * clusterer: numeric records drawn around random centres, optionally with
+ * noise over the whole range and with centres that drift and now and then
+ * jump. The records share a header without a class attribute.
+ */
+public class RandomClusterStream {
+
+	private final int numClusters;
+
+	private final int dimensions;
+
+	private final double range;
+
+	private final double spread;
+
+	private double noiseFraction;
+
+	private double driftStep;
+
+	private double jumpProbability;
+
+	/**
+	 * Creates a generator of records drawn around centres that stay put.
+	 *
+	 * @param numClusters the number of centres
+	 * @param dimensions the number of attributes
+	 * @param range the centres are drawn uniformly from [0, range) in every dimension
+	 * @param spread the standard deviation of the records around their centre
+	 */
+	public RandomClusterStream(int numClusters, int dimensions, double range, double spread) {
+		this.numClusters = numClusters;
+		this.dimensions = dimensions;
+		this.range = range;
+		this.spread = spread;
+	}
+
+	/**
+	 * Draws the given fraction of the records uniformly from the range
+	 * widened by an eighth on either side.
+	 */
+	public RandomClusterStream noise(double fraction) {
+		this.noiseFraction = fraction;
+		return this;
+	}
+
+	/**
+	 * Moves every centre by a Gaussian step of the given size after each
+	 * record, and draws a new position for one of them with the given
+	 * probability.
+	 */
+	public RandomClusterStream drift(double step, double jumpProbability) {
+		this.driftStep = step;
+		this.jumpProbability = jumpProbability;
+		return this;
+	}
+
+	public int getDimensions() {
+		return this.dimensions;
+	}
+
+	public Instance[] generate(Random random, int length) {
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		for (int d = 0; d < this.dimensions; d++) {
+			attributes.add(new Attribute("x" + d));
+		}
+		Instances header = new Instances("stream", attributes, 0);
+
+		double[][] centres = new double[this.numClusters][];
+		for (int c = 0; c < centres.length; c++) {
+			centres[c] = randomPoint(random, 0, this.range);
+		}
+		Instance[] stream = new Instance[length];
+		for (int i = 0; i < length; i++) {
+			double[] values;
+			if (this.noiseFraction > 0 && random.nextDouble() < this.noiseFraction) {
+				values = randomPoint(random, -this.range / 8, this.range * 5 / 4);
+			} else {
+				double[] centre = centres[random.nextInt(centres.length)];
+				values = new double[this.dimensions];
+				for (int d = 0; d < this.dimensions; d++) {
+					values[d] = centre[d] + random.nextGaussian() * this.spread;
+				}
+			}
+			if (this.driftStep > 0) {
+				for (double[] centre : centres) {
+					for (int d = 0; d < this.dimensions; d++) {
+						centre[d] += random.nextGaussian() * this.driftStep;
+					}
+				}
+			}
+			if (this.jumpProbability > 0 && random.nextDouble() < this.jumpProbability) {
+				centres[random.nextInt(centres.length)] = randomPoint(random, 0, this.range);
+			}
+			stream[i] = new DenseInstance(1.0, values);
+			stream[i].setDataset(header);
+		}
+		return stream;
+	}
+
+	private double[] randomPoint(Random random, double from, double width) {
+		double[] point = new double[this.dimensions];
+		for (int d = 0; d < this.dimensions; d++) {
+			point[d] = from + random.nextDouble() * width;
+		}
+		return point;
+	}
+}
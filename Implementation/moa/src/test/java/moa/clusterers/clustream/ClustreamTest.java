@@ -0,0 +1,215 @@
+/*
+ *    ClustreamTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.cluster.Clustering;
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Feeds the same stream to Clustream, which keeps its kernels in a
+ * ClustreamKernelStore and finds the closest kernel and the closest pair of
+ * kernels through an index, and to the linear scans over ClustreamKernel
+ * objects that Clustream ran before, and compares the kernels after every
+ * record.
+ */
+public class ClustreamTest {
+
+	/**
+	 * The kernels of Clustream before the kernel store and the index, started
+	 * from the same k-means centres.
+	 */
+	private static class LinearScan {
+
+		final int timeWindow;
+		final int numKernels;
+		final int t;
+		final List<ClustreamKernel> buffer = new ArrayList<ClustreamKernel>();
+		ClustreamKernel[] kernels;
+		long timestamp = -1;
+		int fits;
+		int forgotten;
+		int merges;
+
+		LinearScan(int timeWindow, int numKernels, int t) {
+			this.timeWindow = timeWindow;
+			this.numKernels = numKernels;
+			this.t = t;
+		}
+
+		void train(Instance instance) {
+			int dim = instance.numValues();
+			int m = this.numKernels;
+			this.timestamp++;
+			if (this.kernels == null) {
+				if (this.buffer.size() < this.numKernels) {
+					this.buffer.add(new ClustreamKernel(instance, dim, this.timestamp, true, this.t, m));
+					return;
+				}
+				KMeansEngine.Result kmeans = new KMeansEngine(null, KMeansEngine.Seeding.KMEANS_PLUS_PLUS,
+						Clustream.KMEANS_MAX_ITERATIONS).cluster(KMeansEngine.toPoints(this.buffer, dim),
+						this.buffer.size(), dim, this.numKernels, new Random(0));
+				this.kernels = new ClustreamKernel[this.numKernels];
+				for (int i = 0; i < this.numKernels; i++) {
+					this.kernels[i] = new ClustreamKernel(new DenseInstance(1.0, kmeans.getCenter(i)), dim,
+							this.timestamp, true, this.t, m);
+				}
+				return;
+			}
+
+			ClustreamKernel closestKernel = null;
+			double minDistance = Double.MAX_VALUE;
+			for (int i = 0; i < this.kernels.length; i++) {
+				double distance = distance(instance.toDoubleArray(), this.kernels[i].getCenter());
+				if (distance < minDistance || i == 0) {
+					closestKernel = this.kernels[i];
+					minDistance = distance;
+				}
+			}
+
+			double radius;
+			if (closestKernel.getWeight() == 1) {
+				radius = Double.MAX_VALUE;
+				double[] center = closestKernel.getCenter();
+				for (ClustreamKernel kernel : this.kernels) {
+					if (kernel != closestKernel) {
+						radius = Math.min(distance(kernel.getCenter(), center), radius);
+					}
+				}
+			} else {
+				radius = closestKernel.getRadius();
+			}
+			if (minDistance < radius) {
+				closestKernel.insert(instance, this.timestamp, true);
+				this.fits++;
+				return;
+			}
+
+			long threshold = this.timestamp - this.timeWindow;
+			for (int i = 0; i < this.kernels.length; i++) {
+				if (this.kernels[i].getRelevanceStamp() < threshold) {
+					this.kernels[i] = new ClustreamKernel(instance, dim, this.timestamp, true, this.t, m);
+					this.forgotten++;
+					return;
+				}
+			}
+
+			int closestA = 0;
+			int closestB = 0;
+			minDistance = Double.MAX_VALUE;
+			for (int i = 0; i < this.kernels.length; i++) {
+				double[] centerA = this.kernels[i].getCenter();
+				for (int j = i + 1; j < this.kernels.length; j++) {
+					double dist = distance(centerA, this.kernels[j].getCenter());
+					if (dist < minDistance) {
+						minDistance = dist;
+						closestA = i;
+						closestB = j;
+					}
+				}
+			}
+			this.kernels[closestA].add(this.kernels[closestB]);
+			this.kernels[closestB] = new ClustreamKernel(instance, dim, this.timestamp, true, this.t, m);
+			this.merges++;
+		}
+
+		private static double distance(double[] pointA, double[] pointB) {
+			double distance = 0.0;
+			for (int i = 0; i < pointA.length; i++) {
+				double d = pointA[i] - pointB[i];
+				distance += d * d;
+			}
+			return Math.sqrt(distance);
+		}
+	}
+
+	private static void assertSameKernels(ClustreamKernel[] expected, Clustering actual) {
+		assertEquals(expected.length, actual.size());
+		for (int i = 0; i < expected.length; i++) {
+			ClustreamKernel kernel = (ClustreamKernel) actual.get(i);
+			assertEquals(expected[i].getN(), kernel.getN(), 0.0);
+			assertArrayEquals(expected[i].LS, kernel.LS, 0.0);
+			assertArrayEquals(expected[i].SS, kernel.SS, 0.0);
+			assertEquals(expected[i].LST, kernel.LST, 0.0);
+			assertEquals(expected[i].SST, kernel.SST, 0.0);
+		}
+	}
+
+	/**
+	 * Rounds the records to whole numbers, so that kernels share centres and
+	 * the searches have to break ties.
+	 */
+	private static Instance[] round(Instance[] stream) {
+		Instance[] rounded = new Instance[stream.length];
+		for (int i = 0; i < stream.length; i++) {
+			double[] values = stream[i].toDoubleArray();
+			for (int d = 0; d < values.length; d++) {
+				values[d] = Math.rint(values[d]);
+			}
+			rounded[i] = new DenseInstance(1.0, values);
+			rounded[i].setDataset(stream[i].dataset());
+		}
+		return rounded;
+	}
+
+	@Test
+	public void testMatchesLinearScan() {
+		Random random = new Random(1);
+		// dimensions, kernels, horizon, whole numbers
+		int[][] settings = {{2, 10, 200, 0}, {3, 100, 1000, 0}, {5, 200, 500, 0}, {2, 300, 100000, 0}, {2, 50, 100000, 1}};
+		for (int[] setting : settings) {
+			RandomClusterStream generator = new RandomClusterStream(8, setting[0], 30, 1).noise(0.2).drift(0.02, 1.0 / 1000);
+			Instance[] stream = generator.generate(random, 15000);
+			if (setting[3] == 1) {
+				stream = round(stream);
+			}
+
+			Clustream clustream = new Clustream();
+			clustream.maxNumKernelsOption.setValue(setting[1]);
+			clustream.timeWindowOption.setValue(setting[2]);
+			clustream.prepareForUse();
+			LinearScan linearScan = new LinearScan(setting[2], setting[1], clustream.kernelRadiFactorOption.getValue());
+			for (Instance inst : stream) {
+				clustream.trainOnInstance(inst);
+				linearScan.train(inst);
+				if (linearScan.kernels != null) {
+					assertSameKernels(linearScan.kernels, clustream.getMicroClusteringResult());
+				}
+			}
+			// The stream must take every way of placing a record.
+			assertTrue(linearScan.fits > 0);
+			assertTrue(linearScan.merges > 0);
+			if (setting[2] < stream.length) {
+				assertTrue(linearScan.forgotten > 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ *    KMeansEngineTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Runs KMeansEngine with different numbers of jobs, which must give the same
+ * clustering bit for bit, and compares its Lloyd iterations with the loops
+ * that Clustream and WithKmeans ran before the engine, from the same centres.
+ */
+public class KMeansEngineTest {
+
+	private static final int DIMENSIONS = 4;
+
+	private static final int K = 5;
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static final int[] NUMBERS_OF_JOBS = {0, 1, 2, 3, 4, 8, -1};
+
+	private static double[] randomPoints(Random random, int numPoints) {
+		Instance[] stream = new RandomClusterStream(K, DIMENSIONS, 20, 2).generate(random, numPoints);
+		double[] points = new double[numPoints * DIMENSIONS];
+		for (int i = 0; i < numPoints; i++) {
+			System.arraycopy(stream[i].toDoubleArray(), 0, points, i * DIMENSIONS, DIMENSIONS);
+		}
+		return points;
+	}
+
+	/** The centres at distinct random points. */
+	private static double[] randomCenters(Random random, double[] points, int numPoints) {
+		double[] centers = new double[K * DIMENSIONS];
+		int[] chosen = new int[K];
+		for (int c = 0; c < K; c++) {
+			boolean taken;
+			do {
+				chosen[c] = random.nextInt(numPoints);
+				taken = false;
+				for (int other = 0; other < c; other++) {
+					taken |= chosen[other] == chosen[c];
+				}
+			} while (taken);
+			System.arraycopy(points, chosen[c] * DIMENSIONS, centers, c * DIMENSIONS, DIMENSIONS);
+		}
+		return centers;
+	}
+
+	private static double distance(double[] points, int point, double[] centers, int center) {
+		double distance = 0.0;
+		for (int d = 0; d < DIMENSIONS; d++) {
+			double difference = points[point * DIMENSIONS + d] - centers[center * DIMENSIONS + d];
+			distance += difference * difference;
+		}
+		return Math.sqrt(distance);
+	}
+
+	/**
+	 * The k-means loop of Clustream and WithKmeans before the engine: assign
+	 * every point to the closest centre, then move every centre to the mean of
+	 * its points. WithKmeans repeated it until the centres stayed the same,
+	 * Clustream 101 times.
+	 * @return the cluster of every point
+	 */
+	private static int[] oldKMeans(double[] points, int numPoints, double[] centers, int repetitions) {
+		int[] assignment = new int[numPoints];
+		for (int repetition = 0; repetition < repetitions; repetition++) {
+			double[] sums = new double[K * DIMENSIONS];
+			int[] counts = new int[K];
+			for (int i = 0; i < numPoints; i++) {
+				double minDistance = distance(points, i, centers, 0);
+				int closest = 0;
+				for (int c = 1; c < K; c++) {
+					double distance = distance(points, i, centers, c);
+					if (distance < minDistance) {
+						closest = c;
+						minDistance = distance;
+					}
+				}
+				assignment[i] = closest;
+				counts[closest]++;
+				for (int d = 0; d < DIMENSIONS; d++) {
+					sums[closest * DIMENSIONS + d] += points[i * DIMENSIONS + d];
+				}
+			}
+			boolean converged = true;
+			for (int j = 0; j < sums.length; j++) {
+				// An empty cluster got its centre at the origin
+				double center = counts[j / DIMENSIONS] == 0 ? 0.0 : sums[j] / counts[j / DIMENSIONS];
+				converged &= center == centers[j];
+				centers[j] = center;
+			}
+			if (converged) {
+				break;
+			}
+		}
+		return assignment;
+	}
+
+	private static void assertSameResult(KMeansEngine.Result expected, KMeansEngine.Result actual) {
+		assertEquals(expected.getIterations(), actual.getIterations());
+		assertArrayEquals(expected.getAssignment(), actual.getAssignment());
+		for (int c = 0; c < K; c++) {
+			assertArrayEquals(expected.getCenter(c), actual.getCenter(c), 0.0);
+			assertEquals(expected.getSize(c), actual.getSize(c));
+			assertEquals(expected.getRadius(c), actual.getRadius(c), 0.0);
+		}
+	}
+
+	@Test
+	public void testNumberOfJobsDoNotChangeClustering() {
+		Random random = new Random(1);
+		for (int numPoints : new int[]{K, 63, 64, 65, 1000, 4099, 20000}) {
+			double[] points = randomPoints(random, numPoints);
+			for (KMeansEngine.Seeding seeding : KMeansEngine.Seeding.values()) {
+				KMeansEngine.Result expected = null;
+				for (int numberOfJobs : NUMBERS_OF_JOBS) {
+					KMeansEngine engine = new KMeansEngine(KMeansEngine.getPool(numberOfJobs), seeding, Integer.MAX_VALUE);
+					KMeansEngine.Result result = engine.cluster(points.clone(), numPoints, DIMENSIONS, K, new Random(2));
+					if (expected == null) {
+						expected = result;
+					} else {
+						assertSameResult(expected, result);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesOldLoops() {
+		Random random = new Random(3);
+		int maxIterations = 0;
+		for (int run = 0; run < 20; run++) {
+			int numPoints = 100 + random.nextInt(5000);
+			double[] points = randomPoints(random, numPoints);
+			double[] centers = randomCenters(random, points, numPoints);
+			for (int repetitions : new int[]{101, Integer.MAX_VALUE}) {
+				double[] oldCenters = centers.clone();
+				int[] oldAssignment = oldKMeans(points, numPoints, oldCenters, repetitions);
+				for (int numberOfJobs : NUMBERS_OF_JOBS) {
+					int maxUpdates = repetitions == 101 ? Clustream.KMEANS_MAX_ITERATIONS : WithKmeans.KMEANS_MAX_ITERATIONS;
+					KMeansEngine engine = new KMeansEngine(KMeansEngine.getPool(numberOfJobs),
+							KMeansEngine.Seeding.KMEANS_PLUS_PLUS, maxUpdates);
+					KMeansEngine.Result result = engine.cluster(points, numPoints, DIMENSIONS, centers.clone(), K);
+					assertArrayEquals(oldAssignment, result.getAssignment());
+					for (int c = 0; c < K; c++) {
+						assertTrue(result.getSize(c) > 0);
+						double[] center = result.getCenter(c);
+						for (int d = 0; d < DIMENSIONS; d++) {
+							double expected = oldCenters[c * DIMENSIONS + d];
+							assertEquals(expected, center[d], TOLERANCE * (1 + Math.abs(expected)));
+						}
+					}
+					maxIterations = Math.max(maxIterations, result.getIterations());
+				}
+			}
+		}
+		// The runs must take a few iterations to converge.
+		assertTrue(maxIterations > 3);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ *    ClusTreeTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustree;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Checks the block insertion and the bulk-loading of ClusTree against
+ * inserting the same points one by one.
+ */
+public class ClusTreeTest {
+
+	private static final int DIMENSIONS = 3;
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static final RandomClusterStream STREAM = new RandomClusterStream(5, DIMENSIONS, 10, 0.5);
+
+	/** Aging a block at once rounds differently from aging it point by point. */
+	private static final double AGING_TOLERANCE = 1e-7;
+
+	private static ClusTree newTree(int bulkLoadSize) {
+		ClusTree tree = new ClusTree();
+		tree.maxHeightOption.setValue(3);
+		tree.bulkLoadSizeOption.setValue(bulkLoadSize);
+		tree.prepareForUse();
+		return tree;
+	}
+
+	private static ClusTree trainOneByOne(Instance[] stream, int bulkLoadSize) {
+		ClusTree tree = newTree(bulkLoadSize);
+		for (Instance inst : stream) {
+			tree.trainOnInstance(inst);
+		}
+		return tree;
+	}
+
+	private static ClusTree trainInBlocks(Instance[] stream, int bulkLoadSize, Random random, int maxBlockSize) {
+		ClusTree tree = newTree(bulkLoadSize);
+		int from = 0;
+		while (from < stream.length) {
+			int to = Math.min(stream.length, from + 1 + random.nextInt(maxBlockSize));
+			Instance[] block = new Instance[to - from];
+			System.arraycopy(stream, from, block, 0, block.length);
+			tree.trainOnInstances(block);
+			from = to;
+		}
+		return tree;
+	}
+
+	/**
+	 * Sums the entries of the root, aged to the given time without changing
+	 * the tree: the weight, then the linear sum, then the squared sum.
+	 */
+	private static double[] rootStatistics(ClusTree tree, long now) {
+		double[] statistics = new double[1 + 2 * DIMENSIONS];
+		for (Entry entry : tree.root.getEntries()) {
+			if (entry == null || entry.isEmpty()) {
+				continue;
+			}
+			ClusKernel data = new ClusKernel(entry.getData());
+			data.makeOlder(now - entry.getTimestamp(), tree.negLambda);
+			statistics[0] += data.getN();
+			for (int d = 0; d < DIMENSIONS; d++) {
+				statistics[1 + d] += data.LS[d];
+				statistics[1 + DIMENSIONS + d] += data.SS[d];
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Sums the first points of the stream aged to the arrival of the last one,
+	 * in the layout of rootStatistics.
+	 */
+	private static double[] pointStatistics(Instance[] stream, int length, double negLambda) {
+		double[] statistics = new double[1 + 2 * DIMENSIONS];
+		double weightFactor = Math.pow(2.0, negLambda);
+		for (int i = 0; i < length; i++) {
+			for (int j = 0; j < statistics.length; j++) {
+				statistics[j] *= weightFactor;
+			}
+			statistics[0] += 1;
+			for (int d = 0; d < DIMENSIONS; d++) {
+				double value = stream[i].value(d);
+				statistics[1 + d] += value;
+				statistics[1 + DIMENSIONS + d] += value * value;
+			}
+		}
+		return statistics;
+	}
+
+	private static void assertSameStatistics(double[] expected, double[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], AGING_TOLERANCE * (1 + Math.abs(expected[i])));
+		}
+	}
+
+	private static void assertSameClustering(Clustering expected, Clustering actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Cluster expectedCluster = expected.get(i);
+			Cluster actualCluster = actual.get(i);
+			assertEquals(expectedCluster.getWeight(), actualCluster.getWeight(), TOLERANCE);
+			assertArrayEquals(expectedCluster.getCenter(), actualCluster.getCenter(), TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testBlocksOfOneMatchOneByOne() {
+		Instance[] stream = STREAM.generate(new Random(1), 3000);
+		ClusTree oneByOne = trainOneByOne(stream, 0);
+		ClusTree blocks = trainInBlocks(stream, 0, new Random(2), 1);
+
+		assertEquals(oneByOne.getHeight(), blocks.getHeight());
+		assertEquals(oneByOne.getNumRootSplits(), blocks.getNumRootSplits());
+		assertSameClustering(oneByOne.getMicroClusteringResult(), blocks.getMicroClusteringResult());
+	}
+
+	@Test
+	public void testBlocksKeepEntryStatistics() {
+		Random random = new Random(3);
+		for (int maxBlockSize : new int[]{2, 10, 100, 1000}) {
+			Instance[] stream = STREAM.generate(random, 4000);
+			ClusTree oneByOne = trainOneByOne(stream, 0);
+			ClusTree blocks = trainInBlocks(stream, 0, random, maxBlockSize);
+
+			assertTrue(blocks.getHeight() <= 3);
+			assertSameStatistics(rootStatistics(oneByOne, stream.length), rootStatistics(blocks, stream.length));
+			assertTrue(blocks.getMicroClusteringResult().size() > 0);
+		}
+	}
+
+	@Test
+	public void testBulkLoadThroughToMicroClustering() {
+		Random random = new Random(4);
+		Instance[] stream = STREAM.generate(random, 2000);
+		int bulkLoadSize = 500;
+
+		ClusTree bulkLoaded = newTree(bulkLoadSize);
+		for (int i = 0; i < stream.length; i++) {
+			bulkLoaded.trainOnInstance(stream[i]);
+			if (i + 1 < bulkLoadSize) {
+				// Nothing is clustered until the buffer is full.
+				assertNull(bulkLoaded.getMicroClusteringResult());
+			} else if (i + 1 == bulkLoadSize) {
+				assertSameStatistics(pointStatistics(stream, bulkLoadSize, bulkLoaded.negLambda),
+						rootStatistics(bulkLoaded, bulkLoadSize));
+				assertTrue(bulkLoaded.getMicroClusteringResult().size() > 1);
+			}
+		}
+		assertTrue(bulkLoaded.getHeight() <= 3);
+		double[] expected = pointStatistics(stream, stream.length, bulkLoaded.negLambda);
+		assertSameStatistics(expected, rootStatistics(bulkLoaded, stream.length));
+		Clustering microClusters = bulkLoaded.getMicroClusteringResult();
+		assertTrue(microClusters.size() > 1);
+
+		// The bulk-load buffer fills up in the middle of a block as well.
+		ClusTree blocks = trainInBlocks(stream, bulkLoadSize, random, 300);
+		assertSameStatistics(expected, rootStatistics(blocks, stream.length));
+		assertSameClustering(microClusters, trainInBlocks(stream, bulkLoadSize, new Random(5), 1).getMicroClusteringResult());
+	}
+}
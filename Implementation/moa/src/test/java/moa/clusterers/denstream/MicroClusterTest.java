@@ -0,0 +1,143 @@
+/*
+ *    MicroClusterTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.denstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+
+import moa.cluster.BallTree;
+import moa.core.Distances;
+
+/**
+ * Checks the radius and nearest micro-cluster computations of DenStream
+ * against the ways they were computed before: inserting into a copy and
+ * asking for its radius, and scanning all micro-clusters at the current time.
+ */
+public class MicroClusterTest {
+
+	private static final int DIMENSIONS = 4;
+
+	private static final double LAMBDA = 0.25;
+
+	private Random random = new Random(7);
+
+	private Timestamp currentTimestamp = new Timestamp();
+
+	private double[] randomPoint() {
+		double[] point = new double[DIMENSIONS];
+		for (int d = 0; d < DIMENSIONS; d++) {
+			point[d] = this.random.nextGaussian() * (1 + d);
+		}
+		return point;
+	}
+
+	private MicroCluster randomMicroCluster() {
+		long time = this.currentTimestamp.getTimestamp();
+		MicroCluster x = new MicroCluster(randomPoint(), DIMENSIONS, time, LAMBDA, this.currentTimestamp, true);
+		int numPoints = this.random.nextInt(20);
+		for (int i = 0; i < numPoints; i++) {
+			time += this.random.nextInt(5);
+			x.insert(new DenseInstance(1.0, randomPoint()), time, true);
+		}
+		return x;
+	}
+
+	@Test
+	public void testRadiusIfInsertedMatchesCopy() {
+		for (int i = 0; i < 2000; i++) {
+			this.currentTimestamp.setTimestamp(this.random.nextInt(100));
+			MicroCluster x = randomMicroCluster();
+			double[] point = randomPoint();
+			long timestamp = x.getLastEditTimestamp() + this.random.nextInt(50);
+
+			MicroCluster copy = x.copy();
+			copy.insert(new DenseInstance(1.0, point.clone()), timestamp, true);
+			assertEquals(copy.getRadius(timestamp), x.getRadiusIfInserted(point), 0.0);
+		}
+	}
+
+	@Test
+	public void testCFRadiusIsRadiusAtAnyTime() {
+		for (int i = 0; i < 2000; i++) {
+			MicroCluster x = randomMicroCluster();
+			long timestamp = x.getLastEditTimestamp() + this.random.nextInt(50);
+			double radius = x.getRadius(timestamp);
+			double cfRadius = x.getCFRadius();
+			// Compared squared: the square root blows up the rounding of a variance close to zero.
+			assertEquals(radius * radius, cfRadius * cfRadius, 1e-9 * (1 + radius * radius));
+		}
+	}
+
+	@Test
+	public void testIndexedNearestMatchesScan() {
+		for (int trial = 0; trial < 200; trial++) {
+			this.currentTimestamp.setTimestamp(0);
+			List<MicroCluster> clusters = new ArrayList<MicroCluster>();
+			int numClusters = 1 + this.random.nextInt(40);
+			for (int c = 0; c < numClusters; c++) {
+				clusters.add(randomMicroCluster());
+			}
+			long now = 0;
+			for (MicroCluster x : clusters) {
+				now = Math.max(now, x.getLastEditTimestamp());
+			}
+			now += this.random.nextInt(20);
+			this.currentTimestamp.setTimestamp(now);
+
+			// The index WithDBSCAN keeps: centres and radii that do not depend on the time.
+			double[][] centers = new double[numClusters][];
+			double[] radii = new double[numClusters];
+			for (int c = 0; c < numClusters; c++) {
+				centers[c] = clusters.get(c).getCenter(new double[DIMENSIONS]);
+				radii[c] = clusters.get(c).getCFRadius();
+			}
+			BallTree index = new BallTree(centers, radii);
+			int[] nearestIndex = new int[1];
+			double[] nearestDistance = new double[1];
+
+			for (int q = 0; q < 20; q++) {
+				double[] point = randomPoint();
+				index.kNearestSigned(point, 0.0, 1, -1, nearestIndex, nearestDistance);
+				int nearest = nearestDistance[0] < 0 ? nearestIndex[0] : 0;
+
+				// The scan of the micro-clusters at the current time.
+				double[] distances = new double[numClusters];
+				double minDistance = 0;
+				for (int c = 0; c < numClusters; c++) {
+					MicroCluster x = clusters.get(c);
+					distances[c] = Distances.euclidean(point, x.getCenter()) - x.getRadius(now);
+					minDistance = Math.min(minDistance, distances[c]);
+				}
+				// Both pick the same cluster up to rounding, which can only swap near ties. The radius
+				// of a cluster of one point is a square root of rounding noise, around 1e-8.
+				double tolerance = 1e-7 * (1 + Math.abs(minDistance));
+				assertEquals(minDistance, Math.min(0, distances[nearest]), tolerance);
+				assertTrue(nearestDistance[0] >= 0 || Math.abs(nearestDistance[0] - distances[nearest]) <= tolerance);
+			}
+		}
+	}
+}
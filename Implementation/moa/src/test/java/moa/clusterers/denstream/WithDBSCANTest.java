@@ -0,0 +1,122 @@
+/*
+ *    WithDBSCANTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.denstream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Feeds the same stream to a DenStream that prunes the micro-clusters whose
+ * expiry time has come and to one that checks every micro-cluster, and
+ * compares their p- and o-micro-clusters at every pruning period.
+ */
+public class WithDBSCANTest {
+
+	private static final RandomClusterStream STREAM = new RandomClusterStream(5, 2, 1, 0.02).noise(0.2).drift(0.001, 1.0 / 3000);
+
+	private static WithDBSCAN newWithDBSCAN(double[] setting, boolean fullScan) {
+		WithDBSCAN denstream = new WithDBSCAN();
+		denstream.lambdaOption.setValue(setting[0]);
+		denstream.muOption.setValue(setting[1]);
+		denstream.betaOption.setValue(setting[2]);
+		denstream.speedOption.setValue((int) setting[3]);
+		denstream.epsilonOption.setValue(0.05);
+		denstream.initPointsOption.setValue(500);
+		denstream.prepareForUse();
+		denstream.fullScan = fullScan;
+		return denstream;
+	}
+
+	private static void assertSameMicroClusters(Clustering expected, Clustering actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int c = 0; c < expected.size(); c++) {
+			MicroCluster x = (MicroCluster) expected.get(c);
+			MicroCluster y = (MicroCluster) actual.get(c);
+			assertEquals(x.getCreationTime(), y.getCreationTime());
+			assertEquals(x.getLastEditTimestamp(), y.getLastEditTimestamp());
+			assertEquals(x.getN(), y.getN(), 0.0);
+			assertArrayEquals(x.LS, y.LS, 0.0);
+			assertArrayEquals(x.SS, y.SS, 0.0);
+		}
+	}
+
+	/**
+	 * @return how many of the given micro-clusters are in neither list
+	 */
+	private static int countRemoved(List<Cluster> clusters, WithDBSCAN denstream) {
+		Set<Cluster> kept = Collections.newSetFromMap(new IdentityHashMap<Cluster, Boolean>());
+		kept.addAll(denstream.p_micro_cluster.getClustering());
+		kept.addAll(denstream.o_micro_cluster.getClustering());
+		int removed = 0;
+		for (Cluster c : clusters) {
+			if (!kept.contains(c)) {
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	@Test
+	public void testExpiryQueuesMatchFullScan() {
+		// lambda, mu, beta, points per time unit
+		double[][] settings = {{0.25, 10, 0.2, 100}, {0.25, 1, 0.2, 100}, {0.05, 5, 0.5, 20}, {0.5, 20, 0.25, 50}, {0.01, 4, 0.5, 10}};
+		for (double[] setting : settings) {
+			Instance[] stream = STREAM.generate(new Random(1), 30000);
+			WithDBSCAN queues = newWithDBSCAN(setting, false);
+			WithDBSCAN scan = newWithDBSCAN(setting, true);
+			int prunedP = 0;
+			int prunedO = 0;
+			for (Instance inst : stream) {
+				List<Cluster> p = new ArrayList<Cluster>();
+				List<Cluster> o = new ArrayList<Cluster>();
+				if (scan.initialized) {
+					p.addAll(scan.p_micro_cluster.getClustering());
+					o.addAll(scan.o_micro_cluster.getClustering());
+				}
+				queues.trainOnInstance(inst);
+				scan.trainOnInstance(inst);
+				if (scan.initialized && scan.currentTimestamp.getTimestamp() % scan.tp == 0) {
+					assertSameMicroClusters(scan.p_micro_cluster, queues.p_micro_cluster);
+					assertSameMicroClusters(scan.o_micro_cluster, queues.o_micro_cluster);
+					prunedP += countRemoved(p, scan);
+					prunedO += countRemoved(o, scan);
+				}
+			}
+			// The stream must prune micro-clusters of both kinds.
+			assertTrue(prunedP > 0);
+			assertTrue(prunedO > 0);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ *    DstreamTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.dstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Feeds the same stream to Dstream, which only inspects the grids that
+ * received records or whose check is due at each gap, and to Dstream with
+ * fullPass set, which inspects all grids, and compares the grids and the
+ * clusters after every record. The grids are also compared with a recorded
+ * run of the HashMap-based Dstream that decayed all grids at every gap. Its
+ * clusters are not: it adjusted the changed grids in HashMap order, and ties
+ * resolve differently in the order of the table.
+ */
+public class DstreamTest {
+
+	private static final int DIMENSIONS = 2;
+
+	private static final double TOLERANCE = 1e-9;
+
+	/**
+	 * Records around centres which drift and now and then jump, with noise over
+	 * the whole range, so that grids turn dense, sparse and sporadic and get
+	 * removed.
+	 */
+	private static final RandomClusterStream STREAM = new RandomClusterStream(3, DIMENSIONS, 30, 1.5)
+			.noise(0.1).drift(0.01, 1.0 / 2000);
+
+	private static Dstream newDstream(double decayFactor, boolean fullPass) {
+		Dstream dstream = new Dstream();
+		dstream.decayFactorOption.setValue(decayFactor);
+		dstream.fullPass = fullPass;
+		dstream.prepareForUse();
+		return dstream;
+	}
+
+	private static void assertSameGrids(Dstream expected, Dstream actual) {
+		GridTable expectedGrids = expected.getGridList();
+		GridTable actualGrids = actual.getGridList();
+		assertEquals(expectedGrids.size(), actualGrids.size());
+		assertEquals(expectedGrids.numRemoved(), actualGrids.numRemoved());
+		assertEquals(expectedGrids.numEntries(), actualGrids.numEntries());
+		int time = expected.getCurrTime();
+		double decayFactor = expected.getDecayFactor();
+		for (int entry = 0; entry < expectedGrids.numEntries(); entry++) {
+			assertEquals(expectedGrids.isGrid(entry), actualGrids.isGrid(entry));
+			assertEquals(expectedGrids.isRemoved(entry), actualGrids.isRemoved(entry));
+			if (expectedGrids.isRemoved(entry)) {
+				assertEquals(expectedGrids.getRemoveTime(entry), actualGrids.getRemoveTime(entry));
+			}
+			if (!expectedGrids.isGrid(entry)) {
+				continue;
+			}
+			assertEquals(expectedGrids.getGrid(entry), actualGrids.getGrid(entry));
+			CharacteristicVector expectedVector = expectedGrids.getVector(entry);
+			CharacteristicVector actualVector = actualGrids.getVector(entry);
+			assertEquals(expectedVector.getLabel(), actualVector.getLabel());
+			assertEquals(expectedVector.getAttribute(), actualVector.getAttribute());
+			assertEquals(expectedVector.isSporadic(), actualVector.isSporadic());
+			assertEquals(expectedVector.getCurrGridDensity(time, decayFactor),
+					actualVector.getCurrGridDensity(time, decayFactor), TOLERANCE);
+		}
+	}
+
+	private static void assertSameClusters(Dstream expected, Dstream actual) {
+		assertEquals(expected.getClusteringResult().size(), actual.getClusteringResult().size());
+		for (int i = 0; i < expected.getClusteringResult().size(); i++) {
+			GridCluster expectedCluster = (GridCluster) expected.getClusteringResult().get(i);
+			GridCluster actualCluster = (GridCluster) actual.getClusteringResult().get(i);
+			assertEquals(expectedCluster.getClusterLabel(), actualCluster.getClusterLabel());
+			assertEquals(expectedCluster.getGrids(), actualCluster.getGrids());
+		}
+	}
+
+	@Test
+	public void testMatchesFullPass() {
+		Random random = new Random(1);
+		for (double decayFactor : new double[]{0.998, 0.99}) {
+			Instance[] stream = STREAM.generate(random, 20000);
+			Dstream incremental = newDstream(decayFactor, false);
+			Dstream fullPass = newDstream(decayFactor, true);
+			int maxClusters = 0;
+			for (Instance inst : stream) {
+				incremental.trainOnInstance(inst);
+				fullPass.trainOnInstance(inst);
+				assertSameGrids(fullPass, incremental);
+				assertSameClusters(fullPass, incremental);
+				maxClusters = Math.max(maxClusters, fullPass.getClusteringResult().size());
+			}
+			// The stream must exercise the clustering and the removal of grids.
+			assertTrue(maxClusters > 1);
+			assertTrue(fullPass.getGridList().numRemoved() > 0 || fullPass.getGridList().numEntries() > fullPass.getGridList().size());
+		}
+	}
+
+	/**
+	 * Lists the grids in the layout of the recorded run: the decay factor, the
+	 * time, the number of grids, of dense, transitional and sporadic grids, and
+	 * a checksum of the coordinates, attribute and sporadic flag of every grid.
+	 */
+	private static String describeGrids(Dstream dstream) throws IOException {
+		GridTable grids = dstream.getGridList();
+		List<String> lines = new ArrayList<String>();
+		int[] attributes = new int[3];
+		int sporadic = 0;
+		for (int entry = 0; entry < grids.numEntries(); entry++) {
+			if (!grids.isGrid(entry)) {
+				continue;
+			}
+			CharacteristicVector vector = grids.getVector(entry);
+			lines.add(Arrays.toString(grids.getGrid(entry).getCoordinates()) + " " + vector.getAttribute() + " "
+					+ vector.isSporadic());
+			attributes[vector.getAttribute()]++;
+			if (vector.isSporadic()) {
+				sporadic++;
+			}
+		}
+		Collections.sort(lines);
+		CRC32 crc = new CRC32();
+		for (String line : lines) {
+			crc.update((line + "\n").getBytes("UTF-8"));
+		}
+		return dstream.getDecayFactor() + " " + dstream.getCurrTime() + " " + lines.size() + " "
+				+ attributes[CharacteristicVector.DENSE] + " " + attributes[CharacteristicVector.TRANSITIONAL] + " "
+				+ sporadic + " " + Long.toHexString(crc.getValue());
+	}
+
+	private static List<String> recordedGrids() throws IOException {
+		InputStream input = DstreamTest.class.getResourceAsStream("recorded-grids.txt");
+		assertNotNull(input);
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Test
+	public void testMatchesRecordedRun() throws IOException {
+		List<String> expected = recordedGrids();
+		List<String> actual = new ArrayList<String>();
+		for (double decayFactor : new double[]{0.998, 0.99}) {
+			Instance[] stream = STREAM.generate(new Random(1), 20000);
+			Dstream dstream = newDstream(decayFactor, false);
+			for (int i = 0; i < stream.length; i++) {
+				dstream.trainOnInstance(stream[i]);
+				if ((i + 1) % 100 == 0) {
+					actual.add(describeGrids(dstream));
+				}
+			}
+		}
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), actual.get(i));
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ *    GridTableTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.dstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks GridTable against a HashMap of the coordinates, with keys which
+ * collide because the coordinates differ only in the bits that do not fit in
+ * the packed key, and checks the order in which the scheduled checks are due.
+ */
+public class GridTableTest {
+
+	private static CharacteristicVector newVector(int time) {
+		return new CharacteristicVector(time, -1, 1.0, -1, false, 0.5, 3.0);
+	}
+
+	private static List<Integer> coordinates(int[] c) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int ci : c) {
+			list.add(ci);
+		}
+		return list;
+	}
+
+	/**
+	 * Draws coordinates which mostly differ above the bits that the packed key
+	 * keeps of every dimension, so that their keys collide.
+	 */
+	private static int[] collidingCoordinates(Random random, int dimensions, int bitsPerDimension) {
+		int[] c = new int[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			c[i] = (random.nextInt(3) - 1) << bitsPerDimension;
+		}
+		c[random.nextInt(dimensions)] += random.nextInt(2);
+		return c;
+	}
+
+	private static void assertMatches(Map<List<Integer>, Integer> expected, GridTable table) {
+		assertEquals(expected.size(), table.size() + table.numRemoved());
+		for (Map.Entry<List<Integer>, Integer> e : expected.entrySet()) {
+			int[] c = new int[e.getKey().size()];
+			for (int i = 0; i < c.length; i++) {
+				c[i] = e.getKey().get(i);
+			}
+			assertEquals(e.getValue().intValue(), table.find(c));
+		}
+	}
+
+	@Test
+	public void testCollidingKeys() {
+		Random random = new Random(1);
+		// 1 bit per dimension beyond 32 dimensions, and folded keys beyond 64
+		int[][] settings = {{3, 21}, {40, 1}, {70, 1}};
+		for (int[] setting : settings) {
+			int dimensions = setting[0];
+			GridTable table = new GridTable(dimensions);
+			int[][] pool = new int[300][];
+			for (int i = 0; i < pool.length; i++) {
+				pool[i] = collidingCoordinates(random, dimensions, setting[1]);
+			}
+			Map<List<Integer>, Integer> expected = new HashMap<List<Integer>, Integer>();
+			for (int step = 0; step < 3000; step++) {
+				int[] c = pool[random.nextInt(pool.length)];
+				List<Integer> key = coordinates(c);
+				Integer entry = expected.get(key);
+				int action = random.nextInt(3);
+				if (entry == null) {
+					assertEquals(-1, table.find(c));
+					DensityGrid dg = new DensityGrid(c);
+					int put = table.put(dg, newVector(step));
+					assertTrue(table.isGrid(put));
+					assertSame(dg, table.getGrid(put));
+					expected.put(key, put);
+				} else if (table.isGrid(entry) && action == 0) {
+					table.remove(entry, step);
+					assertTrue(table.isRemoved(entry));
+					assertEquals(step, table.getRemoveTime(entry));
+				} else if (table.isRemoved(entry) && action == 1) {
+					table.forget(entry);
+					assertFalse(table.isRemoved(entry));
+					expected.remove(key);
+				} else if (table.isRemoved(entry)) {
+					// a grid put back keeps its entry
+					assertEquals(entry.intValue(), table.put(new DensityGrid(c), newVector(step)));
+					assertTrue(table.isGrid(entry));
+				}
+				assertMatches(expected, table);
+			}
+			// forgotten entries are reused
+			assertTrue(table.numEntries() <= pool.length);
+		}
+	}
+
+	@Test
+	public void testForgottenEntriesAreReused() {
+		GridTable table = new GridTable(2);
+		int[] entries = new int[40];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = table.put(new DensityGrid(new int[]{i, -i}), newVector(0));
+		}
+		assertEquals(40, table.size());
+		assertEquals(40, table.numEntries());
+
+		table.remove(entries[7], 5);
+		assertEquals(39, table.size());
+		assertEquals(1, table.numRemoved());
+		assertNull(table.getVector(entries[7]));
+		assertEquals(entries[7], table.find(new int[]{7, -7}));
+		assertEquals(5, table.getRemoveTime(entries[7]));
+
+		table.forget(entries[7]);
+		assertEquals(0, table.numRemoved());
+		assertEquals(-1, table.find(new int[]{7, -7}));
+		assertEquals(entries[8], table.find(new int[]{8, -8}));
+
+		int entry = table.put(new DensityGrid(new int[]{100, 100}), newVector(6));
+		assertEquals(entries[7], entry);
+		assertEquals(-1, table.getRemoveTime(entry));
+		assertEquals(40, table.numEntries());
+		assertEquals(40, table.size());
+	}
+
+	@Test
+	public void testChecksAreDueInOrder() {
+		Random random = new Random(2);
+		GridTable table = new GridTable(2);
+		int numGrids = 200;
+		int[] checkTimes = new int[numGrids];
+		for (int i = 0; i < numGrids; i++) {
+			table.put(new DensityGrid(new int[]{i, i % 7}), newVector(0));
+		}
+		for (int time = 0; time < 400; time++) {
+			// reschedule many grids, most of them several times, which leaves stale checks behind
+			for (int k = 0; k < 50; k++) {
+				int entry = random.nextInt(numGrids);
+				if (table.isGrid(entry)) {
+					checkTimes[entry] = time + 1 + random.nextInt(30);
+					table.schedule(entry, checkTimes[entry]);
+				}
+			}
+			if (random.nextInt(10) == 0) {
+				int entry = random.nextInt(numGrids);
+				if (table.isGrid(entry)) {
+					table.remove(entry, time);
+					checkTimes[entry] = 0;
+				}
+			}
+
+			List<Integer> due = new ArrayList<Integer>();
+			int entry;
+			while ((entry = table.pollDue(time)) != -1) {
+				due.add(entry);
+			}
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int t = 0; t <= time; t++) {
+				for (int e = 0; e < numGrids; e++) {
+					if (checkTimes[e] == t && t > 0 && table.isGrid(e)) {
+						expected.add(e);
+					}
+				}
+			}
+			assertEquals(expected, due);
+			for (int e : due) {
+				checkTimes[e] = 0;
+			}
+		}
+	}
+}
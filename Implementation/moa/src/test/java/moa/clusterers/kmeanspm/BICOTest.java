@@ -0,0 +1,81 @@
+/*
+ *    BICOTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.kmeanspm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.cluster.Clustering;
+import moa.clusterers.RandomClusterStream;
+
+/**
+ * Feeds the same stream to BICO with the ClusteringFeature tree as objects
+ * (-o) and as flat arrays, and compares the micro-clusterings. The
+ * clusterings are not compared: their k-means++ seeding draws from the random
+ * numbers that the hash tables of the object tree draw from as well.
+ */
+public class BICOTest {
+
+	private static BICO train(Instance[] stream, int dimensions, int maxClusterFeatures, boolean featureObjects) {
+		BICO bico = new BICO();
+		bico.numDimensionsOption.setValue(dimensions);
+		bico.maxNumClusterFeaturesOption.setValue(maxClusterFeatures);
+		bico.numClustersOption.setValue(3);
+		if (featureObjects) {
+			bico.featureObjectsOption.set();
+		}
+		bico.prepareForUse();
+		for (Instance inst : stream) {
+			bico.trainOnInstance(inst);
+		}
+		return bico;
+	}
+
+	private static void assertSameClustering(Clustering expected, Clustering actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getWeight(), actual.get(i).getWeight(), 0.0);
+			assertArrayEquals(expected.get(i).getCenter(), actual.get(i).getCenter(), 0.0);
+		}
+	}
+
+	@Test
+	public void testMicroClusteringsMatch() {
+		Random random = new Random(1);
+		int[][] settings = {{2, 20, 500}, {3, 50, 3000}, {8, 100, 5000}};
+		for (int[] setting : settings) {
+			int dimensions = setting[0];
+			int maxClusterFeatures = setting[1];
+			Instance[] stream = new RandomClusterStream(5, dimensions, 20, 1).generate(random, setting[2]);
+			BICO objects = train(stream, dimensions, maxClusterFeatures, true);
+			BICO arrays = train(stream, dimensions, maxClusterFeatures, false);
+
+			assertEquals(objects.getMicroClusteringSize(), arrays.getMicroClusteringSize());
+			assertTrue(arrays.getMicroClusteringSize() > 0);
+			assertSameClustering(objects.getMicroClusteringResult(), arrays.getMicroClusteringResult());
+		}
+	}
+}
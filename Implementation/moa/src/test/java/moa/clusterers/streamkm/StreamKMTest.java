@@ -0,0 +1,164 @@
+/*
+ *    StreamKMTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.streamkm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.clusterers.RandomClusterStream;
+import moa.core.SerializeUtils;
+
+/**
+ * Feeds the same stream to StreamKM with the buckets as Point objects (-o),
+ * as flat arrays and as flat arrays merged in the background (-b), and
+ * compares the coresets and the clusterings.
+ *
+ * The object buckets only give the same coresets while all nonempty buckets
+ * are full, and only for the first coreset taken, as the tree coreset of the
+ * objects adds into the points it picks as centres.
+ */
+public class StreamKMTest {
+
+	private static final int CORESET_SIZE = 40;
+
+	private static final int DIMENSIONS = 3;
+
+	private static final RandomClusterStream STREAM = new RandomClusterStream(4, DIMENSIONS, 20, 1);
+
+	private static StreamKM train(Instance[] stream, int length, boolean pointObjects, boolean backgroundMerge) {
+		StreamKM streamKM = new StreamKM();
+		streamKM.sizeCoresetOption.setValue(CORESET_SIZE);
+		streamKM.numClustersOption.setValue(3);
+		streamKM.lengthOption.setValue(length);
+		streamKM.evaluateOption.set();
+		if (pointObjects) {
+			streamKM.pointObjectsOption.set();
+		}
+		if (backgroundMerge) {
+			streamKM.backgroundMergeOption.set();
+		}
+		streamKM.prepareForUse();
+		for (Instance inst : stream) {
+			streamKM.trainOnInstance(inst);
+		}
+		return streamKM;
+	}
+
+	private static StreamKM newStreamKM(boolean backgroundMerge) {
+		StreamKM streamKM = new StreamKM();
+		streamKM.sizeCoresetOption.setValue(CORESET_SIZE);
+		if (backgroundMerge) {
+			streamKM.backgroundMergeOption.set();
+		}
+		streamKM.prepareForUse();
+		return streamKM;
+	}
+
+	private static void assertSamePoints(Point[] expected, Point[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertNotNull(actual[i]);
+			assertEquals(expected[i].weight, actual[i].weight, 0.0);
+			assertArrayEquals(expected[i].coordinates, actual[i].coordinates, 0.0);
+		}
+	}
+
+	@Test
+	public void testCoresetsMatchOverFullBuckets() {
+		Random random = new Random(1);
+		for (int numBuckets : new int[]{1, 2, 3, 10, 64, 77}) {
+			Instance[] stream = STREAM.generate(random, numBuckets * CORESET_SIZE);
+			Point[] objects = train(stream, 100000, true, false).getStreamingCoreset();
+			Point[] arrays = train(stream, 100000, false, false).getStreamingCoreset();
+			Point[] background = train(stream, 100000, false, true).getStreamingCoreset();
+			assertSamePoints(objects, arrays);
+			assertSamePoints(objects, background);
+		}
+	}
+
+	@Test
+	public void testBackgroundMergeMatchesAnyLength() {
+		Random random = new Random(2);
+		for (int length : new int[]{1, 39, 41, 1000, 1234, 3001}) {
+			Instance[] stream = STREAM.generate(random, length);
+			StreamKM arrays = train(stream, 100000, false, false);
+			StreamKM background = train(stream, 100000, false, true);
+			// Taking a coreset leaves the buckets as they were, so the second one is the same too.
+			for (int i = 0; i < 2; i++) {
+				assertSamePoints(arrays.getStreamingCoreset(), background.getStreamingCoreset());
+			}
+		}
+	}
+
+	@Test
+	public void testClusteringsMatch() {
+		Instance[] stream = STREAM.generate(new Random(3), 30 * CORESET_SIZE);
+		// The clustering of -e is computed once, when the stream reaches the length.
+		StreamKM objects = train(stream, stream.length, true, false);
+		StreamKM arrays = train(stream, stream.length, false, false);
+		StreamKM background = train(stream, stream.length, false, true);
+		assertSamePoints(objects.centresStreamingCoreset, arrays.centresStreamingCoreset);
+		assertSamePoints(objects.centresStreamingCoreset, background.centresStreamingCoreset);
+	}
+
+	@Test
+	public void testSerializationWaitsForBackgroundMerge() throws Exception {
+		Instance[] stream = STREAM.generate(new Random(4), 100 * CORESET_SIZE + 1);
+		StreamKM arrays = newStreamKM(false);
+		StreamKM background = newStreamKM(true);
+		for (int i = 0; i < stream.length; i++) {
+			arrays.trainOnInstance(stream[i]);
+			background.trainOnInstance(stream[i]);
+			// The point after a full first bucket may start a merge, which the copy waits for.
+			if (i % CORESET_SIZE == 0) {
+				ArrayBucketManager copy = (ArrayBucketManager) SerializeUtils.copyObject(background.arrayManager);
+				for (int bucket = 0; bucket < copy.points.length; bucket++) {
+					PointArray expected = arrays.arrayManager.points[bucket];
+					assertEquals(expected == null, copy.points[bucket] == null);
+					if (expected != null) {
+						assertSamePoints(expected.toPoints(), copy.points[bucket].toPoints());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testResetStopsBackgroundMerge() {
+		StreamKM background = newStreamKM(true);
+		for (Instance inst : STREAM.generate(new Random(5), 10 * CORESET_SIZE + 1)) {
+			background.trainOnInstance(inst);
+		}
+		ExecutorService executor = background.arrayManager.executor;
+		assertNotNull(executor);
+		background.resetLearning();
+		assertTrue(executor.isShutdown());
+		assertNull(background.arrayManager);
+	}
+}
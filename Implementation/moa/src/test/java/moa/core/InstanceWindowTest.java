@@ -0,0 +1,165 @@
+/*
+ *    InstanceWindowTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Compares the window with a list which drops its oldest instance once it
+ * holds as many as the capacity, over enough additions for the ring buffer
+ * to wrap around several times.
+ */
+public class InstanceWindowTest {
+
+    private static final int NUM_ATTRIBUTES = 3;
+
+    private static Instance randomInstance(Random random) {
+        double[] values = new double[NUM_ATTRIBUTES];
+        for (int j = 0; j < NUM_ATTRIBUTES; j++) {
+            values[j] = random.nextDouble();
+        }
+        return new DenseInstance(1.0, values);
+    }
+
+    private static void assertSameInstances(List<Instance> expected, InstanceWindow window) {
+        assertEquals(expected.size(), window.size());
+        assertEquals(expected.size() == window.capacity(), window.isFull());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), window.get(i));
+        }
+        assertEquals(expected, window);
+    }
+
+    private static void assertColumns(List<Instance> expected, double[][] columns) {
+        assertEquals(expected.isEmpty() ? 0 : NUM_ATTRIBUTES, columns.length);
+        for (int j = 0; j < columns.length; j++) {
+            assertEquals(expected.size(), columns[j].length);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).value(j), columns[j][i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testWrapAroundMatchesList() {
+        Random random = new Random(1);
+        for (int capacity : new int[]{1, 2, 7, 50}) {
+            InstanceWindow window = new InstanceWindow(capacity);
+            List<Instance> expected = new ArrayList<Instance>();
+            assertSameInstances(expected, window);
+            for (int step = 0; step < 5 * capacity + 3; step++) {
+                Instance instance = randomInstance(random);
+                assertTrue(window.add(instance));
+                expected.add(instance);
+                if (expected.size() > capacity) {
+                    expected.remove(0);
+                }
+                assertEquals(capacity, window.capacity());
+                assertSameInstances(expected, window);
+            }
+        }
+    }
+
+    @Test
+    public void testClear() {
+        Random random = new Random(2);
+        InstanceWindow window = new InstanceWindow(5);
+        for (int i = 0; i < 8; i++) {
+            window.add(randomInstance(random));
+        }
+        window.clear();
+        assertEquals(0, window.size());
+        assertFalse(window.isFull());
+        assertTrue(window.isEmpty());
+
+        // The window fills up again from the start after a clear
+        List<Instance> expected = new ArrayList<Instance>();
+        for (int i = 0; i < 7; i++) {
+            Instance instance = randomInstance(random);
+            window.add(instance);
+            expected.add(instance);
+            if (expected.size() > 5) {
+                expected.remove(0);
+            }
+            assertSameInstances(expected, window);
+        }
+    }
+
+    @Test
+    public void testOutOfRange() {
+        InstanceWindow window = new InstanceWindow(3);
+        window.add(randomInstance(new Random(3)));
+        for (int index : new int[]{-1, 1, 3}) {
+            try {
+                window.get(index);
+                fail("No exception for index " + index);
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+        try {
+            new InstanceWindow(0);
+            fail("No exception for capacity 0");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testColumnsFollowTheWindow() {
+        Random random = new Random(4);
+        InstanceWindow window = new InstanceWindow(4);
+        List<Instance> expected = new ArrayList<Instance>();
+        assertColumns(expected, window.getColumns());
+
+        for (int step = 0; step < 15; step++) {
+            Instance instance = randomInstance(random);
+            double[][] before = window.getColumns();
+            window.add(instance);
+            expected.add(instance);
+            if (expected.size() > 4) {
+                expected.remove(0);
+            }
+            double[][] columns = window.getColumns();
+            assertNotSame(before, columns);
+            assertColumns(expected, columns);
+            // Kept as long as the window does not change
+            assertSame(columns, window.getColumns());
+        }
+
+        double[][] before = window.getColumns();
+        window.clear();
+        assertNotSame(before, window.getColumns());
+        assertColumns(new ArrayList<Instance>(), window.getColumns());
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *    ScoreRankTreeTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the AUC of the score tree with the AUC counted over all pairs of
+ * positive and negative examples, and the scored AUC with the walk over the
+ * sorted scores the tree replaced, as examples are added and removed. The
+ * scores are drawn from a few values, so that most pairs are ties.
+ */
+public class ScoreRankTreeTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    private static class Example {
+
+        final double score;
+
+        final long age;
+
+        final boolean positive;
+
+        final int handle;
+
+        Example(double score, long age, boolean positive, int handle) {
+            this.score = score;
+            this.age = age;
+            this.positive = positive;
+            this.handle = handle;
+        }
+    }
+
+    /**
+     * Whether a positive example is ranked before a negative one with the
+     * same score: always with the positive examples first, otherwise when it
+     * is older.
+     */
+    private static boolean isTieBefore(Example positive, Example negative, boolean positivesFirst) {
+        return positivesFirst || positive.age < negative.age;
+    }
+
+    /**
+     * Counts for every negative example the positive ones with a higher score
+     * and half the ones with the same score ranked before it.
+     */
+    private static double pairwiseAUC(List<Example> examples, boolean positivesFirst) {
+        long twiceRankSum = 0;
+        long numPositives = 0;
+        long numNegatives = 0;
+        for (Example negative : examples) {
+            if (negative.positive) {
+                numPositives++;
+                continue;
+            }
+            numNegatives++;
+            for (Example positive : examples) {
+                if (!positive.positive) {
+                    continue;
+                }
+                if (positive.score > negative.score) {
+                    twiceRankSum += 2;
+                } else if (positive.score == negative.score && isTieBefore(positive, negative, positivesFirst)) {
+                    twiceRankSum += 1;
+                }
+            }
+        }
+        if (numPositives == 0 || numNegatives == 0) {
+            return 1;
+        }
+        return (twiceRankSum / 2.0) / ((double) numPositives * numNegatives);
+    }
+
+    /**
+     * The scored AUC of the walk over the examples sorted by descending score
+     * and then by age, with the positive ones first if asked to.
+     */
+    private static double walkScoredAUC(List<Example> examples, final boolean positivesFirst) {
+        List<Example> sorted = new ArrayList<Example>(examples);
+        Collections.sort(sorted, new Comparator<Example>() {
+            @Override
+            public int compare(Example a, Example b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                if (positivesFirst && a.positive != b.positive) {
+                    return a.positive ? -1 : 1;
+                }
+                return Long.compare(a.age, b.age);
+            }
+        });
+
+        double aoc = 0;
+        double auc = 0;
+        double r = 0;
+        double prevr = 0;
+        double c = 0;
+        double prevc = 0;
+        double lastPosScore = Double.MAX_VALUE;
+        double lastNegScore = Double.MAX_VALUE;
+        double numPos = 0;
+        double numNeg = 0;
+        for (Example s : sorted) {
+            if (s.positive) {
+                numPos++;
+                if (s.score != lastPosScore) {
+                    prevc = c;
+                    lastPosScore = s.score;
+                }
+                c += s.score;
+                aoc += s.score == lastNegScore ? (r + prevr) / 2.0 : r;
+            } else {
+                numNeg++;
+                if (s.score != lastNegScore) {
+                    prevr = r;
+                    lastNegScore = s.score;
+                }
+                r += s.score;
+                auc += s.score == lastPosScore ? (c + prevc) / 2.0 : c;
+            }
+        }
+        if (numPos == 0 || numNeg == 0) {
+            return 1;
+        }
+        double rMinus = (numPos * r - aoc) / (numPos * numNeg);
+        double rPlus = auc / (numPos * numNeg);
+        return rPlus - rMinus;
+    }
+
+    private static void checkRandomUpdates(Random random, boolean positivesFirst, int numScores, int maxSize) {
+        ScoreRankTree tree = new ScoreRankTree(positivesFirst);
+        List<Example> examples = new ArrayList<Example>();
+        long age = 0;
+        for (int step = 0; step < 3000; step++) {
+            if (examples.size() < maxSize && (examples.isEmpty() || random.nextInt(5) < 3)) {
+                double score = random.nextInt(numScores) / (double) numScores;
+                boolean positive = random.nextInt(4) == 0;
+                examples.add(new Example(score, age, positive, tree.add(score, age, positive)));
+                age++;
+            } else {
+                // Mostly the oldest example, as in a sliding window
+                int index = random.nextBoolean() ? 0 : random.nextInt(examples.size());
+                tree.remove(examples.remove(index).handle);
+            }
+            assertEquals(pairwiseAUC(examples, positivesFirst), tree.getAUC(), 0.0);
+            assertEquals(walkScoredAUC(examples, positivesFirst), tree.getScoredAUC(), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testAUCMatchesPairwiseAgeOrder() {
+        Random random = new Random(1);
+        for (int numScores : new int[]{1, 2, 5, 50}) {
+            checkRandomUpdates(random, false, numScores, 200);
+        }
+    }
+
+    @Test
+    public void testAUCMatchesPairwisePositivesFirst() {
+        Random random = new Random(2);
+        for (int numScores : new int[]{1, 2, 5, 50}) {
+            checkRandomUpdates(random, true, numScores, 200);
+        }
+    }
+
+    @Test
+    public void testOneClassAndClear() {
+        for (boolean positivesFirst : new boolean[]{false, true}) {
+            ScoreRankTree tree = new ScoreRankTree(positivesFirst);
+            assertEquals(1.0, tree.getAUC(), 0.0);
+            int handle = tree.add(0.5, 0, true);
+            tree.add(0.7, 1, true);
+            assertEquals(1.0, tree.getAUC(), 0.0);
+            tree.add(0.5, 2, false);
+            assertEquals(0.75, tree.getAUC(), 0.0);
+            tree.add(0.5, 3, true);
+            assertEquals(positivesFirst ? 4.0 / 6.0 : 0.5, tree.getAUC(), 0.0);
+            tree.remove(handle);
+            assertEquals(positivesFirst ? 0.75 : 0.5, tree.getAUC(), 0.0);
+            tree.clear();
+            assertEquals(1.0, tree.getAUC(), 0.0);
+            assertEquals(0, tree.numPositives() + tree.numNegatives());
+            tree.add(0.2, 4, false);
+            tree.add(0.1, 5, true);
+            assertEquals(0.0, tree.getAUC(), 0.0);
+        }
+    }
+
+    @Test
+    public void testScoredSumsAreRecomputed() {
+        Random random = new Random(3);
+        for (boolean positivesFirst : new boolean[]{false, true}) {
+            ScoreRankTree tree = new ScoreRankTree(positivesFirst);
+            List<Example> examples = new ArrayList<Example>();
+            long age = 0;
+            for (int step = 0; step < 2000; step++) {
+                // Huge scores pass through the window early on, and leave
+                // rounding errors in the sums far above the small scores
+                double score = step < 500 && random.nextInt(4) == 0 ? 1e12 * random.nextDouble()
+                        : random.nextInt(20) / 20.0;
+                boolean positive = random.nextBoolean();
+                examples.add(new Example(score, age, positive, tree.add(score, age, positive)));
+                age++;
+                if (examples.size() > 50) {
+                    tree.remove(examples.remove(0).handle);
+                }
+                if (step >= 1000) {
+                    // Recomputed at least once since the huge scores left
+                    assertEquals(walkScoredAUC(examples, positivesFirst), tree.getScoredAUC(), 1e-12);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *    WeightedIndexSamplerTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Draws from the sampler and from the linear scan of
+ * <code>MiscUtils.chooseRandomIndexBasedOnWeights</code> with random
+ * generators of the same seed, and checks that they return the same indices.
+ * The weights are drawn from a few values, zero among them, so that many
+ * cumulative weights are tied.
+ */
+public class WeightedIndexSamplerTest {
+
+    private static void checkSameDraws(double[] weights, int size, long seed) {
+        WeightedIndexSampler sampler = new WeightedIndexSampler();
+        sampler.setWeights(weights, size);
+        assertEquals(size, sampler.size());
+        double[] prefix = Arrays.copyOf(weights, size);
+        Random scanRandom = new Random(seed);
+        Random samplerRandom = new Random(seed);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(MiscUtils.chooseRandomIndexBasedOnWeights(prefix, scanRandom), sampler.nextIndex(samplerRandom));
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(1);
+        double[] values = {0.0, 0.0, 1.0, 2.0, 0.5, 1e-3, 1e3};
+        for (int step = 0; step < 500; step++) {
+            double[] weights = new double[1 + random.nextInt(40)];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = values[random.nextInt(values.length)];
+            }
+            // Only a prefix of the array is used, as SMOClust reuses its buffer
+            checkSameDraws(weights, 1 + random.nextInt(weights.length), step);
+        }
+    }
+
+    @Test
+    public void testZeroAndTiedWeights() {
+        checkSameDraws(new double[]{0.0, 0.0, 0.0}, 3, 2);
+        checkSameDraws(new double[]{0.0, 1.0, 0.0, 0.0, 1.0, 0.0}, 6, 3);
+        checkSameDraws(new double[]{1.0, 1.0, 1.0, 1.0}, 4, 4);
+        checkSameDraws(new double[]{5.0}, 1, 5);
+        checkSameDraws(new double[]{0.0, 0.0, 3.0}, 3, 6);
+    }
+
+    @Test
+    public void testReusedSamplerAndNoWeights() {
+        WeightedIndexSampler sampler = new WeightedIndexSampler();
+        Random random = new Random(7);
+        assertEquals(-1, sampler.nextIndex(random));
+        assertEquals(-1, MiscUtils.chooseRandomIndexBasedOnWeights(new double[0], random));
+
+        sampler.setWeights(new double[]{1.0, 2.0, 3.0, 4.0});
+        sampler.setWeights(new double[]{0.0, 1.0});
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, sampler.nextIndex(random));
+        }
+        sampler.setWeights(new double[]{1.0, 2.0}, 0);
+        assertEquals(-1, sampler.nextIndex(random));
+    }
+}
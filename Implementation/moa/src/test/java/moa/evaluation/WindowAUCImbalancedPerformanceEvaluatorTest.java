@@ -0,0 +1,73 @@
+/*
+ *    WindowAUCImbalancedPerformanceEvaluatorTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the periodical holdout AUC of the window estimator: 0 while the
+ * window was empty, 1 while it held one class only, and otherwise the AUC of
+ * the window when the period started.
+ */
+public class WindowAUCImbalancedPerformanceEvaluatorTest {
+
+	private static final int WIDTH = 10;
+
+	private static WindowAUCImbalancedPerformanceEvaluator.Estimator newEstimator() {
+		WindowAUCImbalancedPerformanceEvaluator evaluator = new WindowAUCImbalancedPerformanceEvaluator();
+		evaluator.widthOption.setValue(WIDTH);
+		evaluator.reset(2);
+		return evaluator.getAucEstimator();
+	}
+
+	@Test
+	public void testHoldoutOfEmptyAndOneClassWindows() {
+		WindowAUCImbalancedPerformanceEvaluator.Estimator estimator = newEstimator();
+		assertEquals(0.0, estimator.getHoldoutAUC(), 0.0);
+
+		// The first period starts with the window empty
+		for (int i = 0; i < WIDTH; i++) {
+			estimator.add(0.1 * i, true, true);
+			assertEquals(0.0, estimator.getHoldoutAUC(), 0.0);
+		}
+		// The second one with positive examples only
+		for (int i = 0; i < WIDTH; i++) {
+			estimator.add(0.1 * i, i % 2 == 0, true);
+			assertEquals(1.0, estimator.getHoldoutAUC(), 0.0);
+		}
+	}
+
+	@Test
+	public void testHoldoutKeepsTheAUCOfThePeriodStart() {
+		Random random = new Random(1);
+		WindowAUCImbalancedPerformanceEvaluator.Estimator estimator = newEstimator();
+		double holdout = 0.0;
+		for (int i = 0; i < 50 * WIDTH; i++) {
+			if (i % WIDTH == 0) {
+				holdout = i == 0 ? 0.0 : estimator.getAUC();
+			}
+			estimator.add(random.nextInt(5) / 4.0, random.nextInt(3) == 0, random.nextBoolean());
+			assertEquals(holdout, estimator.getHoldoutAUC(), 0.0);
+		}
+	}
+}